@@ -34,6 +34,7 @@ import com.sun.tools.javac.util.JavacMessages;
 import com.sun.tools.javac.util.Log;
 import com.sun.tools.javac.util.Log.WriterKind;
 import com.sun.tools.javac.util.Options;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
@@ -254,6 +255,15 @@ public class BaseErrorProneJavaCompiler implements JavaCompiler {
 
     @Override
     public void finished(TaskEvent event) {
+      if (event.getKind() == Kind.COMPILATION) {
+        try {
+          refactoringCollection.flush();
+        } catch (IOException e) {
+          // Fail the compilation, since some of the fixes it found weren't applied.
+          Log.instance(context).error("error.prone", e.getMessage());
+        }
+        return;
+      }
       if (event.getKind() != Kind.GENERATE) {
         return;
       }
@@ -29,7 +29,6 @@ import com.google.errorprone.util.ASTHelpers;
 import com.sun.source.tree.CompilationUnitTree;
 import com.sun.source.tree.Tree;
 import com.sun.source.util.TaskEvent;
-import com.sun.source.util.TaskEvent.Kind;
 import com.sun.source.util.TaskListener;
 import com.sun.source.util.TreePath;
 import com.sun.tools.javac.api.ClientCodeWrapper.Trusted;
@@ -39,7 +38,11 @@ import com.sun.tools.javac.main.JavaCompiler;
 import com.sun.tools.javac.tree.JCTree.JCCompilationUnit;
 import com.sun.tools.javac.util.Context;
 import com.sun.tools.javac.util.Log;
+import com.sun.tools.javac.util.Log.WriterKind;
 import com.sun.tools.javac.util.PropagatedException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Path;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.regex.Pattern;
@@ -117,9 +120,31 @@ public class ErrorProneAnalyzer implements TaskListener {
 
   @Override
   public void finished(TaskEvent taskEvent) {
-    if (taskEvent.getKind() != Kind.ANALYZE) {
-      return;
+    switch (taskEvent.getKind()) {
+      case ANALYZE:
+        analyze(taskEvent);
+        break;
+      case COMPILATION:
+        if (errorProneOptions.profileOutput().isPresent()) {
+          writeProfile(errorProneOptions.profileOutput().get());
+        }
+        break;
+      default:
+        break;
     }
+  }
+
+  private void writeProfile(Path path) {
+    try {
+      ErrorProneTimings.instance(context).writeProfile(path);
+    } catch (IOException e) {
+      PrintWriter out = Log.instance(context).getWriter(WriterKind.ERROR);
+      out.println("Failed to write Error Prone profile to " + path + ": " + e.getMessage());
+      out.flush();
+    }
+  }
+
+  private void analyze(TaskEvent taskEvent) {
     if (JavaCompiler.instance(context).errorCount() > errorProneErrors) {
       return;
     }
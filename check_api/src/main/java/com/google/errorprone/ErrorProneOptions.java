@@ -30,6 +30,7 @@ import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -50,6 +51,7 @@ public class ErrorProneOptions {
   private static final String PATCH_CHECKS_PREFIX = "-XepPatchChecks:";
   private static final String PATCH_OUTPUT_LOCATION = "-XepPatchLocation:";
   private static final String PATCH_IMPORT_ORDER_PREFIX = "-XepPatchImportOrder:";
+  private static final String PATCH_PARALLELISM_PREFIX = "-XepPatchParallelism:";
   private static final String EXCLUDED_PATHS_PREFIX = "-XepExcludedPaths:";
   private static final String IGNORE_LARGE_CODE_GENERATORS = "-XepIgnoreLargeCodeGenerators:";
   private static final String ERRORS_AS_WARNINGS_FLAG = "-XepAllErrorsAsWarnings";
@@ -63,6 +65,8 @@ public class ErrorProneOptions {
       "-XepDisableWarningsInGeneratedCode";
   private static final String COMPILING_TEST_ONLY_CODE = "-XepCompilingTestOnlyCode";
   private static final String COMPILING_PUBLICLY_VISIBLE_CODE = "-XepCompilingPubliclyVisibleCode";
+  private static final String PROFILE_OUTPUT_PREFIX = "-XepProfileOutput:";
+  private static final String TIMING_SAMPLE_RATE_PREFIX = "-XepTimingSampleRate:";
 
   /** see {@link javax.tools.OptionChecker#isSupportedOption(String)} */
   public static int isSupportedOption(String option) {
@@ -71,7 +75,10 @@ public class ErrorProneOptions {
             || option.startsWith(ErrorProneFlags.PREFIX)
             || option.startsWith(PATCH_OUTPUT_LOCATION)
             || option.startsWith(PATCH_CHECKS_PREFIX)
+            || option.startsWith(PATCH_PARALLELISM_PREFIX)
             || option.startsWith(EXCLUDED_PATHS_PREFIX)
+            || option.startsWith(PROFILE_OUTPUT_PREFIX)
+            || option.startsWith(TIMING_SAMPLE_RATE_PREFIX)
             || option.equals(IGNORE_UNKNOWN_CHECKS_FLAG)
             || option.equals(DISABLE_WARNINGS_IN_GENERATED_CODE_FLAG)
             || option.equals(ERRORS_AS_WARNINGS_FLAG)
@@ -119,12 +126,16 @@ public class ErrorProneOptions {
 
     abstract ImportOrganizer importOrganizer();
 
+    /** The number of threads that apply changes to source files in place. */
+    abstract int applyParallelism();
+
     static Builder builder() {
       return new AutoValue_ErrorProneOptions_PatchingOptions.Builder()
           .baseDirectory("")
           .inPlace(false)
           .namedCheckers(ImmutableSet.of())
-          .importOrganizer(ImportOrganizer.STATIC_FIRST_ORGANIZER);
+          .importOrganizer(ImportOrganizer.STATIC_FIRST_ORGANIZER)
+          .applyParallelism(Runtime.getRuntime().availableProcessors());
     }
 
     @AutoValue.Builder
@@ -140,6 +151,8 @@ public class ErrorProneOptions {
 
       abstract Builder importOrganizer(ImportOrganizer importOrganizer);
 
+      abstract Builder applyParallelism(int applyParallelism);
+
       abstract PatchingOptions build();
     }
   }
@@ -160,6 +173,8 @@ public class ErrorProneOptions {
   private final Pattern excludedPattern;
   private final boolean ignoreSuppressionAnnotations;
   private final boolean ignoreLargeCodeGenerators;
+  private final Optional<Path> profileOutput;
+  private final int timingSampleInterval;
 
   private ErrorProneOptions(
       ImmutableMap<String, Severity> severityMap,
@@ -177,7 +192,9 @@ public class ErrorProneOptions {
       PatchingOptions patchingOptions,
       Pattern excludedPattern,
       boolean ignoreSuppressionAnnotations,
-      boolean ignoreLargeCodeGenerators) {
+      boolean ignoreLargeCodeGenerators,
+      Optional<Path> profileOutput,
+      int timingSampleInterval) {
     this.severityMap = severityMap;
     this.remainingArgs = remainingArgs;
     this.ignoreUnknownChecks = ignoreUnknownChecks;
@@ -194,6 +211,8 @@ public class ErrorProneOptions {
     this.excludedPattern = excludedPattern;
     this.ignoreSuppressionAnnotations = ignoreSuppressionAnnotations;
     this.ignoreLargeCodeGenerators = ignoreLargeCodeGenerators;
+    this.profileOutput = profileOutput;
+    this.timingSampleInterval = timingSampleInterval;
   }
 
   public ImmutableList<String> getRemainingArgs() {
@@ -240,6 +259,22 @@ public class ErrorProneOptions {
     return ignoreLargeCodeGenerators;
   }
 
+  /**
+   * Returns the file to write the timings of each check and source file to once compilation
+   * finishes, if any.
+   */
+  public Optional<Path> profileOutput() {
+    return profileOutput;
+  }
+
+  /**
+   * Returns {@code n} if only one in {@code n} invocations of each check should be timed, with the
+   * timings of the others extrapolated from them; see {@code -XepTimingSampleRate:1/n}.
+   */
+  public int timingSampleInterval() {
+    return timingSampleInterval;
+  }
+
   public ErrorProneFlags getFlags() {
     return flags;
   }
@@ -264,6 +299,8 @@ public class ErrorProneOptions {
     private boolean isPubliclyVisibleTarget = false;
     private boolean ignoreSuppressionAnnotations = false;
     private boolean ignoreLargeCodeGenerators = true;
+    private Optional<Path> profileOutput = Optional.absent();
+    private int timingSampleInterval = 1;
     private final Map<String, Severity> severityMap = new LinkedHashMap<>();
     private final ErrorProneFlags.Builder flagsBuilder = ErrorProneFlags.builder();
     private final PatchingOptions.Builder patchingOptionsBuilder = PatchingOptions.builder();
@@ -343,6 +380,14 @@ public class ErrorProneOptions {
       this.disableAllChecks = disableAllChecks;
     }
 
+    public void setProfileOutput(Path profileOutput) {
+      this.profileOutput = Optional.of(profileOutput);
+    }
+
+    public void setTimingSampleInterval(int timingSampleInterval) {
+      this.timingSampleInterval = timingSampleInterval;
+    }
+
     public void setTestOnlyTarget(boolean isTestOnlyTarget) {
       this.isTestOnlyTarget = isTestOnlyTarget;
     }
@@ -372,7 +417,9 @@ public class ErrorProneOptions {
           patchingOptionsBuilder.build(),
           excludedPattern,
           ignoreSuppressionAnnotations,
-          ignoreLargeCodeGenerators);
+          ignoreLargeCodeGenerators,
+          profileOutput,
+          timingSampleInterval);
     }
 
     public void setExcludedPattern(Pattern excludedPattern) {
@@ -483,10 +530,44 @@ public class ErrorProneOptions {
             String remaining = arg.substring(PATCH_IMPORT_ORDER_PREFIX.length());
             ImportOrganizer importOrganizer = ImportOrderParser.getImportOrganizer(remaining);
             builder.patchingOptionsBuilder().importOrganizer(importOrganizer);
+          } else if (arg.startsWith(PATCH_PARALLELISM_PREFIX)) {
+            String remaining = arg.substring(PATCH_PARALLELISM_PREFIX.length());
+            int applyParallelism;
+            try {
+              applyParallelism = Integer.parseInt(remaining);
+            } catch (NumberFormatException e) {
+              throw new InvalidCommandLineOptionException("invalid flag: " + arg);
+            }
+            if (applyParallelism < 1) {
+              throw new InvalidCommandLineOptionException("invalid flag: " + arg);
+            }
+            builder.patchingOptionsBuilder().applyParallelism(applyParallelism);
           } else if (arg.startsWith(EXCLUDED_PATHS_PREFIX)) {
             String pathRegex = arg.substring(EXCLUDED_PATHS_PREFIX.length());
             builder.setExcludedPattern(Pattern.compile(pathRegex));
 
+          } else if (arg.startsWith(PROFILE_OUTPUT_PREFIX)) {
+            String remaining = arg.substring(PROFILE_OUTPUT_PREFIX.length());
+            if (remaining.isEmpty()) {
+              throw new InvalidCommandLineOptionException("invalid flag: " + arg);
+            }
+            builder.setProfileOutput(FileSystems.getDefault().getPath(remaining));
+          } else if (arg.startsWith(TIMING_SAMPLE_RATE_PREFIX)) {
+            String remaining = arg.substring(TIMING_SAMPLE_RATE_PREFIX.length());
+            List<String> parts = Splitter.on('/').splitToList(remaining);
+            if (parts.size() != 2 || !parts.get(0).equals("1")) {
+              throw new InvalidCommandLineOptionException("invalid flag: " + arg);
+            }
+            int interval;
+            try {
+              interval = Integer.parseInt(parts.get(1));
+            } catch (NumberFormatException e) {
+              throw new InvalidCommandLineOptionException("invalid flag: " + arg);
+            }
+            if (interval < 1) {
+              throw new InvalidCommandLineOptionException("invalid flag: " + arg);
+            }
+            builder.setTimingSampleInterval(interval);
           } else {
             if (arg.startsWith(PREFIX)) {
               throw new InvalidCommandLineOptionException("invalid flag: " + arg);
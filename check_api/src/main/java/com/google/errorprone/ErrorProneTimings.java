@@ -17,14 +17,23 @@
 package com.google.errorprone;
 
 import static com.google.common.collect.ImmutableMap.toImmutableMap;
+import static com.google.common.collect.ImmutableSortedMap.toImmutableSortedMap;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Comparator.naturalOrder;
 
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.errorprone.matchers.Suppressible;
 import com.sun.tools.javac.util.Context;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
+import javax.tools.JavaFileObject;
 
 /** A collection of timing data for the runtime of individual checks. */
 public final class ErrorProneTimings {
@@ -43,15 +52,31 @@ public final class ErrorProneTimings {
     context.put(timingsKey, this);
   }
 
-  private final Map<String, Stopwatch> timers = new HashMap<>();
+  private final Map<String, CheckTimings> checks = new HashMap<>();
+
+  private final Map<String, Long> files = new HashMap<>();
 
   private final Stopwatch initializationTime = Stopwatch.createUnstarted();
 
+  /**
+   * Returns the timings of the given {@link Suppressible}. Callers that time the same check
+   * repeatedly should hold on to the result and {@linkplain CheckTimings#record record} into it
+   * directly, which doesn't allocate.
+   */
+  public CheckTimings forCheck(Suppressible suppressible) {
+    return checks.computeIfAbsent(suppressible.canonicalName(), k -> new CheckTimings());
+  }
+
   /** Creates a timing span for the given {@link Suppressible}. */
   public AutoCloseable span(Suppressible suppressible) {
-    String key = suppressible.canonicalName();
-    Stopwatch sw = timers.computeIfAbsent(key, k -> Stopwatch.createUnstarted()).start();
-    return () -> sw.stop();
+    CheckTimings timings = forCheck(suppressible);
+    long start = System.nanoTime();
+    return () -> timings.record(System.nanoTime() - start);
+  }
+
+  /** Records time spent analyzing the given source file. */
+  public void recordFile(JavaFileObject file, long elapsedNanos) {
+    files.merge(file.toUri().toString(), elapsedNanos, Long::sum);
   }
 
   /** Creates a timing span for initialization. */
@@ -62,12 +87,213 @@ public final class ErrorProneTimings {
 
   /** Returns the elapsed durations of each timer. */
   public ImmutableMap<String, Duration> timings() {
-    return timers.entrySet().stream()
-        .collect(toImmutableMap(e -> e.getKey(), e -> e.getValue().elapsed()));
+    return checks.entrySet().stream()
+        .collect(toImmutableMap(e -> e.getKey(), e -> e.getValue().total()));
+  }
+
+  /** Returns the timings of each check, by canonical name. */
+  public ImmutableSortedMap<String, CheckTimings> checkTimings() {
+    return ImmutableSortedMap.copyOf(checks);
+  }
+
+  /** Returns the time spent analyzing each source file, by URI. */
+  public ImmutableSortedMap<String, Duration> fileTimings() {
+    return files.entrySet().stream()
+        .collect(
+            toImmutableSortedMap(
+                naturalOrder(), e -> e.getKey(), e -> Duration.ofNanos(e.getValue())));
   }
 
   /** Returns the elapsed initialization time. */
   public Duration initializationTime() {
     return initializationTime.elapsed();
   }
+
+  /**
+   * Writes the timings of each check and source file to {@code path}, as CSV if its file name ends
+   * in {@code .csv} and as JSON otherwise. Durations are written in nanoseconds.
+   */
+  public void writeProfile(Path path) throws IOException {
+    Path parent = path.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    try (Writer writer = Files.newBufferedWriter(path, UTF_8)) {
+      if (path.getFileName().toString().endsWith(".csv")) {
+        writeCsv(writer);
+      } else {
+        writeJson(writer);
+      }
+    }
+  }
+
+  private void writeCsv(Writer writer) throws IOException {
+    writer.write("kind,name,invocations,total_nanos,p50_nanos,p99_nanos,max_nanos\n");
+    for (Map.Entry<String, CheckTimings> e : checkTimings().entrySet()) {
+      CheckTimings timings = e.getValue();
+      writer.write(
+          String.format(
+              "check,%s,%d,%d,%d,%d,%d\n",
+              csvField(e.getKey()),
+              timings.invocations(),
+              timings.total().toNanos(),
+              timings.percentile(0.5).toNanos(),
+              timings.percentile(0.99).toNanos(),
+              timings.max().toNanos()));
+    }
+    for (Map.Entry<String, Duration> e : fileTimings().entrySet()) {
+      writer.write(String.format("file,%s,,%d,,,\n", csvField(e.getKey()), e.getValue().toNanos()));
+    }
+  }
+
+  private void writeJson(Writer writer) throws IOException {
+    writer.write("{\n");
+    writer.write(
+        String.format("  \"initialization_nanos\": %d,\n", initializationTime().toNanos()));
+    writer.write("  \"checks\": [");
+    String separator = "\n";
+    for (Map.Entry<String, CheckTimings> e : checkTimings().entrySet()) {
+      CheckTimings timings = e.getValue();
+      writer.write(separator);
+      writer.write(
+          String.format(
+              "    {\"name\": %s, \"invocations\": %d, \"total_nanos\": %d, \"p50_nanos\": %d,"
+                  + " \"p99_nanos\": %d, \"max_nanos\": %d}",
+              jsonString(e.getKey()),
+              timings.invocations(),
+              timings.total().toNanos(),
+              timings.percentile(0.5).toNanos(),
+              timings.percentile(0.99).toNanos(),
+              timings.max().toNanos()));
+      separator = ",\n";
+    }
+    writer.write("\n  ],\n");
+    writer.write("  \"files\": [");
+    separator = "\n";
+    for (Map.Entry<String, Duration> e : fileTimings().entrySet()) {
+      writer.write(separator);
+      writer.write(
+          String.format(
+              "    {\"name\": %s, \"total_nanos\": %d}",
+              jsonString(e.getKey()), e.getValue().toNanos()));
+      separator = ",\n";
+    }
+    writer.write("\n  ]\n}\n");
+  }
+
+  private static String csvField(String value) {
+    if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+      return value;
+    }
+    return '"' + value.replace("\"", "\"\"") + '"';
+  }
+
+  private static String jsonString(String value) {
+    StringBuilder sb = new StringBuilder("\"");
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        sb.append('\\').append(c);
+      } else if (c < 0x20) {
+        sb.append(String.format("\\u%04x", (int) c));
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.append('"').toString();
+  }
+
+  /**
+   * The timings of one check: the number of invocations, their total and maximum duration, and a
+   * histogram of their durations from which percentiles are estimated.
+   *
+   * <p>The histogram has four buckets per power of two nanoseconds, so estimated percentiles are
+   * within 25% of the true value.
+   */
+  public static final class CheckTimings {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Durations of 2^MAX_EXPONENT nanoseconds (a little over 18 minutes) or more all share the last
+    // bucket.
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = bucket((1L << MAX_EXPONENT) - 1) + 1;
+
+    private long invocations;
+    private long totalNanos;
+    private long maxNanos;
+    private final long[] histogram = new long[BUCKETS];
+
+    private CheckTimings() {}
+
+    /** Records one invocation of the check that took {@code elapsedNanos}. */
+    public void record(long elapsedNanos) {
+      record(elapsedNanos, 1);
+    }
+
+    /**
+     * Records an invocation of the check that took {@code elapsedNanos}, sampled from {@code
+     * weight} invocations that are assumed to have taken as long. The maximum duration is only
+     * taken from sampled invocations.
+     */
+    public void record(long elapsedNanos, int weight) {
+      long nanos = Math.max(elapsedNanos, 0);
+      invocations += weight;
+      totalNanos += nanos * weight;
+      maxNanos = Math.max(maxNanos, nanos);
+      histogram[bucket(nanos)] += weight;
+    }
+
+    /** Returns the number of recorded invocations. */
+    public long invocations() {
+      return invocations;
+    }
+
+    /** Returns the total duration of the recorded invocations. */
+    public Duration total() {
+      return Duration.ofNanos(totalNanos);
+    }
+
+    /** Returns the duration of the longest recorded invocation. */
+    public Duration max() {
+      return Duration.ofNanos(maxNanos);
+    }
+
+    /**
+     * Returns an estimate of the given percentile, between 0 and 1, of the durations of the
+     * recorded invocations, or zero if there were none.
+     */
+    public Duration percentile(double percentile) {
+      if (invocations == 0) {
+        return Duration.ZERO;
+      }
+      long rank = Math.max(1, (long) Math.ceil(percentile * invocations));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += histogram[i];
+        if (seen >= rank) {
+          return Duration.ofNanos(Math.min(bucketUpperBound(i), maxNanos));
+        }
+      }
+      return max();
+    }
+
+    private static int bucket(long nanos) {
+      if (nanos < SUB_BUCKETS) {
+        return (int) nanos;
+      }
+      int exponent = Math.min(63 - Long.numberOfLeadingZeros(nanos), MAX_EXPONENT - 1);
+      long clamped = Math.min(nanos, (1L << MAX_EXPONENT) - 1);
+      int subBucket = (int) (clamped >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+      return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long bucketUpperBound(int bucket) {
+      if (bucket < SUB_BUCKETS) {
+        return bucket;
+      }
+      int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+      long width = 1L << (exponent - SUB_BUCKET_BITS);
+      return (SUB_BUCKETS + bucket % SUB_BUCKETS) * width + width - 1;
+    }
+  }
 }
@@ -16,12 +16,19 @@
 package com.google.errorprone;
 
 import com.sun.tools.javac.util.Context;
+import java.lang.ref.SoftReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.annotation.Nullable;
 
 /**
  * A token uniquely identifying a single invocation of javac. Any caches which might otherwise
  * persist indefinitely should be reset if they detect that the JavacInvocationInstance inside their
  * {@link Context} has changed. The only meaningful way to compare JavacInvocationInstance objects
- * is by their object identity, as they have no properties.
+ * is by their object identity.
+ *
+ * <p>It also holds the values of the {@linkplain VisitorState#memoize memoized suppliers} computed
+ * during the invocation, so that concurrent invocations in the same JVM don't evict each other's
+ * values, and the values are freed along with the invocation's {@link Context}.
  */
 public final class JavacInvocationInstance {
   public static JavacInvocationInstance instance(Context context) {
@@ -34,4 +41,49 @@ public final class JavacInvocationInstance {
   }
 
   private JavacInvocationInstance() {}
+
+  /** A memoized value, along with the id of the supplier it belongs to. */
+  private static final class Memo extends SoftReference<Object> {
+    final long owner;
+
+    Memo(Object value, long owner) {
+      super(value);
+      this.owner = owner;
+    }
+  }
+
+  /**
+   * Memoized values, indexed by the slot of their supplier. Readers don't lock; writers replace the
+   * array under the lock when it needs to grow.
+   */
+  private volatile AtomicReferenceArray<Memo> memoSlots = new AtomicReferenceArray<>(64);
+
+  /**
+   * Returns the value memoized in {@code slot} by the supplier with id {@code owner}, or null if
+   * there is none. Slots are reused once their supplier is garbage collected, so a slot may still
+   * hold the value of a previous owner.
+   */
+  @Nullable
+  Object getMemoized(int slot, long owner) {
+    AtomicReferenceArray<Memo> slots = memoSlots;
+    if (slot >= slots.length()) {
+      return null;
+    }
+    Memo memo = slots.get(slot);
+    return memo != null && memo.owner == owner ? memo.get() : null;
+  }
+
+  /** Memoizes {@code value} in {@code slot} for the supplier with id {@code owner}. */
+  synchronized void setMemoized(int slot, long owner, Object value) {
+    AtomicReferenceArray<Memo> slots = memoSlots;
+    if (slot >= slots.length()) {
+      AtomicReferenceArray<Memo> grown =
+          new AtomicReferenceArray<>(Math.max(slot + 1, 2 * slots.length()));
+      for (int i = 0; i < slots.length(); i++) {
+        grown.set(i, slots.get(i));
+      }
+      memoSlots = slots = grown;
+    }
+    slots.set(slot, new Memo(value, owner));
+  }
 }
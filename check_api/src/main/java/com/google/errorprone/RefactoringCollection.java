@@ -16,16 +16,16 @@
 
 package com.google.errorprone;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
-import static java.nio.file.StandardOpenOption.APPEND;
-import static java.nio.file.StandardOpenOption.CREATE;
-
 import com.google.auto.value.AutoValue;
 import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.SetMultimap;
 import com.google.errorprone.ErrorProneOptions.PatchingOptions;
 import com.google.errorprone.apply.DescriptionBasedDiff;
+import com.google.errorprone.apply.Diff;
+import com.google.errorprone.apply.DiffApplier;
 import com.google.errorprone.apply.FileDestination;
 import com.google.errorprone.apply.FileSource;
 import com.google.errorprone.apply.FsFileDestination;
@@ -38,16 +38,14 @@ import com.sun.tools.javac.tree.JCTree.JCCompilationUnit;
 import com.sun.tools.javac.util.Context;
 import com.sun.tools.javac.util.Log;
 import java.io.IOException;
-import java.io.UncheckedIOException;
 import java.net.URI;
 import java.nio.file.FileSystems;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collection;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.annotation.Nullable;
 
 /** A container of fixes that have been collected during a single compilation phase. */
 class RefactoringCollection implements DescriptionListener.Factory {
@@ -61,6 +59,13 @@ class RefactoringCollection implements DescriptionListener.Factory {
   private final Function<URI, RefactoringResult> postProcess;
   private final DescriptionListener.Factory descriptionsFactory;
   private final ImportOrganizer importOrganizer;
+  private final int applyParallelism;
+
+  /** Whether changes are applied to the source files themselves, rather than to a patch file. */
+  private final boolean inPlace;
+
+  /** Applies in-place changes in the background; created once there are changes to apply. */
+  @Nullable private DiffApplier diffApplier;
 
   @AutoValue
   abstract static class RefactoringResult {
@@ -97,32 +102,26 @@ class RefactoringCollection implements DescriptionListener.Factory {
       Path baseDir = rootPath.resolve(patchingOptions.baseDirectory());
       Path patchFilePath = baseDir.resolve("error-prone.patch");
 
-      PatchFileDestination patchFileDestination = new PatchFileDestination(baseDir, rootPath);
+      fileDestination = new PatchFileDestination(baseDir, rootPath, patchFilePath);
       postProcess =
-          new Function<URI, RefactoringResult>() {
-            private final AtomicBoolean first = new AtomicBoolean(true);
-
-            @Override
-            public RefactoringResult apply(URI uri) {
-              try {
-                writePatchFile(first, uri, patchFileDestination, patchFilePath);
-                return RefactoringResult.create(
-                    "Changes were written to "
-                        + patchFilePath
-                        + ". Please inspect the file and apply with: "
-                        + "patch -p0 -u -i error-prone.patch",
-                    RefactoringResultType.CHANGED);
-              } catch (IOException e) {
-                throw new RuntimeException("Failed to emit patch file!", e);
-              }
-            }
-          };
-      fileDestination = patchFileDestination;
+          uri ->
+              RefactoringResult.create(
+                  "Changes were written to "
+                      + patchFilePath
+                      + ". Please inspect the file and apply with: "
+                      + "patch -p0 -u -i error-prone.patch",
+                  RefactoringResultType.CHANGED);
     }
 
     ImportOrganizer importOrganizer = patchingOptions.importOrganizer();
     return new RefactoringCollection(
-        rootPath, fileDestination, postProcess, importOrganizer, context);
+        rootPath,
+        fileDestination,
+        postProcess,
+        importOrganizer,
+        patchingOptions.inPlace(),
+        patchingOptions.applyParallelism(),
+        context);
   }
 
   private RefactoringCollection(
@@ -130,12 +129,16 @@ class RefactoringCollection implements DescriptionListener.Factory {
       FileDestination fileDestination,
       Function<URI, RefactoringResult> postProcess,
       ImportOrganizer importOrganizer,
+      boolean inPlace,
+      int applyParallelism,
       Context context) {
     this.rootPath = rootPath;
     this.fileDestination = fileDestination;
     this.postProcess = postProcess;
     this.descriptionsFactory = JavacErrorDescriptionListener.providerForRefactoring(context);
     this.importOrganizer = importOrganizer;
+    this.inPlace = inPlace;
+    this.applyParallelism = applyParallelism;
   }
 
   private static Path buildRootPath() {
@@ -160,28 +163,81 @@ class RefactoringCollection implements DescriptionListener.Factory {
 
   RefactoringResult applyChanges(URI uri) throws Exception {
     Collection<DelegatingDescriptionListener> listeners = foundSources.removeAll(uri);
-    if (doApplyProcess(fileDestination, new FsFileSource(rootPath), listeners)) {
+    boolean changed =
+        inPlace
+            ? applyInBackground(listeners)
+            : doApplyProcess(fileDestination, new FsFileSource(rootPath), listeners);
+    if (changed) {
       return postProcess.apply(uri);
     }
 
     return RefactoringResult.create("", RefactoringResultType.NO_CHANGES);
   }
 
-  private static void writePatchFile(
-      AtomicBoolean first, URI uri, PatchFileDestination fileDestination, Path patchFilePatch)
-      throws IOException {
-    String patchFile = fileDestination.patchFile(uri);
-    if (patchFile != null) {
-      if (first.compareAndSet(true, false)) {
-        try {
-          Files.deleteIfExists(patchFilePatch);
-        } catch (IOException e) {
-          throw new UncheckedIOException(e);
-        }
+  /**
+   * Waits for changes that are being applied in the background, and writes out any changes that the
+   * file destination buffered, once compilation is complete.
+   *
+   * @throws IOException if changes couldn't be applied to some files
+   */
+  void flush() throws IOException {
+    if (diffApplier == null) {
+      fileDestination.flush();
+      return;
+    }
+    DiffApplier applier = diffApplier;
+    diffApplier = null;
+    try {
+      // Also flushes the file destination.
+      applier.stopAsync().awaitTerminated();
+    } catch (IllegalStateException e) {
+      throw new IOException("Failed to apply refactoring changes", e);
+    }
+    ImmutableSet<String> failedPaths = applier.failedPaths();
+    if (!failedPaths.isEmpty()) {
+      throw new IOException(
+          String.format(
+              "Failed to apply refactoring changes to %d files: %s",
+              failedPaths.size(), failedPaths));
+    }
+  }
+
+  /**
+   * Hands the changes to a file to the {@link DiffApplier}, so that they're written while the next
+   * compilation units are compiled. Returns false if there are no changes.
+   */
+  private boolean applyInBackground(Collection<DelegatingDescriptionListener> listeners) {
+    ImmutableList.Builder<DescriptionBasedDiff> builder = ImmutableList.builder();
+    for (DelegatingDescriptionListener listener : listeners) {
+      // Imports are resolved on this thread, as the compilation unit isn't thread-safe.
+      listener.base.resolveImports();
+      if (!listener.base.isEmpty()) {
+        builder.add(listener.base);
       }
-      Files.createDirectories(patchFilePatch.getParent());
-      Files.write(patchFilePatch, patchFile.getBytes(UTF_8), APPEND, CREATE);
     }
+    ImmutableList<DescriptionBasedDiff> diffs = builder.build();
+    if (diffs.isEmpty()) {
+      return false;
+    }
+    if (diffApplier == null) {
+      diffApplier =
+          new DiffApplier(applyParallelism, new FsFileSource(rootPath), fileDestination);
+      diffApplier.startAsync().awaitRunning();
+    }
+    // The applier only accepts one diff per file.
+    diffApplier.put(
+        new Diff() {
+          @Override
+          public String getRelevantFileName() {
+            return diffs.get(0).getRelevantFileName();
+          }
+
+          @Override
+          public void applyDifferences(SourceFile sourceFile) {
+            diffs.forEach(diff -> diff.applyDifferences(sourceFile));
+          }
+        });
+    return true;
   }
 
   private static boolean doApplyProcess(
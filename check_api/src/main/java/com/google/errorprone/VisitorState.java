@@ -30,8 +30,11 @@ import com.google.errorprone.dataflow.nullnesspropagation.NullnessAnalysis;
 import com.google.errorprone.matchers.Description;
 import com.google.errorprone.matchers.Suppressible;
 import com.google.errorprone.suppliers.Supplier;
+import com.google.errorprone.util.CompilationUnitIndex;
+import com.google.errorprone.util.CompilationUnitTokens;
 import com.google.errorprone.util.ErrorProneToken;
 import com.google.errorprone.util.ErrorProneTokens;
+import com.sun.source.tree.CompilationUnitTree;
 import com.sun.source.tree.Tree;
 import com.sun.source.util.TreePath;
 import com.sun.tools.javac.code.Kinds.Kind;
@@ -55,11 +58,18 @@ import com.sun.tools.javac.util.Name;
 import com.sun.tools.javac.util.Names;
 import com.sun.tools.javac.util.Options;
 import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.SoftReference;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.annotation.Nullable;
 import javax.lang.model.util.Elements;
 
@@ -576,35 +586,88 @@ public class VisitorState {
   /**
    * Returns the list of {@link Token}s for the given {@link JCTree}.
    *
-   * <p>This is moderately expensive (the source of the node has to be re-lexed), so it should only
-   * be used if a fix is already going to be emitted.
+   * <p>The compilation unit is lexed the first time this or another method returning tokens is
+   * called, and the tokens of the node are looked up in it; nodes that don't start and end on token
+   * boundaries are re-lexed.
    */
   public List<ErrorProneToken> getTokensForNode(Tree tree) {
-    return ErrorProneTokens.getTokens(getSourceForNode(tree), context);
+    int start = getStartPosition(tree);
+    int end = getEndPosition(tree);
+    List<ErrorProneToken> tokens = end == -1 ? null : getCachedTokens(start, end, -start);
+    return tokens != null ? tokens : ErrorProneTokens.getTokens(getSourceForNode(tree), context);
   }
 
   /**
    * Returns the list of {@link Token}s for the given {@link JCTree}, offset by the start position
    * of the tree within the overall source.
    *
-   * <p>This is moderately expensive (the source of the node has to be re-lexed), so it should only
-   * be used if a fix is already going to be emitted.
+   * <p>See {@link #getTokensForNode} for how the tokens are computed.
    */
   public List<ErrorProneToken> getOffsetTokensForNode(Tree tree) {
     int start = getStartPosition(tree);
-    return ErrorProneTokens.getTokens(getSourceForNode(tree), start, context);
+    int end = getEndPosition(tree);
+    List<ErrorProneToken> tokens = end == -1 ? null : getCachedTokens(start, end, 0);
+    return tokens != null
+        ? tokens
+        : ErrorProneTokens.getTokens(getSourceForNode(tree), start, context);
   }
 
   /**
    * Returns the list of {@link Token}s for source code between the given positions, offset by the
    * start position.
    *
-   * <p>This is moderately expensive (the source of the node has to be re-lexed), so it should only
-   * be used if a fix is already going to be emitted.
+   * <p>See {@link #getTokensForNode} for how the tokens are computed.
    */
   public List<ErrorProneToken> getOffsetTokens(int start, int end) {
-    return ErrorProneTokens.getTokens(
-        getSourceCode().subSequence(start, end).toString(), start, context);
+    List<ErrorProneToken> tokens = getCachedTokens(start, end, 0);
+    return tokens != null
+        ? tokens
+        : ErrorProneTokens.getTokens(
+            getSourceCode().subSequence(start, end).toString(), start, context);
+  }
+
+  /**
+   * Looks up the tokens between {@code start} and {@code end} in the tokens of the current
+   * compilation unit, or returns null if they need to be lexed on their own.
+   */
+  @Nullable
+  private List<ErrorProneToken> getCachedTokens(int start, int end, int offset) {
+    CompilationUnitTree compilationUnit = getPath().getCompilationUnit();
+    UnitTokens unitTokens = sharedState.unitTokens;
+    if (unitTokens == null || unitTokens.compilationUnit != compilationUnit) {
+      CharSequence source = getSourceCode();
+      if (source == null) {
+        return null;
+      }
+      unitTokens = new UnitTokens(compilationUnit, CompilationUnitTokens.create(source, context));
+      sharedState.unitTokens = unitTokens;
+    }
+    return unitTokens.tokens.getTokens(start, end, offset);
+  }
+
+  /**
+   * Returns the index of the declarations of and references to the symbols of the current
+   * compilation unit, built the first time it's asked for.
+   */
+  public CompilationUnitIndex getCompilationUnitIndex() {
+    CompilationUnitTree compilationUnit = getPath().getCompilationUnit();
+    CompilationUnitIndex index = sharedState.compilationUnitIndex;
+    if (index == null || index.compilationUnit() != compilationUnit) {
+      index = CompilationUnitIndex.create(new TreePath(compilationUnit));
+      sharedState.compilationUnitIndex = index;
+    }
+    return index;
+  }
+
+  /** The tokens of a compilation unit. */
+  private static final class UnitTokens {
+    final CompilationUnitTree compilationUnit;
+    final CompilationUnitTokens tokens;
+
+    UnitTokens(CompilationUnitTree compilationUnit, CompilationUnitTokens tokens) {
+      this.compilationUnit = compilationUnit;
+      this.tokens = tokens;
+    }
   }
 
   /** Returns the end position of the node, or -1 if it is not available. */
@@ -672,47 +735,130 @@ public class VisitorState {
 
   private static class Cache<T> implements Supplier<T> {
     private final Supplier<T> impl;
+
     /* Uses T instead of Optional<T> because we don't want to cache null results
     (b/138753468). These inline caches persist between compilation units, and a type that fails to
     resolve in one may become available in the next; we want to keep looking it up
     (relying on the per-file cache in typeCache) if we don't have a result. If you want to cache a
     computation which can return null, wrap it in an Optional at the call site.*/
 
-    private SoftReference<T> cache = new SoftReference<>(null);
-    private JavacInvocationInstance provenance;
+    /*
+     * A supplier keeps the value it computed in the first javac invocation it was used in inline,
+     * and only gets its own slot in the memo table of every javac invocation once a second
+     * invocation uses it. Suppliers created on the fly (see Suppliers#typeFromString) are usually
+     * used once and then dropped, so they never pay for a slot. The slots of collected suppliers
+     * are reused, and values are tagged with the unique id of their supplier.
+     */
+    private static final ReferenceQueue<Cache<?>> collected = new ReferenceQueue<>();
+    private static final Set<SlotReference> slotReferences = ConcurrentHashMap.newKeySet();
+    private static final Deque<Integer> freeSlots = new ArrayDeque<>();
+    private static int nextSlot;
+    private static long nextId;
+
+    private static final int NO_SLOT = -1;
+
+    /** Frees the slot of a supplier once it has been collected. */
+    private static final class SlotReference extends PhantomReference<Cache<?>> {
+      final int slot;
+
+      SlotReference(Cache<?> cache, int slot) {
+        super(cache, collected);
+        this.slot = slot;
+      }
+    }
+
+    /** A value computed before the supplier had a slot, and the invocation it was computed in. */
+    private static final class InlineMemo<T> extends SoftReference<T> {
+      final JavacInvocationInstance invocation;
+
+      InlineMemo(T value, JavacInvocationInstance invocation) {
+        super(value);
+        this.invocation = invocation;
+      }
+    }
+
+    // Written once, under the lock on Cache.class; id is written before slot.
+    private volatile int slot = NO_SLOT;
+    private long id;
+
+    // Only used until the supplier has a slot.
+    @Nullable private volatile InlineMemo<T> inlineMemo;
 
     private Cache(Supplier<T> impl) {
       this.impl = impl;
-      // provenance intentionally left null-initialized
     }
 
+    /*
+     * A hit is a lock-free, allocation-free read of either the inline value or the current
+     * invocation's memo table. Concurrent misses may both compute the value, which is harmless
+     * since it's expected to be the same throughout a compilation.
+     */
     @Override
-    public synchronized T get(VisitorState state) {
+    @SuppressWarnings("unchecked") // only this Cache writes values with its id
+    public T get(VisitorState state) {
+      JavacInvocationInstance invocation = state.sharedState.javacInvocationInstance;
+      int slot = this.slot;
+      if (slot == NO_SLOT) {
+        InlineMemo<T> memo = inlineMemo;
+        if (memo == null || memo.invocation == invocation) {
+          T value = memo != null ? memo.get() : null;
+          if (value == null) {
+            value = compute(state);
+            if (value != null) {
+              inlineMemo = new InlineMemo<>(value, invocation);
+            }
+          }
+          return value;
+        }
+        slot = assignSlot();
+      }
+      T value = (T) invocation.getMemoized(slot, id);
+      if (value != null) {
+        return value;
+      }
+      value = compute(state);
+      if (value != null) {
+        invocation.setMemoized(slot, id, value);
+      }
+      return value;
+    }
+
+    private T compute(VisitorState state) {
       /*
        * Don't let callers rely on the TreePath: The Cache is shared across the whole compilation,
        * not just the current VisitorState's TreePath's CompilationUnit.
        */
-      state = state.withNoPathForMemoization();
-
-      /* javac is single-threaded, so in principle we don't really need to lock.
-      But in practice it's cheap enough to be worth getting peace of mind that this is
-      always correct. */
-      T value = cache.get();
-      if (value == null) {
-        value = impl.get(state);
-        if (value != null) {
-          cache = new SoftReference<>(value);
-          provenance = state.sharedState.javacInvocationInstance;
+      return impl.get(state.withNoPathForMemoization());
+    }
+
+    /**
+     * Gives this supplier a slot, moving the value it computed inline into the memo table of the
+     * invocation it was computed in.
+     */
+    private int assignSlot() {
+      synchronized (Cache.class) {
+        if (slot != NO_SLOT) {
+          return slot;
         }
-      } else {
-        JavacInvocationInstance current = state.sharedState.javacInvocationInstance;
-        if (provenance != current) {
-          value = impl.get(state);
-          cache = new SoftReference<>(value);
-          provenance = current;
+        Reference<? extends Cache<?>> reference;
+        while ((reference = collected.poll()) != null) {
+          slotReferences.remove(reference);
+          freeSlots.push(((SlotReference) reference).slot);
         }
+        int newSlot = freeSlots.isEmpty() ? nextSlot++ : freeSlots.pop();
+        slotReferences.add(new SlotReference(this, newSlot));
+        id = nextId++;
+        InlineMemo<T> memo = inlineMemo;
+        if (memo != null) {
+          T value = memo.get();
+          if (value != null) {
+            memo.invocation.setMemoized(newSlot, id, value);
+          }
+          inlineMemo = null;
+        }
+        slot = newSlot;
+        return newSlot;
       }
-      return value;
     }
   }
 
@@ -753,6 +899,12 @@ public class VisitorState {
     // based on number of files?
     private final Map<String, Optional<Type>> typeCache = new HashMap<>();
 
+    /** The tokens of the compilation unit most recently asked about, lexed on first use. */
+    @Nullable private volatile UnitTokens unitTokens;
+
+    /** The index of the compilation unit most recently asked about, built on first use. */
+    @Nullable private volatile CompilationUnitIndex compilationUnitIndex;
+
     SharedState(
         Context context,
         DescriptionListener descriptionListener,
@@ -108,8 +108,11 @@ public final class DescriptionBasedDiff implements DescriptionListener, Diff {
     }
   }
 
-  @Override
-  public void applyDifferences(SourceFile sourceFile) {
+  /**
+   * Turns the imports to add and remove into a replacement of the import statements. Afterwards,
+   * applying this diff doesn't access the compilation unit, so it can be done on another thread.
+   */
+  public void resolveImports() {
     if (!importsToAdd.isEmpty() || !importsToRemove.isEmpty()) {
       ImportStatements importStatements = ImportStatements.create(compilationUnit, importOrganizer);
       importStatements.addAll(importsToAdd);
@@ -122,7 +125,14 @@ public final class DescriptionBasedDiff implements DescriptionListener, Diff {
                 importStatements.toString()),
             Replacements.CoalescePolicy.REPLACEMENT_FIRST);
       }
+      importsToAdd.clear();
+      importsToRemove.clear();
     }
+  }
+
+  @Override
+  public void applyDifferences(SourceFile sourceFile) {
+    resolveImports();
     sourceFile.makeReplacements(replacements);
   }
 }
@@ -16,6 +16,7 @@ package com.google.errorprone.apply;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.AbstractService;
@@ -60,16 +61,18 @@ public class DiffApplier extends AbstractService {
     this.destination = destination;
     this.completedFiles = new AtomicInteger(0);
     this.stopwatch = Stopwatch.createUnstarted();
-    // configure a bounded queue and a rejectedexecutionpolicy.
-    // In this case CallerRuns may be appropriate.
-    this.workerService =
+    // Configure a bounded queue, and apply diffs on the calling thread once it's full, which
+    // slows down the producer of the diffs until the workers catch up.
+    ThreadPoolExecutor workerService =
         new ThreadPoolExecutor(
-            0,
+            diffParallelism,
             diffParallelism,
             5,
             TimeUnit.SECONDS,
             new ArrayBlockingQueue<Runnable>(50),
             new ThreadPoolExecutor.CallerRunsPolicy());
+    workerService.allowCoreThreadTimeOut(true);
+    this.workerService = workerService;
   }
 
   @Override
@@ -132,6 +135,11 @@ public class DiffApplier extends AbstractService {
     }
   }
 
+  /** Returns the paths of the files that diffs failed to apply to so far. */
+  public ImmutableSet<String> failedPaths() {
+    return ImmutableSet.copyOf(diffsFailedPaths);
+  }
+
   @Nullable
   public Future<?> put(Diff diff) {
     if (refactoredPaths.add(diff.getRelevantFileName())) {
@@ -17,23 +17,37 @@
 package com.google.errorprone.apply;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
 
 import com.github.difflib.DiffUtils;
 import com.github.difflib.UnifiedDiffUtils;
 import com.github.difflib.patch.Patch;
 import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.net.URI;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
+import javax.annotation.Nullable;
 
 /**
  * A {@link FileDestination} that writes a unix-patch file to {@code rootPath} containing the
  * suggested changes.
+ *
+ * <p>The patch for each file is appended to the patch file as soon as it is written, through a
+ * buffered channel that stays open until {@link #flush}. Any existing patch file is replaced when
+ * the first patch is written.
+ *
+ * <p>If a file was only changed by applying {@link com.google.errorprone.fixes.Replacement}s to it,
+ * e.g. by a {@link DescriptionBasedDiff}, its patch is generated from those replacements. Otherwise
+ * the file on disk is diffed against its new contents.
  */
 public final class PatchFileDestination implements FileDestination {
 
@@ -41,37 +55,84 @@ public final class PatchFileDestination implements FileDestination {
   // a bit funky.
   private static final Splitter LINE_SPLITTER = Splitter.on('\n');
 
+  private static final int CONTEXT_LINES = 2;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
   private final Path baseDir;
   private final Path rootPath;
-  // Path -> Unified Diff, sorted by path
-  private final Map<URI, String> diffByFile = new TreeMap<>();
+  private final Path patchFile;
 
-  public PatchFileDestination(Path baseDir, Path rootPath) {
+  /** The open patch file, or null if nothing has been written since the last flush. */
+  @Nullable private Writer out;
+
+  /** Whether the patch file has been replaced yet, so that later writes append to it. */
+  private boolean replaced;
+
+  public PatchFileDestination(Path baseDir, Path rootPath, Path patchFile) {
     this.baseDir = baseDir;
     this.rootPath = rootPath;
+    this.patchFile = patchFile;
   }
 
   @Override
-  public void writeFile(SourceFile update) throws IOException {
+  public synchronized void writeFile(SourceFile update) throws IOException {
     Path sourceFilePath = rootPath.resolve(update.getPath());
-    String oldSource = new String(Files.readAllBytes(sourceFilePath), UTF_8);
-    String newSource = update.getSourceText();
-    if (!oldSource.equals(newSource)) {
-      List<String> originalLines = LINE_SPLITTER.splitToList(oldSource);
+    String relativePath = baseDir.relativize(sourceFilePath).toString();
+    if (update.appliedReplacements() != null) {
+      // Describe the replacements made to the file, without reading or diffing the whole file.
+      UnifiedDiff diff = UnifiedDiff.create(update.originalSource(), update.appliedReplacements());
+      if (!diff.isEmpty()) {
+        diff.write(relativePath, CONTEXT_LINES, out());
+      }
+    } else {
+      String diff = diffContents(relativePath, sourceFilePath, update);
+      if (diff != null) {
+        out().write(diff);
+      }
+    }
+  }
 
-      Patch<String> diff = DiffUtils.diff(originalLines, LINE_SPLITTER.splitToList(newSource));
-      String relativePath = baseDir.relativize(sourceFilePath).toString();
-      List<String> unifiedDiff =
-          UnifiedDiffUtils.generateUnifiedDiff(relativePath, relativePath, originalLines, diff, 2);
-      String diffString = Joiner.on("\n").join(unifiedDiff) + "\n";
-      diffByFile.put(sourceFilePath.toUri(), diffString);
+  /** Returns the writer for the patch file, opening it if necessary. */
+  private Writer out() throws IOException {
+    if (out == null) {
+      Files.createDirectories(patchFile.getParent());
+      FileChannel channel =
+          replaced
+              ? FileChannel.open(patchFile, WRITE, APPEND)
+              : FileChannel.open(patchFile, CREATE, WRITE, TRUNCATE_EXISTING);
+      replaced = true;
+      out = new BufferedWriter(Channels.newWriter(channel, UTF_8.newEncoder(), -1), BUFFER_SIZE);
     }
+    return out;
   }
 
-  public String patchFile(URI uri) {
-    return diffByFile.remove(uri);
+  /** Diffs the file on disk against its updated contents. */
+  @Nullable
+  private static String diffContents(String relativePath, Path sourceFilePath, SourceFile update)
+      throws IOException {
+    String oldSource = new String(Files.readAllBytes(sourceFilePath), UTF_8);
+    String newSource = update.getSourceText();
+    if (oldSource.equals(newSource)) {
+      return null;
+    }
+    List<String> originalLines = LINE_SPLITTER.splitToList(oldSource);
+    Patch<String> diff = DiffUtils.diff(originalLines, LINE_SPLITTER.splitToList(newSource));
+    List<String> unifiedDiff =
+        UnifiedDiffUtils.generateUnifiedDiff(
+            relativePath, relativePath, originalLines, diff, CONTEXT_LINES);
+    return Joiner.on("\n").join(unifiedDiff) + "\n";
   }
 
+  /** Writes any buffered patches to the patch file, and closes it. */
   @Override
-  public void flush() throws IOException {}
+  public synchronized void flush() throws IOException {
+    if (out != null) {
+      try {
+        out.close();
+      } finally {
+        out = null;
+      }
+    }
+  }
 }
@@ -0,0 +1,356 @@
+/*
+ * Copyright 2024 The Error Prone Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.errorprone.apply;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.errorprone.fixes.Replacement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * The mutable text of a {@link SourceFile}, stored as a sequence of pieces of an immutable original
+ * buffer and an append-only buffer of inserted text.
+ *
+ * <p>Edits splice the piece list instead of shifting the tail of the text, so a batch of N
+ * ascending replacements costs O(pieces + N) plus the length of the inserted text. The offsets of
+ * the pieces and of the lines are indexed lazily, once per batch of edits, after which character
+ * and line lookups are binary searches.
+ *
+ * <p>Lines are terminated by {@code \n}, {@code \r} or {@code \r\n}, as in {@link
+ * java.io.BufferedReader#readLine}.
+ */
+final class PieceTable implements CharSequence {
+
+  /** A range of one of the buffers. */
+  private static final class Piece {
+    final CharSequence buffer;
+    final int start;
+    final int end;
+
+    Piece(CharSequence buffer, int start, int end) {
+      this.buffer = buffer;
+      this.start = start;
+      this.end = end;
+    }
+
+    int length() {
+      return end - start;
+    }
+  }
+
+  private List<Piece> pieces = new ArrayList<>();
+
+  /** Text inserted by edits. Only ever appended to, so that existing pieces remain valid. */
+  private StringBuilder added = new StringBuilder();
+
+  private int length;
+
+  /** The offset of each piece in the text, or null if the pieces have changed since. */
+  @Nullable private int[] pieceStarts;
+
+  /**
+   * The offset of the start of each line, followed by the length of the text if the last line is
+   * terminated; or null if the text has changed since.
+   */
+  @Nullable private int[] lineStarts;
+
+  /** Whether every line is terminated by a single {@code \n}; valid along with lineStarts. */
+  private boolean newlineTerminated;
+
+  @Nullable private String text;
+
+  PieceTable(CharSequence source) {
+    setText(source);
+  }
+
+  /** Replaces the whole text. */
+  void setText(CharSequence source) {
+    String original = source.toString();
+    pieces = new ArrayList<>();
+    if (!original.isEmpty()) {
+      pieces.add(new Piece(original, 0, original.length()));
+    }
+    added = new StringBuilder();
+    length = original.length();
+    text = original;
+    pieceStarts = null;
+    lineStarts = null;
+  }
+
+  /**
+   * Replaces the text between {@code start} and {@code end} with {@code replacement}.
+   *
+   * @throws IndexOutOfBoundsException if the range isn't within the text
+   */
+  void replace(int start, int end, CharSequence replacement) {
+    if (start < 0 || start > end || end > length) {
+      throw new IndexOutOfBoundsException(
+          String.format("[%d, %d) is not within [0, %d)", start, end, length));
+    }
+    int first = pieceIndex(start);
+    int last = end == start ? first : pieceIndex(end - 1);
+    int[] starts = pieceStarts();
+    List<Piece> spliced = new ArrayList<>(3);
+    if (first < pieces.size()) {
+      Piece piece = pieces.get(first);
+      addPiece(spliced, piece.buffer, piece.start, piece.start + start - starts[first]);
+    }
+    addInserted(spliced, replacement);
+    if (last < pieces.size()) {
+      Piece piece = pieces.get(last);
+      addPiece(spliced, piece.buffer, piece.start + end - starts[last], piece.end);
+    }
+    List<Piece> replaced = pieces.subList(first, Math.min(last + 1, pieces.size()));
+    replaced.clear();
+    replaced.addAll(spliced);
+    length += replacement.length() - (end - start);
+    invalidate();
+  }
+
+  /**
+   * Applies {@code replacements} in a single pass over the pieces.
+   *
+   * @param replacements non-overlapping replacements, in ascending order
+   */
+  void replaceAll(Iterable<Replacement> replacements) {
+    int[] starts = pieceStarts();
+    List<Piece> result = new ArrayList<>();
+    int pieceIndex = 0;
+    int position = 0;
+    for (Replacement replacement : replacements) {
+      checkArgument(
+          replacement.endPosition() <= length,
+          "End [%s] should not exceed source length [%s]",
+          replacement.endPosition(),
+          length);
+      // Copy the unmodified pieces leading up to this change, then skip the replaced text.
+      pieceIndex = copy(result, starts, pieceIndex, position, replacement.startPosition());
+      addInserted(result, replacement.replaceWith());
+      position = replacement.endPosition();
+    }
+    copy(result, starts, pieceIndex, position, length);
+    pieces = result;
+    length = 0;
+    for (Piece piece : result) {
+      length += piece.length();
+    }
+    invalidate();
+  }
+
+  /**
+   * Appends the pieces covering the text between {@code from} and {@code to} to {@code result},
+   * starting the search at the piece with index {@code pieceIndex}.
+   *
+   * @return the index of the piece containing {@code to}
+   */
+  private int copy(List<Piece> result, int[] starts, int pieceIndex, int from, int to) {
+    while (pieceIndex < pieces.size()
+        && starts[pieceIndex] + pieces.get(pieceIndex).length() <= from) {
+      pieceIndex++;
+    }
+    while (pieceIndex < pieces.size() && starts[pieceIndex] < to) {
+      Piece piece = pieces.get(pieceIndex);
+      int pieceEnd = starts[pieceIndex] + piece.length();
+      addPiece(
+          result,
+          piece.buffer,
+          piece.start + Math.max(0, from - starts[pieceIndex]),
+          piece.start + Math.min(piece.length(), to - starts[pieceIndex]));
+      if (pieceEnd > to) {
+        break;
+      }
+      pieceIndex++;
+    }
+    return pieceIndex;
+  }
+
+  private void addInserted(List<Piece> result, CharSequence insertion) {
+    int start = added.length();
+    added.append(insertion);
+    addPiece(result, added, start, added.length());
+  }
+
+  private static void addPiece(List<Piece> result, CharSequence buffer, int start, int end) {
+    if (start == end) {
+      return;
+    }
+    if (!result.isEmpty()) {
+      Piece previous = result.get(result.size() - 1);
+      if (previous.buffer == buffer && previous.end == start) {
+        result.set(result.size() - 1, new Piece(buffer, previous.start, end));
+        return;
+      }
+    }
+    result.add(new Piece(buffer, start, end));
+  }
+
+  private void invalidate() {
+    text = null;
+    pieceStarts = null;
+    lineStarts = null;
+  }
+
+  private int[] pieceStarts() {
+    if (pieceStarts == null) {
+      int[] starts = new int[pieces.size()];
+      int offset = 0;
+      for (int i = 0; i < starts.length; i++) {
+        starts[i] = offset;
+        offset += pieces.get(i).length();
+      }
+      pieceStarts = starts;
+    }
+    return pieceStarts;
+  }
+
+  /**
+   * Returns the index of the piece containing {@code position}, or the number of pieces if {@code
+   * position} is the length of the text.
+   */
+  private int pieceIndex(int position) {
+    if (position == length) {
+      return pieces.size();
+    }
+    int index = Arrays.binarySearch(pieceStarts(), position);
+    return index >= 0 ? index : -index - 2;
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (index < 0 || index >= length) {
+      throw new IndexOutOfBoundsException(String.format("%d is not within [0, %d)", index, length));
+    }
+    if (text != null) {
+      return text.charAt(index);
+    }
+    int pieceIndex = pieceIndex(index);
+    Piece piece = pieces.get(pieceIndex);
+    return piece.buffer.charAt(piece.start + index - pieceStarts()[pieceIndex]);
+  }
+
+  /** Returns a copy of the text between {@code start} and {@code end}. */
+  @Override
+  public String subSequence(int start, int end) {
+    if (start < 0 || start > end || end > length) {
+      throw new IndexOutOfBoundsException(
+          String.format("[%d, %d) is not within [0, %d)", start, end, length));
+    }
+    if (text != null) {
+      return text.substring(start, end);
+    }
+    StringBuilder result = new StringBuilder(end - start);
+    appendTo(result, start, end);
+    return result.toString();
+  }
+
+  private void appendTo(StringBuilder result, int start, int end) {
+    int[] starts = pieceStarts();
+    for (int i = pieceIndex(start); i < pieces.size() && starts[i] < end; i++) {
+      Piece piece = pieces.get(i);
+      result.append(
+          piece.buffer,
+          piece.start + Math.max(0, start - starts[i]),
+          piece.start + Math.min(piece.length(), end - starts[i]));
+    }
+  }
+
+  @Override
+  public String toString() {
+    if (text == null) {
+      StringBuilder result = new StringBuilder(length);
+      appendTo(result, 0, length);
+      text = result.toString();
+    }
+    return text;
+  }
+
+  /** Returns the number of lines, not counting the empty line after a final line terminator. */
+  int lineCount() {
+    int[] starts = lineStarts();
+    return starts[starts.length - 1] == length ? starts.length - 1 : starts.length;
+  }
+
+  /** Returns the offset of the start of the given 0-based line. */
+  int lineStart(int line) {
+    return lineStarts()[line];
+  }
+
+  /** Returns the offset of the end of the given 0-based line, excluding its line terminator. */
+  int lineEnd(int line) {
+    int[] starts = lineStarts();
+    if (line + 1 >= starts.length) {
+      return length;
+    }
+    int end = starts[line + 1] - 1;
+    if (charAt(end) == '\n' && end > starts[line] && charAt(end - 1) == '\r') {
+      end--;
+    }
+    return end;
+  }
+
+  /**
+   * Returns the offset just past the given 0-based line, including its line terminator, or the
+   * length of the text for the last line.
+   */
+  int lineLimit(int line) {
+    int[] starts = lineStarts();
+    return line + 1 < starts.length ? starts[line + 1] : length;
+  }
+
+  /** Returns true if every line, including the last, is terminated by a single {@code \n}. */
+  boolean isNewlineTerminated() {
+    lineStarts();
+    return newlineTerminated;
+  }
+
+  private int[] lineStarts() {
+    if (lineStarts == null) {
+      int[] starts = new int[16];
+      int count = 1;
+      boolean sawCarriageReturn = false;
+      char previous = 0;
+      int offset = 0;
+      for (Piece piece : pieces) {
+        for (int i = piece.start; i < piece.end; i++, offset++) {
+          char c = piece.buffer.charAt(i);
+          if (c == '\r' || (c == '\n' && previous != '\r')) {
+            if (count == starts.length) {
+              starts = Arrays.copyOf(starts, count * 2);
+            }
+            starts[count++] = offset + 1;
+            sawCarriageReturn |= c == '\r';
+          } else if (c == '\n') {
+            // The \n of a \r\n terminator; the line starts after it.
+            starts[count - 1] = offset + 1;
+          }
+          previous = c;
+        }
+      }
+      newlineTerminated = !sawCarriageReturn && (length == 0 || previous == '\n');
+      lineStarts = Arrays.copyOf(starts, count);
+    }
+    return lineStarts;
+  }
+}
@@ -16,21 +16,16 @@
 
 package com.google.errorprone.apply;
 
-import static com.google.common.base.Preconditions.checkArgument;
-
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
-import com.google.common.io.CharSource;
 import com.google.errorprone.fixes.Replacement;
 import com.google.errorprone.fixes.Replacements;
 import java.io.IOException;
-import java.io.LineNumberReader;
-import java.io.StringReader;
-import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import javax.annotation.Nullable;
 import javax.tools.JavaFileObject;
 
 /**
@@ -44,7 +39,19 @@ import javax.tools.JavaFileObject;
 public class SourceFile {
 
   private final String path;
-  private final StringBuilder sourceBuilder;
+  private final PieceTable source;
+
+  /** Whether the source has been changed since this file was created. */
+  private boolean modified;
+
+  /**
+   * The source this file was created with, if the only change made to it since was a single call to
+   * {@link #makeReplacements}; null otherwise.
+   */
+  @Nullable private String originalSource;
+
+  /** The replacements that turned {@link #originalSource} into the current source. */
+  @Nullable private ImmutableSet<Replacement> appliedReplacements;
 
   public static SourceFile create(JavaFileObject fileObject) throws IOException {
     return new SourceFile(fileObject.toUri().getPath(), fileObject.getCharContent(false));
@@ -52,7 +59,7 @@ public class SourceFile {
 
   public SourceFile(String path, CharSequence source) {
     this.path = path;
-    sourceBuilder = new StringBuilder(source);
+    this.source = new PieceTable(source);
   }
 
   /** Returns the path for this source file */
@@ -62,26 +69,47 @@ public class SourceFile {
 
   /** Returns a copy of code as a list of lines. */
   public List<String> getLines() {
-    try {
-      return CharSource.wrap(sourceBuilder).readLines();
-    } catch (IOException e) {
-      throw new AssertionError("IOException not possible, as the string is in-memory", e);
-    }
+    return getLines(1, source.lineCount());
   }
 
   /** Returns a copy of the code as a string. */
   public String getSourceText() {
-    return sourceBuilder.toString();
+    return source.toString();
   }
 
+  /** Returns a read-only view of the code, which reflects later changes to it. */
   public CharSequence getAsSequence() {
-    return CharBuffer.wrap(sourceBuilder).asReadOnlyBuffer();
+    return source;
+  }
+
+  /**
+   * Returns the source this file was created with, if the only change made to it since was applying
+   * {@link #appliedReplacements}; null otherwise.
+   */
+  @Nullable
+  String originalSource() {
+    return originalSource;
+  }
+
+  /**
+   * Returns the replacements that turned {@link #originalSource} into the current source, in
+   * ascending order, or null if the source was changed in other ways.
+   */
+  @Nullable
+  ImmutableSet<Replacement> appliedReplacements() {
+    return appliedReplacements;
+  }
+
+  private void recordModification() {
+    modified = true;
+    originalSource = null;
+    appliedReplacements = null;
   }
 
   /** Clears the current source test for this SourceFile and resets it to the passed-in value. */
   public void setSourceText(CharSequence source) {
-    sourceBuilder.setLength(0); // clear StringBuilder
-    sourceBuilder.append(source);
+    recordModification();
+    this.source.setText(source);
   }
 
   /**
@@ -91,7 +119,7 @@ public class SourceFile {
    * and end parameters.
    */
   public String getFragmentByChars(int startPosition, int endPosition) {
-    return sourceBuilder.substring(startPosition, endPosition);
+    return source.subSequence(startPosition, endPosition);
   }
 
   /**
@@ -105,33 +133,38 @@ public class SourceFile {
     return Joiner.on("\n").join(getLines(startLine, endLine)) + "\n";
   }
 
+  /** Returns the lines between the two 1-based, inclusive line numbers that exist in the source. */
   private List<String> getLines(int startLine, int endLine) {
-    LineNumberReader reader = new LineNumberReader(new StringReader(sourceBuilder.toString()));
-    List<String> lines = new ArrayList<>(endLine - startLine + 1);
-    String line;
-    try {
-      while ((line = reader.readLine()) != null) {
-        if (reader.getLineNumber() >= startLine) {
-          lines.add(line);
-        }
-        if (reader.getLineNumber() >= endLine) {
-          break;
-        }
-      }
-      return lines;
-    } catch (IOException e) {
-      throw new AssertionError("Wrapped StringReader should not produce I/O exceptions", e);
+    int first = Math.max(1, startLine) - 1;
+    int last = Math.min(endLine, source.lineCount()) - 1;
+    List<String> lines = new ArrayList<>(Math.max(0, last - first + 1));
+    for (int line = first; line <= last; line++) {
+      lines.add(source.subSequence(source.lineStart(line), source.lineEnd(line)));
     }
+    return lines;
   }
 
   /** Replace the source code with the new lines of code. */
   public void replaceLines(List<String> lines) {
-    sourceBuilder.replace(0, sourceBuilder.length(), Joiner.on("\n").join(lines) + "\n");
+    recordModification();
+    source.setText(Joiner.on("\n").join(lines) + "\n");
   }
 
   /** Replace the source code between the start and end lines with some new lines of code. */
   public void replaceLines(int startLine, int endLine, List<String> replacementLines) {
     Preconditions.checkArgument(startLine <= endLine);
+    if (startLine >= 1
+        && startLine <= source.lineCount()
+        && !replacementLines.isEmpty()
+        && source.isNewlineTerminated()) {
+      // Splicing in the new lines gives the same result as rewriting every line.
+      recordModification();
+      source.replace(
+          source.lineStart(startLine - 1),
+          source.lineLimit(Math.min(endLine, source.lineCount()) - 1),
+          Joiner.on("\n").join(replacementLines) + "\n");
+      return;
+    }
     List<String> originalLines = getLines();
     List<String> newLines = new ArrayList<>();
     for (int i = 0; i < originalLines.size(); i++) {
@@ -154,19 +187,33 @@ public class SourceFile {
    * and end parameters.
    */
   public void replaceChars(int startPosition, int endPosition, String replacement) {
+    recordModification();
     try {
-      sourceBuilder.replace(startPosition, endPosition, replacement);
-    } catch (StringIndexOutOfBoundsException e) {
+      source.replace(startPosition, endPosition, replacement);
+    } catch (IndexOutOfBoundsException e) {
       throw new IndexOutOfBoundsException(
           String.format(
               "Replacement cannot be made. Source file %s has length %d, requested start "
                   + "position %d, requested end position %d, replacement %s",
-              path, sourceBuilder.length(), startPosition, endPosition, replacement));
+              path, source.length(), startPosition, endPosition, replacement));
     }
   }
 
   void makeReplacements(Replacements changes) {
     ImmutableSet<Replacement> replacements = changes.ascending();
+    if (replacements.isEmpty()) {
+      return;
+    }
+    String original = modified ? null : source.toString();
+    makeReplacements(replacements);
+    if (original != null) {
+      // Keep track of the changes, so that PatchFileDestination can describe them without diffing.
+      originalSource = original;
+      appliedReplacements = replacements;
+    }
+  }
+
+  private void makeReplacements(ImmutableSet<Replacement> replacements) {
     switch (replacements.size()) {
       case 0:
         return;
@@ -183,32 +230,10 @@ public class SourceFile {
         break;
     }
 
-    // Since we have many replacements to make all at once, it's better to start off with a clean
-    // slate, rather than make multiple separate replacements which each require shifting around
-    // the tail of our sourceBuilder. If we do them all at once, we can work forward from the
-    // beginning of the tile, so that each new replacement does not affect any previous
-    // replacements.
-    StringBuilder newContent = new StringBuilder();
-    int positionInOriginal = 0;
-    for (Replacement repl : replacements) {
-      checkArgument(
-          repl.endPosition() <= sourceBuilder.length(),
-          "End [%s] should not exceed source length [%s]",
-          repl.endPosition(),
-          sourceBuilder.length());
-
-      // Write the unmodified content leading up to this change
-      newContent.append(sourceBuilder, positionInOriginal, repl.startPosition());
-      // And the modified content for this change
-      newContent.append(repl.replaceWith());
-      // Then skip everything from source between start and end
-      positionInOriginal = repl.endPosition();
-    }
-    // Flush out any remaining content after the final change
-    newContent.append(sourceBuilder, positionInOriginal, sourceBuilder.length());
-    // Overwrite the contents of our old buffer. Note we mutate the existing StringBuilder rather
-    // than replacing it, because other clients may have a view of the content via getAsSequence,
-    // and we want that view to reflect the new content.
-    setSourceText(newContent);
+    // Since we have many replacements to make all at once, splice them all into the piece table in
+    // one pass, rather than making multiple separate replacements which each have to find their
+    // position again.
+    recordModification();
+    source.replaceAll(replacements);
   }
 }
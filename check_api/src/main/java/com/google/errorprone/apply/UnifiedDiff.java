@@ -0,0 +1,272 @@
+/*
+ * Copyright 2024 The Error Prone Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.errorprone.apply;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import com.google.errorprone.fixes.Replacement;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Generates unified diffs directly from the {@link Replacement}s made to a source file, rather than
+ * by diffing the old and new contents of the file.
+ *
+ * <p>Lines are bracketed by \n characters, and hunks are laid out like those of {@code
+ * com.github.difflib.UnifiedDiffUtils}: changes separated by at most twice the number of context
+ * lines share a hunk.
+ */
+final class UnifiedDiff {
+
+  private static final Splitter LINE_SPLITTER = Splitter.on('\n');
+
+  /** A change of a range of consecutive lines. */
+  private static final class Delta {
+    /** The index of the first changed line in the original source. */
+    final int sourcePosition;
+
+    /** The index of the first changed line in the updated source. */
+    final int targetPosition;
+
+    final List<String> sourceLines;
+    final List<String> targetLines;
+
+    Delta(
+        int sourcePosition,
+        int targetPosition,
+        List<String> sourceLines,
+        List<String> targetLines) {
+      this.sourcePosition = sourcePosition;
+      this.targetPosition = targetPosition;
+      this.sourceLines = sourceLines;
+      this.targetLines = targetLines;
+    }
+
+    int sourceEnd() {
+      return sourcePosition + sourceLines.size();
+    }
+  }
+
+  private final CharSequence source;
+
+  /** The start offset of each line of the source. */
+  private final int[] lineStarts;
+
+  private final List<Delta> deltas;
+
+  /**
+   * Creates the diff of the changes made by applying {@code replacements} to {@code source}.
+   *
+   * @param replacements non-overlapping replacements, in ascending order
+   */
+  static UnifiedDiff create(CharSequence source, ImmutableSet<Replacement> replacements) {
+    return new UnifiedDiff(source, replacements);
+  }
+
+  private UnifiedDiff(CharSequence source, ImmutableSet<Replacement> replacements) {
+    this.source = source;
+    this.lineStarts = lineStarts(source);
+    this.deltas = deltas(replacements);
+  }
+
+  /** Returns true if the replacements don't change any line. */
+  boolean isEmpty() {
+    return deltas.isEmpty();
+  }
+
+  /**
+   * Appends the diff to {@code out}. Nothing is appended if the diff {@link #isEmpty is empty}.
+   *
+   * @param path the path of the file in the {@code ---} and {@code +++} headers
+   * @param contextLines the number of unchanged lines to show around each change
+   */
+  void write(String path, int contextLines, Appendable out) throws IOException {
+    if (deltas.isEmpty()) {
+      return;
+    }
+    out.append("--- ").append(path).append('\n');
+    out.append("+++ ").append(path).append('\n');
+    int hunkStart = 0;
+    for (int i = 1; i <= deltas.size(); i++) {
+      if (i == deltas.size()
+          || deltas.get(i - 1).sourceEnd() + contextLines
+              < deltas.get(i).sourcePosition - contextLines) {
+        writeHunk(deltas.subList(hunkStart, i), contextLines, out);
+        hunkStart = i;
+      }
+    }
+  }
+
+  /**
+   * Returns the changed line ranges. Replacements touching the same lines are applied together, and
+   * lines that they leave unchanged at the start or end of a range are dropped from it.
+   */
+  private List<Delta> deltas(ImmutableSet<Replacement> replacements) {
+    List<Delta> deltas = new ArrayList<>();
+    // The difference between the number of lines before a line in the updated source and in the
+    // original source.
+    int lineOffset = 0;
+    PeekingIterator<Replacement> it = Iterators.peekingIterator(replacements.iterator());
+    while (it.hasNext()) {
+      Replacement replacement = it.next();
+      int firstLine = lineIndex(replacement.startPosition());
+      int lastLine = lineIndex(replacement.endPosition());
+      StringBuilder updated = new StringBuilder();
+      updated.append(source, lineStarts[firstLine], replacement.startPosition());
+      updated.append(replacement.replaceWith());
+      int position = replacement.endPosition();
+      while (it.hasNext() && lineIndex(it.peek().startPosition()) <= lastLine) {
+        replacement = it.next();
+        updated.append(source, position, replacement.startPosition());
+        updated.append(replacement.replaceWith());
+        position = replacement.endPosition();
+        lastLine = lineIndex(position);
+      }
+      updated.append(source, position, lineEnd(lastLine));
+
+      List<String> sourceLines = lines(firstLine, lastLine + 1);
+      List<String> targetLines = LINE_SPLITTER.splitToList(updated);
+      int common = Math.min(sourceLines.size(), targetLines.size());
+      int prefix = 0;
+      while (prefix < common && sourceLines.get(prefix).equals(targetLines.get(prefix))) {
+        prefix++;
+      }
+      int suffix = 0;
+      while (suffix < common - prefix
+          && sourceLines
+              .get(sourceLines.size() - 1 - suffix)
+              .equals(targetLines.get(targetLines.size() - 1 - suffix))) {
+        suffix++;
+      }
+      sourceLines = sourceLines.subList(prefix, sourceLines.size() - suffix);
+      targetLines = targetLines.subList(prefix, targetLines.size() - suffix);
+      if (sourceLines.isEmpty() && targetLines.isEmpty()) {
+        continue;
+      }
+
+      int sourcePosition = firstLine + prefix;
+      Delta previous = deltas.isEmpty() ? null : deltas.get(deltas.size() - 1);
+      if (previous != null && previous.sourceEnd() == sourcePosition) {
+        // Adjacent changes are a single change, as far as the diff is concerned.
+        deltas.set(
+            deltas.size() - 1,
+            new Delta(
+                previous.sourcePosition,
+                previous.targetPosition,
+                concat(previous.sourceLines, sourceLines),
+                concat(previous.targetLines, targetLines)));
+      } else {
+        deltas.add(
+            new Delta(sourcePosition, sourcePosition + lineOffset, sourceLines, targetLines));
+      }
+      lineOffset += targetLines.size() - sourceLines.size();
+    }
+    return deltas;
+  }
+
+  private void writeHunk(List<Delta> deltas, int contextLines, Appendable out) throws IOException {
+    Delta first = deltas.get(0);
+    Delta last = deltas.get(deltas.size() - 1);
+    int leadingContextStart = Math.max(0, first.sourcePosition - contextLines);
+    int trailingContextEnd = Math.min(lineStarts.length, last.sourceEnd() + contextLines);
+
+    int unchangedLines = 0;
+    int sourceLines = 0;
+    int targetLines = 0;
+    int position = leadingContextStart;
+    for (Delta delta : deltas) {
+      unchangedLines += delta.sourcePosition - position;
+      sourceLines += delta.sourceLines.size();
+      targetLines += delta.targetLines.size();
+      position = delta.sourceEnd();
+    }
+    unchangedLines += Math.max(0, trailingContextEnd - position);
+
+    out.append("@@ -")
+        .append(Integer.toString(Math.max(1, first.sourcePosition + 1 - contextLines)))
+        .append(',')
+        .append(Integer.toString(unchangedLines + sourceLines))
+        .append(" +")
+        .append(Integer.toString(Math.max(1, first.targetPosition + 1 - contextLines)))
+        .append(',')
+        .append(Integer.toString(unchangedLines + targetLines))
+        .append(" @@\n");
+    position = leadingContextStart;
+    for (Delta delta : deltas) {
+      writeLines(' ', lines(position, delta.sourcePosition), out);
+      writeLines('-', delta.sourceLines, out);
+      writeLines('+', delta.targetLines, out);
+      position = delta.sourceEnd();
+    }
+    writeLines(' ', lines(position, Math.max(position, trailingContextEnd)), out);
+  }
+
+  private static void writeLines(char prefix, List<String> lines, Appendable out)
+      throws IOException {
+    for (String line : lines) {
+      out.append(prefix).append(line).append('\n');
+    }
+  }
+
+  /** Returns the lines of the original source from {@code start}, inclusive, to {@code end}. */
+  private List<String> lines(int start, int end) {
+    List<String> lines = new ArrayList<>(end - start);
+    for (int line = start; line < end; line++) {
+      lines.add(source.subSequence(lineStarts[line], lineEnd(line)).toString());
+    }
+    return lines;
+  }
+
+  /** Returns the index of the line containing {@code position}. */
+  private int lineIndex(int position) {
+    int index = Arrays.binarySearch(lineStarts, position);
+    return index >= 0 ? index : -index - 2;
+  }
+
+  /** Returns the end of the given line, excluding its newline. */
+  private int lineEnd(int line) {
+    return line + 1 < lineStarts.length ? lineStarts[line + 1] - 1 : source.length();
+  }
+
+  private static int[] lineStarts(CharSequence source) {
+    int lineCount = 1;
+    for (int i = 0; i < source.length(); i++) {
+      if (source.charAt(i) == '\n') {
+        lineCount++;
+      }
+    }
+    int[] lineStarts = new int[lineCount];
+    int line = 1;
+    for (int i = 0; i < source.length(); i++) {
+      if (source.charAt(i) == '\n') {
+        lineStarts[line++] = i + 1;
+      }
+    }
+    return lineStarts;
+  }
+
+  private static List<String> concat(List<String> a, List<String> b) {
+    List<String> result = new ArrayList<>(a.size() + b.size());
+    result.addAll(a);
+    result.addAll(b);
+    return result;
+  }
+}
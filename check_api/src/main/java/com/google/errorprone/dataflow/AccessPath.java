@@ -15,7 +15,6 @@
  */
 package com.google.errorprone.dataflow;
 
-import com.google.auto.value.AutoValue;
 import com.google.common.collect.ImmutableList;
 import com.google.errorprone.util.MoreAnnotations;
 import com.sun.source.tree.IdentifierTree;
@@ -28,6 +27,11 @@ import com.sun.tools.javac.tree.JCTree.JCExpression;
 import com.sun.tools.javac.tree.JCTree.JCFieldAccess;
 import com.sun.tools.javac.tree.JCTree.JCIdent;
 import com.sun.tools.javac.tree.JCTree.JCMethodInvocation;
+import com.sun.tools.javac.util.Name;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
 import javax.annotation.Nullable;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.ElementKind;
@@ -42,7 +46,7 @@ import org.checkerframework.errorprone.javacutil.TreeUtils;
 /**
  * A sequence of field names or autovalue accessors, along with a receiver: either a variable or a
  * reference (explicit or implicit) to {@code this}. Fields and autovalue accessors are stored as
- * strings, with a "()" appended to accessor names to distinguish them from fields of the same name
+ * names, with a "()" appended to accessor names to distinguish them from fields of the same name
  *
  * <p>For example:
  *
@@ -55,19 +59,58 @@ import org.checkerframework.errorprone.javacutil.TreeUtils;
  * <p>{@code x.foo().foo}, the {@code foo} field of the {@code foo()} autovalue accessor of the
  * local variable {@code x} is represented by {base = Some x, fields = "foo" :: "foo()" :: nil}
  *
+ * <p>Access paths are compared by value, but their hash codes are cached, and an {@link Interner}
+ * hands out a single instance per access path so that lookups in an {@link AccessPathStore} usually
+ * succeed on reference equality.
+ *
  * @author bennostein@google.com (Benno Stein)
  */
-@AutoValue
-public abstract class AccessPath {
+public class AccessPath {
+
+  @Nullable private final Element base;
+  private final ImmutableList<Name> path;
+  private final int hashCode;
+
+  private AccessPath(@Nullable Element base, ImmutableList<Name> path) {
+    this.base = base;
+    this.path = path;
+    this.hashCode = 31 * Objects.hashCode(base) + path.hashCode();
+  }
 
   /** If present, base of access path is contained Element; if absent, base is `this` */
   @Nullable
-  public abstract Element base();
+  public Element base() {
+    return base;
+  }
+
+  public ImmutableList<Name> path() {
+    return path;
+  }
+
+  private static AccessPath create(@Nullable Element base, ImmutableList<Name> path) {
+    return new AccessPath(base, path);
+  }
 
-  public abstract ImmutableList<String> path();
+  @Override
+  public boolean equals(@Nullable Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof AccessPath)) {
+      return false;
+    }
+    AccessPath that = (AccessPath) obj;
+    return hashCode == that.hashCode && Objects.equals(base, that.base) && path.equals(that.path);
+  }
 
-  private static AccessPath create(@Nullable Element base, ImmutableList<String> path) {
-    return new AutoValue_AccessPath(base, path);
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+
+  @Override
+  public String toString() {
+    return "AccessPath{base=" + base + ", path=" + path + "}";
   }
 
   /**
@@ -113,18 +156,19 @@ public abstract class AccessPath {
    */
   @Nullable
   public static AccessPath fromFieldAccess(FieldAccessNode fieldAccess) {
-    ImmutableList.Builder<String> pathBuilder = ImmutableList.builder();
+    ImmutableList.Builder<Name> pathBuilder = ImmutableList.builder();
 
     Tree tree = fieldAccess.getTree();
     boolean isFieldAccess;
     while ((isFieldAccess = TreeUtils.isFieldAccess(tree)) || isAutoValueAccessor(tree)) {
       if (isFieldAccess) {
-        pathBuilder.add(TreeUtils.getFieldName(tree));
+        pathBuilder.add(name(tree));
       } else {
         // Must be an AutoValue accessor, since the `while` condition held but the `if` didn't.
         // Unwrap the method select from the call
         tree = ((MethodInvocationTree) tree).getMethodSelect();
-        pathBuilder.add(TreeUtils.getMethodName(tree) + "()");
+        Name methodName = name(tree);
+        pathBuilder.add(methodName.table.fromString(methodName + "()"));
       }
 
       if (tree.getKind() == Kind.IDENTIFIER) {
@@ -149,6 +193,11 @@ public abstract class AccessPath {
     return null;
   }
 
+  /** Returns the name of a field or method identifier or member select. */
+  private static Name name(Tree tree) {
+    return tree instanceof JCFieldAccess ? ((JCFieldAccess) tree).name : ((JCIdent) tree).name;
+  }
+
   public static AccessPath fromLocalVariable(LocalVariableNode node) {
     return AccessPath.create(node.getElement(), ImmutableList.of());
   }
@@ -174,4 +223,61 @@ public abstract class AccessPath {
     }
     return null;
   }
+
+  /**
+   * Hands out one instance per access path, and remembers the access path of each CFG node it was
+   * asked about, so that analyzing a node again neither walks its tree nor allocates. Meant to be
+   * used for one analysis at a time and {@linkplain #clear cleared} in between, since it holds on
+   * to the nodes of the analyzed CFGs.
+   */
+  public static final class Interner {
+    private final Map<AccessPath, AccessPath> accessPaths = new HashMap<>();
+    // Untrackable nodes are mapped to null.
+    private final Map<Node, AccessPath> nodes = new IdentityHashMap<>();
+
+    /** Returns the canonical instance of {@code accessPath}. */
+    public AccessPath intern(AccessPath accessPath) {
+      AccessPath canonical = accessPaths.putIfAbsent(accessPath, accessPath);
+      return canonical != null ? canonical : accessPath;
+    }
+
+    /** Like {@link AccessPath#fromFieldAccess}, but returns an interned access path. */
+    @Nullable
+    public AccessPath fromFieldAccess(FieldAccessNode fieldAccess) {
+      return fromNodeIfTrackable(fieldAccess);
+    }
+
+    /** Like {@link AccessPath#fromLocalVariable}, but returns an interned access path. */
+    public AccessPath fromLocalVariable(LocalVariableNode node) {
+      return fromNodeIfTrackable(node);
+    }
+
+    /** Like {@link AccessPath#fromVariableDecl}, but returns an interned access path. */
+    public AccessPath fromVariableDecl(VariableDeclarationNode node) {
+      return fromNodeIfTrackable(node);
+    }
+
+    /** Like {@link AccessPath#fromNodeIfTrackable}, but returns an interned access path. */
+    @Nullable
+    public AccessPath fromNodeIfTrackable(Node node) {
+      if (node instanceof AssignmentNode) {
+        return fromNodeIfTrackable(((AssignmentNode) node).getTarget());
+      }
+      AccessPath result = nodes.get(node);
+      if (result == null && !nodes.containsKey(node)) {
+        result = AccessPath.fromNodeIfTrackable(node);
+        if (result != null) {
+          result = intern(result);
+        }
+        nodes.put(node, result);
+      }
+      return result;
+    }
+
+    /** Forgets all access paths and nodes. */
+    public void clear() {
+      accessPaths.clear();
+      nodes.clear();
+    }
+  }
 }
@@ -17,13 +17,9 @@
 package com.google.errorprone.dataflow;
 
 import static com.google.common.base.Preconditions.checkNotNull;
-import static com.google.common.collect.Sets.intersection;
 
-import com.google.auto.value.AutoValue;
 import com.google.common.collect.ImmutableMap;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
-import java.util.LinkedHashMap;
-import java.util.Map;
 import javax.annotation.Nullable;
 import org.checkerframework.errorprone.dataflow.analysis.AbstractValue;
 import org.checkerframework.errorprone.dataflow.analysis.Store;
@@ -36,22 +32,37 @@ import org.checkerframework.errorprone.dataflow.expression.JavaExpression;
  * <p>To derive a new instance, {@linkplain #toBuilder() create a builder} from an old instance. To
  * start from scratch, call {@link #empty()}.
  *
+ * <p>Stores are persistent maps: a store derived from another shares the entries it didn't change
+ * with it, so that deriving a store costs time proportional to the number of changes, and the
+ * {@linkplain #leastUpperBound least upper bound} of two stores derived from a common one only
+ * visits the entries that either of them changed.
+ *
  * @author bennostein@google.com (Benno Stein)
  */
-@AutoValue
-public abstract class AccessPathStore<V extends AbstractValue<V>>
+public final class AccessPathStore<V extends AbstractValue<V>>
     implements Store<AccessPathStore<V>>, AccessPathValues<V> {
 
-  public abstract ImmutableMap<AccessPath, V> heap();
+  private final PersistentHashMap<AccessPath, V> heap;
 
-  private static <V extends AbstractValue<V>> AccessPathStore<V> create(
-      ImmutableMap<AccessPath, V> heap) {
-    return new AutoValue_AccessPathStore<>(heap);
+  private AccessPathStore(PersistentHashMap<AccessPath, V> heap) {
+    this.heap = heap;
+  }
+
+  /**
+   * Returns the values of this store. This copies the store, so prefer {@link #valueOfAccessPath}.
+   */
+  public ImmutableMap<AccessPath, V> heap() {
+    return heap.toImmutableMap();
   }
 
   @SuppressWarnings({"unchecked", "rawtypes"}) // fully variant
   private static final AccessPathStore<?> EMPTY =
-      AccessPathStore.<AbstractValue>create(ImmutableMap.of());
+      AccessPathStore.<AbstractValue>create(PersistentHashMap.empty());
+
+  private static <V extends AbstractValue<V>> AccessPathStore<V> create(
+      PersistentHashMap<AccessPath, V> heap) {
+    return new AccessPathStore<>(heap);
+  }
 
   @SuppressWarnings("unchecked") // fully variant
   public static <V extends AbstractValue<V>> AccessPathStore<V> empty() {
@@ -60,7 +71,7 @@ public abstract class AccessPathStore<V extends AbstractValue<V>>
 
   @Nullable
   private V getInformation(AccessPath ap) {
-    return heap().get(checkNotNull(ap));
+    return heap.get(checkNotNull(ap));
   }
 
   public Builder<V> toBuilder() {
@@ -81,11 +92,17 @@ public abstract class AccessPathStore<V extends AbstractValue<V>>
 
   @Override
   public AccessPathStore<V> leastUpperBound(AccessPathStore<V> other) {
-    ImmutableMap.Builder<AccessPath, V> resultHeap = ImmutableMap.builder();
-    for (AccessPath aPath : intersection(heap().keySet(), other.heap().keySet())) {
-      resultHeap.put(aPath, heap().get(aPath).leastUpperBound(other.heap().get(aPath)));
+    if (this == other) {
+      return this;
+    }
+    PersistentHashMap<AccessPath, V> resultHeap = heap.intersect(other.heap, V::leastUpperBound);
+    if (resultHeap == heap) {
+      return this;
+    }
+    if (resultHeap == other.heap) {
+      return other;
     }
-    return AccessPathStore.create(resultHeap.buildOrThrow());
+    return create(resultHeap);
   }
 
   @Override
@@ -104,26 +121,44 @@ public abstract class AccessPathStore<V extends AbstractValue<V>>
     throw new UnsupportedOperationException("DOT output not supported");
   }
 
+  @Override
+  public boolean equals(@Nullable Object obj) {
+    return this == obj
+        || (obj instanceof AccessPathStore && heap.equals(((AccessPathStore<?>) obj).heap));
+  }
+
+  @Override
+  public int hashCode() {
+    return heap.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return "AccessPathStore{heap=" + heap + "}";
+  }
+
   /**
    * Builder for {@link AccessPathStore} instances. To obtain an instance, obtain a {@link
    * AccessPathStore} (such as {@link AccessPathStore#empty()}), and call {@link
    * AccessPathStore#toBuilder() toBuilder()} on it.
    */
   public static final class Builder<V extends AbstractValue<V>> {
-    private final Map<AccessPath, V> heap;
+    private final AccessPathStore<V> prototype;
+    private PersistentHashMap<AccessPath, V> heap;
 
     Builder(AccessPathStore<V> prototype) {
-      this.heap = new LinkedHashMap<>(prototype.heap());
+      this.prototype = prototype;
+      this.heap = prototype.heap;
     }
 
     @CanIgnoreReturnValue
     public Builder<V> setInformation(AccessPath aPath, V value) {
-      heap.put(checkNotNull(aPath), checkNotNull(value));
+      heap = heap.put(checkNotNull(aPath), checkNotNull(value));
       return this;
     }
 
     public AccessPathStore<V> build() {
-      return AccessPathStore.create(ImmutableMap.copyOf(heap));
+      return heap == prototype.heap ? prototype : create(heap);
     }
   }
 }
@@ -16,9 +16,8 @@
 
 package com.google.errorprone.dataflow;
 
-import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
-import com.github.benmanes.caffeine.cache.LoadingCache;
 import com.google.auto.value.AutoValue;
 import com.google.common.base.Preconditions;
 import com.sun.source.tree.BlockTree;
@@ -32,6 +31,8 @@ import com.sun.source.tree.VariableTree;
 import com.sun.source.util.TreePath;
 import com.sun.tools.javac.processing.JavacProcessingEnvironment;
 import com.sun.tools.javac.util.Context;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import javax.annotation.Nullable;
 import javax.annotation.processing.ProcessingEnvironment;
 import org.checkerframework.errorprone.dataflow.analysis.AbstractValue;
@@ -60,71 +61,131 @@ public final class DataFlow {
   }
 
   /*
-   * We cache both the control flow graph and the analyses that are run on it.
-   * We tuned performance to the following assumptions (which are currently true for error-prone):
-   *
-   * <ul>
-   * <li> all dataflow analyses for a method are finished before another method is analyzed
-   * <li> multiple dataflow analyses for the same method are executed in arbitrary order
-   * </ul>
-   *
-   * TODO(b/158869538): Write a test that checks these assumptions
+   * We cache the control flow graphs of the methods, lambdas and initializers of each compilation
+   * unit, and the analyses that are run on them, until Error Prone has finished scanning the unit
+   * (see clearCache). Checks analyze methods in arbitrary order, for example a lambda and then its
+   * enclosing method, so the caches aren't limited to the method that was analyzed most recently.
+   * They are bounded, though, to limit the memory held for very large compilation units.
    */
-  private static final LoadingCache<AnalysisParams, Analysis<?, ?, ?>> analysisCache =
-      Caffeine.newBuilder()
-          .build(
-              new CacheLoader<AnalysisParams, Analysis<?, ?, ?>>() {
-                @Override
-                public Analysis<?, ?, ?> load(AnalysisParams key) {
-                  ControlFlowGraph cfg = key.cfg();
-                  ForwardTransferFunction<?, ?> transfer = key.transferFunction();
-
-                  @SuppressWarnings({"unchecked", "rawtypes"})
-                  Analysis<?, ?, ?> analysis = new ForwardAnalysisImpl(transfer);
-                  analysis.performAnalysis(cfg);
-                  return analysis;
-                }
-              });
-
-  private static final LoadingCache<CfgParams, ControlFlowGraph> cfgCache =
-      Caffeine.newBuilder()
-          .maximumSize(1)
-          .build(
-              new CacheLoader<CfgParams, ControlFlowGraph>() {
-                @Override
-                public ControlFlowGraph load(CfgParams key) {
-                  TreePath methodPath = key.methodPath();
-                  UnderlyingAST ast;
-                  ClassTree classTree = null;
-                  MethodTree methodTree = null;
-                  for (Tree parent : methodPath) {
-                    if (parent instanceof MethodTree) {
-                      methodTree = (MethodTree) parent;
-                    }
-                    if (parent instanceof ClassTree) {
-                      classTree = (ClassTree) parent;
-                      break;
-                    }
-                  }
-                  if (methodPath.getLeaf() instanceof LambdaExpressionTree) {
-                    ast =
-                        new UnderlyingAST.CFGLambda(
-                            (LambdaExpressionTree) methodPath.getLeaf(), classTree, methodTree);
-                  } else if (methodPath.getLeaf() instanceof MethodTree) {
-                    methodTree = (MethodTree) methodPath.getLeaf();
-                    ast = new UnderlyingAST.CFGMethod(methodTree, classTree);
-                  } else {
-                    // must be an initializer per findEnclosingMethodOrLambdaOrInitializer
-                    ast = new UnderlyingAST.CFGStatement(methodPath.getLeaf(), classTree);
-                  }
-                  ProcessingEnvironment env = key.environment();
-
-                  analysisCache.invalidateAll();
-                  CompilationUnitTree root = methodPath.getCompilationUnit();
-                  // TODO(b/158869538): replace with faster build(bodyPath, env, ast, false, false);
-                  return CFGBuilder.build(root, ast, false, false, env);
-                }
-              });
+  private static final int MAX_CACHED_CFGS = 64;
+
+  private static final int MAX_CACHED_ANALYSES = 256;
+
+  private static final Cache<CompilationUnitTree, CompilationUnitCache> compilationUnitCaches =
+      Caffeine.newBuilder().weakKeys().build();
+
+  /** The CFGs and analyses computed for one compilation unit. */
+  private static final class CompilationUnitCache {
+    // Keyed by the method, lambda or initializer the CFG was built for.
+    private final Map<Tree, ControlFlowGraph> cfgs = lruMap(MAX_CACHED_CFGS);
+    private final Map<AnalysisParams, Analysis<?, ?, ?>> analyses = lruMap(MAX_CACHED_ANALYSES);
+
+    private long cfgHits;
+    private long cfgMisses;
+    private long analysisHits;
+    private long analysisMisses;
+
+    synchronized ControlFlowGraph cfg(TreePath methodPath, ProcessingEnvironment env) {
+      ControlFlowGraph cfg = cfgs.get(methodPath.getLeaf());
+      if (cfg != null) {
+        cfgHits++;
+        return cfg;
+      }
+      cfgMisses++;
+      cfg = buildCfg(methodPath, env);
+      cfgs.put(methodPath.getLeaf(), cfg);
+      return cfg;
+    }
+
+    synchronized Analysis<?, ?, ?> analysis(AnalysisParams key) {
+      Analysis<?, ?, ?> analysis = analyses.get(key);
+      if (analysis != null) {
+        analysisHits++;
+        return analysis;
+      }
+      analysisMisses++;
+      @SuppressWarnings({"unchecked", "rawtypes"})
+      Analysis<?, ?, ?> newAnalysis = new ForwardAnalysisImpl(key.transferFunction());
+      newAnalysis.performAnalysis(key.cfg());
+      analyses.put(key, newAnalysis);
+      return newAnalysis;
+    }
+
+    synchronized CacheStats stats() {
+      return new AutoValue_DataFlow_CacheStats(cfgHits, cfgMisses, analysisHits, analysisMisses);
+    }
+
+    private static <K, V> Map<K, V> lruMap(int maxSize) {
+      return new LinkedHashMap<K, V>(16, 0.75f, /* accessOrder= */ true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+          return size() > maxSize;
+        }
+      };
+    }
+  }
+
+  private static ControlFlowGraph buildCfg(TreePath methodPath, ProcessingEnvironment env) {
+    UnderlyingAST ast;
+    ClassTree classTree = null;
+    MethodTree methodTree = null;
+    for (Tree parent : methodPath) {
+      if (parent instanceof MethodTree) {
+        methodTree = (MethodTree) parent;
+      }
+      if (parent instanceof ClassTree) {
+        classTree = (ClassTree) parent;
+        break;
+      }
+    }
+    if (methodPath.getLeaf() instanceof LambdaExpressionTree) {
+      ast =
+          new UnderlyingAST.CFGLambda(
+              (LambdaExpressionTree) methodPath.getLeaf(), classTree, methodTree);
+    } else if (methodPath.getLeaf() instanceof MethodTree) {
+      methodTree = (MethodTree) methodPath.getLeaf();
+      ast = new UnderlyingAST.CFGMethod(methodTree, classTree);
+    } else {
+      // must be an initializer per findEnclosingMethodOrLambdaOrInitializer
+      ast = new UnderlyingAST.CFGStatement(methodPath.getLeaf(), classTree);
+    }
+    // Building from the path to the code being analyzed, rather than from the compilation unit,
+    // saves CFGBuilder from searching the whole compilation unit for it.
+    TreePath codePath =
+        ast.getCode() == methodPath.getLeaf()
+            ? methodPath
+            : new TreePath(methodPath, ast.getCode());
+    return CFGBuilder.build(codePath, ast, false, false, env);
+  }
+
+  /**
+   * Discards the CFGs and analyses cached for {@code compilationUnit}. Called once Error Prone has
+   * finished scanning it.
+   */
+  public static void clearCache(CompilationUnitTree compilationUnit) {
+    compilationUnitCaches.invalidate(compilationUnit);
+  }
+
+  /**
+   * Returns how often the CFGs and analyses requested so far for {@code compilationUnit} were found
+   * in its cache. The counts start over once the cache has been {@linkplain #clearCache cleared}.
+   */
+  public static CacheStats cacheStats(CompilationUnitTree compilationUnit) {
+    CompilationUnitCache cache = compilationUnitCaches.getIfPresent(compilationUnit);
+    return cache != null ? cache.stats() : new AutoValue_DataFlow_CacheStats(0, 0, 0, 0);
+  }
+
+  /** Hit and miss counts for the CFG and analysis caches. */
+  @AutoValue
+  public abstract static class CacheStats {
+    public abstract long cfgHits();
+
+    public abstract long cfgMisses();
+
+    public abstract long analysisHits();
+
+    public abstract long analysisMisses();
+  }
 
   // TODO(b/158869538): remove once we merge jdk8 specific's with core
   @Nullable
@@ -159,7 +220,7 @@ public final class DataFlow {
    * Run the {@code transfer} dataflow analysis over the method or lambda which is the leaf of the
    * {@code methodPath}.
    *
-   * <p>For caching, we make the following assumptions: - if two paths to methods are {@code equal},
+   * <p>For caching, we make the following assumptions: - if two paths lead to the same method,
    * their control flow graph is the same. - if two transfer functions are {@code equal}, and are
    * run over the same control flow graph, the analysis result is the same. - for all contexts, the
    * analysis result is the same.
@@ -169,10 +230,13 @@ public final class DataFlow {
       Result<A, S, T> methodDataflow(TreePath methodPath, Context context, T transfer) {
     ProcessingEnvironment env = JavacProcessingEnvironment.instance(context);
 
-    ControlFlowGraph cfg = cfgCache.get(CfgParams.create(methodPath, env));
-    AnalysisParams aparams = AnalysisParams.create(transfer, cfg, env);
+    CompilationUnitCache cache =
+        compilationUnitCaches.get(
+            methodPath.getCompilationUnit(), unused -> new CompilationUnitCache());
+    ControlFlowGraph cfg = cache.cfg(methodPath, env);
     @SuppressWarnings("unchecked")
-    Analysis<A, S, T> analysis = (Analysis<A, S, T>) analysisCache.get(aparams);
+    Analysis<A, S, T> analysis =
+        (Analysis<A, S, T>) cache.analysis(AnalysisParams.create(transfer, cfg));
 
     return new Result<A, S, T>() {
       @Override
@@ -229,24 +293,6 @@ public final class DataFlow {
     return methodDataflow(enclosingMethodPath, context, transfer).getAnalysis().getValue(expr);
   }
 
-  @AutoValue
-  abstract static class CfgParams {
-    abstract TreePath methodPath();
-
-    // Should not be used for hashCode or equals
-    private ProcessingEnvironment environment;
-
-    private static CfgParams create(TreePath methodPath, ProcessingEnvironment environment) {
-      CfgParams cp = new AutoValue_DataFlow_CfgParams(methodPath);
-      cp.environment = environment;
-      return cp;
-    }
-
-    ProcessingEnvironment environment() {
-      return environment;
-    }
-  }
-
   @AutoValue
   abstract static class AnalysisParams {
 
@@ -254,20 +300,9 @@ public final class DataFlow {
 
     abstract ControlFlowGraph cfg();
 
-    // Should not be used for hashCode or equals
-    private ProcessingEnvironment environment;
-
     private static AnalysisParams create(
-        ForwardTransferFunction<?, ?> transferFunction,
-        ControlFlowGraph cfg,
-        ProcessingEnvironment environment) {
-      AnalysisParams ap = new AutoValue_DataFlow_AnalysisParams(transferFunction, cfg);
-      ap.environment = environment;
-      return ap;
-    }
-
-    ProcessingEnvironment environment() {
-      return environment;
+        ForwardTransferFunction<?, ?> transferFunction, ControlFlowGraph cfg) {
+      return new AutoValue_DataFlow_AnalysisParams(transferFunction, cfg);
     }
   }
 
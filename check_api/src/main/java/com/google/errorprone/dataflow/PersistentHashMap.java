@@ -0,0 +1,480 @@
+/*
+ * Copyright 2024 The Error Prone Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.errorprone.dataflow;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import javax.annotation.Nullable;
+
+/**
+ * An immutable hash map, stored as a hash array mapped trie, whose updates copy only the path to
+ * the changed entry and share the rest of the trie with the original map.
+ *
+ * <p>The shape of the trie only depends on its entries, so maps derived from a common ancestor
+ * share the subtries they didn't change, and {@link #intersect} and {@link #equals} skip shared
+ * subtries without looking inside them.
+ */
+final class PersistentHashMap<K, V> {
+
+  private static final int BITS = 5;
+  private static final int MASK = (1 << BITS) - 1;
+
+  /** The number of hash bits consumed by the levels above a collision node. */
+  private static final int MAX_SHIFT = 30;
+
+  /** A key and its value, stored in the trie. */
+  private static final class Entry<K, V> {
+    final K key;
+    final V value;
+    final int hash;
+
+    Entry(K key, V value, int hash) {
+      this.key = key;
+      this.value = value;
+      this.hash = hash;
+    }
+  }
+
+  /**
+   * A level of the trie. Each set bit of the bitmap selects a slot, holding either an {@link Entry}
+   * or a child node. At the bottom of the trie, entries whose hashes are equal are stored in a node
+   * without a bitmap.
+   */
+  private static final class Node {
+    final int bitmap;
+    final Object[] slots;
+
+    /** The number of entries in this subtrie. */
+    final int size;
+
+    Node(int bitmap, Object[] slots) {
+      this.bitmap = bitmap;
+      this.slots = slots;
+      int size = 0;
+      for (Object slot : slots) {
+        size += slot instanceof Entry ? 1 : ((Node) slot).size;
+      }
+      this.size = size;
+    }
+  }
+
+  private static final Node EMPTY_NODE = new Node(0, new Object[0]);
+
+  @SuppressWarnings({"unchecked", "rawtypes"}) // fully variant
+  private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap(EMPTY_NODE);
+
+  @SuppressWarnings("unchecked") // fully variant
+  static <K, V> PersistentHashMap<K, V> empty() {
+    return (PersistentHashMap<K, V>) EMPTY;
+  }
+
+  private final Node root;
+  private int hashCode;
+
+  private PersistentHashMap(Node root) {
+    this.root = root;
+  }
+
+  int size() {
+    return root.size;
+  }
+
+  boolean isEmpty() {
+    return root.size == 0;
+  }
+
+  @Nullable
+  V get(Object key) {
+    int hash = hash(key);
+    Node node = root;
+    for (int shift = 0; ; shift += BITS) {
+      Object slot;
+      if (shift > MAX_SHIFT) {
+        return collisionGet(node, key);
+      }
+      int bit = bit(hash, shift);
+      if ((node.bitmap & bit) == 0) {
+        return null;
+      }
+      slot = node.slots[index(node.bitmap, bit)];
+      if (slot instanceof Entry) {
+        @SuppressWarnings("unchecked")
+        Entry<K, V> entry = (Entry<K, V>) slot;
+        return entry.hash == hash && entry.key.equals(key) ? entry.value : null;
+      }
+      node = (Node) slot;
+    }
+  }
+
+  /**
+   * Returns a map with {@code key} mapped to {@code value}, or this map if {@code key} is already
+   * mapped to an equal value.
+   */
+  PersistentHashMap<K, V> put(K key, V value) {
+    checkNotNull(key);
+    checkNotNull(value);
+    if (value.equals(get(key))) {
+      return this;
+    }
+    return new PersistentHashMap<>(put(root, new Entry<>(key, value, hash(key)), 0));
+  }
+
+  private static <K, V> Node put(Node node, Entry<K, V> entry, int shift) {
+    if (shift > MAX_SHIFT) {
+      return collisionPut(node, entry);
+    }
+    int bit = bit(entry.hash, shift);
+    int index = index(node.bitmap, bit);
+    if ((node.bitmap & bit) == 0) {
+      Object[] slots = new Object[node.slots.length + 1];
+      System.arraycopy(node.slots, 0, slots, 0, index);
+      slots[index] = entry;
+      System.arraycopy(node.slots, index, slots, index + 1, node.slots.length - index);
+      return new Node(node.bitmap | bit, slots);
+    }
+    Object slot = node.slots[index];
+    Object replacement;
+    if (slot instanceof Entry) {
+      @SuppressWarnings("unchecked")
+      Entry<K, V> existing = (Entry<K, V>) slot;
+      replacement =
+          existing.hash == entry.hash && existing.key.equals(entry.key)
+              ? entry
+              : put(put(EMPTY_NODE, existing, shift + BITS), entry, shift + BITS);
+    } else {
+      replacement = put((Node) slot, entry, shift + BITS);
+    }
+    Object[] slots = node.slots.clone();
+    slots[index] = replacement;
+    return new Node(node.bitmap, slots);
+  }
+
+  /**
+   * Returns the map of the keys in both this map and {@code other}, mapped to {@code merge} of
+   * their values in the two maps. Returns this map or {@code other} if the result has the same
+   * entries as either of them.
+   *
+   * @param merge an idempotent function: subtries shared by both maps are kept without merging
+   */
+  PersistentHashMap<K, V> intersect(PersistentHashMap<K, V> other, BinaryOperator<V> merge) {
+    if (root == other.root) {
+      return this;
+    }
+    // At the root, the intersection is always a node, unless it's empty.
+    Node newRoot = (Node) intersect(root, other.root, 0, merge);
+    if (newRoot == null) {
+      return empty();
+    }
+    if (newRoot == root) {
+      return this;
+    }
+    if (newRoot == other.root) {
+      return other;
+    }
+    return new PersistentHashMap<>(newRoot);
+  }
+
+  /**
+   * Intersects two subtries at the same position. Returns null if the intersection is empty, an
+   * {@link Entry} if it has a single entry, and a node otherwise.
+   */
+  @Nullable
+  private static <K, V> Object intersect(Node a, Node b, int shift, BinaryOperator<V> merge) {
+    if (a == b) {
+      return a;
+    }
+    if (shift > MAX_SHIFT) {
+      List<Object> entries = new ArrayList<>();
+      for (Object slot : a.slots) {
+        Object merged = intersect(slot, b, shift, merge);
+        if (merged != null) {
+          entries.add(merged);
+        }
+      }
+      return collapse(a, b, 0, entries.toArray(), shift);
+    }
+    int bitmap = 0;
+    int common = a.bitmap & b.bitmap;
+    Object[] slots = new Object[Integer.bitCount(common)];
+    int count = 0;
+    for (int bits = common; bits != 0; bits &= bits - 1) {
+      int bit = bits & -bits;
+      Object slotA = a.slots[index(a.bitmap, bit)];
+      Object slotB = b.slots[index(b.bitmap, bit)];
+      Object merged;
+      if (slotA instanceof Entry) {
+        merged = intersect(slotA, slotB, shift + BITS, merge);
+      } else if (slotB instanceof Entry) {
+        merged = intersectEntry(slotB, (Node) slotA, shift + BITS, merge, /* entryFirst= */ false);
+      } else {
+        merged = intersect((Node) slotA, (Node) slotB, shift + BITS, merge);
+      }
+      if (merged != null) {
+        bitmap |= bit;
+        slots[count++] = merged;
+      }
+    }
+    return collapse(a, b, bitmap, Arrays.copyOf(slots, count), shift);
+  }
+
+  /** Intersects an entry of one map with the slot at the same position of the other. */
+  @Nullable
+  private static <K, V> Object intersect(
+      Object entry, Object slot, int shift, BinaryOperator<V> merge) {
+    if (slot instanceof Entry) {
+      @SuppressWarnings("unchecked")
+      Entry<K, V> a = (Entry<K, V>) entry;
+      @SuppressWarnings("unchecked")
+      Entry<K, V> b = (Entry<K, V>) slot;
+      return a.hash == b.hash && a.key.equals(b.key) ? mergeEntries(a, b, merge) : null;
+    }
+    return intersectEntry(entry, (Node) slot, shift, merge, /* entryFirst= */ true);
+  }
+
+  @Nullable
+  private static <K, V> Object intersectEntry(
+      Object entry, Node node, int shift, BinaryOperator<V> merge, boolean entryFirst) {
+    @SuppressWarnings("unchecked")
+    Entry<K, V> e = (Entry<K, V>) entry;
+    Entry<K, V> match = find(node, e, shift);
+    if (match == null) {
+      return null;
+    }
+    return entryFirst ? mergeEntries(e, match, merge) : mergeEntries(match, e, merge);
+  }
+
+  /** Returns the entry of the subtrie {@code node} with the same key as {@code entry}, if any. */
+  @Nullable
+  private static <K, V> Entry<K, V> find(Node node, Entry<K, V> entry, int shift) {
+    for (; ; shift += BITS) {
+      Object slot;
+      if (shift > MAX_SHIFT) {
+        for (Object candidate : node.slots) {
+          @SuppressWarnings("unchecked")
+          Entry<K, V> c = (Entry<K, V>) candidate;
+          if (c.key.equals(entry.key)) {
+            return c;
+          }
+        }
+        return null;
+      }
+      int bit = bit(entry.hash, shift);
+      if ((node.bitmap & bit) == 0) {
+        return null;
+      }
+      slot = node.slots[index(node.bitmap, bit)];
+      if (slot instanceof Entry) {
+        @SuppressWarnings("unchecked")
+        Entry<K, V> candidate = (Entry<K, V>) slot;
+        return candidate.hash == entry.hash && candidate.key.equals(entry.key) ? candidate : null;
+      }
+      node = (Node) slot;
+    }
+  }
+
+  /** Merges the values of two entries with equal keys, reusing either entry if possible. */
+  private static <K, V> Entry<K, V> mergeEntries(
+      Entry<K, V> a, Entry<K, V> b, BinaryOperator<V> merge) {
+    if (a == b) {
+      return a;
+    }
+    V value = merge.apply(a.value, b.value);
+    if (value.equals(a.value)) {
+      return a;
+    }
+    if (value.equals(b.value)) {
+      return b;
+    }
+    return new Entry<>(a.key, value, a.hash);
+  }
+
+  /**
+   * Builds the node for the intersection of {@code a} and {@code b}, or reuses either of them if it
+   * has the same contents. A node with a single entry below the root is replaced by the entry, so
+   * that the shape of the trie still depends only on its entries.
+   */
+  @Nullable
+  private static Object collapse(Node a, Node b, int bitmap, Object[] slots, int shift) {
+    if (slots.length == 0) {
+      return null;
+    }
+    if (slots.length == 1 && slots[0] instanceof Entry && shift > 0) {
+      return slots[0];
+    }
+    if (sameSlots(a, bitmap, slots)) {
+      return a;
+    }
+    if (sameSlots(b, bitmap, slots)) {
+      return b;
+    }
+    return new Node(bitmap, slots);
+  }
+
+  private static boolean sameSlots(Node node, int bitmap, Object[] slots) {
+    if (node.bitmap != bitmap || node.slots.length != slots.length) {
+      return false;
+    }
+    for (int i = 0; i < slots.length; i++) {
+      if (node.slots[i] != slots[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Nullable
+  private static <K, V> V collisionGet(Node node, Object key) {
+    for (Object slot : node.slots) {
+      @SuppressWarnings("unchecked")
+      Entry<K, V> entry = (Entry<K, V>) slot;
+      if (entry.key.equals(key)) {
+        return entry.value;
+      }
+    }
+    return null;
+  }
+
+  private static <K, V> Node collisionPut(Node node, Entry<K, V> entry) {
+    for (int i = 0; i < node.slots.length; i++) {
+      @SuppressWarnings("unchecked")
+      Entry<K, V> existing = (Entry<K, V>) node.slots[i];
+      if (existing.key.equals(entry.key)) {
+        Object[] slots = node.slots.clone();
+        slots[i] = entry;
+        return new Node(0, slots);
+      }
+    }
+    Object[] slots = Arrays.copyOf(node.slots, node.slots.length + 1);
+    slots[node.slots.length] = entry;
+    return new Node(0, slots);
+  }
+
+  /** Calls {@code action} with each key and value of the map, in no particular order. */
+  void forEach(BiConsumer<? super K, ? super V> action) {
+    forEach(root, action);
+  }
+
+  private static <K, V> void forEach(Node node, BiConsumer<? super K, ? super V> action) {
+    for (Object slot : node.slots) {
+      if (slot instanceof Entry) {
+        @SuppressWarnings("unchecked")
+        Entry<K, V> entry = (Entry<K, V>) slot;
+        action.accept(entry.key, entry.value);
+      } else {
+        forEach((Node) slot, action);
+      }
+    }
+  }
+
+  ImmutableMap<K, V> toImmutableMap() {
+    ImmutableMap.Builder<K, V> result = ImmutableMap.builderWithExpectedSize(root.size);
+    forEach(result::put);
+    return result.buildOrThrow();
+  }
+
+  @Override
+  public boolean equals(@Nullable Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof PersistentHashMap)) {
+      return false;
+    }
+    PersistentHashMap<?, ?> other = (PersistentHashMap<?, ?>) obj;
+    return equal(root, other.root);
+  }
+
+  /** Compares two subtries, which have the same shape if they have the same entries. */
+  private static boolean equal(Node a, Node b) {
+    if (a == b) {
+      return true;
+    }
+    if (a.bitmap != b.bitmap || a.size != b.size) {
+      return false;
+    }
+    if (a.bitmap == 0) {
+      // Collision nodes, whose entries may be in any order.
+      for (Object slot : a.slots) {
+        Entry<?, ?> entry = (Entry<?, ?>) slot;
+        if (!Objects.equals(collisionGet(b, entry.key), entry.value)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    for (int i = 0; i < a.slots.length; i++) {
+      Object slotA = a.slots[i];
+      Object slotB = b.slots[i];
+      if (slotA == slotB) {
+        continue;
+      }
+      if (slotA instanceof Entry && slotB instanceof Entry) {
+        Entry<?, ?> entryA = (Entry<?, ?>) slotA;
+        Entry<?, ?> entryB = (Entry<?, ?>) slotB;
+        if (!entryA.key.equals(entryB.key) || !entryA.value.equals(entryB.value)) {
+          return false;
+        }
+      } else if (slotA instanceof Node && slotB instanceof Node) {
+        if (!equal((Node) slotA, (Node) slotB)) {
+          return false;
+        }
+      } else {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns the hash code of the map, as defined by {@link java.util.Map#hashCode}. */
+  @Override
+  public int hashCode() {
+    int result = hashCode;
+    if (result == 0 && root.size > 0) {
+      int[] sum = {0};
+      forEach((k, v) -> sum[0] += k.hashCode() ^ v.hashCode());
+      result = sum[0];
+      hashCode = result;
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return toImmutableMap().toString();
+  }
+
+  private static int hash(Object key) {
+    int h = key.hashCode();
+    // Spread the high bits, which the lowest levels of the trie would otherwise see last.
+    return h ^ (h >>> 16);
+  }
+
+  private static int bit(int hash, int shift) {
+    return 1 << ((hash >>> shift) & MASK);
+  }
+
+  private static int index(int bitmap, int bit) {
+    return Integer.bitCount(bitmap & (bit - 1));
+  }
+}
@@ -127,6 +127,9 @@ import org.checkerframework.errorprone.dataflow.cfg.node.WideningConversionNode;
  */
 abstract class AbstractNullnessPropagationTransfer
     implements ForwardTransferFunction<Nullness, AccessPathStore<Nullness>> {
+  /** Access paths of the nodes analyzed, shared by all the stores of an analysis. */
+  final AccessPath.Interner accessPaths = new AccessPath.Interner();
+
   @Override
   public AccessPathStore<Nullness> initialStore(
       UnderlyingAST underlyingAST, List<LocalVariableNode> parameters) {
@@ -1029,22 +1032,22 @@ abstract class AbstractNullnessPropagationTransfer
     return noStoreChanges(NONNULL, input);
   }
 
-  private static final class ReadableUpdates implements Updates {
+  private final class ReadableUpdates implements Updates {
     final Map<AccessPath, Nullness> values = new HashMap<>();
 
     @Override
     public void set(LocalVariableNode node, Nullness value) {
-      values.put(AccessPath.fromLocalVariable(node), checkNotNull(value));
+      values.put(accessPaths.fromLocalVariable(node), checkNotNull(value));
     }
 
     @Override
     public void set(VariableDeclarationNode node, Nullness value) {
-      values.put(AccessPath.fromVariableDecl(node), checkNotNull(value));
+      values.put(accessPaths.fromVariableDecl(node), checkNotNull(value));
     }
 
     @Override
     public void set(FieldAccessNode node, Nullness value) {
-      AccessPath path = AccessPath.fromFieldAccess(node);
+      AccessPath path = accessPaths.fromFieldAccess(node);
       if (path != null) {
         values.put(path, checkNotNull(value));
       }
@@ -43,6 +43,7 @@ import com.google.errorprone.dataflow.AccessPath;
 import com.google.errorprone.dataflow.AccessPathStore;
 import com.google.errorprone.dataflow.AccessPathValues;
 import com.google.errorprone.dataflow.nullnesspropagation.inference.InferredNullability;
+import com.google.errorprone.dataflow.nullnesspropagation.inference.NullnessInferenceCache;
 import com.google.errorprone.dataflow.nullnesspropagation.inference.NullnessQualifierInference;
 import com.google.errorprone.util.MoreAnnotations;
 import com.sun.source.tree.BlockTree;
@@ -72,6 +73,7 @@ import com.sun.tools.javac.tree.JCTree.JCIdent;
 import com.sun.tools.javac.tree.JCTree.JCVariableDecl;
 import com.sun.tools.javac.util.Context;
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.math.BigDecimal;
@@ -231,7 +233,7 @@ class NullnessPropagationTransfer extends AbstractNullnessPropagationTransfer
     }
   }
 
-  private final transient Set<VarSymbol> traversed = new HashSet<>();
+  private transient Set<VarSymbol> traversed = new HashSet<>();
 
   protected final Nullness defaultAssumption;
   private final Predicate<MethodInfo> methodReturnsNonNull;
@@ -251,6 +253,10 @@ class NullnessPropagationTransfer extends AbstractNullnessPropagationTransfer
   @Override
   public AccessPathStore<Nullness> initialStore(
       UnderlyingAST underlyingAST, List<LocalVariableNode> parameters) {
+    if (context == null) {
+      // Not analyzing on behalf of NullnessAnalysis, so this is the start of a separate analysis.
+      accessPaths.clear();
+    }
     if (parameters == null) {
       // Documentation of this method states, "parameters is only set if the underlying AST is a
       // method"
@@ -261,7 +267,7 @@ class NullnessPropagationTransfer extends AbstractNullnessPropagationTransfer
       Nullness declared =
           NullnessAnnotations.fromAnnotationsOn((Symbol) param.getElement())
               .orElse(defaultAssumption);
-      result.setInformation(AccessPath.fromLocalVariable(param), declared);
+      result.setInformation(accessPaths.fromLocalVariable(param), declared);
     }
     return result.build();
   }
@@ -285,12 +291,13 @@ class NullnessPropagationTransfer extends AbstractNullnessPropagationTransfer
         procedureTree = enclosingOfClass(pathToNode, VariableTree.class); // field init
       }
 
+      checkNotNull(
+          procedureTree, "Call `%s` is not contained in an lambda, initializer or method.", node);
       inferenceResults =
-          NullnessQualifierInference.getInferredNullability(
-              checkNotNull(
-                  procedureTree,
-                  "Call `%s` is not contained in an lambda, initializer or method.",
-                  node));
+          context != null
+              ? NullnessInferenceCache.instance(context)
+                  .get(pathToNode.getCompilationUnit(), procedureTree)
+              : NullnessQualifierInference.getInferredNullability(procedureTree);
     }
     return inferenceResults.getExprNullness(node.getTree());
   }
@@ -338,6 +345,7 @@ class NullnessPropagationTransfer extends AbstractNullnessPropagationTransfer
     this.context = context;
     // Clear traversed set just-in-case as this marks the beginning or end of analyzing a method
     this.traversed.clear();
+    this.accessPaths.clear();
     // Null out local inference results when leaving a method
     this.inferenceResults = null;
     return this;
@@ -523,7 +531,7 @@ class NullnessPropagationTransfer extends AbstractNullnessPropagationTransfer
   Nullness visitLocalVariable(LocalVariableNode node, AccessPathValues<Nullness> values) {
     return hasPrimitiveType(node) || hasNonNullConstantValue(node)
         ? NONNULL
-        : values.valueOfAccessPath(AccessPath.fromLocalVariable(node), defaultAssumption);
+        : values.valueOfAccessPath(accessPaths.fromLocalVariable(node), defaultAssumption);
   }
 
   /**
@@ -541,7 +549,7 @@ class NullnessPropagationTransfer extends AbstractNullnessPropagationTransfer
       setNonnullIfTrackable(updates, node.getReceiver());
     }
     ClassAndField accessed = tryGetFieldSymbol(node.getTree());
-    return fieldNullness(accessed, AccessPath.fromFieldAccess(node), store);
+    return fieldNullness(accessed, accessPaths.fromFieldAccess(node), store);
   }
 
   /**
@@ -640,7 +648,7 @@ class NullnessPropagationTransfer extends AbstractNullnessPropagationTransfer
    * @param elseUpdates the local variables whose nullness values should be updated if the
    *     comparison returns {@code false}
    */
-  private static void handleEqualityComparison(
+  private void handleEqualityComparison(
       boolean equalTo,
       Node leftNode,
       Node rightNode,
@@ -652,8 +660,8 @@ class NullnessPropagationTransfer extends AbstractNullnessPropagationTransfer
     Nullness equalBranchValue = leftVal.greatestLowerBound(rightVal);
     Updates equalBranchUpdates = equalTo ? thenUpdates : elseUpdates;
     Updates notEqualBranchUpdates = equalTo ? elseUpdates : thenUpdates;
-    AccessPath leftOperand = AccessPath.fromNodeIfTrackable(leftNode);
-    AccessPath rightOperand = AccessPath.fromNodeIfTrackable(rightNode);
+    AccessPath leftOperand = accessPaths.fromNodeIfTrackable(leftNode);
+    AccessPath rightOperand = accessPaths.fromNodeIfTrackable(rightNode);
 
     if (leftOperand != null) {
       equalBranchUpdates.set(leftOperand, equalBranchValue);
@@ -959,6 +967,11 @@ class NullnessPropagationTransfer extends AbstractNullnessPropagationTransfer
     out.defaultWriteObject();
   }
 
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    traversed = new HashSet<>();
+  }
+
   @VisibleForTesting
   static final class MemberName {
     final String clazz;
@@ -18,18 +18,25 @@ package com.google.errorprone.dataflow.nullnesspropagation;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.errorprone.dataflow.AccessPathStore;
 import com.google.errorprone.dataflow.DataFlow;
 import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.CompilationUnitTree;
 import com.sun.source.tree.ExpressionTree;
 import com.sun.source.tree.Tree;
 import com.sun.source.tree.VariableTree;
 import com.sun.source.util.TreePath;
 import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.Symbol.VarSymbol;
 import com.sun.tools.javac.processing.JavacProcessingEnvironment;
 import com.sun.tools.javac.tree.JCTree.JCVariableDecl;
 import com.sun.tools.javac.util.Context;
 import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
 import javax.lang.model.element.ElementKind;
 import org.checkerframework.errorprone.dataflow.analysis.Analysis;
 import org.checkerframework.errorprone.dataflow.analysis.ForwardAnalysisImpl;
@@ -64,6 +71,17 @@ public final class TrustingNullnessAnalysis implements Serializable {
 
   private final TrustingNullnessPropagation nullnessPropagation = new TrustingNullnessPropagation();
 
+  /**
+   * The nullness of the field initializers of the classes analyzed so far, per compilation unit.
+   * Compilation units are normally dropped by {@link #clear}, but weak keys avoid holding on to the
+   * units of callers that never clear them. Created lazily, since deserialization leaves it null.
+   */
+  @Nullable
+  private transient Cache<CompilationUnitTree, Map<VarSymbol, Nullness>> fieldInitializerNullness;
+
+  /** The number of field initializers analyzed so far. */
+  private transient long analyzedFieldInitializers;
+
   // Use #instance to instantiate
   private TrustingNullnessAnalysis() {}
 
@@ -100,31 +118,81 @@ public final class TrustingNullnessAnalysis implements Serializable {
       // An uninitialized field is null or 0 to start :)
       return ((JCVariableDecl) decl).type.isPrimitive() ? Nullness.NONNULL : Nullness.NULL;
     }
-    TreePath initializerPath = TreePath.getPath(fieldDeclPath, initializer);
-    ClassTree classTree = (ClassTree) fieldDeclPath.getParentPath().getLeaf();
+    VarSymbol field = ((JCVariableDecl) decl).sym;
+    Map<VarSymbol, Nullness> results =
+        fieldInitializerNullness()
+            .get(fieldDeclPath.getCompilationUnit(), unused -> new HashMap<>());
+    Nullness result = results.get(field);
+    if (result == null) {
+      analyzeFieldInitializers(fieldDeclPath.getParentPath(), context, results);
+      result = results.get(field);
+    }
+    return result;
+  }
+
+  /**
+   * Analyzes the initializers of all the fields of the class at the leaf of {@code classPath} that
+   * aren't in {@code results} yet, and adds their nullness to {@code results}. Classes with many
+   * initialized fields, such as constant holders, are typically asked about several of them.
+   */
+  private void analyzeFieldInitializers(
+      TreePath classPath, Context context, Map<VarSymbol, Nullness> results) {
+    ClassTree classTree = (ClassTree) classPath.getLeaf();
     JavacProcessingEnvironment javacEnv = JavacProcessingEnvironment.instance(context);
-    UnderlyingAST ast = new UnderlyingAST.CFGStatement(decl, classTree);
-    ControlFlowGraph cfg =
-        CFGBuilder.build(
-            initializerPath,
-            ast,
-            /* assumeAssertionsEnabled */ false,
-            /* assumeAssertionsDisabled */ false,
-            javacEnv);
     try {
-      nullnessPropagation
-          .setContext(context)
-          .setCompilationUnit(fieldDeclPath.getCompilationUnit());
-
+      nullnessPropagation.setContext(context).setCompilationUnit(classPath.getCompilationUnit());
+      // Analyses can be reused; each call to performAnalysis starts from scratch.
       Analysis<Nullness, AccessPathStore<Nullness>, TrustingNullnessPropagation> analysis =
           new ForwardAnalysisImpl<>(nullnessPropagation);
-      analysis.performAnalysis(cfg);
-      return analysis.getValue(initializer);
+      for (Tree member : classTree.getMembers()) {
+        if (!(member instanceof JCVariableDecl)) {
+          continue;
+        }
+        JCVariableDecl decl = (JCVariableDecl) member;
+        ExpressionTree initializer = decl.getInitializer();
+        if (initializer == null || results.containsKey(decl.sym)) {
+          continue;
+        }
+        TreePath initializerPath = new TreePath(new TreePath(classPath, decl), initializer);
+        UnderlyingAST ast = new UnderlyingAST.CFGStatement(decl, classTree);
+        ControlFlowGraph cfg =
+            CFGBuilder.build(
+                initializerPath,
+                ast,
+                /* assumeAssertionsEnabled */ false,
+                /* assumeAssertionsDisabled */ false,
+                javacEnv);
+        analysis.performAnalysis(cfg);
+        analyzedFieldInitializers++;
+        results.put(decl.sym, analysis.getValue(initializer));
+      }
     } finally {
       nullnessPropagation.setContext(null).setCompilationUnit(null);
     }
   }
 
+  /**
+   * Discards the field initializer nullness cached for {@code compilationUnit}. Called once Error
+   * Prone has finished scanning it.
+   */
+  public void clear(CompilationUnitTree compilationUnit) {
+    if (fieldInitializerNullness != null) {
+      fieldInitializerNullness.invalidate(compilationUnit);
+    }
+  }
+
+  private Cache<CompilationUnitTree, Map<VarSymbol, Nullness>> fieldInitializerNullness() {
+    if (fieldInitializerNullness == null) {
+      fieldInitializerNullness = Caffeine.newBuilder().weakKeys().build();
+    }
+    return fieldInitializerNullness;
+  }
+
+  /** Returns the number of field initializers this analysis has run dataflow on. */
+  long analyzedFieldInitializers() {
+    return analyzedFieldInitializers;
+  }
+
   public static boolean hasNullableAnnotation(Symbol symbol) {
     return NullnessAnnotations.fromAnnotationsOn(symbol).orElse(null) == Nullness.NULLABLE;
   }
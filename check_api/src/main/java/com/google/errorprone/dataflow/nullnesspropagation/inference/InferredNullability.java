@@ -15,34 +15,164 @@
  */
 package com.google.errorprone.dataflow.nullnesspropagation.inference;
 
-import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.ImmutableList.toImmutableList;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.graph.Graph;
-import com.google.common.graph.ImmutableGraph;
 import com.google.errorprone.dataflow.nullnesspropagation.Nullness;
 import com.sun.source.tree.ExpressionTree;
 import com.sun.source.tree.MethodInvocationTree;
 import com.sun.tools.javac.code.Symbol.TypeVariableSymbol;
 import com.sun.tools.javac.tree.JCTree;
 import com.sun.tools.javac.tree.TreeInfo;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 
 /**
- * Results of running {@code NullnessQualifierInference} over a method. The {@code constraintGraph}
+ * Results of running {@code NullnessQualifierInference} over a method. The constraint graph
  * represents qualifier constraints as a directed graph, where graph reachability encodes a
  * less-than-or-equal-to relationship.
+ *
+ * <p>The inference variables are numbered densely and the graph's edges are stored as arrays of
+ * indices. Variables are solved on demand, since the result for a cycle of constraints depends on
+ * which of its variables is asked about first. Each solution is recorded, so that later queries for
+ * the same variable are array lookups.
  */
 public class InferredNullability {
-  private final ImmutableGraph<InferenceVariable> constraintGraph;
+  private static final Nullness[] NULLNESS = Nullness.values();
+
+  private static final ImmutableList<Optional<Nullness>> INFERRED =
+      Arrays.stream(NULLNESS).map(Optional::of).collect(toImmutableList());
+
+  // Values of solution that aren't the ordinal of an inferred Nullness.
+  private static final byte UNKNOWN = -1;
+  private static final byte UNSOLVED = -2;
+  private static final byte SOLVING = -3;
+
+  /** The index of each inference variable. */
+  private final Map<InferenceVariable, Integer> indices;
+
+  // The edges into and out of variable i are at [starts[i], starts[i + 1]) of the edge arrays.
+  private final int[] predecessorStarts;
+  private final int[] predecessors;
+  private final int[] successorStarts;
+  private final int[] successors;
+
+  /**
+   * The ordinal of the nullness inferred for each variable, {@link #UNKNOWN}, or {@link #UNSOLVED}
+   * if it hasn't been solved yet.
+   */
+  private final byte[] solution;
 
-  private final Map<InferenceVariable, Optional<Nullness>> inferredMemoTable = new HashMap<>();
+  // The stack of variables being solved: the variable, the position of the next edge to follow,
+  // whether that's a successor edge, and the bound of the edges followed so far.
+  private final int[] stackVariables;
+  private final int[] stackNextEdges;
+  private final boolean[] stackUpward;
+  private final byte[] stackBounds;
 
   InferredNullability(Graph<InferenceVariable> constraints) {
-    this.constraintGraph = ImmutableGraph.copyOf(constraints);
+    int size = constraints.nodes().size();
+    indices = new HashMap<>(2 * size);
+    for (InferenceVariable variable : constraints.nodes()) {
+      indices.put(variable, indices.size());
+    }
+    int edgeCount = constraints.edges().size();
+    predecessorStarts = new int[size + 1];
+    predecessors = new int[edgeCount];
+    successorStarts = new int[size + 1];
+    successors = new int[edgeCount];
+    int predecessorCount = 0;
+    int successorCount = 0;
+    solution = new byte[size];
+    int index = 0;
+    for (InferenceVariable variable : constraints.nodes()) {
+      predecessorStarts[index] = predecessorCount;
+      for (InferenceVariable predecessor : constraints.predecessors(variable)) {
+        predecessors[predecessorCount++] = indices.get(predecessor);
+      }
+      successorStarts[index] = successorCount;
+      for (InferenceVariable successor : constraints.successors(variable)) {
+        successors[successorCount++] = indices.get(successor);
+      }
+      solution[index] =
+          variable instanceof ProperInferenceVar
+              ? (byte) ((ProperInferenceVar) variable).nullness().ordinal()
+              : UNSOLVED;
+      index++;
+    }
+    predecessorStarts[size] = predecessorCount;
+    stackVariables = new int[size];
+    stackNextEdges = new int[size];
+    stackUpward = new boolean[size];
+    stackBounds = new byte[size];
+    successorStarts[size] = successorCount;
+  }
+
+  /**
+   * Solves {@code root} and the variables it depends on. Each variable is resolved per JLS 18.4: to
+   * the least upper bound of its predecessors, which are its lower bounds, if any of them can be
+   * resolved, and to the greatest lower bound of its successors otherwise.
+   *
+   * <p>This is a depth-first traversal with an explicit stack. A variable that is reached again
+   * while it is being solved, through a cycle in the constraints, counts as unknown.
+   */
+  private void solve(int root) {
+    push(0, root);
+    int top = 1;
+    while (top > 0) {
+      int frame = top - 1;
+      int variable = stackVariables[frame];
+      boolean upward = stackUpward[frame];
+      int edgesEnd = upward ? successorStarts[variable + 1] : predecessorStarts[variable + 1];
+      if (stackNextEdges[frame] < edgesEnd) {
+        int next = (upward ? successors : predecessors)[stackNextEdges[frame]++];
+        byte nextSolution = solution[next];
+        if (nextSolution == UNSOLVED) {
+          push(top++, next);
+        } else if (nextSolution >= 0) {
+          stackBounds[frame] = combine(stackBounds[frame], nextSolution, upward);
+        }
+        continue;
+      }
+      if (!upward && stackBounds[frame] == UNKNOWN) {
+        // No lower bounds, so fall back to the upper bounds.
+        stackUpward[frame] = true;
+        stackNextEdges[frame] = successorStarts[variable];
+        continue;
+      }
+      byte result = stackBounds[frame];
+      solution[variable] = result;
+      top--;
+      if (top > 0 && result >= 0) {
+        stackBounds[top - 1] = combine(stackBounds[top - 1], result, stackUpward[top - 1]);
+      }
+    }
+  }
+
+  private void push(int frame, int variable) {
+    stackVariables[frame] = variable;
+    stackNextEdges[frame] = predecessorStarts[variable];
+    stackUpward[frame] = false;
+    stackBounds[frame] = UNKNOWN;
+    solution[variable] = SOLVING;
+  }
+
+  /**
+   * Combines two bounds: by greatest lower bound if they are upper bounds, and by least upper bound
+   * if they are lower bounds.
+   */
+  private static byte combine(byte bound, byte nullness, boolean upperBounds) {
+    if (bound == UNKNOWN) {
+      return nullness;
+    }
+    Nullness left = NULLNESS[bound];
+    Nullness right = NULLNESS[nullness];
+    return (byte)
+        (upperBounds ? left.greatestLowerBound(right) : left.leastUpperBound(right)).ordinal();
   }
 
   /**
@@ -56,52 +186,28 @@ public class InferredNullability {
     for (TypeVariableSymbol tvs :
         TreeInfo.symbol((JCTree) callsite.getMethodSelect()).getTypeParameters()) {
       InferenceVariable iv = TypeVariableInferenceVar.create(tvs, callsite);
-      if (constraintGraph.nodes().contains(iv)) {
-        getNullness(iv).ifPresent(nullness -> result.put(tvs, nullness));
-      }
+      getNullness(iv).ifPresent(nullness -> result.put(tvs, nullness));
     }
     return result.buildOrThrow();
   }
 
   /** Get inferred nullness qualifier for an expression, if possible. */
   public Optional<Nullness> getExprNullness(ExpressionTree exprTree) {
-    InferenceVariable iv = TypeArgInferenceVar.create(ImmutableList.of(), exprTree);
-    return constraintGraph.nodes().contains(iv) ? getNullness(iv) : Optional.empty();
+    return getNullness(TypeArgInferenceVar.create(ImmutableList.of(), exprTree));
   }
 
-  private Optional<Nullness> getNullness(InferenceVariable iv) {
-    Optional<Nullness> result;
-    // short-circuit and return if...
-    // ...this inference variable is a `proper` bound, i.e. a concrete nullness lattice element
-    if (iv instanceof ProperInferenceVar) {
-      return Optional.of(((ProperInferenceVar) iv).nullness());
-      // ...we've already computed and memoized a nullness value for it.
-    } else if ((result = inferredMemoTable.get(iv)) != null) {
-      return result;
-    } else {
-      // In case of cycles in constraint graph, ensures base case to recursion
-      inferredMemoTable.put(iv, Optional.empty());
-
-      // Resolution per JLS 18.4:
-      // 1. resolve predecessors to see if there are lower bounds we can use
-      result =
-          constraintGraph.predecessors(iv).stream()
-              .map(this::getNullness)
-              .filter(Optional::isPresent)
-              .map(Optional::get)
-              .reduce(Nullness::leastUpperBound); // use least upper bound (lub) to combine
-      // 2. If not, resolve successors and use them as upper bounds
-      if (!result.isPresent()) {
-        result =
-            constraintGraph.successors(iv).stream()
-                .map(this::getNullness)
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .reduce(Nullness::greatestLowerBound); // use greatest lower bound (glb) to combine
-      }
-
-      checkState(!inferredMemoTable.put(iv, result).isPresent());
-      return result;
+  /** Returns the nullness inferred for {@code iv}, or empty if it isn't known. */
+  Optional<Nullness> getNullness(InferenceVariable iv) {
+    Integer index = indices.get(iv);
+    if (index == null) {
+      return Optional.empty();
+    }
+    if (solution[index] == UNSOLVED) {
+      solve(index);
+    }
+    if (solution[index] < 0) {
+      return Optional.empty();
     }
+    return INFERRED.get(solution[index]);
   }
 }
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2024 The Error Prone Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.errorprone.dataflow.nullnesspropagation.inference;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.auto.value.AutoValue;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.Tree;
+import com.sun.tools.javac.util.Context;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Caches the results of {@link NullnessQualifierInference} for every method, lambda and initializer
+ * of a compilation unit, until Error Prone has finished scanning the unit (see {@link #clear}).
+ * Checks ask about trees in arbitrary order, for example a lambda and then its enclosing method, so
+ * the results aren't limited to the tree that was inferred most recently.
+ */
+public final class NullnessInferenceCache {
+
+  private static final Context.Key<NullnessInferenceCache> NULLNESS_INFERENCE_CACHE_KEY =
+      new Context.Key<>();
+
+  /**
+   * Retrieve the {@link NullnessInferenceCache} from the {@code context}, creating and inserting
+   * one if there is none.
+   */
+  public static NullnessInferenceCache instance(Context context) {
+    NullnessInferenceCache instance = context.get(NULLNESS_INFERENCE_CACHE_KEY);
+    if (instance == null) {
+      instance = new NullnessInferenceCache();
+      context.put(NULLNESS_INFERENCE_CACHE_KEY, instance);
+    }
+    return instance;
+  }
+
+  // Compilation units are normally dropped by clear, but weak keys avoid holding on to the units of
+  // callers that never clear them.
+  private final Cache<CompilationUnitTree, CompilationUnitCache> compilationUnitCaches =
+      Caffeine.newBuilder().weakKeys().build();
+
+  private long hits;
+  private long misses;
+
+  private NullnessInferenceCache() {}
+
+  /** The inference results computed for one compilation unit. */
+  private final class CompilationUnitCache {
+    // Keyed by the method, lambda or initializer the constraints were collected from.
+    private final Map<Tree, InferredNullability> results = new HashMap<>();
+
+    InferredNullability get(Tree methodOrInitializerOrLambda) {
+      InferredNullability result = results.get(methodOrInitializerOrLambda);
+      if (result != null) {
+        hits++;
+        return result;
+      }
+      misses++;
+      result = NullnessQualifierInference.infer(methodOrInitializerOrLambda);
+      results.put(methodOrInitializerOrLambda, result);
+      return result;
+    }
+  }
+
+  /**
+   * Returns the inferred nullness qualifiers for {@code methodOrInitializerOrLambda}, a tree in
+   * {@code compilationUnit}.
+   */
+  public InferredNullability get(
+      CompilationUnitTree compilationUnit, Tree methodOrInitializerOrLambda) {
+    NullnessQualifierInference.checkInferrable(methodOrInitializerOrLambda);
+    return compilationUnitCaches
+        .get(compilationUnit, unused -> new CompilationUnitCache())
+        .get(methodOrInitializerOrLambda);
+  }
+
+  /**
+   * Discards the results cached for {@code compilationUnit}. Called once Error Prone has finished
+   * scanning it.
+   */
+  public void clear(CompilationUnitTree compilationUnit) {
+    compilationUnitCaches.invalidate(compilationUnit);
+  }
+
+  /** Returns how often the results requested so far were found in the cache. */
+  public CacheStats stats() {
+    return new AutoValue_NullnessInferenceCache_CacheStats(hits, misses);
+  }
+
+  /** Hit and miss counts for the inference cache. */
+  @AutoValue
+  public abstract static class CacheStats {
+    public abstract long hits();
+
+    public abstract long misses();
+
+    /** Returns the fraction of requests that were found in the cache, or 0 if there were none. */
+    public double hitRate() {
+      long requests = hits() + misses();
+      return requests == 0 ? 0 : (double) hits() / requests;
+    }
+  }
+}
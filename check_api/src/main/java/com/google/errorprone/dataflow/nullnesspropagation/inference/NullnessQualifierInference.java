@@ -18,9 +18,6 @@ package com.google.errorprone.dataflow.nullnesspropagation.inference;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
-import com.github.benmanes.caffeine.cache.CacheLoader;
-import com.github.benmanes.caffeine.cache.Caffeine;
-import com.github.benmanes.caffeine.cache.LoadingCache;
 import com.google.auto.value.AutoValue;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
@@ -75,21 +72,17 @@ import javax.lang.model.type.TypeVariable;
  */
 public class NullnessQualifierInference extends TreeScanner<Void, Void> {
 
-  private static final LoadingCache<Tree, InferredNullability> inferenceCache =
-      Caffeine.newBuilder()
-          .maximumSize(1)
-          .build(
-              new CacheLoader<Tree, InferredNullability>() {
-                @Override
-                public InferredNullability load(Tree methodOrInitializer) {
-                  NullnessQualifierInference inferenceEngine =
-                      new NullnessQualifierInference(methodOrInitializer);
-                  inferenceEngine.scan(methodOrInitializer, null);
-                  return new InferredNullability(inferenceEngine.qualifierConstraints);
-                }
-              });
-
+  /**
+   * Runs inference over {@code methodOrInitializerOrLambda}, without caching the result. Callers
+   * that have a javac {@code Context} should use {@link NullnessInferenceCache} instead, which
+   * keeps the results for the whole compilation unit.
+   */
   public static InferredNullability getInferredNullability(Tree methodOrInitializerOrLambda) {
+    checkInferrable(methodOrInitializerOrLambda);
+    return infer(methodOrInitializerOrLambda);
+  }
+
+  static void checkInferrable(Tree methodOrInitializerOrLambda) {
     checkArgument(
         methodOrInitializerOrLambda instanceof MethodTree
             || methodOrInitializerOrLambda instanceof LambdaExpressionTree
@@ -97,7 +90,13 @@ public class NullnessQualifierInference extends TreeScanner<Void, Void> {
             || methodOrInitializerOrLambda instanceof VariableTree,
         "Tree `%s` is not a lambda, initializer, or method.",
         methodOrInitializerOrLambda);
-    return inferenceCache.get(methodOrInitializerOrLambda);
+  }
+
+  static InferredNullability infer(Tree methodOrInitializerOrLambda) {
+    NullnessQualifierInference inferenceEngine =
+        new NullnessQualifierInference(methodOrInitializerOrLambda);
+    inferenceEngine.scan(methodOrInitializerOrLambda, null);
+    return new InferredNullability(inferenceEngine.qualifierConstraints);
   }
 
   /**
@@ -19,8 +19,9 @@ package com.google.errorprone.fixes;
 import static com.google.common.base.Preconditions.checkArgument;
 
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Iterables;
 import com.sun.tools.javac.tree.EndPosTable;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Set;
 import javax.annotation.Nullable;
 
@@ -51,6 +52,9 @@ public class AppliedFix {
     private final CharSequence source;
     private final EndPosTable endPositions;
 
+    /** The start offset of each line of the source, computed on first use. */
+    private int[] lineStarts;
+
     public Applier(CharSequence source, EndPosTable endPositions) {
       this.source = source;
       this.endPositions = endPositions;
@@ -62,36 +66,22 @@ public class AppliedFix {
      */
     @Nullable
     public AppliedFix apply(Fix suggestedFix) {
-      // We apply the replacements in ascending order here. Descending is simpler, since applying a
-      // replacement can't change the index for future replacements, but it leads to quadratic
-      // copying behavior as we constantly shift the tail of the file around in our StringBuilder.
+      // Only the first edited line is reported, so rather than applying every replacement to a copy
+      // of the source, we only apply the replacements that touch that line.
       ImmutableSet<Replacement> replacements =
           ascending(suggestedFix.getReplacements(endPositions));
       if (replacements.isEmpty()) {
         return null;
       }
-
-      StringBuilder replaced = new StringBuilder();
-      int positionInOriginal = 0;
       for (Replacement repl : replacements) {
         checkArgument(
             repl.endPosition() <= source.length(),
             "End [%s] should not exceed source length [%s]",
             repl.endPosition(),
             source.length());
-
-        // Write the unmodified content leading up to this change
-        replaced.append(source, positionInOriginal, repl.startPosition());
-        // And the modified content for this change
-        replaced.append(repl.replaceWith());
-        // Then skip everything from source between start and end
-        positionInOriginal = repl.endPosition();
       }
-      // Flush out any remaining content after the final change
-      replaced.append(source, positionInOriginal, source.length());
 
-      // Find the changed line containing the first edit
-      String snippet = firstEditedLine(replaced, Iterables.get(replacements, 0));
+      String snippet = firstEditedLine(replacements);
       if (snippet.isEmpty()) {
         return new AppliedFix("to remove this line", /* isRemoveLine= */ true);
       }
@@ -106,30 +96,86 @@ public class AppliedFix {
     }
 
     /**
-     * Finds the full text of the first line that's changed. In this case "line" means "bracketed by
-     * \n characters". We don't handle \r\n specially, because the strings that javac provides to
-     * Error Prone have already been transformed from platform line endings to newlines (and even if
-     * it didn't, the dangling \r characters would be handled by a trim() call).
+     * Finds the full text of the first line that's changed, after applying the replacements. In
+     * this case "line" means "bracketed by \n characters". We don't handle \r\n specially, because
+     * the strings that javac provides to Error Prone have already been transformed from platform
+     * line endings to newlines (and even if it didn't, the dangling \r characters would be handled
+     * by a trim() call).
      */
-    private static String firstEditedLine(StringBuilder content, Replacement firstEdit) {
-      // We subtract 1 here because we want to find the first newline *before* the edit, not one
-      // at its beginning.
-      int startOfFirstEditedLine = content.lastIndexOf("\n", firstEdit.startPosition() - 1);
-      int endOfFirstEditedLine = content.indexOf("\n", firstEdit.startPosition());
-      if (startOfFirstEditedLine == -1) {
-        startOfFirstEditedLine = 0; // Change to start of file with no preceding newline
-      }
-      if (endOfFirstEditedLine == -1) {
-        // Change to last line of file
-        endOfFirstEditedLine = content.length();
+    private String firstEditedLine(ImmutableSet<Replacement> replacements) {
+      Iterator<Replacement> it = replacements.iterator();
+      Replacement repl = it.next();
+      // Everything before the first edit is unchanged.
+      StringBuilder line = new StringBuilder();
+      line.append(source, lineStart(repl.startPosition()), repl.startPosition());
+      while (true) {
+        // The line ends either in the modified content for this change...
+        String replaceWith = repl.replaceWith();
+        int newline = replaceWith.indexOf('\n');
+        if (newline != -1) {
+          line.append(replaceWith, 0, newline);
+          break;
+        }
+        line.append(replaceWith);
+        // ...or in the unmodified content between this change and the next one.
+        Replacement next = it.hasNext() ? it.next() : null;
+        int nextStart = next != null ? next.startPosition() : source.length();
+        int lineEnd = lineEnd(repl.endPosition());
+        if (lineEnd < nextStart || next == null) {
+          line.append(source, repl.endPosition(), lineEnd);
+          break;
+        }
+        line.append(source, repl.endPosition(), nextStart);
+        repl = next;
       }
-      String snippet = content.substring(startOfFirstEditedLine, endOfFirstEditedLine);
-      snippet = snippet.trim();
+      String snippet = line.toString().trim();
       if (snippet.contains("//")) {
         snippet = snippet.substring(0, snippet.indexOf("//")).trim();
       }
       return snippet;
     }
+
+    /** Returns the start of the line containing {@code position}. */
+    private int lineStart(int position) {
+      return lineStarts()[lineIndex(position)];
+    }
+
+    /**
+     * Returns the position of the first newline at or after {@code position}, or the length of the
+     * source if there is none.
+     */
+    private int lineEnd(int position) {
+      int[] lineStarts = lineStarts();
+      int next = lineIndex(position) + 1;
+      return next < lineStarts.length ? lineStarts[next] - 1 : source.length();
+    }
+
+    private int lineIndex(int position) {
+      int index = Arrays.binarySearch(lineStarts(), position);
+      // If the position isn't a line start, binarySearch returns (-(insertion point) - 1), and the
+      // line containing it is the one before the insertion point.
+      return index >= 0 ? index : -index - 2;
+    }
+
+    private int[] lineStarts() {
+      if (lineStarts == null) {
+        int lineCount = 1;
+        for (int i = 0; i < source.length(); i++) {
+          if (source.charAt(i) == '\n') {
+            lineCount++;
+          }
+        }
+        int[] result = new int[lineCount];
+        int line = 1;
+        for (int i = 0; i < source.length(); i++) {
+          if (source.charAt(i) == '\n') {
+            result[line++] = i + 1;
+          }
+        }
+        lineStarts = result;
+      }
+      return lineStarts;
+    }
   }
 
   public static Applier fromSource(CharSequence source, EndPosTable endPositions) {
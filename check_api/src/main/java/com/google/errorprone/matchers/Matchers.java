@@ -51,6 +51,7 @@ import com.google.errorprone.predicates.TypePredicate;
 import com.google.errorprone.suppliers.Supplier;
 import com.google.errorprone.suppliers.Suppliers;
 import com.google.errorprone.util.ASTHelpers;
+import com.google.errorprone.util.AnnotationHandle;
 import com.sun.source.tree.AnnotationTree;
 import com.sun.source.tree.AssertTree;
 import com.sun.source.tree.AssignmentTree;
@@ -85,7 +86,6 @@ import com.sun.tools.javac.tree.JCTree.JCCompilationUnit;
 import com.sun.tools.javac.tree.JCTree.JCExpression;
 import com.sun.tools.javac.tree.JCTree.JCFieldAccess;
 import com.sun.tools.javac.tree.JCTree.JCIdent;
-import com.sun.tools.javac.util.Name;
 import java.lang.annotation.Annotation;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -717,12 +717,8 @@ public class Matchers {
    *     "javax.annotation.Nullable", or "some.package.OuterClassName$InnerClassName")
    */
   public static <T extends Tree> Matcher<T> hasAnnotation(String annotationClass) {
-    Supplier<Set<Name>> name =
-        VisitorState.memoize(
-            state -> ImmutableSet.of(state.binaryNameFromClassname(annotationClass)));
-    return (T tree, VisitorState state) ->
-        !ASTHelpers.annotationsAmong(ASTHelpers.getDeclaredSymbol(tree), name.get(state), state)
-            .isEmpty();
+    AnnotationHandle annotation = AnnotationHandle.of(annotationClass);
+    return (T tree, VisitorState state) -> annotation.isPresent(tree, state);
   }
 
   /**
@@ -767,8 +763,8 @@ public class Matchers {
    *     "javax.annotation.Nullable", or "some.package.OuterClassName$InnerClassName")
    */
   public static <T extends Tree> Matcher<T> symbolHasAnnotation(String annotationClass) {
-    return symbolMatcher(
-        (symbol, state) -> ASTHelpers.hasAnnotation(symbol, annotationClass, state));
+    AnnotationHandle annotation = AnnotationHandle.of(annotationClass);
+    return symbolMatcher(annotation::isPresent);
   }
 
   /**
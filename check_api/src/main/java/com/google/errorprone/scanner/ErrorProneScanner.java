@@ -16,12 +16,20 @@
 
 package com.google.errorprone.scanner;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.MultimapBuilder;
+import com.google.common.collect.Sets;
 import com.google.errorprone.BugPattern;
 import com.google.errorprone.BugPattern.SeverityLevel;
 import com.google.errorprone.ErrorProneError;
 import com.google.errorprone.ErrorProneOptions;
+import com.google.errorprone.ErrorProneTimings;
+import com.google.errorprone.ErrorProneTimings.CheckTimings;
+import com.google.errorprone.SuppressionInfo;
 import com.google.errorprone.SuppressionInfo.SuppressedState;
 import com.google.errorprone.VisitorState;
 import com.google.errorprone.bugpatterns.BugChecker;
@@ -133,14 +141,17 @@ import com.sun.source.tree.WhileLoopTree;
 import com.sun.source.tree.WildcardTree;
 import com.sun.source.util.TreePath;
 import com.sun.tools.javac.code.Symbol.CompletionFailure;
+import com.sun.tools.javac.util.Context;
 import com.sun.tools.javac.util.JCDiagnostic.DiagnosticPosition;
 import com.sun.tools.javac.util.Name;
 import java.lang.annotation.Annotation;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.BiFunction;
+import javax.annotation.Nullable;
 
 /**
  * Scans the parsed AST, looking for violations of any of the enabled checks.
@@ -182,10 +193,19 @@ public class ErrorProneScanner extends Scanner {
   public ErrorProneScanner(Iterable<BugChecker> checkers, Map<String, SeverityLevel> severities) {
     this.bugCheckers = ImmutableSet.copyOf(checkers);
     this.severities = severities;
+    this.matchersByKind = buildDispatchTable(bugCheckers.asList());
+    this.skippableKinds = new boolean[matchersByKind.length];
+    RESTRICTED_SUBTREE_KINDS.forEach(
+        (kind, subtreeKinds) ->
+            skippableKinds[kind.ordinal()] =
+                !hasMatchers(kind) && subtreeKinds.stream().noneMatch(this::hasMatchers));
+    this.suppressedStates = new SuppressedState[bugCheckers.size()];
+    this.checkTimings = new CheckTimings[bugCheckers.size()];
+    this.untimedInvocations = new int[bugCheckers.size()];
     ImmutableSet.Builder<Class<? extends Annotation>> annotationClassesBuilder =
         ImmutableSet.builder();
     for (BugChecker checker : this.bugCheckers) {
-      registerNodeTypes(checker, annotationClassesBuilder);
+      annotationClassesBuilder.addAll(checker.customSuppressionAnnotations());
     }
     ImmutableSet<Class<? extends Annotation>> annotationClasses = annotationClassesBuilder.build();
     this.customSuppressionAnnotations =
@@ -213,243 +233,426 @@ public class ErrorProneScanner extends Scanner {
     return customSuppressionAnnotations.get(state);
   }
 
-  private final List<AnnotationTreeMatcher> annotationMatchers = new ArrayList<>();
-  private final List<AnnotatedTypeTreeMatcher> annotatedTypeMatchers = new ArrayList<>();
-  private final List<ArrayAccessTreeMatcher> arrayAccessMatchers = new ArrayList<>();
-  private final List<ArrayTypeTreeMatcher> arrayTypeMatchers = new ArrayList<>();
-  private final List<AssertTreeMatcher> assertMatchers = new ArrayList<>();
-  private final List<AssignmentTreeMatcher> assignmentMatchers = new ArrayList<>();
-  private final List<BinaryTreeMatcher> binaryMatchers = new ArrayList<>();
-  private final List<BlockTreeMatcher> blockMatchers = new ArrayList<>();
-  private final List<BreakTreeMatcher> breakMatchers = new ArrayList<>();
-  private final List<CaseTreeMatcher> caseMatchers = new ArrayList<>();
-  private final List<CatchTreeMatcher> catchMatchers = new ArrayList<>();
-  private final List<ClassTreeMatcher> classMatchers = new ArrayList<>();
-  private final List<CompilationUnitTreeMatcher> compilationUnitMatchers = new ArrayList<>();
-  private final List<CompoundAssignmentTreeMatcher> compoundAssignmentMatchers = new ArrayList<>();
-  private final List<ConditionalExpressionTreeMatcher> conditionalExpressionMatchers =
-      new ArrayList<>();
-  private final List<ContinueTreeMatcher> continueMatchers = new ArrayList<>();
-  private final List<DoWhileLoopTreeMatcher> doWhileLoopMatchers = new ArrayList<>();
-  private final List<EmptyStatementTreeMatcher> emptyStatementMatchers = new ArrayList<>();
-  private final List<EnhancedForLoopTreeMatcher> enhancedForLoopMatchers = new ArrayList<>();
-  private final List<ExpressionStatementTreeMatcher> expressionStatementMatchers =
-      new ArrayList<>();
-  private final List<ForLoopTreeMatcher> forLoopMatchers = new ArrayList<>();
-  private final List<IdentifierTreeMatcher> identifierMatchers = new ArrayList<>();
-  private final List<IfTreeMatcher> ifMatchers = new ArrayList<>();
-  private final List<ImportTreeMatcher> importMatchers = new ArrayList<>();
-  private final List<InstanceOfTreeMatcher> instanceOfMatchers = new ArrayList<>();
-  private final List<IntersectionTypeTreeMatcher> intersectionTypeMatchers = new ArrayList<>();
-  private final List<LabeledStatementTreeMatcher> labeledStatementMatchers = new ArrayList<>();
-  private final List<LambdaExpressionTreeMatcher> lambdaExpressionMatchers = new ArrayList<>();
-  private final List<LiteralTreeMatcher> literalMatchers = new ArrayList<>();
-  private final List<MemberReferenceTreeMatcher> memberReferenceMatchers = new ArrayList<>();
-  private final List<MemberSelectTreeMatcher> memberSelectMatchers = new ArrayList<>();
-  private final List<MethodTreeMatcher> methodMatchers = new ArrayList<>();
-  private final List<MethodInvocationTreeMatcher> methodInvocationMatchers = new ArrayList<>();
-  private final List<ModifiersTreeMatcher> modifiersMatchers = new ArrayList<>();
-  private final List<NewArrayTreeMatcher> newArrayMatchers = new ArrayList<>();
-  private final List<NewClassTreeMatcher> newClassMatchers = new ArrayList<>();
-  private final List<ParameterizedTypeTreeMatcher> parameterizedTypeMatchers = new ArrayList<>();
-  private final List<ParenthesizedTreeMatcher> parenthesizedMatchers = new ArrayList<>();
-  private final List<PrimitiveTypeTreeMatcher> primitiveTypeMatchers = new ArrayList<>();
-  private final List<ReturnTreeMatcher> returnMatchers = new ArrayList<>();
-  private final List<SwitchTreeMatcher> switchMatchers = new ArrayList<>();
-  private final List<SynchronizedTreeMatcher> synchronizedMatchers = new ArrayList<>();
-  private final List<ThrowTreeMatcher> throwMatchers = new ArrayList<>();
-  private final List<TryTreeMatcher> tryMatchers = new ArrayList<>();
-  private final List<TypeCastTreeMatcher> typeCastMatchers = new ArrayList<>();
-  private final List<TypeParameterTreeMatcher> typeParameterMatchers = new ArrayList<>();
-  private final List<UnaryTreeMatcher> unaryMatchers = new ArrayList<>();
-  private final List<UnionTypeTreeMatcher> unionTypeMatchers = new ArrayList<>();
-  private final List<VariableTreeMatcher> variableMatchers = new ArrayList<>();
-  private final List<WhileLoopTreeMatcher> whileLoopMatchers = new ArrayList<>();
-  private final List<WildcardTreeMatcher> wildcardMatchers = new ArrayList<>();
-
-  private void registerNodeTypes(
-      BugChecker checker,
-      ImmutableSet.Builder<Class<? extends Annotation>> customSuppressionAnnotationClasses) {
-    customSuppressionAnnotationClasses.addAll(checker.customSuppressionAnnotations());
-
-    if (checker instanceof AnnotationTreeMatcher) {
-      annotationMatchers.add((AnnotationTreeMatcher) checker);
-    }
-    if (checker instanceof AnnotatedTypeTreeMatcher) {
-      annotatedTypeMatchers.add((AnnotatedTypeTreeMatcher) checker);
-    }
-    if (checker instanceof ArrayAccessTreeMatcher) {
-      arrayAccessMatchers.add((ArrayAccessTreeMatcher) checker);
-    }
-    if (checker instanceof ArrayTypeTreeMatcher) {
-      arrayTypeMatchers.add((ArrayTypeTreeMatcher) checker);
-    }
-    if (checker instanceof AssertTreeMatcher) {
-      assertMatchers.add((AssertTreeMatcher) checker);
-    }
-    if (checker instanceof AssignmentTreeMatcher) {
-      assignmentMatchers.add((AssignmentTreeMatcher) checker);
-    }
-    if (checker instanceof BinaryTreeMatcher) {
-      binaryMatchers.add((BinaryTreeMatcher) checker);
-    }
-    if (checker instanceof BlockTreeMatcher) {
-      blockMatchers.add((BlockTreeMatcher) checker);
-    }
-    if (checker instanceof BreakTreeMatcher) {
-      breakMatchers.add((BreakTreeMatcher) checker);
-    }
-    if (checker instanceof CaseTreeMatcher) {
-      caseMatchers.add((CaseTreeMatcher) checker);
-    }
-    if (checker instanceof CatchTreeMatcher) {
-      catchMatchers.add((CatchTreeMatcher) checker);
-    }
-    if (checker instanceof ClassTreeMatcher) {
-      classMatchers.add((ClassTreeMatcher) checker);
-    }
-    if (checker instanceof CompilationUnitTreeMatcher) {
-      compilationUnitMatchers.add((CompilationUnitTreeMatcher) checker);
-    }
-    if (checker instanceof CompoundAssignmentTreeMatcher) {
-      compoundAssignmentMatchers.add((CompoundAssignmentTreeMatcher) checker);
-    }
-    if (checker instanceof ConditionalExpressionTreeMatcher) {
-      conditionalExpressionMatchers.add((ConditionalExpressionTreeMatcher) checker);
-    }
-    if (checker instanceof ContinueTreeMatcher) {
-      continueMatchers.add((ContinueTreeMatcher) checker);
-    }
-    if (checker instanceof DoWhileLoopTreeMatcher) {
-      doWhileLoopMatchers.add((DoWhileLoopTreeMatcher) checker);
-    }
-    if (checker instanceof EmptyStatementTreeMatcher) {
-      emptyStatementMatchers.add((EmptyStatementTreeMatcher) checker);
-    }
-    if (checker instanceof EnhancedForLoopTreeMatcher) {
-      enhancedForLoopMatchers.add((EnhancedForLoopTreeMatcher) checker);
-    }
-    if (checker instanceof ExpressionStatementTreeMatcher) {
-      expressionStatementMatchers.add((ExpressionStatementTreeMatcher) checker);
-    }
-    if (checker instanceof ForLoopTreeMatcher) {
-      forLoopMatchers.add((ForLoopTreeMatcher) checker);
-    }
-    if (checker instanceof IdentifierTreeMatcher) {
-      identifierMatchers.add((IdentifierTreeMatcher) checker);
-    }
-    if (checker instanceof IfTreeMatcher) {
-      ifMatchers.add((IfTreeMatcher) checker);
-    }
-    if (checker instanceof ImportTreeMatcher) {
-      importMatchers.add((ImportTreeMatcher) checker);
-    }
-    if (checker instanceof InstanceOfTreeMatcher) {
-      instanceOfMatchers.add((InstanceOfTreeMatcher) checker);
-    }
-    if (checker instanceof IntersectionTypeTreeMatcher) {
-      intersectionTypeMatchers.add((IntersectionTypeTreeMatcher) checker);
-    }
-    if (checker instanceof LabeledStatementTreeMatcher) {
-      labeledStatementMatchers.add((LabeledStatementTreeMatcher) checker);
-    }
-    if (checker instanceof LambdaExpressionTreeMatcher) {
-      lambdaExpressionMatchers.add((LambdaExpressionTreeMatcher) checker);
-    }
-    if (checker instanceof LiteralTreeMatcher) {
-      literalMatchers.add((LiteralTreeMatcher) checker);
-    }
-    if (checker instanceof MemberReferenceTreeMatcher) {
-      memberReferenceMatchers.add((MemberReferenceTreeMatcher) checker);
-    }
-    if (checker instanceof MemberSelectTreeMatcher) {
-      memberSelectMatchers.add((MemberSelectTreeMatcher) checker);
-    }
-    if (checker instanceof MethodTreeMatcher) {
-      methodMatchers.add((MethodTreeMatcher) checker);
-    }
-    if (checker instanceof MethodInvocationTreeMatcher) {
-      methodInvocationMatchers.add((MethodInvocationTreeMatcher) checker);
-    }
-    if (checker instanceof ModifiersTreeMatcher) {
-      modifiersMatchers.add((ModifiersTreeMatcher) checker);
-    }
-    if (checker instanceof NewArrayTreeMatcher) {
-      newArrayMatchers.add((NewArrayTreeMatcher) checker);
-    }
-    if (checker instanceof NewClassTreeMatcher) {
-      newClassMatchers.add((NewClassTreeMatcher) checker);
-    }
-    if (checker instanceof ParameterizedTypeTreeMatcher) {
-      parameterizedTypeMatchers.add((ParameterizedTypeTreeMatcher) checker);
-    }
-    if (checker instanceof ParenthesizedTreeMatcher) {
-      parenthesizedMatchers.add((ParenthesizedTreeMatcher) checker);
-    }
-    if (checker instanceof PrimitiveTypeTreeMatcher) {
-      primitiveTypeMatchers.add((PrimitiveTypeTreeMatcher) checker);
-    }
-    if (checker instanceof ReturnTreeMatcher) {
-      returnMatchers.add((ReturnTreeMatcher) checker);
-    }
-    if (checker instanceof SwitchTreeMatcher) {
-      switchMatchers.add((SwitchTreeMatcher) checker);
-    }
-    if (checker instanceof SynchronizedTreeMatcher) {
-      synchronizedMatchers.add((SynchronizedTreeMatcher) checker);
-    }
-    if (checker instanceof ThrowTreeMatcher) {
-      throwMatchers.add((ThrowTreeMatcher) checker);
+  /** The kinds of trees that have no subtrees. */
+  private static final ImmutableSet<Tree.Kind> LEAF_KINDS =
+      Sets.immutableEnumSet(
+          Tree.Kind.IDENTIFIER,
+          Tree.Kind.INT_LITERAL,
+          Tree.Kind.LONG_LITERAL,
+          Tree.Kind.FLOAT_LITERAL,
+          Tree.Kind.DOUBLE_LITERAL,
+          Tree.Kind.BOOLEAN_LITERAL,
+          Tree.Kind.CHAR_LITERAL,
+          Tree.Kind.STRING_LITERAL,
+          Tree.Kind.NULL_LITERAL,
+          Tree.Kind.PRIMITIVE_TYPE,
+          Tree.Kind.EMPTY_STATEMENT,
+          Tree.Kind.BREAK,
+          Tree.Kind.CONTINUE,
+          Tree.Kind.UNBOUNDED_WILDCARD);
+
+  /** The kinds of trees that denote types, rather than expressions of those types. */
+  private static final ImmutableSet<Tree.Kind> TYPE_KINDS =
+      Sets.immutableEnumSet(
+          Tree.Kind.PRIMITIVE_TYPE,
+          Tree.Kind.ARRAY_TYPE,
+          Tree.Kind.PARAMETERIZED_TYPE,
+          Tree.Kind.UNION_TYPE,
+          Tree.Kind.INTERSECTION_TYPE,
+          Tree.Kind.ANNOTATED_TYPE,
+          Tree.Kind.EXTENDS_WILDCARD,
+          Tree.Kind.SUPER_WILDCARD,
+          Tree.Kind.UNBOUNDED_WILDCARD);
+
+  /**
+   * The kinds of trees that may appear in annotations, and so in anything annotations and types may
+   * appear in: constant expressions, class literals, array initializers and nested annotations.
+   */
+  private static final ImmutableSet<Tree.Kind> ANNOTATION_CONTENT_KINDS = annotationContentKinds();
+
+  private static ImmutableSet<Tree.Kind> annotationContentKinds() {
+    EnumSet<Tree.Kind> kinds =
+        EnumSet.of(
+            Tree.Kind.IDENTIFIER,
+            Tree.Kind.MEMBER_SELECT,
+            Tree.Kind.PARENTHESIZED,
+            Tree.Kind.TYPE_CAST,
+            Tree.Kind.CONDITIONAL_EXPRESSION,
+            Tree.Kind.ASSIGNMENT,
+            Tree.Kind.NEW_ARRAY);
+    kinds.addAll(TYPE_KINDS);
+    for (Tree.Kind kind : Tree.Kind.values()) {
+      Class<? extends Tree> type = kind.asInterface();
+      if (type == LiteralTree.class
+          || type == UnaryTree.class
+          || type == BinaryTree.class
+          || type == AnnotationTree.class) {
+        kinds.add(kind);
+      }
     }
-    if (checker instanceof TryTreeMatcher) {
-      tryMatchers.add((TryTreeMatcher) checker);
+    return Sets.immutableEnumSet(kinds);
+  }
+
+  /**
+   * Kinds of trees whose subtrees can only contain trees of a limited set of kinds, mapped to those
+   * kinds. A tree of one of these kinds doesn't need to be scanned at all if no matcher is
+   * interested in it, or in anything that may appear below it.
+   */
+  private static final ImmutableMap<Tree.Kind, ImmutableSet<Tree.Kind>> RESTRICTED_SUBTREE_KINDS =
+      restrictedSubtreeKinds();
+
+  private static ImmutableMap<Tree.Kind, ImmutableSet<Tree.Kind>> restrictedSubtreeKinds() {
+    Map<Tree.Kind, ImmutableSet<Tree.Kind>> restricted = new EnumMap<>(Tree.Kind.class);
+    for (Tree.Kind kind : TYPE_KINDS) {
+      restricted.put(kind, ANNOTATION_CONTENT_KINDS);
+    }
+    restricted.put(Tree.Kind.ANNOTATION, ANNOTATION_CONTENT_KINDS);
+    restricted.put(Tree.Kind.TYPE_ANNOTATION, ANNOTATION_CONTENT_KINDS);
+    restricted.put(Tree.Kind.MODIFIERS, ANNOTATION_CONTENT_KINDS);
+    restricted.put(Tree.Kind.TYPE_PARAMETER, ANNOTATION_CONTENT_KINDS);
+    restricted.put(
+        Tree.Kind.IMPORT, Sets.immutableEnumSet(Tree.Kind.IDENTIFIER, Tree.Kind.MEMBER_SELECT));
+    for (Tree.Kind kind : LEAF_KINDS) {
+      restricted.put(kind, ImmutableSet.of());
+    }
+    return Maps.immutableEnumMap(restricted);
+  }
+
+  /** The {@code *TreeMatcher} interfaces a {@link BugChecker} may implement. */
+  private static final ImmutableList<MatcherType<?, ?>> MATCHER_TYPES =
+      ImmutableList.of(
+          matcherType(
+              AnnotationTreeMatcher.class,
+              AnnotationTree.class,
+              AnnotationTreeMatcher::matchAnnotation),
+          matcherType(
+              AnnotatedTypeTreeMatcher.class,
+              AnnotatedTypeTree.class,
+              AnnotatedTypeTreeMatcher::matchAnnotatedType),
+          matcherType(
+              ArrayAccessTreeMatcher.class,
+              ArrayAccessTree.class,
+              ArrayAccessTreeMatcher::matchArrayAccess),
+          matcherType(
+              ArrayTypeTreeMatcher.class,
+              ArrayTypeTree.class,
+              ArrayTypeTreeMatcher::matchArrayType),
+          matcherType(AssertTreeMatcher.class, AssertTree.class, AssertTreeMatcher::matchAssert),
+          matcherType(
+              AssignmentTreeMatcher.class,
+              AssignmentTree.class,
+              AssignmentTreeMatcher::matchAssignment),
+          matcherType(BinaryTreeMatcher.class, BinaryTree.class, BinaryTreeMatcher::matchBinary),
+          matcherType(BlockTreeMatcher.class, BlockTree.class, BlockTreeMatcher::matchBlock),
+          matcherType(BreakTreeMatcher.class, BreakTree.class, BreakTreeMatcher::matchBreak),
+          matcherType(CaseTreeMatcher.class, CaseTree.class, CaseTreeMatcher::matchCase),
+          matcherType(CatchTreeMatcher.class, CatchTree.class, CatchTreeMatcher::matchCatch),
+          matcherType(ClassTreeMatcher.class, ClassTree.class, ClassTreeMatcher::matchClass),
+          matcherType(
+              CompilationUnitTreeMatcher.class,
+              CompilationUnitTree.class,
+              CompilationUnitTreeMatcher::matchCompilationUnit),
+          matcherType(
+              CompoundAssignmentTreeMatcher.class,
+              CompoundAssignmentTree.class,
+              CompoundAssignmentTreeMatcher::matchCompoundAssignment),
+          matcherType(
+              ConditionalExpressionTreeMatcher.class,
+              ConditionalExpressionTree.class,
+              ConditionalExpressionTreeMatcher::matchConditionalExpression),
+          matcherType(
+              ContinueTreeMatcher.class, ContinueTree.class, ContinueTreeMatcher::matchContinue),
+          matcherType(
+              DoWhileLoopTreeMatcher.class,
+              DoWhileLoopTree.class,
+              DoWhileLoopTreeMatcher::matchDoWhileLoop),
+          matcherType(
+              EmptyStatementTreeMatcher.class,
+              EmptyStatementTree.class,
+              EmptyStatementTreeMatcher::matchEmptyStatement),
+          matcherType(
+              EnhancedForLoopTreeMatcher.class,
+              EnhancedForLoopTree.class,
+              EnhancedForLoopTreeMatcher::matchEnhancedForLoop),
+          matcherType(
+              ExpressionStatementTreeMatcher.class,
+              ExpressionStatementTree.class,
+              ExpressionStatementTreeMatcher::matchExpressionStatement),
+          matcherType(
+              ForLoopTreeMatcher.class, ForLoopTree.class, ForLoopTreeMatcher::matchForLoop),
+          matcherType(
+              IdentifierTreeMatcher.class,
+              IdentifierTree.class,
+              IdentifierTreeMatcher::matchIdentifier),
+          matcherType(IfTreeMatcher.class, IfTree.class, IfTreeMatcher::matchIf),
+          matcherType(ImportTreeMatcher.class, ImportTree.class, ImportTreeMatcher::matchImport),
+          matcherType(
+              InstanceOfTreeMatcher.class,
+              InstanceOfTree.class,
+              InstanceOfTreeMatcher::matchInstanceOf),
+          matcherType(
+              IntersectionTypeTreeMatcher.class,
+              IntersectionTypeTree.class,
+              IntersectionTypeTreeMatcher::matchIntersectionType),
+          matcherType(
+              LabeledStatementTreeMatcher.class,
+              LabeledStatementTree.class,
+              LabeledStatementTreeMatcher::matchLabeledStatement),
+          matcherType(
+              LambdaExpressionTreeMatcher.class,
+              LambdaExpressionTree.class,
+              LambdaExpressionTreeMatcher::matchLambdaExpression),
+          matcherType(
+              LiteralTreeMatcher.class, LiteralTree.class, LiteralTreeMatcher::matchLiteral),
+          matcherType(
+              MemberReferenceTreeMatcher.class,
+              MemberReferenceTree.class,
+              MemberReferenceTreeMatcher::matchMemberReference),
+          matcherType(
+              MemberSelectTreeMatcher.class,
+              MemberSelectTree.class,
+              MemberSelectTreeMatcher::matchMemberSelect),
+          matcherType(MethodTreeMatcher.class, MethodTree.class, MethodTreeMatcher::matchMethod),
+          matcherType(
+              MethodInvocationTreeMatcher.class,
+              MethodInvocationTree.class,
+              MethodInvocationTreeMatcher::matchMethodInvocation),
+          matcherType(
+              ModifiersTreeMatcher.class,
+              ModifiersTree.class,
+              ModifiersTreeMatcher::matchModifiers),
+          matcherType(
+              NewArrayTreeMatcher.class, NewArrayTree.class, NewArrayTreeMatcher::matchNewArray),
+          matcherType(
+              NewClassTreeMatcher.class, NewClassTree.class, NewClassTreeMatcher::matchNewClass),
+          matcherType(
+              ParameterizedTypeTreeMatcher.class,
+              ParameterizedTypeTree.class,
+              ParameterizedTypeTreeMatcher::matchParameterizedType),
+          matcherType(
+              ParenthesizedTreeMatcher.class,
+              ParenthesizedTree.class,
+              ParenthesizedTreeMatcher::matchParenthesized),
+          matcherType(
+              PrimitiveTypeTreeMatcher.class,
+              PrimitiveTypeTree.class,
+              PrimitiveTypeTreeMatcher::matchPrimitiveType),
+          matcherType(ReturnTreeMatcher.class, ReturnTree.class, ReturnTreeMatcher::matchReturn),
+          matcherType(SwitchTreeMatcher.class, SwitchTree.class, SwitchTreeMatcher::matchSwitch),
+          matcherType(
+              SynchronizedTreeMatcher.class,
+              SynchronizedTree.class,
+              SynchronizedTreeMatcher::matchSynchronized),
+          matcherType(ThrowTreeMatcher.class, ThrowTree.class, ThrowTreeMatcher::matchThrow),
+          matcherType(TryTreeMatcher.class, TryTree.class, TryTreeMatcher::matchTry),
+          matcherType(
+              TypeCastTreeMatcher.class, TypeCastTree.class, TypeCastTreeMatcher::matchTypeCast),
+          matcherType(
+              TypeParameterTreeMatcher.class,
+              TypeParameterTree.class,
+              TypeParameterTreeMatcher::matchTypeParameter),
+          matcherType(UnaryTreeMatcher.class, UnaryTree.class, UnaryTreeMatcher::matchUnary),
+          matcherType(
+              UnionTypeTreeMatcher.class,
+              UnionTypeTree.class,
+              UnionTypeTreeMatcher::matchUnionType),
+          matcherType(
+              VariableTreeMatcher.class, VariableTree.class, VariableTreeMatcher::matchVariable),
+          matcherType(
+              WhileLoopTreeMatcher.class,
+              WhileLoopTree.class,
+              WhileLoopTreeMatcher::matchWhileLoop),
+          matcherType(
+              WildcardTreeMatcher.class, WildcardTree.class, WildcardTreeMatcher::matchWildcard));
+
+  private static <M extends Suppressible, T extends Tree> MatcherType<M, T> matcherType(
+      Class<M> matcherClass, Class<T> treeClass, TreeProcessor<M, T> processor) {
+    return new MatcherType<>(matcherClass, treeClass, processor);
+  }
+
+  @FunctionalInterface
+  private interface TreeProcessor<M extends Suppressible, T extends Tree> {
+    Description process(M matcher, T tree, VisitorState state);
+  }
+
+  /** One of the {@code *TreeMatcher} interfaces, and the kinds of trees it matches. */
+  private static final class MatcherType<M extends Suppressible, T extends Tree> {
+    private final Class<M> matcherClass;
+    private final Class<T> treeClass;
+    private final TreeProcessor<M, T> processor;
+    private final ImmutableSet<Tree.Kind> kinds;
+
+    MatcherType(Class<M> matcherClass, Class<T> treeClass, TreeProcessor<M, T> processor) {
+      this.matcherClass = matcherClass;
+      this.treeClass = treeClass;
+      this.processor = processor;
+      this.kinds =
+          Arrays.stream(Tree.Kind.values())
+              .filter(kind -> kind.asInterface() == treeClass)
+              .collect(Sets.toImmutableEnumSet());
     }
-    if (checker instanceof TypeCastTreeMatcher) {
-      typeCastMatchers.add((TypeCastTreeMatcher) checker);
+
+    /** Binds {@code checker} to this interface, which it must implement. */
+    BoundMatcher bind(BugChecker checker, int checkerIndex) {
+      M matcher = matcherClass.cast(checker);
+      return new BoundMatcher(
+          checker,
+          checkerIndex,
+          (tree, state) -> processor.process(matcher, treeClass.cast(tree), state));
     }
-    if (checker instanceof TypeParameterTreeMatcher) {
-      typeParameterMatchers.add((TypeParameterTreeMatcher) checker);
+  }
+
+  /** A check, and how to run it on the trees of one kind. */
+  private static final class BoundMatcher {
+    final Suppressible matcher;
+    final int checkerIndex;
+    final BiFunction<Tree, VisitorState, Description> match;
+
+    BoundMatcher(
+        Suppressible matcher, int checkerIndex, BiFunction<Tree, VisitorState, Description> match) {
+      this.matcher = matcher;
+      this.checkerIndex = checkerIndex;
+      this.match = match;
     }
-    if (checker instanceof UnaryTreeMatcher) {
-      unaryMatchers.add((UnaryTreeMatcher) checker);
+  }
+
+  /** The matchers to run on each kind of tree, indexed by {@link Tree.Kind#ordinal}. */
+  private final BoundMatcher[][] matchersByKind;
+
+  /**
+   * Whether trees of each kind can be skipped without scanning them, indexed by {@link
+   * Tree.Kind#ordinal}.
+   */
+  private final boolean[] skippableKinds;
+
+  // The suppressed state of each check, indexed like bugCheckers and computed on demand, for
+  // the suppressions and options they were last computed with. Scanner replaces its
+  // SuppressionInfo rather than mutating it, and usually keeps the same instance when descending
+  // into a declaration, so an identity check is enough to tell when these are stale.
+  private final SuppressedState[] suppressedStates;
+  @Nullable private SuppressionInfo suppressedStatesSuppressions;
+  @Nullable private ErrorProneOptions suppressedStatesOptions;
+
+  // The timings of each check, indexed like bugCheckers and looked up on demand, for the context
+  // they were last looked up in.
+  private final CheckTimings[] checkTimings;
+  @Nullable private Context checkTimingsContext;
+
+  // The number of invocations of each check, indexed like bugCheckers, to skip before timing one
+  // again under -XepTimingSampleRate.
+  private final int[] untimedInvocations;
+
+  /**
+   * Builds the dispatch table from kinds of trees to the checks that match them, preserving the
+   * order of {@code checkers}.
+   */
+  private static BoundMatcher[][] buildDispatchTable(ImmutableList<BugChecker> checkers) {
+    ListMultimap<Tree.Kind, BoundMatcher> matchers =
+        MultimapBuilder.enumKeys(Tree.Kind.class).arrayListValues().build();
+    for (int i = 0; i < checkers.size(); i++) {
+      BugChecker checker = checkers.get(i);
+      for (MatcherType<?, ?> matcherType : MATCHER_TYPES) {
+        if (matcherType.matcherClass.isInstance(checker)) {
+          BoundMatcher bound = matcherType.bind(checker, i);
+          for (Tree.Kind kind : matcherType.kinds) {
+            matchers.put(kind, bound);
+          }
+        }
+      }
     }
-    if (checker instanceof UnionTypeTreeMatcher) {
-      unionTypeMatchers.add((UnionTypeTreeMatcher) checker);
+    BoundMatcher[][] table = new BoundMatcher[Tree.Kind.values().length][];
+    for (Tree.Kind kind : Tree.Kind.values()) {
+      table[kind.ordinal()] = matchers.get(kind).toArray(new BoundMatcher[0]);
     }
-    if (checker instanceof VariableTreeMatcher) {
-      variableMatchers.add((VariableTreeMatcher) checker);
+    return table;
+  }
+
+  private boolean hasMatchers(Tree.Kind kind) {
+    return matchersByKind[kind.ordinal()].length > 0;
+  }
+
+  /** Scans {@code tree}, unless no matcher can match it or anything below it. */
+  @Override
+  public Void scan(Tree tree, VisitorState state) {
+    if (tree != null && skippableKinds[tree.getKind().ordinal()]) {
+      return null;
     }
-    if (checker instanceof WhileLoopTreeMatcher) {
-      whileLoopMatchers.add((WhileLoopTreeMatcher) checker);
+    return super.scan(tree, state);
+  }
+
+  /**
+   * Returns whether to time this invocation of {@code matcher}: every {@code sampleInterval}th
+   * invocation of each check is timed, starting with the first.
+   */
+  private boolean shouldTime(BoundMatcher matcher, int sampleInterval) {
+    if (sampleInterval == 1) {
+      return true;
     }
-    if (checker instanceof WildcardTreeMatcher) {
-      wildcardMatchers.add((WildcardTreeMatcher) checker);
+    if (--untimedInvocations[matcher.checkerIndex] >= 0) {
+      return false;
     }
+    untimedInvocations[matcher.checkerIndex] = sampleInterval - 1;
+    return true;
   }
 
-  @FunctionalInterface
-  private interface TreeProcessor<M extends Suppressible, T extends Tree> {
-    Description process(M matcher, T tree, VisitorState state);
+  /** Returns the timings to record the runtime of {@code matcher} in. */
+  private CheckTimings checkTimings(BoundMatcher matcher, VisitorState state) {
+    if (state.context != checkTimingsContext) {
+      Arrays.fill(checkTimings, null);
+      checkTimingsContext = state.context;
+    }
+    CheckTimings timings = checkTimings[matcher.checkerIndex];
+    if (timings == null) {
+      timings = ErrorProneTimings.instance(state.context).forCheck(matcher.matcher);
+      checkTimings[matcher.checkerIndex] = timings;
+    }
+    return timings;
   }
 
-  private <M extends Suppressible, T extends Tree> VisitorState processMatchers(
-      Iterable<M> matchers, T tree, TreeProcessor<M, T> processingFunction, VisitorState oldState) {
+  /**
+   * Runs the matchers for the kind of {@code tree} on it, and returns the state to scan its
+   * children with.
+   */
+  private VisitorState processMatchers(Tree tree, VisitorState oldState) {
+    BoundMatcher[] matchers = matchersByKind[tree.getKind().ordinal()];
+    if (matchers.length == 0) {
+      return oldState;
+    }
     ErrorProneOptions errorProneOptions = oldState.errorProneOptions();
     // A VisitorState with our new path, but without mentioning the suppression of any matcher.
     VisitorState newState = oldState.withPath(getCurrentPath());
-    for (M matcher : matchers) {
-      SuppressedState suppressed = isSuppressed(matcher, errorProneOptions, newState);
+    SuppressionInfo suppressions = currentSuppressions();
+    if (suppressions != suppressedStatesSuppressions
+        || errorProneOptions != suppressedStatesOptions) {
+      Arrays.fill(suppressedStates, null);
+      suppressedStatesSuppressions = suppressions;
+      suppressedStatesOptions = errorProneOptions;
+    }
+    for (BoundMatcher matcher : matchers) {
+      SuppressedState suppressed = suppressedStates[matcher.checkerIndex];
+      if (suppressed == null) {
+        suppressed = isSuppressed(matcher.matcher, errorProneOptions, newState);
+        suppressedStates[matcher.checkerIndex] = suppressed;
+      }
       // If the ErrorProneOptions say to visit suppressed code, we still visit it
       if (suppressed == SuppressedState.UNSUPPRESSED
           || errorProneOptions.isIgnoreSuppressionAnnotations()) {
-        try (AutoCloseable unused = oldState.timingSpan(matcher)) {
+        int sampleInterval = errorProneOptions.timingSampleInterval();
+        CheckTimings timings =
+            shouldTime(matcher, sampleInterval) ? checkTimings(matcher, oldState) : null;
+        long start = timings != null ? System.nanoTime() : 0;
+        try {
           // We create a new VisitorState with the suppression info specific to this matcher.
           VisitorState stateWithSuppressionInformation = newState.withSuppression(suppressed);
           reportMatch(
-              processingFunction.process(matcher, tree, stateWithSuppressionInformation),
+              matcher.match.apply(tree, stateWithSuppressionInformation),
               stateWithSuppressionInformation);
         } catch (Exception | AssertionError t) {
-          handleError(matcher, t);
+          handleError(matcher.matcher, t);
+        } finally {
+          if (timings != null) {
+            timings.record(System.nanoTime() - start, sampleInterval);
+          }
         }
       }
     }
@@ -458,274 +661,158 @@ public class ErrorProneScanner extends Scanner {
 
   @Override
   public Void visitAnnotation(AnnotationTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(
-            annotationMatchers, tree, AnnotationTreeMatcher::matchAnnotation, visitorState);
-    return super.visitAnnotation(tree, state);
+    return super.visitAnnotation(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitAnnotatedType(AnnotatedTypeTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(
-            annotatedTypeMatchers,
-            tree,
-            AnnotatedTypeTreeMatcher::matchAnnotatedType,
-            visitorState);
-    return super.visitAnnotatedType(tree, state);
+    return super.visitAnnotatedType(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitArrayAccess(ArrayAccessTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(
-            arrayAccessMatchers, tree, ArrayAccessTreeMatcher::matchArrayAccess, visitorState);
-    return super.visitArrayAccess(tree, state);
+    return super.visitArrayAccess(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitArrayType(ArrayTypeTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(
-            arrayTypeMatchers, tree, ArrayTypeTreeMatcher::matchArrayType, visitorState);
-    return super.visitArrayType(tree, state);
+    return super.visitArrayType(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitAssert(AssertTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(assertMatchers, tree, AssertTreeMatcher::matchAssert, visitorState);
-    return super.visitAssert(tree, state);
+    return super.visitAssert(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitAssignment(AssignmentTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(
-            assignmentMatchers, tree, AssignmentTreeMatcher::matchAssignment, visitorState);
-    return super.visitAssignment(tree, state);
+    return super.visitAssignment(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitBinary(BinaryTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(binaryMatchers, tree, BinaryTreeMatcher::matchBinary, visitorState);
-    return super.visitBinary(tree, state);
+    return super.visitBinary(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitBlock(BlockTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(blockMatchers, tree, BlockTreeMatcher::matchBlock, visitorState);
-    return super.visitBlock(tree, state);
+    return super.visitBlock(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitBreak(BreakTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(breakMatchers, tree, BreakTreeMatcher::matchBreak, visitorState);
-    return super.visitBreak(tree, state);
+    return super.visitBreak(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitCase(CaseTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(caseMatchers, tree, CaseTreeMatcher::matchCase, visitorState);
-    return super.visitCase(tree, state);
+    return super.visitCase(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitCatch(CatchTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(catchMatchers, tree, CatchTreeMatcher::matchCatch, visitorState);
-    return super.visitCatch(tree, state);
+    return super.visitCatch(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitClass(ClassTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(classMatchers, tree, ClassTreeMatcher::matchClass, visitorState);
-    return super.visitClass(tree, state);
+    return super.visitClass(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitCompilationUnit(CompilationUnitTree tree, VisitorState visitorState) {
-
-    VisitorState state =
-        processMatchers(
-            compilationUnitMatchers,
-            tree,
-            CompilationUnitTreeMatcher::matchCompilationUnit,
-            visitorState);
-    return super.visitCompilationUnit(tree, state);
+    return super.visitCompilationUnit(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitCompoundAssignment(CompoundAssignmentTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(
-            compoundAssignmentMatchers,
-            tree,
-            CompoundAssignmentTreeMatcher::matchCompoundAssignment,
-            visitorState);
-    return super.visitCompoundAssignment(tree, state);
+    return super.visitCompoundAssignment(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitConditionalExpression(
       ConditionalExpressionTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(
-            conditionalExpressionMatchers,
-            tree,
-            ConditionalExpressionTreeMatcher::matchConditionalExpression,
-            visitorState);
-    return super.visitConditionalExpression(tree, state);
+    return super.visitConditionalExpression(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitContinue(ContinueTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(continueMatchers, tree, ContinueTreeMatcher::matchContinue, visitorState);
-    return super.visitContinue(tree, state);
+    return super.visitContinue(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitDoWhileLoop(DoWhileLoopTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(
-            doWhileLoopMatchers, tree, DoWhileLoopTreeMatcher::matchDoWhileLoop, visitorState);
-    return super.visitDoWhileLoop(tree, state);
+    return super.visitDoWhileLoop(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitEmptyStatement(EmptyStatementTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(
-            emptyStatementMatchers,
-            tree,
-            EmptyStatementTreeMatcher::matchEmptyStatement,
-            visitorState);
-    return super.visitEmptyStatement(tree, state);
+    return super.visitEmptyStatement(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitEnhancedForLoop(EnhancedForLoopTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(
-            enhancedForLoopMatchers,
-            tree,
-            EnhancedForLoopTreeMatcher::matchEnhancedForLoop,
-            visitorState);
-    return super.visitEnhancedForLoop(tree, state);
+    return super.visitEnhancedForLoop(tree, processMatchers(tree, visitorState));
   }
 
-  // Intentionally skip visitErroneous -- we don't analyze malformed expressions.
-
   @Override
   public Void visitExpressionStatement(ExpressionStatementTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(
-            expressionStatementMatchers,
-            tree,
-            ExpressionStatementTreeMatcher::matchExpressionStatement,
-            visitorState);
-    return super.visitExpressionStatement(tree, state);
+    return super.visitExpressionStatement(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitForLoop(ForLoopTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(forLoopMatchers, tree, ForLoopTreeMatcher::matchForLoop, visitorState);
-    return super.visitForLoop(tree, state);
+    return super.visitForLoop(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitIdentifier(IdentifierTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(
-            identifierMatchers, tree, IdentifierTreeMatcher::matchIdentifier, visitorState);
-    return super.visitIdentifier(tree, state);
+    return super.visitIdentifier(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitIf(IfTree tree, VisitorState visitorState) {
-    VisitorState state = processMatchers(ifMatchers, tree, IfTreeMatcher::matchIf, visitorState);
-    return super.visitIf(tree, state);
+    return super.visitIf(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitImport(ImportTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(importMatchers, tree, ImportTreeMatcher::matchImport, visitorState);
-    return super.visitImport(tree, state);
+    return super.visitImport(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitInstanceOf(InstanceOfTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(
-            instanceOfMatchers, tree, InstanceOfTreeMatcher::matchInstanceOf, visitorState);
-    return super.visitInstanceOf(tree, state);
+    return super.visitInstanceOf(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitIntersectionType(IntersectionTypeTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(
-            intersectionTypeMatchers,
-            tree,
-            IntersectionTypeTreeMatcher::matchIntersectionType,
-            visitorState);
-    return super.visitIntersectionType(tree, state);
+    return super.visitIntersectionType(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitLabeledStatement(LabeledStatementTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(
-            labeledStatementMatchers,
-            tree,
-            LabeledStatementTreeMatcher::matchLabeledStatement,
-            visitorState);
-    return super.visitLabeledStatement(tree, state);
+    return super.visitLabeledStatement(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitLambdaExpression(LambdaExpressionTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(
-            lambdaExpressionMatchers,
-            tree,
-            LambdaExpressionTreeMatcher::matchLambdaExpression,
-            visitorState);
-    return super.visitLambdaExpression(tree, state);
+    return super.visitLambdaExpression(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitLiteral(LiteralTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(literalMatchers, tree, LiteralTreeMatcher::matchLiteral, visitorState);
-    return super.visitLiteral(tree, state);
+    return super.visitLiteral(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitMemberReference(MemberReferenceTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(
-            memberReferenceMatchers,
-            tree,
-            MemberReferenceTreeMatcher::matchMemberReference,
-            visitorState);
-    return super.visitMemberReference(tree, state);
+    return super.visitMemberReference(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitMemberSelect(MemberSelectTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(
-            memberSelectMatchers, tree, MemberSelectTreeMatcher::matchMemberSelect, visitorState);
-    return super.visitMemberSelect(tree, state);
+    return super.visitMemberSelect(tree, processMatchers(tree, visitorState));
   }
 
   @Override
@@ -734,44 +821,27 @@ public class ErrorProneScanner extends Scanner {
     if (ASTHelpers.isGeneratedConstructor(tree)) {
       return null;
     }
-
-    VisitorState state =
-        processMatchers(methodMatchers, tree, MethodTreeMatcher::matchMethod, visitorState);
-    return super.visitMethod(tree, state);
+    return super.visitMethod(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitMethodInvocation(MethodInvocationTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(
-            methodInvocationMatchers,
-            tree,
-            MethodInvocationTreeMatcher::matchMethodInvocation,
-            visitorState);
-    return super.visitMethodInvocation(tree, state);
+    return super.visitMethodInvocation(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitModifiers(ModifiersTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(
-            modifiersMatchers, tree, ModifiersTreeMatcher::matchModifiers, visitorState);
-
-    return super.visitModifiers(tree, state);
+    return super.visitModifiers(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitNewArray(NewArrayTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(newArrayMatchers, tree, NewArrayTreeMatcher::matchNewArray, visitorState);
-    return super.visitNewArray(tree, state);
+    return super.visitNewArray(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitNewClass(NewClassTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(newClassMatchers, tree, NewClassTreeMatcher::matchNewClass, visitorState);
-    return super.visitNewClass(tree, state);
+    return super.visitNewClass(tree, processMatchers(tree, visitorState));
   }
 
   // Intentionally skip visitOther. It seems to be used only for let expressions, which are
@@ -779,125 +849,77 @@ public class ErrorProneScanner extends Scanner {
 
   @Override
   public Void visitParameterizedType(ParameterizedTypeTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(
-            parameterizedTypeMatchers,
-            tree,
-            ParameterizedTypeTreeMatcher::matchParameterizedType,
-            visitorState);
-    return super.visitParameterizedType(tree, state);
+    return super.visitParameterizedType(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitParenthesized(ParenthesizedTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(
-            parenthesizedMatchers,
-            tree,
-            ParenthesizedTreeMatcher::matchParenthesized,
-            visitorState);
-    return super.visitParenthesized(tree, state);
+    return super.visitParenthesized(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitPrimitiveType(PrimitiveTypeTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(
-            primitiveTypeMatchers,
-            tree,
-            PrimitiveTypeTreeMatcher::matchPrimitiveType,
-            visitorState);
-    return super.visitPrimitiveType(tree, state);
+    return super.visitPrimitiveType(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitReturn(ReturnTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(returnMatchers, tree, ReturnTreeMatcher::matchReturn, visitorState);
-    return super.visitReturn(tree, state);
+    return super.visitReturn(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitSwitch(SwitchTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(switchMatchers, tree, SwitchTreeMatcher::matchSwitch, visitorState);
-    return super.visitSwitch(tree, state);
+    return super.visitSwitch(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitSynchronized(SynchronizedTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(
-            synchronizedMatchers, tree, SynchronizedTreeMatcher::matchSynchronized, visitorState);
-    return super.visitSynchronized(tree, state);
+    return super.visitSynchronized(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitThrow(ThrowTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(throwMatchers, tree, ThrowTreeMatcher::matchThrow, visitorState);
-    return super.visitThrow(tree, state);
+    return super.visitThrow(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitTry(TryTree tree, VisitorState visitorState) {
-    VisitorState state = processMatchers(tryMatchers, tree, TryTreeMatcher::matchTry, visitorState);
-    return super.visitTry(tree, state);
+    return super.visitTry(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitTypeCast(TypeCastTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(typeCastMatchers, tree, TypeCastTreeMatcher::matchTypeCast, visitorState);
-    return super.visitTypeCast(tree, state);
+    return super.visitTypeCast(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitTypeParameter(TypeParameterTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(
-            typeParameterMatchers,
-            tree,
-            TypeParameterTreeMatcher::matchTypeParameter,
-            visitorState);
-    return super.visitTypeParameter(tree, state);
+    return super.visitTypeParameter(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitUnary(UnaryTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(unaryMatchers, tree, UnaryTreeMatcher::matchUnary, visitorState);
-    return super.visitUnary(tree, state);
+    return super.visitUnary(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitUnionType(UnionTypeTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(
-            unionTypeMatchers, tree, UnionTypeTreeMatcher::matchUnionType, visitorState);
-    return super.visitUnionType(tree, state);
+    return super.visitUnionType(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitVariable(VariableTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(variableMatchers, tree, VariableTreeMatcher::matchVariable, visitorState);
-    return super.visitVariable(tree, state);
+    return super.visitVariable(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitWhileLoop(WhileLoopTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(
-            whileLoopMatchers, tree, WhileLoopTreeMatcher::matchWhileLoop, visitorState);
-    return super.visitWhileLoop(tree, state);
+    return super.visitWhileLoop(tree, processMatchers(tree, visitorState));
   }
 
   @Override
   public Void visitWildcard(WildcardTree tree, VisitorState visitorState) {
-    VisitorState state =
-        processMatchers(wildcardMatchers, tree, WildcardTreeMatcher::matchWildcard, visitorState);
-    return super.visitWildcard(tree, state);
+    return super.visitWildcard(tree, processMatchers(tree, visitorState));
   }
 
   /**
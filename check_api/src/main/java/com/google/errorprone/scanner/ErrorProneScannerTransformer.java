@@ -23,7 +23,11 @@ import com.google.common.collect.ImmutableClassToInstanceMap;
 import com.google.errorprone.CodeTransformer;
 import com.google.errorprone.DescriptionListener;
 import com.google.errorprone.ErrorProneOptions;
+import com.google.errorprone.ErrorProneTimings;
 import com.google.errorprone.VisitorState;
+import com.google.errorprone.dataflow.DataFlow;
+import com.google.errorprone.dataflow.nullnesspropagation.TrustingNullnessAnalysis;
+import com.google.errorprone.dataflow.nullnesspropagation.inference.NullnessInferenceCache;
 import com.sun.source.util.TreePath;
 import com.sun.tools.javac.util.Context;
 import java.lang.annotation.Annotation;
@@ -40,7 +44,16 @@ public abstract class ErrorProneScannerTransformer implements CodeTransformer {
 
   @Override
   public void apply(TreePath tree, Context context, DescriptionListener listener) {
-    scanner().scan(tree, createVisitorState(context, listener).withPath(tree));
+    long start = System.nanoTime();
+    try {
+      scanner().scan(tree, createVisitorState(context, listener).withPath(tree));
+    } finally {
+      ErrorProneTimings.instance(context)
+          .recordFile(tree.getCompilationUnit().getSourceFile(), System.nanoTime() - start);
+      DataFlow.clearCache(tree.getCompilationUnit());
+      NullnessInferenceCache.instance(context).clear(tree.getCompilationUnit());
+      TrustingNullnessAnalysis.instance(context).clear(tree.getCompilationUnit());
+    }
   }
 
   @Override
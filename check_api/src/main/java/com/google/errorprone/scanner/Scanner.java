@@ -98,6 +98,14 @@ public class Scanner extends TreePathScanner<Void, VisitorState> {
     return prevSuppressionInfo;
   }
 
+  /**
+   * Returns the suppression information for the current tree path. A new instance is used whenever
+   * the suppressions change, so callers may cache results derived from it by identity.
+   */
+  protected final SuppressionInfo currentSuppressions() {
+    return currentSuppressions;
+  }
+
   /**
    * Returns if this checker should be suppressed on the current tree path.
    *
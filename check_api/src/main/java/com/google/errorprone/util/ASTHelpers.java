@@ -906,7 +906,7 @@ public class ASTHelpers {
       VisitorState.memoize(unusedState -> Caffeine.newBuilder().maximumSize(1000).build());
 
   @SuppressWarnings("ConstantConditions") // IntelliJ worries unboxing our Boolean may throw NPE.
-  private static boolean isInherited(VisitorState state, Name annotationName) {
+  static boolean isInherited(VisitorState state, Name annotationName) {
 
     return inheritedAnnotationCache
         .get(state)
@@ -2698,9 +2698,11 @@ public class ASTHelpers {
     return getStartPosition(tree) != Position.NOPOS && state.getEndPosition(tree) != Position.NOPOS;
   }
 
+  private static final AnnotationHandle KOTLIN_METADATA = AnnotationHandle.of("kotlin.Metadata");
+
   /** Returns {@code true} if this symbol was declared in Kotlin source. */
   public static boolean isKotlin(Symbol symbol, VisitorState state) {
-    return hasAnnotation(symbol.enclClass(), "kotlin.Metadata", state);
+    return KOTLIN_METADATA.isPresent(symbol.enclClass(), state);
   }
 
   /**
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2024 The Error Prone Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.errorprone.util;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.errorprone.VisitorState;
+import com.google.errorprone.suppliers.Supplier;
+import com.sun.source.tree.Tree;
+import com.sun.tools.javac.code.Attribute.Compound;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.Symbol.ClassSymbol;
+import com.sun.tools.javac.util.Name;
+import com.sun.tools.javac.util.Names;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+
+/**
+ * A precompiled lookup of an annotation, equivalent to {@link ASTHelpers#hasAnnotation(Symbol,
+ * String, VisitorState)} but without resolving the annotation's name and whether it is
+ * {@code @Inherited} on every call. Create one per annotation of interest, typically in a static
+ * field of a check:
+ *
+ * <pre>{@code
+ * private static final AnnotationHandle AUTO_VALUE =
+ *     AnnotationHandle.of("com.google.auto.value.AutoValue");
+ * ...
+ * if (AUTO_VALUE.isPresent(symbol, state)) {
+ * }</pre>
+ *
+ * <p>The annotations of each symbol that is looked up are recorded once per compilation as the set
+ * of handles they match, so looking up another handle on the same symbol is a bit test.
+ */
+public final class AnnotationHandle {
+
+  /** The handles created so far, by index. */
+  private static final List<AnnotationHandle> handles = new ArrayList<>();
+
+  /** The handles created so far, by normalized annotation name. */
+  private static final Map<String, AnnotationHandle> handlesByName = new HashMap<>();
+
+  private static final Supplier<Resolution> resolution = VisitorState.memoize(Resolution::new);
+
+  private final String annotationClass;
+  private final int index;
+
+  private AnnotationHandle(String annotationClass, int index) {
+    this.annotationClass = annotationClass;
+    this.index = index;
+  }
+
+  /**
+   * Returns the handle for an annotation.
+   *
+   * @param annotationClass the binary class name of the annotation (e.g.
+   *     "javax.annotation.Nullable", or "some.package.OuterClassName$InnerClassName")
+   */
+  public static AnnotationHandle of(String annotationClass) {
+    // normalize to non-binary names
+    String name = annotationClass.replace('$', '.');
+    synchronized (handles) {
+      AnnotationHandle handle = handlesByName.get(name);
+      if (handle == null) {
+        handle = new AnnotationHandle(name, handles.size());
+        handles.add(handle);
+        handlesByName.put(name, handle);
+      }
+      return handle;
+    }
+  }
+
+  /**
+   * Returns whether {@code sym} has this annotation, including if it's inherited from a superclass
+   * due to {@code @Inherited}.
+   */
+  public boolean isPresent(@Nullable Symbol sym, VisitorState state) {
+    if (sym == null) {
+      return false;
+    }
+    Resolution resolution = AnnotationHandle.resolution.get(state);
+    resolution.resolve(index);
+    if (isDirectlyPresent(sym, resolution)) {
+      return true;
+    }
+    if (sym instanceof ClassSymbol && resolution.isInherited(this, state)) {
+      for (sym = ((ClassSymbol) sym).getSuperclass().tsym;
+          sym instanceof ClassSymbol;
+          sym = ((ClassSymbol) sym).getSuperclass().tsym) {
+        if (isDirectlyPresent(sym, resolution)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns whether the symbol declared by {@code tree} has this annotation, including if it's
+   * inherited from a superclass due to {@code @Inherited}.
+   */
+  public boolean isPresent(Tree tree, VisitorState state) {
+    return isPresent(ASTHelpers.getDeclaredSymbol(tree), state);
+  }
+
+  private boolean isDirectlyPresent(Symbol sym, Resolution resolution) {
+    if (sym.getRawAttributes().isEmpty()) {
+      return false;
+    }
+    return resolution.annotations(sym, index).get(index);
+  }
+
+  @Override
+  public String toString() {
+    return "@" + annotationClass;
+  }
+
+  /** The names of the handles, and the annotations of symbols, in one compilation. */
+  private static final class Resolution {
+
+    /** The annotations of a symbol, and the number of handles that were considered. */
+    private static final class Annotations {
+      final BitSet handles;
+      final int resolved;
+
+      Annotations(BitSet handles, int resolved) {
+        this.handles = handles;
+        this.resolved = resolved;
+      }
+
+      boolean get(int index) {
+        return handles.get(index);
+      }
+    }
+
+    private final Names names;
+    private final Map<Symbol, Annotations> annotations = new ConcurrentHashMap<>();
+
+    /** The indices of the handles, by annotation name, for the first {@code resolved} handles. */
+    private volatile ImmutableMap<Name, Integer> indices = ImmutableMap.of();
+
+    private volatile int resolved = 0;
+
+    /** Whether each handle's annotation is {@code @Inherited}, or null if not yet known. */
+    private volatile Boolean[] inherited = new Boolean[0];
+
+    Resolution(VisitorState state) {
+      this.names = state.getNames();
+    }
+
+    /** Resolves the names of the handles created so far, if the handle {@code index} isn't. */
+    void resolve(int index) {
+      if (index >= resolved) {
+        resolveAll();
+      }
+    }
+
+    private synchronized void resolveAll() {
+      List<AnnotationHandle> snapshot;
+      synchronized (handles) {
+        snapshot = new ArrayList<>(handles);
+      }
+      ImmutableMap.Builder<Name, Integer> builder = ImmutableMap.builder();
+      for (AnnotationHandle handle : snapshot) {
+        builder.put(names.fromString(handle.annotationClass), handle.index);
+      }
+      Boolean[] newInherited = new Boolean[snapshot.size()];
+      Boolean[] oldInherited = inherited;
+      System.arraycopy(oldInherited, 0, newInherited, 0, oldInherited.length);
+      indices = builder.buildOrThrow();
+      inherited = newInherited;
+      resolved = snapshot.size();
+    }
+
+    boolean isInherited(AnnotationHandle handle, VisitorState state) {
+      Boolean[] inherited = this.inherited;
+      Boolean result = inherited[handle.index];
+      if (result == null) {
+        result =
+            ASTHelpers.isInherited(state, state.binaryNameFromClassname(handle.annotationClass));
+        // A racing lookup computes the same value.
+        inherited[handle.index] = result;
+      }
+      return result;
+    }
+
+    Annotations annotations(Symbol sym, int index) {
+      Annotations result = annotations.get(sym);
+      if (result == null || index >= result.resolved) {
+        result = compute(sym);
+        annotations.put(sym, result);
+      }
+      return result;
+    }
+
+    private Annotations compute(Symbol sym) {
+      ImmutableMap<Name, Integer> indices = this.indices;
+      BitSet handles = new BitSet(indices.size());
+      for (Compound a : sym.getRawAttributes()) {
+        Integer index = indices.get(a.type.tsym.getQualifiedName());
+        if (index != null) {
+          handles.set(index);
+        }
+      }
+      return new Annotations(handles, indices.size());
+    }
+  }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2024 The Error Prone Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.errorprone.util;
+
+import static com.google.errorprone.util.ASTHelpers.getSymbol;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.sun.source.tree.AssignmentTree;
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.CompoundAssignmentTree;
+import com.sun.source.tree.IdentifierTree;
+import com.sun.source.tree.MemberReferenceTree;
+import com.sun.source.tree.MemberSelectTree;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.tree.NewClassTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.tree.Tree.Kind;
+import com.sun.source.tree.TypeParameterTree;
+import com.sun.source.tree.UnaryTree;
+import com.sun.source.tree.VariableTree;
+import com.sun.source.util.TreePath;
+import com.sun.source.util.TreePathScanner;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.tree.JCTree.JCNewClass;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import javax.annotation.Nullable;
+
+/**
+ * The declarations of and references to the symbols of a compilation unit, collected in a single
+ * traversal so that checks can look them up instead of scanning the compilation unit themselves.
+ * Obtain it from {@link com.google.errorprone.VisitorState#getCompilationUnitIndex}.
+ *
+ * <p>References are the identifiers, member selects, member references and instance creations
+ * whose symbol is known; the symbol of an instance creation is the constructor it invokes. A
+ * reference that is the target of an assignment is a write; the target of a compound assignment or
+ * of an increment or decrement is both a read and a write; every other reference is a read.
+ * Suppressions aren't taken into account.
+ *
+ * <p>The paths in the index are the ones of the traversal, so indexing doesn't allocate a path per
+ * node. Nodes by kind aren't collected by that traversal, since few checks need them: {@link
+ * #nodes} collects each kind the first time it's asked for.
+ */
+public final class CompilationUnitIndex {
+
+  private final TreePath compilationUnitPath;
+  private final ImmutableMap<Symbol, TreePath> declarations;
+  private final ImmutableListMultimap<Symbol, TreePath> references;
+  private final ImmutableListMultimap<Symbol, TreePath> reads;
+  private final ImmutableListMultimap<Symbol, TreePath> writes;
+  private final Map<Kind, ImmutableList<TreePath>> nodes = new EnumMap<>(Kind.class);
+
+  private CompilationUnitIndex(
+      TreePath compilationUnitPath,
+      ImmutableMap<Symbol, TreePath> declarations,
+      ImmutableListMultimap<Symbol, TreePath> references,
+      ImmutableListMultimap<Symbol, TreePath> reads,
+      ImmutableListMultimap<Symbol, TreePath> writes) {
+    this.compilationUnitPath = compilationUnitPath;
+    this.declarations = declarations;
+    this.references = references;
+    this.reads = reads;
+    this.writes = writes;
+  }
+
+  /** Indexes the compilation unit at the leaf of {@code compilationUnitPath}. */
+  public static CompilationUnitIndex create(TreePath compilationUnitPath) {
+    Map<Symbol, TreePath> declarations = new LinkedHashMap<>();
+    ImmutableListMultimap.Builder<Symbol, TreePath> references = ImmutableListMultimap.builder();
+    ImmutableListMultimap.Builder<Symbol, TreePath> reads = ImmutableListMultimap.builder();
+    ImmutableListMultimap.Builder<Symbol, TreePath> writes = ImmutableListMultimap.builder();
+    new TreePathScanner<Void, Void>() {
+      @Override
+      public Void visitClass(ClassTree tree, Void unused) {
+        declare(tree);
+        return super.visitClass(tree, null);
+      }
+
+      @Override
+      public Void visitMethod(MethodTree tree, Void unused) {
+        declare(tree);
+        return super.visitMethod(tree, null);
+      }
+
+      @Override
+      public Void visitVariable(VariableTree tree, Void unused) {
+        declare(tree);
+        return super.visitVariable(tree, null);
+      }
+
+      @Override
+      public Void visitTypeParameter(TypeParameterTree tree, Void unused) {
+        declare(tree);
+        return super.visitTypeParameter(tree, null);
+      }
+
+      @Override
+      public Void visitIdentifier(IdentifierTree tree, Void unused) {
+        reference(tree, getSymbol(tree));
+        return super.visitIdentifier(tree, null);
+      }
+
+      @Override
+      public Void visitMemberSelect(MemberSelectTree tree, Void unused) {
+        reference(tree, getSymbol(tree));
+        return super.visitMemberSelect(tree, null);
+      }
+
+      @Override
+      public Void visitMemberReference(MemberReferenceTree tree, Void unused) {
+        reference(tree, getSymbol(tree));
+        return super.visitMemberReference(tree, null);
+      }
+
+      @Override
+      public Void visitNewClass(NewClassTree tree, Void unused) {
+        // Not ASTHelpers.getSymbol, which throws if the constructor couldn't be resolved.
+        reference(tree, ((JCNewClass) tree).constructor);
+        return super.visitNewClass(tree, null);
+      }
+
+      private void declare(Tree tree) {
+        Symbol symbol = getSymbol(tree);
+        if (symbol != null) {
+          declarations.putIfAbsent(symbol, getCurrentPath());
+        }
+      }
+
+      private void reference(Tree tree, @Nullable Symbol symbol) {
+        if (symbol == null) {
+          return;
+        }
+        references.put(symbol, getCurrentPath());
+        Tree parent = getCurrentPath().getParentPath().getLeaf();
+        boolean read = true;
+        boolean write = false;
+        if (parent instanceof AssignmentTree) {
+          write = ((AssignmentTree) parent).getVariable() == tree;
+          read = !write;
+        } else if (parent instanceof CompoundAssignmentTree) {
+          write = ((CompoundAssignmentTree) parent).getVariable() == tree;
+        } else if (parent instanceof UnaryTree) {
+          write = isIncrementOrDecrement(parent.getKind());
+        }
+        if (read) {
+          reads.put(symbol, getCurrentPath());
+        }
+        if (write) {
+          writes.put(symbol, getCurrentPath());
+        }
+      }
+    }.scan(compilationUnitPath, null);
+    return new CompilationUnitIndex(
+        compilationUnitPath,
+        ImmutableMap.copyOf(declarations),
+        references.build(),
+        reads.build(),
+        writes.build());
+  }
+
+  private static boolean isIncrementOrDecrement(Kind kind) {
+    switch (kind) {
+      case PREFIX_INCREMENT:
+      case PREFIX_DECREMENT:
+      case POSTFIX_INCREMENT:
+      case POSTFIX_DECREMENT:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /** Returns the compilation unit this index is for. */
+  public CompilationUnitTree compilationUnit() {
+    return compilationUnitPath.getCompilationUnit();
+  }
+
+  /** Returns the declarations of this compilation unit by symbol, in source order. */
+  public ImmutableMap<Symbol, TreePath> declarations() {
+    return declarations;
+  }
+
+  /** Returns the declaration of {@code symbol}, if it's declared in this compilation unit. */
+  public Optional<TreePath> declaration(Symbol symbol) {
+    return Optional.ofNullable(declarations.get(symbol));
+  }
+
+  /** Returns the references to {@code symbol}, in source order. */
+  public ImmutableList<TreePath> references(Symbol symbol) {
+    return references.get(symbol);
+  }
+
+  /** Returns the references that read {@code symbol}, in source order. */
+  public ImmutableList<TreePath> reads(Symbol symbol) {
+    return reads.get(symbol);
+  }
+
+  /** Returns the references that write {@code symbol}, in source order. */
+  public ImmutableList<TreePath> writes(Symbol symbol) {
+    return writes.get(symbol);
+  }
+
+  /**
+   * Returns the nodes of the given kind, in source order. The first call for each kind traverses
+   * the compilation unit again.
+   */
+  public ImmutableList<TreePath> nodes(Kind kind) {
+    return nodes.computeIfAbsent(kind, k -> collectNodes(compilationUnitPath, k));
+  }
+
+  private static ImmutableList<TreePath> collectNodes(TreePath compilationUnitPath, Kind kind) {
+    ImmutableList.Builder<TreePath> nodes = ImmutableList.builder();
+    new TreePathScanner<Void, Void>() {
+      @Override
+      public Void scan(TreePath path, Void unused) {
+        if (path.getLeaf().getKind() == kind) {
+          nodes.add(path);
+        }
+        return super.scan(path, null);
+      }
+
+      @Override
+      public Void scan(Tree tree, Void unused) {
+        if (tree != null && tree.getKind() == kind) {
+          nodes.add(new TreePath(getCurrentPath(), tree));
+        }
+        return super.scan(tree, null);
+      }
+    }.scan(compilationUnitPath, null);
+    return nodes.build();
+  }
+}
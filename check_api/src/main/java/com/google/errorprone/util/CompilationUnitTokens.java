@@ -0,0 +1,166 @@
+/*
+ * Copyright 2024 The Error Prone Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.errorprone.util;
+
+import com.google.common.collect.ImmutableList;
+import com.google.errorprone.util.ErrorProneTokens.CommentWithTextAndPosition;
+import com.sun.tools.javac.parser.Tokens.Comment;
+import com.sun.tools.javac.parser.Tokens.Comment.CommentStyle;
+import com.sun.tools.javac.parser.Tokens.TokenKind;
+import com.sun.tools.javac.util.Context;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * The tokens of a whole source file, including comments, lexed once so that the tokens of any range
+ * of it can be looked up without lexing it again.
+ *
+ * <p>The tokens of a range are those {@link ErrorProneTokens} would produce for the text of the
+ * range on its own: the tokens within it, each with the comments before it that are within the
+ * range, followed by an {@link TokenKind#EOF} token at the end of the range carrying the comments
+ * after the last token. Lexing a range on its own can only give different tokens if the range
+ * starts or ends within a token or a comment, so such ranges aren't looked up.
+ */
+public final class CompilationUnitTokens {
+
+  private final ImmutableList<ErrorProneToken> tokens;
+
+  /** The start position of each token, for binary searches. */
+  private final int[] starts;
+
+  private CompilationUnitTokens(ImmutableList<ErrorProneToken> tokens) {
+    this.tokens = tokens;
+    this.starts = new int[tokens.size()];
+    for (int i = 0; i < starts.length; i++) {
+      starts[i] = tokens.get(i).pos();
+    }
+  }
+
+  /** Lexes {@code source}. */
+  public static CompilationUnitTokens create(CharSequence source, Context context) {
+    return new CompilationUnitTokens(ErrorProneTokens.getTokens(source.toString(), context));
+  }
+
+  /**
+   * Returns the tokens between {@code start} and {@code end}, with {@code offset} added to their
+   * positions, or null if the range starts or ends within a token or a comment.
+   */
+  @Nullable
+  public ImmutableList<ErrorProneToken> getTokens(int start, int end, int offset) {
+    int eof = tokens.size() - 1;
+    if (start < 0 || start > end || end > tokens.get(eof).pos()) {
+      return null;
+    }
+    int first = firstTokenAtOrAfter(start);
+    int next = firstTokenAtOrAfter(end);
+    if ((first > 0 && tokens.get(first - 1).endPos() > start)
+        || (next > 0 && tokens.get(next - 1).endPos() > end)
+        || straddles(tokens.get(first), start)
+        || straddles(tokens.get(next), end)) {
+      return null;
+    }
+    ImmutableList.Builder<ErrorProneToken> result = ImmutableList.builder();
+    for (int i = first; i < next; i++) {
+      ErrorProneToken token = tokens.get(i);
+      List<Comment> comments = token.rawComments();
+      if (i == first) {
+        comments = commentsWithin(comments, start, end);
+      }
+      result.add(
+          comments == token.rawComments() && offset == 0
+              ? token
+              : new ErrorProneToken(
+                  token.token(), token.kind(), token.pos(), token.endPos(), comments, offset));
+    }
+    ErrorProneToken following = tokens.get(next);
+    result.add(
+        new ErrorProneToken(
+            tokens.get(eof).token(),
+            TokenKind.EOF,
+            end,
+            end,
+            trailingComments(following.rawComments(), start, end),
+            offset));
+    return result.build();
+  }
+
+  /** Returns the index of the first token that starts at or after {@code position}. */
+  private int firstTokenAtOrAfter(int position) {
+    int index = Arrays.binarySearch(starts, position);
+    if (index < 0) {
+      return -index - 1;
+    }
+    // Only EOF tokens are empty, so there's at most one other token starting at the same position.
+    while (index > 0 && starts[index - 1] == position) {
+      index--;
+    }
+    return index;
+  }
+
+  /** Returns true if one of the comments before {@code token} contains {@code position}. */
+  private static boolean straddles(ErrorProneToken token, int position) {
+    List<Comment> comments = token.rawComments();
+    if (comments == null) {
+      return false;
+    }
+    for (Comment comment : comments) {
+      CommentWithTextAndPosition c = (CommentWithTextAndPosition) comment;
+      if (c.getPos() < position && position < c.getEndPos()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the {@code comments} within the range that javac attaches to the EOF token of the range
+   * on its own. It drops a line comment that isn't terminated by a line break.
+   */
+  @Nullable
+  private static List<Comment> trailingComments(
+      @Nullable List<Comment> comments, int start, int end) {
+    List<Comment> result = commentsWithin(comments, start, end);
+    if (result == null || result.isEmpty()) {
+      return result;
+    }
+    // javac stores the comments in reverse declaration order, so the last one comes first.
+    CommentWithTextAndPosition last = (CommentWithTextAndPosition) result.get(0);
+    if (last.getStyle() == CommentStyle.LINE && last.getEndPos() == end) {
+      return result.subList(1, result.size());
+    }
+    return result;
+  }
+
+  /** Returns the {@code comments} within the range, or {@code comments} if they all are. */
+  @Nullable
+  private static List<Comment> commentsWithin(
+      @Nullable List<Comment> comments, int start, int end) {
+    if (comments == null) {
+      return null;
+    }
+    List<Comment> result = new ArrayList<>(comments.size());
+    for (Comment comment : comments) {
+      CommentWithTextAndPosition c = (CommentWithTextAndPosition) comment;
+      if (start <= c.getPos() && c.getEndPos() <= end) {
+        result.add(comment);
+      }
+    }
+    return result.size() == comments.size() ? comments : result;
+  }
+}
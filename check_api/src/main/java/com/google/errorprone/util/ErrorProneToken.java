@@ -25,40 +25,76 @@ import com.sun.tools.javac.parser.Tokens.TokenKind;
 import com.sun.tools.javac.util.Name;
 import java.util.Collections;
 import java.util.List;
+import javax.annotation.Nullable;
 
 /** Wraps a javac {@link Token} to return comments in declaration order. */
 public class ErrorProneToken {
   private final int offset;
   private final Token token;
+  private final TokenKind kind;
+  private final int pos;
+  private final int endPos;
+  @Nullable private final List<Comment> comments;
 
   ErrorProneToken(Token token, int offset) {
+    this(token, token.kind, token.pos, token.endPos, token.comments, offset);
+  }
+
+  /**
+   * Creates a token that differs from {@code token} in its kind, position or comments.
+   *
+   * @param comments the comments before the token, in reverse declaration order as javac stores
+   *     them
+   */
+  ErrorProneToken(
+      Token token,
+      TokenKind kind,
+      int pos,
+      int endPos,
+      @Nullable List<Comment> comments,
+      int offset) {
     this.token = token;
+    this.kind = kind;
+    this.pos = pos;
+    this.endPos = endPos;
+    this.comments = comments;
     this.offset = offset;
   }
 
   public TokenKind kind() {
-    return token.kind;
+    return kind;
   }
 
   public int pos() {
-    return offset + token.pos;
+    return offset + pos;
   }
 
   public int endPos() {
-    return offset + token.endPos;
+    return offset + endPos;
   }
 
   public List<Comment> comments() {
     // javac stores the comments in reverse declaration order because appending to linked
     // lists is expensive
-    if (token.comments == null) {
+    if (comments == null) {
       return Collections.emptyList();
     }
     if (offset == 0) {
-      return Lists.reverse(token.comments);
+      return Lists.reverse(comments);
     }
     return Lists.reverse(
-        token.comments.stream().map(c -> new OffsetComment(c, offset)).collect(toList()));
+        comments.stream().map(c -> new OffsetComment(c, offset)).collect(toList()));
+  }
+
+  /** The comments before this token, in reverse declaration order, without the offset applied. */
+  @Nullable
+  List<Comment> rawComments() {
+    return comments;
+  }
+
+  /** Returns the token this token was created from. */
+  Token token() {
+    return token;
   }
 
   public boolean hasName() {
@@ -26,6 +26,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.errorprone.ErrorProneOptions.Severity;
 import com.google.errorprone.apply.ImportOrganizer;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
@@ -209,6 +210,48 @@ public class ErrorProneOptionsTest {
     assertThat(excludedPattern.matcher("foo/other_output/subdir/Gen.cpp").matches()).isFalse();
   }
 
+  @Test
+  public void recognizesProfileOutput() {
+    assertThat(ErrorProneOptions.processArgs(new String[] {}).profileOutput()).isAbsent();
+    ErrorProneOptions options =
+        ErrorProneOptions.processArgs(new String[] {"-XepProfileOutput:/tmp/profile.json"});
+    assertThat(options.profileOutput()).hasValue(Paths.get("/tmp/profile.json"));
+  }
+
+  @Test
+  public void throwsExceptionWithEmptyProfileOutput() {
+    InvalidCommandLineOptionException expected =
+        assertThrows(
+            InvalidCommandLineOptionException.class,
+            () -> ErrorProneOptions.processArgs(new String[] {"-XepProfileOutput:"}));
+    assertThat(expected).hasMessageThat().contains("invalid flag");
+  }
+
+  @Test
+  public void recognizesTimingSampleRate() {
+    assertThat(ErrorProneOptions.processArgs(new String[] {}).timingSampleInterval()).isEqualTo(1);
+    ErrorProneOptions options =
+        ErrorProneOptions.processArgs(new String[] {"-XepTimingSampleRate:1/64"});
+    assertThat(options.timingSampleInterval()).isEqualTo(64);
+  }
+
+  @Test
+  public void throwsExceptionWithBadTimingSampleRate() {
+    for (String arg :
+        ImmutableList.of(
+            "-XepTimingSampleRate:",
+            "-XepTimingSampleRate:64",
+            "-XepTimingSampleRate:2/64",
+            "-XepTimingSampleRate:1/0",
+            "-XepTimingSampleRate:1/x")) {
+      InvalidCommandLineOptionException expected =
+          assertThrows(
+              InvalidCommandLineOptionException.class,
+              () -> ErrorProneOptions.processArgs(new String[] {arg}));
+      assertThat(expected).hasMessageThat().contains("invalid flag");
+    }
+  }
+
   @Test
   public void recognizesPatch() {
     ErrorProneOptions options =
@@ -236,6 +279,29 @@ public class ErrorProneOptionsTest {
     assertThat(options.patchingOptions().doRefactor()).isFalse();
   }
 
+  @Test
+  public void recognizesPatchParallelism() {
+    assertThat(ErrorProneOptions.processArgs(new String[] {}).patchingOptions().applyParallelism())
+        .isEqualTo(Runtime.getRuntime().availableProcessors());
+    ErrorProneOptions options =
+        ErrorProneOptions.processArgs(
+            new String[] {"-XepPatchLocation:IN_PLACE", "-XepPatchParallelism:3"});
+    assertThat(options.patchingOptions().applyParallelism()).isEqualTo(3);
+  }
+
+  @Test
+  public void throwsExceptionWithBadPatchParallelism() {
+    for (String arg :
+        ImmutableList.of(
+            "-XepPatchParallelism:", "-XepPatchParallelism:0", "-XepPatchParallelism:x")) {
+      InvalidCommandLineOptionException expected =
+          assertThrows(
+              InvalidCommandLineOptionException.class,
+              () -> ErrorProneOptions.processArgs(new String[] {arg}));
+      assertThat(expected).hasMessageThat().contains("invalid flag");
+    }
+  }
+
   @Test
   public void throwsExceptionWithBadPatchArgs() {
     assertThrows(
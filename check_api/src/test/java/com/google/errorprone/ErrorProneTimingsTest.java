@@ -0,0 +1,156 @@
+/*
+ * Copyright 2024 The Error Prone Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.errorprone;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Range;
+import com.google.common.jimfs.Jimfs;
+import com.google.errorprone.ErrorProneTimings.CheckTimings;
+import com.google.errorprone.matchers.Suppressible;
+import com.sun.tools.javac.util.Context;
+import com.sun.tools.javac.util.Name;
+import java.lang.annotation.Annotation;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Set;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class ErrorProneTimingsTest {
+
+  private final ErrorProneTimings timings = ErrorProneTimings.instance(new Context());
+
+  @Test
+  public void checkTimings() {
+    CheckTimings check = timings.forCheck(new FakeCheck("Check"));
+    for (int i = 1; i <= 100; i++) {
+      check.record(i * 1000L);
+    }
+
+    assertThat(timings.forCheck(new FakeCheck("Check"))).isSameInstanceAs(check);
+    assertThat(check.invocations()).isEqualTo(100);
+    assertThat(check.total()).isEqualTo(Duration.ofNanos(5_050_000));
+    assertThat(check.max()).isEqualTo(Duration.ofNanos(100_000));
+    assertThat(check.percentile(0.5).toNanos()).isIn(Range.closed(50_000L, 62_500L));
+    assertThat(check.percentile(0.99).toNanos()).isIn(Range.closed(99_000L, 100_000L));
+    assertThat(timings.timings()).containsExactly("Check", Duration.ofNanos(5_050_000));
+  }
+
+  @Test
+  public void checkTimings_sampled() {
+    CheckTimings check = timings.forCheck(new FakeCheck("Check"));
+    check.record(100, 64);
+    check.record(300, 64);
+
+    assertThat(check.invocations()).isEqualTo(128);
+    assertThat(check.total()).isEqualTo(Duration.ofNanos(400 * 64));
+    assertThat(check.max()).isEqualTo(Duration.ofNanos(300));
+    assertThat(check.percentile(0.25).toNanos()).isIn(Range.closed(100L, 125L));
+  }
+
+  @Test
+  public void percentile_noInvocations() {
+    assertThat(timings.forCheck(new FakeCheck("Check")).percentile(0.5)).isEqualTo(Duration.ZERO);
+  }
+
+  @Test
+  public void fileTimings() {
+    JavaFileObject file = new FakeFile("file:///A.java");
+    timings.recordFile(file, 10);
+    timings.recordFile(file, 5);
+    timings.recordFile(new FakeFile("file:///B.java"), 1);
+
+    assertThat(timings.fileTimings())
+        .containsExactly(
+            "file:///A.java", Duration.ofNanos(15), "file:///B.java", Duration.ofNanos(1))
+        .inOrder();
+  }
+
+  @Test
+  public void writeProfile() throws Exception {
+    timings.forCheck(new FakeCheck("Check")).record(42);
+    timings.recordFile(new FakeFile("file:///A.java"), 7);
+    FileSystem fileSystem = Jimfs.newFileSystem();
+
+    Path csv = fileSystem.getPath("/out/profile.csv");
+    timings.writeProfile(csv);
+    assertThat(Files.readAllLines(csv, UTF_8))
+        .containsExactly(
+            "kind,name,invocations,total_nanos,p50_nanos,p99_nanos,max_nanos",
+            "check,Check,1,42,42,42,42",
+            "file,file:///A.java,,7,,,")
+        .inOrder();
+
+    Path json = fileSystem.getPath("/out/profile.json");
+    timings.writeProfile(json);
+    String profile = new String(Files.readAllBytes(json), UTF_8);
+    assertThat(profile)
+        .contains(
+            "{\"name\": \"Check\", \"invocations\": 1, \"total_nanos\": 42, \"p50_nanos\": 42,"
+                + " \"p99_nanos\": 42, \"max_nanos\": 42}");
+    assertThat(profile).contains("{\"name\": \"file:///A.java\", \"total_nanos\": 7}");
+  }
+
+  private static final class FakeCheck implements Suppressible {
+    private final String name;
+
+    FakeCheck(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public Set<String> allNames() {
+      return ImmutableSet.of(name);
+    }
+
+    @Override
+    public String canonicalName() {
+      return name;
+    }
+
+    @Override
+    public boolean supportsSuppressWarnings() {
+      return true;
+    }
+
+    @Override
+    public Set<Class<? extends Annotation>> customSuppressionAnnotations() {
+      return ImmutableSet.of();
+    }
+
+    @Override
+    public boolean suppressedByAnyOf(Set<Name> annotations, VisitorState s) {
+      return false;
+    }
+  }
+
+  private static final class FakeFile extends SimpleJavaFileObject {
+    FakeFile(String uri) {
+      super(URI.create(uri), Kind.SOURCE);
+    }
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2024 The Error Prone Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.errorprone.apply;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.FileNotFoundException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link DiffApplier}. */
+@RunWith(JUnit4.class)
+public class DiffApplierTest {
+
+  private static Diff appendComment(String path) {
+    return new Diff() {
+      @Override
+      public String getRelevantFileName() {
+        return path;
+      }
+
+      @Override
+      public void applyDifferences(SourceFile sourceFile) {
+        sourceFile.setSourceText(sourceFile.getSourceText() + "// changed\n");
+      }
+    };
+  }
+
+  @Test
+  public void appliesDiffsAndReportsFailures() {
+    Map<String, String> written = new ConcurrentHashMap<>();
+    FileSource source =
+        path -> {
+          if (path.startsWith("missing")) {
+            throw new FileNotFoundException(path);
+          }
+          return new SourceFile(path, "class " + path + " {}\n");
+        };
+    FileDestination destination =
+        new FileDestination() {
+          @Override
+          public void writeFile(SourceFile file) {
+            written.put(file.getPath(), file.getSourceText());
+          }
+
+          @Override
+          public void flush() {}
+        };
+    DiffApplier applier = new DiffApplier(4, source, destination);
+    applier.startAsync().awaitRunning();
+
+    for (int i = 0; i < 200; i++) {
+      applier.put(appendComment("A" + i));
+    }
+    applier.put(appendComment("missing1"));
+    applier.put(appendComment("missing2"));
+    applier.stopAsync().awaitTerminated();
+
+    assertThat(written).hasSize(200);
+    assertThat(written).containsEntry("A42", "class A42 {}\n// changed\n");
+    assertThat(applier.failedPaths()).containsExactly("missing1", "missing2");
+  }
+}
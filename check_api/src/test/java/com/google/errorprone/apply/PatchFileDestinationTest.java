@@ -0,0 +1,174 @@
+/*
+ * Copyright 2024 The Error Prone Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.errorprone.apply;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.errorprone.fixes.Replacement;
+import com.google.errorprone.fixes.Replacements;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link PatchFileDestination}. */
+@RunWith(JUnit4.class)
+public class PatchFileDestinationTest {
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  /** Returns the patches for the given replacements, generated from them and by diffing. */
+  private List<String> patches(String source, List<Replacement> replacementList)
+      throws IOException {
+    Path root = temporaryFolder.newFolder().toPath();
+    Path file = root.resolve("Test.java");
+    Files.write(file, source.getBytes(UTF_8));
+    Replacements replacements = new Replacements();
+    replacementList.forEach(replacements::add);
+
+    SourceFile replaced = new SourceFile(file.toString(), source);
+    replaced.makeReplacements(replacements);
+    assertThat(replaced.appliedReplacements()).isNotNull();
+    SourceFile rewritten = new SourceFile(file.toString(), source);
+    rewritten.setSourceText(replaced.getSourceText());
+
+    List<String> patches = new ArrayList<>();
+    for (SourceFile update : new SourceFile[] {replaced, rewritten}) {
+      Path patchFile = temporaryFolder.newFolder().toPath().resolve("error-prone.patch");
+      PatchFileDestination destination = new PatchFileDestination(root, root, patchFile);
+      destination.writeFile(update);
+      destination.flush();
+      patches.add(
+          Files.exists(patchFile) ? new String(Files.readAllBytes(patchFile), UTF_8) : null);
+    }
+    return patches;
+  }
+
+  @Test
+  public void singleLineChange() throws IOException {
+    String source = Joiner.on('\n').join("class A {", "  void f() {}", "  void g() {}", "}", "");
+
+    List<String> patches = patches(source, ImmutableList.of(Replacement.create(17, 18, "h")));
+
+    assertThat(patches.get(0))
+        .isEqualTo(
+            Joiner.on('\n')
+                .join(
+                    "--- Test.java",
+                    "+++ Test.java",
+                    "@@ -1,4 +1,4 @@",
+                    " class A {",
+                    "-  void f() {}",
+                    "+  void h() {}",
+                    "   void g() {}",
+                    " }",
+                    ""));
+    assertThat(patches.get(0)).isEqualTo(patches.get(1));
+  }
+
+  @Test
+  public void noChange() throws IOException {
+    List<String> patches = patches("class A {}\n", ImmutableList.of(Replacement.create(6, 7, "A")));
+
+    assertThat(patches.get(0)).isNull();
+    assertThat(patches.get(1)).isNull();
+  }
+
+  @Test
+  public void streamsPatchesIntoOneFile() throws IOException {
+    Path root = temporaryFolder.newFolder().toPath();
+    Path patchFile = root.resolve("patches/error-prone.patch");
+    Files.createDirectories(patchFile.getParent());
+    Files.write(patchFile, "stale\n".getBytes(UTF_8));
+    PatchFileDestination destination = new PatchFileDestination(root, root, patchFile);
+
+    for (String name : ImmutableList.of("A", "B")) {
+      Path file = root.resolve(name + ".java");
+      Files.write(file, ("class " + name + " {}\n").getBytes(UTF_8));
+      Replacements replacements = new Replacements();
+      replacements.add(Replacement.create(6, 7, "X" + name));
+      SourceFile update = new SourceFile(file.toString(), "class " + name + " {}\n");
+      update.makeReplacements(replacements);
+      destination.writeFile(update);
+    }
+    destination.flush();
+
+    assertThat(Files.readAllLines(patchFile, UTF_8))
+        .containsExactly(
+            "--- A.java",
+            "+++ A.java",
+            "@@ -1,2 +1,2 @@",
+            "-class A {}",
+            "+class XA {}",
+            " ",
+            "--- B.java",
+            "+++ B.java",
+            "@@ -1,2 +1,2 @@",
+            "-class B {}",
+            "+class XB {}",
+            " ")
+        .inOrder();
+  }
+
+  /**
+   * Checks that diffs generated from random replacements match those generated by diffing. Lines
+   * are unique and replacements insert unique text, so that there's only one minimal diff.
+   */
+  @Test
+  public void randomReplacements_matchDiff() throws IOException {
+    Random random = new Random(42);
+    for (int iteration = 0; iteration < 300; iteration++) {
+      StringBuilder source = new StringBuilder();
+      int lineCount = 1 + random.nextInt(40);
+      for (int line = 0; line < lineCount; line++) {
+        source.append(String.format("line%03d", line));
+        if (line < lineCount - 1 || random.nextBoolean()) {
+          source.append('\n');
+        }
+      }
+      List<Replacement> replacements = new ArrayList<>();
+      int position = 0;
+      int edit = 0;
+      while (position < source.length() && replacements.size() < 8) {
+        int start = position + random.nextInt(Math.min(40, source.length() - position + 1));
+        if (start > source.length()) {
+          break;
+        }
+        int end = Math.min(source.length(), start + random.nextInt(12));
+        String replaceWith =
+            random.nextInt(3) == 0 ? "<" + edit + ">\n<" + edit + "b>" : "<" + edit + ">";
+        replacements.add(Replacement.create(start, end, replaceWith));
+        edit++;
+        position = end + 1;
+      }
+
+      List<String> patches = patches(source.toString(), replacements);
+
+      assertThat(patches.get(0)).isEqualTo(patches.get(1));
+    }
+  }
+}
@@ -18,8 +18,13 @@ package com.google.errorprone.apply;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import com.google.common.io.CharSource;
+import com.google.errorprone.fixes.Replacement;
+import com.google.errorprone.fixes.Replacements;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -113,4 +118,73 @@ public class SourceFileTest {
                 + "// enim ad minim veniam, quis nostrud exercitation ullamco\n");
     assertThat(sourceFile.getFragmentByLines(1, 8)).isEqualTo(SOURCE_TEXT);
   }
+
+  @Test
+  public void getFragmentByLines_pastEnd() {
+    assertThat(sourceFile.getFragmentByLines(7, 20))
+        .isEqualTo(
+            "// non proident, sunt in culpa qui officia deserunt mollit anim id\n"
+                + "// est laborum.\n");
+    assertThat(sourceFile.getFragmentByLines(9, 10)).isEqualTo("\n");
+  }
+
+  @Test
+  public void getLines_mixedLineTerminators() throws IOException {
+    String source = "a\r\nb\rc\n\r\nd";
+    sourceFile.setSourceText(source);
+    assertThat(sourceFile.getLines()).isEqualTo(CharSource.wrap(source).readLines());
+    assertThat(sourceFile.getFragmentByLines(2, 4)).isEqualTo("b\nc\n\n");
+  }
+
+  @Test
+  public void replaceLines_numbered_withoutTrailingNewline() {
+    sourceFile.setSourceText("a\r\nb\r\nc");
+    sourceFile.replaceLines(2, 2, Arrays.asList("x"));
+    assertThat(sourceFile.getSourceText()).isEqualTo("a\nx\nc\n");
+  }
+
+  @Test
+  public void getAsSequence_reflectsChanges() {
+    CharSequence sequence = sourceFile.getAsSequence();
+    sourceFile.replaceChars(3, 8, "Sasquatch");
+    assertThat(sequence.toString()).isEqualTo(SOURCE_TEXT.replace("Lorem", "Sasquatch"));
+    assertThat(sequence.charAt(3)).isEqualTo('S');
+  }
+
+  /** Checks that random edits have the same effect as making them to a {@link StringBuilder}. */
+  @Test
+  public void randomEdits_matchStringBuilder() throws IOException {
+    Random random = new Random(42);
+    for (int iteration = 0; iteration < 200; iteration++) {
+      StringBuilder expected = new StringBuilder(SOURCE_TEXT);
+      SourceFile file = new SourceFile(DUMMY_PATH, SOURCE_TEXT);
+      for (int edit = 0; edit < 10; edit++) {
+        if (random.nextBoolean()) {
+          int start = random.nextInt(expected.length() + 1);
+          int end = start + random.nextInt(Math.min(20, expected.length() - start) + 1);
+          String replaceWith = random.nextInt(3) == 0 ? "<" + edit + ">\n" : "<" + edit + ">";
+          expected.replace(start, end, replaceWith);
+          file.replaceChars(start, end, replaceWith);
+        } else {
+          Replacements replacements = new Replacements();
+          int position = random.nextInt(10);
+          while (position < expected.length()) {
+            int end = Math.min(expected.length(), position + random.nextInt(10));
+            replacements.add(Replacement.create(position, end, "[" + position + "]"));
+            position = end + 1 + random.nextInt(30);
+          }
+          for (Replacement replacement : replacements.ascending().asList().reverse()) {
+            expected.replace(
+                replacement.startPosition(), replacement.endPosition(), replacement.replaceWith());
+          }
+          file.makeReplacements(replacements);
+        }
+        int start = random.nextInt(expected.length() + 1);
+        int end = start + random.nextInt(expected.length() - start + 1);
+        assertThat(file.getFragmentByChars(start, end)).isEqualTo(expected.substring(start, end));
+      }
+      assertThat(file.getSourceText()).isEqualTo(expected.toString());
+      assertThat(file.getLines()).isEqualTo(CharSource.wrap(expected).readLines());
+    }
+  }
 }
@@ -47,6 +47,24 @@ public class AccessPathStoreTest {
     assertThat(newStore().heap()).isEmpty();
   }
 
+  @Test
+  public void leastUpperBound_reusesStores() {
+    AccessPath path1 = mock(AccessPath.class);
+    AccessPath path2 = mock(AccessPath.class);
+    AccessPathStore<Nullness> store =
+        newStore().toBuilder().setInformation(path1, Nullness.NONNULL).build();
+    AccessPathStore<Nullness> nullable =
+        store.toBuilder().setInformation(path1, Nullness.NULLABLE).build();
+    AccessPathStore<Nullness> extended =
+        store.toBuilder().setInformation(path2, Nullness.NULL).build();
+
+    assertThat(store.toBuilder().build()).isSameInstanceAs(store);
+    assertThat(store.leastUpperBound(store)).isSameInstanceAs(store);
+    assertThat(store.leastUpperBound(nullable)).isSameInstanceAs(nullable);
+    assertThat(store.leastUpperBound(extended)).isSameInstanceAs(store);
+    assertThat(nullable.leastUpperBound(extended).heap()).containsExactly(path1, Nullness.NULLABLE);
+  }
+
   private static AccessPathStore<Nullness> newStore() {
     return AccessPathStore.empty();
   }
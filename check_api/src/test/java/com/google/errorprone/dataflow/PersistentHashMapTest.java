@@ -0,0 +1,149 @@
+/*
+ * Copyright 2024 The Error Prone Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.errorprone.dataflow;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link PersistentHashMap}. */
+@RunWith(JUnit4.class)
+public class PersistentHashMapTest {
+
+  /** A key with a chosen hash code, to exercise collisions. */
+  private static final class Key {
+    private final int id;
+    private final int hash;
+
+    Key(int id, int hash) {
+      this.id = id;
+      this.hash = hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof Key && ((Key) obj).id == id;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public String toString() {
+      return "k" + id;
+    }
+  }
+
+  private static Key key(Random random, int bound) {
+    int id = random.nextInt(bound);
+    // Few distinct hash codes, so that many keys collide fully or in their low bits.
+    return new Key(id, id % 7 == 0 ? 42 : id * 31);
+  }
+
+  @Test
+  public void putAndGet_matchHashMap() {
+    Random random = new Random(42);
+    for (int iteration = 0; iteration < 200; iteration++) {
+      PersistentHashMap<Key, Integer> map = PersistentHashMap.empty();
+      Map<Key, Integer> expected = new HashMap<>();
+      int operations = random.nextInt(300);
+      for (int i = 0; i < operations; i++) {
+        Key key = key(random, 200);
+        Integer value = random.nextInt(4);
+        map = map.put(key, value);
+        expected.put(key, value);
+      }
+      assertThat(map.size()).isEqualTo(expected.size());
+      assertThat(map.toImmutableMap()).isEqualTo(expected);
+      for (int id = 0; id < 200; id++) {
+        Key key = new Key(id, id % 7 == 0 ? 42 : id * 31);
+        assertThat(map.get(key)).isEqualTo(expected.get(key));
+      }
+      assertThat(map.hashCode()).isEqualTo(expected.hashCode());
+    }
+  }
+
+  @Test
+  public void intersect_matchesHashMap() {
+    Random random = new Random(7);
+    for (int iteration = 0; iteration < 200; iteration++) {
+      PersistentHashMap<Key, Integer> common = PersistentHashMap.empty();
+      for (int i = random.nextInt(100); i > 0; i--) {
+        common = common.put(key(random, 100), random.nextInt(4));
+      }
+      PersistentHashMap<Key, Integer> a = common;
+      PersistentHashMap<Key, Integer> b = common;
+      for (int i = random.nextInt(20); i > 0; i--) {
+        a = a.put(key(random, 150), random.nextInt(4));
+      }
+      for (int i = random.nextInt(20); i > 0; i--) {
+        b = b.put(key(random, 150), random.nextInt(4));
+      }
+      Map<Key, Integer> expected = new HashMap<>();
+      Map<Key, Integer> bMap = b.toImmutableMap();
+      a.forEach(
+          (key, value) -> {
+            Integer other = bMap.get(key);
+            if (other != null) {
+              expected.put(key, Math.max(value, other));
+            }
+          });
+
+      PersistentHashMap<Key, Integer> result = a.intersect(b, Math::max);
+
+      assertWithMessage("%s ^ %s", a, b).that(result.toImmutableMap()).isEqualTo(expected);
+      assertThat(result.size()).isEqualTo(expected.size());
+      assertThat(result).isEqualTo(b.intersect(a, Math::max));
+      assertThat(result.hashCode()).isEqualTo(expected.hashCode());
+    }
+  }
+
+  @Test
+  public void intersect_reusesUnchangedMaps() {
+    PersistentHashMap<Key, Integer> a = PersistentHashMap.empty();
+    for (int id = 0; id < 100; id++) {
+      a = a.put(new Key(id, id), id);
+    }
+    PersistentHashMap<Key, Integer> b = a.put(new Key(3, 3), 1000);
+
+    assertThat(a.intersect(a, Math::max)).isSameInstanceAs(a);
+    assertThat(a.intersect(b, Math::max)).isSameInstanceAs(b);
+    assertThat(b.intersect(a, Math::max)).isSameInstanceAs(b);
+    assertThat(a.put(new Key(5, 5), 5)).isSameInstanceAs(a);
+  }
+
+  @Test
+  public void equals_ignoresInsertionOrder() {
+    PersistentHashMap<Key, Integer> a = PersistentHashMap.empty();
+    PersistentHashMap<Key, Integer> b = PersistentHashMap.empty();
+    for (int id = 0; id < 50; id++) {
+      a = a.put(new Key(id, id % 3), id);
+      b = b.put(new Key(49 - id, (49 - id) % 3), 49 - id);
+    }
+    assertThat(a).isEqualTo(b);
+    assertThat(a.hashCode()).isEqualTo(b.hashCode());
+    assertThat(a.put(new Key(0, 0), 1)).isNotEqualTo(b);
+  }
+}
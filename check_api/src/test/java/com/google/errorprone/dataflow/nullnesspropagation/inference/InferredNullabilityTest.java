@@ -0,0 +1,189 @@
+/*
+ * Copyright 2024 The Error Prone Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.errorprone.dataflow.nullnesspropagation.inference;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+import com.google.common.graph.Graph;
+import com.google.common.graph.GraphBuilder;
+import com.google.common.graph.MutableGraph;
+import com.google.errorprone.dataflow.nullnesspropagation.Nullness;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link InferredNullability}. */
+@RunWith(JUnit4.class)
+public class InferredNullabilityTest {
+
+  /** An inference variable to be solved. */
+  private static final class Variable implements InferenceVariable {
+    private final int id;
+
+    Variable(int id) {
+      this.id = id;
+    }
+
+    @Override
+    public String toString() {
+      return "v" + id;
+    }
+  }
+
+  /**
+   * Resolves variables on demand, recursively and with memoization, as InferredNullability used to.
+   * Serves as the reference for the array-based solver.
+   */
+  private static final class ReferenceSolver {
+    private final Graph<InferenceVariable> constraintGraph;
+    private final Map<InferenceVariable, Optional<Nullness>> inferredMemoTable = new HashMap<>();
+
+    ReferenceSolver(Graph<InferenceVariable> constraintGraph) {
+      this.constraintGraph = constraintGraph;
+    }
+
+    Optional<Nullness> getNullness(InferenceVariable iv) {
+      Optional<Nullness> result;
+      if (iv instanceof ProperInferenceVar) {
+        return Optional.of(((ProperInferenceVar) iv).nullness());
+      } else if ((result = inferredMemoTable.get(iv)) != null) {
+        return result;
+      } else {
+        inferredMemoTable.put(iv, Optional.empty());
+        result =
+            constraintGraph.predecessors(iv).stream()
+                .map(this::getNullness)
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .reduce(Nullness::leastUpperBound);
+        if (!result.isPresent()) {
+          result =
+              constraintGraph.successors(iv).stream()
+                  .map(this::getNullness)
+                  .filter(Optional::isPresent)
+                  .map(Optional::get)
+                  .reduce(Nullness::greatestLowerBound);
+        }
+        inferredMemoTable.put(iv, result);
+        return result;
+      }
+    }
+  }
+
+  private static MutableGraph<InferenceVariable> lattice() {
+    MutableGraph<InferenceVariable> graph = GraphBuilder.directed().build();
+    graph.putEdge(ProperInferenceVar.BOTTOM, ProperInferenceVar.NONNULL);
+    graph.putEdge(ProperInferenceVar.BOTTOM, ProperInferenceVar.NULL);
+    graph.putEdge(ProperInferenceVar.NONNULL, ProperInferenceVar.NULLABLE);
+    graph.putEdge(ProperInferenceVar.NULL, ProperInferenceVar.NULLABLE);
+    return graph;
+  }
+
+  @Test
+  public void lowerBoundsTakePrecedence() {
+    MutableGraph<InferenceVariable> graph = lattice();
+    Variable a = new Variable(0);
+    Variable b = new Variable(1);
+    Variable c = new Variable(2);
+    // a <= b <= c, NULL <= a, NONNULL <= b, c <= NONNULL
+    graph.putEdge(ProperInferenceVar.NULL, a);
+    graph.putEdge(a, b);
+    graph.putEdge(ProperInferenceVar.NONNULL, b);
+    graph.putEdge(b, c);
+    graph.putEdge(c, ProperInferenceVar.NONNULL);
+    Variable unconstrained = new Variable(3);
+    graph.addNode(unconstrained);
+
+    InferredNullability inferred = new InferredNullability(graph);
+
+    assertThat(inferred.getNullness(a)).hasValue(Nullness.NULL);
+    assertThat(inferred.getNullness(b)).hasValue(Nullness.NULLABLE);
+    assertThat(inferred.getNullness(c)).hasValue(Nullness.NULLABLE);
+    assertThat(inferred.getNullness(unconstrained)).isEmpty();
+    assertThat(inferred.getNullness(new Variable(4))).isEmpty();
+  }
+
+  @Test
+  public void upperBoundsWithoutLowerBounds() {
+    MutableGraph<InferenceVariable> graph = lattice();
+    Variable a = new Variable(0);
+    Variable b = new Variable(1);
+    // a <= NONNULL, a <= NULL, b <= NULL
+    graph.putEdge(a, ProperInferenceVar.NONNULL);
+    graph.putEdge(a, ProperInferenceVar.NULL);
+    graph.putEdge(b, ProperInferenceVar.NULL);
+
+    InferredNullability inferred = new InferredNullability(graph);
+
+    assertThat(inferred.getNullness(a)).hasValue(Nullness.BOTTOM);
+    assertThat(inferred.getNullness(b)).hasValue(Nullness.NULL);
+  }
+
+  /**
+   * Checks that random constraint graphs, including cyclic ones, are solved the same way as by the
+   * reference solver, when both are asked about the variables in the same random order.
+   */
+  @Test
+  public void randomConstraints_matchReferenceSolver() {
+    Random random = new Random(42);
+    ProperInferenceVar[] proper = ProperInferenceVar.values();
+    for (int iteration = 0; iteration < 500; iteration++) {
+      MutableGraph<InferenceVariable> graph = lattice();
+      List<InferenceVariable> variables = new ArrayList<>();
+      int size = 1 + random.nextInt(60);
+      for (int i = 0; i < size; i++) {
+        Variable variable = new Variable(i);
+        variables.add(variable);
+        graph.addNode(variable);
+      }
+      int edges = random.nextInt(3 * size);
+      for (int i = 0; i < edges; i++) {
+        InferenceVariable from = variables.get(random.nextInt(size));
+        if (random.nextInt(4) == 0) {
+          // An equality constraint with a proper variable, as for annotations.
+          InferenceVariable annotation = proper[random.nextInt(proper.length)];
+          graph.putEdge(from, annotation);
+          graph.putEdge(annotation, from);
+          continue;
+        }
+        InferenceVariable to = variables.get(random.nextInt(size));
+        if (from != to) {
+          graph.putEdge(from, to);
+        }
+      }
+
+      InferredNullability inferred = new InferredNullability(graph);
+      ReferenceSolver reference = new ReferenceSolver(graph);
+
+      List<InferenceVariable> queries = new ArrayList<>(graph.nodes());
+      Collections.shuffle(queries, random);
+      for (InferenceVariable variable : queries) {
+        assertWithMessage("%s in %s", variable, graph)
+            .that(inferred.getNullness(variable))
+            .isEqualTo(reference.getNullness(variable));
+      }
+    }
+  }
+}
@@ -120,6 +120,35 @@ public class AppliedFixTest {
     assertThat(fix.getNewCodeSnippet().toString()).isEqualTo("int three3tres;");
   }
 
+  @Test
+  public void shouldApplyAllReplacementsOnTheFirstEditedLine() {
+    AppliedFix fix =
+        AppliedFix.fromSource("class Foo {\n  int a = b + c; // sum\n  int d;\n}", endPositions)
+            .apply(
+                SuggestedFix.builder()
+                    .replace(22, 23, "bb")
+                    .replace(26, 27, "cc")
+                    .replace(42, 43, "dd")
+                    .build());
+    assertThat(fix.getNewCodeSnippet().toString()).isEqualTo("int a = bb + cc;");
+  }
+
+  @Test
+  public void shouldEndSnippetAtNewlineInReplacement() {
+    AppliedFix fix =
+        AppliedFix.fromSource("class Foo {\n  int a;\n}", endPositions)
+            .apply(SuggestedFix.replace(14, 19, "int b;\n  int c;"));
+    assertThat(fix.getNewCodeSnippet().toString()).isEqualTo("int b;");
+  }
+
+  @Test
+  public void shouldJoinLinesWhenReplacementRemovesNewline() {
+    AppliedFix fix =
+        AppliedFix.fromSource("class Foo {\n  int a;\n  int b;\n}", endPositions)
+            .apply(SuggestedFix.replace(20, 23, " "));
+    assertThat(fix.getNewCodeSnippet().toString()).isEqualTo("int a; int b;");
+  }
+
   @Test
   public void shouldReturnNullOnEmptyFix() {
     AppliedFix fix =
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2024 The Error Prone Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.errorprone.util;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.sun.tools.javac.parser.Tokens.Comment;
+import com.sun.tools.javac.util.Context;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link CompilationUnitTokens}. */
+@RunWith(JUnit4.class)
+public class CompilationUnitTokensTest {
+
+  private static final String SOURCE =
+      Joiner.on('\n')
+          .join(
+              "package p; // package",
+              "/** Javadoc. */",
+              "class Test<T extends java.util.List<java.util.List<String>>> {",
+              "  /* before */ int x = 1 /* after */ + 0x2F; // trailing",
+              "  String s = \"a /* not a comment */ b\";",
+              "  char c = '\\u0041';",
+              "  void f() {",
+              "    x >>= 2; x >>>= 1; boolean b = x >= 1 && x<<1 > 0;",
+              "  }",
+              "  // last",
+              "}",
+              "");
+
+  private final Context context = new Context();
+
+  @Test
+  public void rangesMatchRelexing() {
+    CompilationUnitTokens unitTokens = CompilationUnitTokens.create(SOURCE, context);
+    for (int start = 0; start <= SOURCE.length(); start++) {
+      for (int end = start; end <= SOURCE.length(); end++) {
+        ImmutableList<ErrorProneToken> tokens = unitTokens.getTokens(start, end, /* offset= */ 0);
+        if (tokens == null) {
+          continue;
+        }
+        assertWithMessage("[%s, %s): %s", start, end, SOURCE.substring(start, end))
+            .that(describe(tokens))
+            .isEqualTo(
+                describe(ErrorProneTokens.getTokens(SOURCE.substring(start, end), start, context)));
+      }
+    }
+  }
+
+  @Test
+  public void relativePositions() {
+    CompilationUnitTokens unitTokens = CompilationUnitTokens.create(SOURCE, context);
+    Random random = new Random(42);
+    for (int i = 0; i < 1000; i++) {
+      int start = random.nextInt(SOURCE.length());
+      int end = start + random.nextInt(SOURCE.length() - start);
+      ImmutableList<ErrorProneToken> tokens = unitTokens.getTokens(start, end, -start);
+      if (tokens != null) {
+        assertThat(describe(tokens))
+            .isEqualTo(describe(ErrorProneTokens.getTokens(SOURCE.substring(start, end), context)));
+      }
+    }
+  }
+
+  @Test
+  public void rangesWithinTokensOrComments_notLookedUp() {
+    CompilationUnitTokens unitTokens = CompilationUnitTokens.create(SOURCE, context);
+    int comment = SOURCE.indexOf("/* before */");
+    assertThat(unitTokens.getTokens(comment + 2, SOURCE.length(), 0)).isNull();
+    int shift = SOURCE.indexOf(">>=");
+    assertThat(unitTokens.getTokens(0, shift + 1, 0)).isNull();
+    int string = SOURCE.indexOf("\"a /*");
+    assertThat(unitTokens.getTokens(string + 3, SOURCE.length(), 0)).isNull();
+    assertThat(unitTokens.getTokens(0, SOURCE.length(), 0)).isNotNull();
+  }
+
+  private static String describe(List<ErrorProneToken> tokens) {
+    StringBuilder result = new StringBuilder();
+    for (ErrorProneToken token : tokens) {
+      result
+          .append(token.kind())
+          .append(' ')
+          .append(token.pos())
+          .append('-')
+          .append(token.endPos());
+      for (Comment comment : token.comments()) {
+        result.append(" [").append(comment.getSourcePos(0)).append(comment.getText()).append(']');
+      }
+      result.append('\n');
+    }
+    return result.toString();
+  }
+}
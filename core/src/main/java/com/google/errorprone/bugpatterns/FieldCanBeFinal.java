@@ -22,13 +22,14 @@ import static com.google.errorprone.util.ASTHelpers.hasAnnotation;
 import static com.google.errorprone.util.ASTHelpers.shouldKeep;
 
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.errorprone.BugPattern;
 import com.google.errorprone.VisitorState;
 import com.google.errorprone.bugpatterns.BugChecker.CompilationUnitTreeMatcher;
 import com.google.errorprone.fixes.SuggestedFixes;
 import com.google.errorprone.matchers.Description;
-import com.google.errorprone.util.ASTHelpers;
+import com.google.errorprone.util.CompilationUnitIndex;
 import com.sun.source.tree.AssignmentTree;
 import com.sun.source.tree.BlockTree;
 import com.sun.source.tree.ClassTree;
@@ -41,17 +42,15 @@ import com.sun.source.tree.MemberSelectTree;
 import com.sun.source.tree.MethodTree;
 import com.sun.source.tree.Tree;
 import com.sun.source.tree.Tree.Kind;
-import com.sun.source.tree.UnaryTree;
 import com.sun.source.tree.VariableTree;
-import com.sun.source.util.TreePathScanner;
+import com.sun.source.util.TreePath;
 import com.sun.tools.javac.code.Attribute;
 import com.sun.tools.javac.code.Flags;
 import com.sun.tools.javac.code.Symbol;
-import com.sun.tools.javac.code.Symbol.MethodSymbol;
 import com.sun.tools.javac.code.Symbol.VarSymbol;
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.EnumSet;
-import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import javax.lang.model.element.ElementKind;
 import javax.lang.model.element.Modifier;
@@ -115,49 +114,17 @@ public class FieldCanBeFinal extends BugChecker implements CompilationUnitTreeMa
     NONE
   }
 
-  /** A record of all assignments to variables in the current compilation unit. */
-  private static class VariableAssignmentRecords {
-
-    private final Map<VarSymbol, VariableAssignments> assignments = new LinkedHashMap<>();
-
-    /** Returns all {@link VariableAssignments} in the current compilation unit. */
-    private Collection<VariableAssignments> getAssignments() {
-      return assignments.values();
-    }
-
-    /** Records an assignment to a variable. */
-    private void recordAssignment(Tree tree, InitializationContext init) {
-      Symbol sym = ASTHelpers.getSymbol(tree);
-      if (sym != null && sym.getKind() == ElementKind.FIELD) {
-        recordAssignment((VarSymbol) sym, init);
-      }
-    }
-
-    /** Records an assignment to a variable. */
-    private void recordAssignment(VarSymbol sym, InitializationContext init) {
-      getDeclaration(sym).recordAssignment(init);
-    }
-
-    private VariableAssignments getDeclaration(VarSymbol sym) {
-      return assignments.computeIfAbsent(sym, VariableAssignments::new);
-    }
-
-    /** Records a variable declaration. */
-    private void recordDeclaration(VarSymbol sym, VariableTree tree) {
-      getDeclaration(sym).recordDeclaration(tree);
-    }
-  }
-
   /** A record of all assignments to a specific variable in the current compilation unit. */
   private static class VariableAssignments {
 
     private final VarSymbol sym;
+    private final VariableTree declaration;
     private final EnumSet<InitializationContext> writes =
         EnumSet.noneOf(InitializationContext.class);
-    private VariableTree declaration;
 
-    VariableAssignments(VarSymbol sym) {
+    VariableAssignments(VarSymbol sym, VariableTree declaration) {
       this.sym = sym;
+      this.declaration = declaration;
     }
 
     /** Records an assignment to the variable. */
@@ -165,16 +132,8 @@ public class FieldCanBeFinal extends BugChecker implements CompilationUnitTreeMa
       writes.add(init);
     }
 
-    /** Records that a variable was declared in this compilation unit. */
-    private void recordDeclaration(VariableTree tree) {
-      declaration = tree;
-    }
-
     /** Returns true if the variable is effectively final. */
     private boolean isEffectivelyFinal() {
-      if (declaration == null) {
-        return false;
-      }
       if (sym.getModifiers().contains(Modifier.FINAL)) {
         // actually final != effectively final
         return false;
@@ -209,9 +168,26 @@ public class FieldCanBeFinal extends BugChecker implements CompilationUnitTreeMa
 
   @Override
   public Description matchCompilationUnit(CompilationUnitTree tree, VisitorState state) {
-    VariableAssignmentRecords writes = new VariableAssignmentRecords();
-    new FinalScanner(writes, state).scan(state.getPath(), InitializationContext.NONE);
-    for (VariableAssignments var : writes.getAssignments()) {
+    CompilationUnitIndex index = state.getCompilationUnitIndex();
+    List<VariableAssignments> fields = new ArrayList<>();
+    for (Map.Entry<Symbol, TreePath> declaration : index.declarations().entrySet()) {
+      Symbol sym = declaration.getKey();
+      TreePath path = declaration.getValue();
+      if (sym.getKind() != ElementKind.FIELD
+          || isSuppressed(path.getLeaf(), state)
+          || isInSkippedClass(path, state)) {
+        continue;
+      }
+      VariableAssignments var =
+          new VariableAssignments((VarSymbol) sym, (VariableTree) path.getLeaf());
+      for (TreePath write : index.writes(sym)) {
+        if (!isInSkippedClass(write, state)) {
+          var.recordAssignment(initializationContext(write));
+        }
+      }
+      fields.add(var);
+    }
+    for (VariableAssignments var : fields) {
       if (!var.isEffectivelyFinal()) {
         continue;
       }
@@ -241,109 +217,84 @@ public class FieldCanBeFinal extends BugChecker implements CompilationUnitTreeMa
     return Description.NO_MATCH;
   }
 
-  /** Record assignments to possibly-final variables in a compilation unit. */
-  private class FinalScanner extends TreePathScanner<Void, InitializationContext> {
-
-    private final VariableAssignmentRecords writes;
-    private final VisitorState compilationState;
-
-    private FinalScanner(VariableAssignmentRecords writes, VisitorState compilationState) {
-      this.writes = writes;
-      this.compilationState = compilationState;
-    }
-
-    @Override
-    public Void visitVariable(VariableTree node, InitializationContext init) {
-      VarSymbol sym = ASTHelpers.getSymbol(node);
-      if (sym.getKind() == ElementKind.FIELD && !isSuppressed(node, compilationState)) {
-        writes.recordDeclaration(sym, node);
-      }
-      return super.visitVariable(node, InitializationContext.NONE);
-    }
-
-    @Override
-    public Void visitLambdaExpression(
-        LambdaExpressionTree lambdaExpressionTree, InitializationContext init) {
-      // reset the initialization context when entering lambda
-      return super.visitLambdaExpression(lambdaExpressionTree, InitializationContext.NONE);
-    }
-
-    @Override
-    public Void visitBlock(BlockTree node, InitializationContext init) {
-      if (getCurrentPath().getParentPath().getLeaf().getKind() == Kind.CLASS) {
-        init = node.isStatic() ? InitializationContext.STATIC : InitializationContext.INSTANCE;
-      }
-      return super.visitBlock(node, init);
-    }
-
-    @Override
-    public Void visitMethod(MethodTree node, InitializationContext init) {
-      MethodSymbol sym = ASTHelpers.getSymbol(node);
-      if (sym.isConstructor()) {
-        init = InitializationContext.INSTANCE;
-      }
-      return super.visitMethod(node, init);
-    }
-
-    @Override
-    public Void visitAssignment(AssignmentTree node, InitializationContext init) {
-      if (init == InitializationContext.INSTANCE && !isThisAccess(node.getVariable())) {
-        // don't record assignments in initializers that aren't to members of the object
-        // being initialized
-        init = InitializationContext.NONE;
+  /**
+   * Returns true if {@code path} is in a class whose fields aren't considered: a suppressed class,
+   * or one managed by Objectify.
+   */
+  private boolean isInSkippedClass(TreePath path, VisitorState state) {
+    for (TreePath p = path; p != null; p = p.getParentPath()) {
+      if (!(p.getLeaf() instanceof ClassTree)) {
+        continue;
       }
-      writes.recordAssignment(node.getVariable(), init);
-      return super.visitAssignment(node, init);
-    }
-
-    private boolean isThisAccess(Tree tree) {
-      if (tree.getKind() == Kind.IDENTIFIER) {
+      ClassTree classTree = (ClassTree) p.getLeaf();
+      if (isSuppressed(classTree, state.withPath(p))) {
         return true;
       }
-      if (tree.getKind() != Kind.MEMBER_SELECT) {
-        return false;
-      }
-      ExpressionTree selected = ((MemberSelectTree) tree).getExpression();
-      if (!(selected instanceof IdentifierTree)) {
-        return false;
-      }
-      IdentifierTree ident = (IdentifierTree) selected;
-      return ident.getName().contentEquals("this");
-    }
-
-    @Override
-    public Void visitClass(ClassTree node, InitializationContext init) {
-      VisitorState state = compilationState.withPath(getCurrentPath());
-
-      if (isSuppressed(node, state)) {
-        return null;
-      }
-
-      for (Attribute.Compound anno : getSymbol(node).getAnnotationMirrors()) {
+      for (Attribute.Compound anno : getSymbol(classTree).getAnnotationMirrors()) {
         TypeElement annoElement = (TypeElement) anno.getAnnotationType().asElement();
         if (annoElement.getQualifiedName().toString().startsWith(OBJECTIFY_PREFIX)) {
-          return null;
+          return true;
         }
       }
-
-      // reset the initialization context when entering a new declaration
-      return super.visitClass(node, InitializationContext.NONE);
     }
+    return false;
+  }
 
-    @Override
-    public Void visitCompoundAssignment(CompoundAssignmentTree node, InitializationContext init) {
-      init = InitializationContext.NONE;
-      writes.recordAssignment(node.getVariable(), init);
-      return super.visitCompoundAssignment(node, init);
+  /**
+   * Returns the initialization context of the write to a field at {@code write}, which is the
+   * target of an assignment, compound assignment, increment or decrement.
+   */
+  private static InitializationContext initializationContext(TreePath write) {
+    List<TreePath> enclosing = new ArrayList<>();
+    for (TreePath p = write.getParentPath(); p != null; p = p.getParentPath()) {
+      enclosing.add(p);
     }
-
-    @Override
-    public Void visitUnary(UnaryTree node, InitializationContext init) {
-      if (UNARY_ASSIGNMENT.contains(node.getKind())) {
+    InitializationContext init = InitializationContext.NONE;
+    for (TreePath p : Lists.reverse(enclosing)) {
+      Tree node = p.getLeaf();
+      if (node instanceof VariableTree
+          || node instanceof LambdaExpressionTree
+          || node instanceof ClassTree) {
+        // reset the initialization context when entering a new declaration or a lambda
+        init = InitializationContext.NONE;
+      } else if (node instanceof BlockTree) {
+        if (p.getParentPath().getLeaf().getKind() == Kind.CLASS) {
+          init =
+              ((BlockTree) node).isStatic()
+                  ? InitializationContext.STATIC
+                  : InitializationContext.INSTANCE;
+        }
+      } else if (node instanceof MethodTree) {
+        if (getSymbol((MethodTree) node).isConstructor()) {
+          init = InitializationContext.INSTANCE;
+        }
+      } else if (node instanceof AssignmentTree) {
+        if (init == InitializationContext.INSTANCE
+            && !isThisAccess(((AssignmentTree) node).getVariable())) {
+          // don't record assignments in initializers that aren't to members of the object
+          // being initialized
+          init = InitializationContext.NONE;
+        }
+      } else if (node instanceof CompoundAssignmentTree
+          || UNARY_ASSIGNMENT.contains(node.getKind())) {
         init = InitializationContext.NONE;
-        writes.recordAssignment(node.getExpression(), init);
       }
-      return super.visitUnary(node, init);
     }
+    return init;
+  }
+
+  private static boolean isThisAccess(Tree tree) {
+    if (tree.getKind() == Kind.IDENTIFIER) {
+      return true;
+    }
+    if (tree.getKind() != Kind.MEMBER_SELECT) {
+      return false;
+    }
+    ExpressionTree selected = ((MemberSelectTree) tree).getExpression();
+    if (!(selected instanceof IdentifierTree)) {
+      return false;
+    }
+    IdentifierTree ident = (IdentifierTree) selected;
+    return ident.getName().contentEquals("this");
   }
 }
@@ -19,7 +19,6 @@ package com.google.errorprone.bugpatterns;
 import static com.google.errorprone.BugPattern.SeverityLevel.WARNING;
 import static com.google.errorprone.util.ASTHelpers.getReceiver;
 import static com.google.errorprone.util.ASTHelpers.getSymbol;
-import static com.google.errorprone.util.ASTHelpers.hasAnnotation;
 import static com.google.errorprone.util.ASTHelpers.isSameType;
 import static com.google.errorprone.util.ASTHelpers.isSubtype;
 import static javax.lang.model.element.Modifier.ABSTRACT;
@@ -32,6 +31,7 @@ import com.google.errorprone.fixes.SuggestedFix;
 import com.google.errorprone.matchers.Description;
 import com.google.errorprone.matchers.Matcher;
 import com.google.errorprone.suppliers.Supplier;
+import com.google.errorprone.util.AnnotationHandle;
 import com.sun.source.tree.ExpressionStatementTree;
 import com.sun.source.tree.ExpressionTree;
 import com.sun.source.tree.MethodInvocationTree;
@@ -102,6 +102,15 @@ public final class IgnoredPureGetter extends AbstractReturnValueIgnored {
     return pureGetterKind(tree, state).isPresent();
   }
 
+  private static final AnnotationHandle AUTO_VALUE =
+      AnnotationHandle.of("com.google.auto.value.AutoValue");
+
+  private static final AnnotationHandle AUTO_BUILDER =
+      AnnotationHandle.of("com.google.auto.value.AutoBuilder");
+
+  private static final AnnotationHandle AUTO_VALUE_BUILDER =
+      AnnotationHandle.of("com.google.auto.value.AutoValue.Builder");
+
   private static Optional<PureGetterKind> pureGetterKind(ExpressionTree tree, VisitorState state) {
     Symbol rawSymbol = getSymbol(tree);
     if (!(rawSymbol instanceof MethodSymbol)) {
@@ -112,18 +121,18 @@ public final class IgnoredPureGetter extends AbstractReturnValueIgnored {
 
     if (symbol.getModifiers().contains(ABSTRACT) && symbol.getParameters().isEmpty()) {
       // The return value of any abstract method on an @AutoValue needs to be used.
-      if (hasAnnotation(owner, "com.google.auto.value.AutoValue", state)) {
+      if (AUTO_VALUE.isPresent(owner, state)) {
         return Optional.of(PureGetterKind.AUTO_VALUE);
       }
       // The return value of any abstract method on an @AutoBuilder (which doesn't return the
       // Builder itself) needs to be used.
-      if (hasAnnotation(owner, "com.google.auto.value.AutoBuilder", state)
+      if (AUTO_BUILDER.isPresent(owner, state)
           && !isSameType(symbol.getReturnType(), owner.type, state)) {
         return Optional.of(PureGetterKind.AUTO_BUILDER);
       }
       // The return value of any abstract method on an @AutoValue.Builder (which doesn't return the
       // Builder itself) needs to be used.
-      if (hasAnnotation(owner, "com.google.auto.value.AutoValue.Builder", state)
+      if (AUTO_VALUE_BUILDER.isPresent(owner, state)
           && !isSameType(symbol.getReturnType(), owner.type, state)) {
         return Optional.of(PureGetterKind.AUTO_VALUE_BUILDER);
       }
@@ -23,22 +23,17 @@ import static com.google.errorprone.util.ASTHelpers.isSameType;
 
 import com.google.auto.value.AutoValue;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.ListMultimap;
-import com.google.common.collect.MultimapBuilder;
 import com.google.errorprone.BugPattern;
 import com.google.errorprone.VisitorState;
 import com.google.errorprone.bugpatterns.BugChecker.CompilationUnitTreeMatcher;
 import com.google.errorprone.fixes.SuggestedFix;
 import com.google.errorprone.matchers.Description;
+import com.google.errorprone.util.CompilationUnitIndex;
 import com.sun.source.tree.CompilationUnitTree;
 import com.sun.source.tree.ExpressionTree;
-import com.sun.source.tree.IdentifierTree;
 import com.sun.source.tree.LiteralTree;
-import com.sun.source.tree.MemberSelectTree;
 import com.sun.source.tree.Tree;
 import com.sun.source.tree.VariableTree;
-import com.sun.source.util.TreePathScanner;
-import com.sun.tools.javac.code.Symbol;
 import com.sun.tools.javac.code.Symbol.VarSymbol;
 import java.util.HashMap;
 import java.util.Map;
@@ -74,35 +69,15 @@ public class InlineTrivialConstant extends BugChecker implements CompilationUnit
         return super.visitVariable(tree, null);
       }
     }.scan(state.getPath(), null);
-    ListMultimap<Symbol, Tree> uses = MultimapBuilder.hashKeys().arrayListValues().build();
-    new TreePathScanner<Void, Void>() {
-      @Override
-      public Void visitMemberSelect(MemberSelectTree tree, Void unused) {
-        handle(tree);
-        return super.visitMemberSelect(tree, null);
-      }
-
-      @Override
-      public Void visitIdentifier(IdentifierTree tree, Void unused) {
-        handle(tree);
-        return super.visitIdentifier(tree, null);
-      }
-
-      private void handle(Tree tree) {
-        Symbol sym = getSymbol(tree);
-        if (sym == null) {
-          return;
-        }
-        if (fields.containsKey(sym)) {
-          uses.put(sym, tree);
-        }
-      }
-    }.scan(state.getPath(), null);
+    if (fields.isEmpty()) {
+      return NO_MATCH;
+    }
+    CompilationUnitIndex index = state.getCompilationUnitIndex();
     for (Map.Entry<VarSymbol, TrivialConstant> e : fields.entrySet()) {
       SuggestedFix.Builder fix = SuggestedFix.builder();
       TrivialConstant value = e.getValue();
       fix.delete(value.tree());
-      uses.get(e.getKey()).forEach(x -> fix.replace(x, value.replacement()));
+      index.references(e.getKey()).forEach(x -> fix.replace(x.getLeaf(), value.replacement()));
       state.reportMatch(describeMatch(value.tree(), fix.build()));
     }
     return NO_MATCH;
@@ -21,7 +21,6 @@ import static com.google.errorprone.matchers.Matchers.allOf;
 import static com.google.errorprone.matchers.Matchers.anyOf;
 import static com.google.errorprone.matchers.method.MethodMatchers.instanceMethod;
 import static com.google.errorprone.util.ASTHelpers.getSymbol;
-import static com.google.errorprone.util.ASTHelpers.hasAnnotation;
 import static com.google.errorprone.util.ASTHelpers.isAbstract;
 import static com.google.errorprone.util.ASTHelpers.isSameType;
 
@@ -37,6 +36,7 @@ import com.google.errorprone.fixes.SuggestedFix;
 import com.google.errorprone.matchers.Description;
 import com.google.errorprone.matchers.Matcher;
 import com.google.errorprone.util.ASTHelpers;
+import com.google.errorprone.util.AnnotationHandle;
 import com.sun.source.tree.ExpressionTree;
 import com.sun.source.tree.MemberSelectTree;
 import com.sun.source.tree.MethodInvocationTree;
@@ -215,8 +215,11 @@ public final class RedundantSetterCall extends BugChecker implements MethodInvoc
     abstract FieldWithValue match(String name, MethodInvocationTree tree, VisitorState state);
   }
 
+  private static final AnnotationHandle AUTO_VALUE_BUILDER =
+      AnnotationHandle.of("com.google.auto.value.AutoValue.Builder");
+
   private static boolean isWithinAutoValueBuilder(MethodSymbol symbol, VisitorState state) {
-    return hasAnnotation(symbol.owner, "com.google.auto.value.AutoValue.Builder", state);
+    return AUTO_VALUE_BUILDER.isPresent(symbol.owner, state);
   }
 
   interface Field {
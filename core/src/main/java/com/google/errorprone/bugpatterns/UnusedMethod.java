@@ -29,6 +29,7 @@ import static com.google.errorprone.fixes.SuggestedFixes.replaceIncludingComment
 import static com.google.errorprone.matchers.Matchers.SERIALIZATION_METHODS;
 import static com.google.errorprone.suppliers.Suppliers.typeFromString;
 import static com.google.errorprone.util.ASTHelpers.canBeRemoved;
+import static com.google.errorprone.util.ASTHelpers.findEnclosingNode;
 import static com.google.errorprone.util.ASTHelpers.getSymbol;
 import static com.google.errorprone.util.ASTHelpers.getType;
 import static com.google.errorprone.util.ASTHelpers.hasAnnotation;
@@ -53,21 +54,16 @@ import com.google.errorprone.bugpatterns.BugChecker.CompilationUnitTreeMatcher;
 import com.google.errorprone.fixes.SuggestedFix;
 import com.google.errorprone.matchers.Description;
 import com.google.errorprone.suppliers.Supplier;
+import com.google.errorprone.util.CompilationUnitIndex;
 import com.sun.source.tree.AnnotationTree;
-import com.sun.source.tree.AssignmentTree;
 import com.sun.source.tree.ClassTree;
 import com.sun.source.tree.CompilationUnitTree;
 import com.sun.source.tree.IdentifierTree;
-import com.sun.source.tree.MemberReferenceTree;
-import com.sun.source.tree.MemberSelectTree;
-import com.sun.source.tree.MethodInvocationTree;
 import com.sun.source.tree.MethodTree;
-import com.sun.source.tree.NewClassTree;
 import com.sun.source.tree.Tree;
 import com.sun.source.tree.Tree.Kind;
+import com.sun.source.tree.VariableTree;
 import com.sun.source.util.TreePath;
-import com.sun.source.util.TreePathScanner;
-import com.sun.source.util.TreeScanner;
 import com.sun.tools.javac.code.Symbol;
 import com.sun.tools.javac.code.Symbol.ClassSymbol;
 import com.sun.tools.javac.code.Symbol.MethodSymbol;
@@ -81,7 +77,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicBoolean;
 import javax.inject.Inject;
 import javax.lang.model.element.Modifier;
 import javax.lang.model.element.Name;
@@ -178,250 +173,205 @@ public final class UnusedMethod extends BugChecker implements CompilationUnitTre
 
   @Override
   public Description matchCompilationUnit(CompilationUnitTree tree, VisitorState state) {
-    // Map of symbols to method declarations. Initially this is a map of all of the methods. As we
-    // go we remove those variables which are used.
-    Map<Symbol, TreePath> unusedMethods = new HashMap<>();
+    CompilationUnitIndex index = state.getCompilationUnitIndex();
 
     // We will skip reporting on the whole compilation if there are any native methods found.
-    // Use a TreeScanner to find all local variables and fields.
-    if (hasNativeMethods(tree)) {
+    if (hasNativeMethods(index)) {
       return Description.NO_MATCH;
     }
-    AtomicBoolean ignoreUnusedMethods = new AtomicBoolean(false);
 
-    ImmutableSet<ClassSymbol> classesMadeVisible = getVisibleClasses(tree);
+    ImmutableSet<ClassSymbol> classesMadeVisible = getVisibleClasses(index);
 
-    class MethodFinder extends SuppressibleTreePathScanner<Void, Void> {
-      MethodFinder(VisitorState state) {
-        super(state);
+    // Map of symbols to method declarations. Initially this is a map of all of the methods. As we
+    // go we remove those methods which are used.
+    Map<Symbol, TreePath> unusedMethods = new HashMap<>();
+    for (TreePath path : index.declarations().values()) {
+      if (!(path.getLeaf() instanceof MethodTree) || isSuppressedOrExempted(path, state)) {
+        continue;
       }
-
-      @Override
-      public Void visitClass(ClassTree tree, Void unused) {
-        if (exemptedBySuperType(getType(tree), state)
-            || EXEMPTING_CLASS_ANNOTATIONS.stream().anyMatch(a -> hasAnnotation(tree, a, state))) {
-          return null;
-        }
-        return super.visitClass(tree, null);
+      MethodTree method = (MethodTree) path.getLeaf();
+      if (hasJUnitParamsParametersForMethodAnnotation(method.getModifiers().getAnnotations())) {
+        // Since this method uses @Parameters, there will be another method that appears to
+        // be unused. Don't warn about unusedMethods at all in this case.
+        return Description.NO_MATCH;
       }
-
-      private boolean exemptedBySuperType(Type type, VisitorState state) {
-        return EXEMPTING_SUPER_TYPES.stream()
-            .anyMatch(t -> isSubtype(type, typeFromString(t).get(state), state));
+      if (isMethodSymbolEligibleForChecking(method, classesMadeVisible, state)) {
+        unusedMethods.put(getSymbol(method), path);
       }
+    }
+    if (unusedMethods.isEmpty()) {
+      return Description.NO_MATCH;
+    }
 
-      @Override
-      public Void visitMethod(MethodTree tree, Void unused) {
-        if (hasJUnitParamsParametersForMethodAnnotation(tree.getModifiers().getAnnotations())) {
-          // Since this method uses @Parameters, there will be another method that appears to
-          // be unused. Don't warn about unusedMethods at all in this case.
-          ignoreUnusedMethods.set(true);
-        }
-        if (isMethodSymbolEligibleForChecking(tree, classesMadeVisible)) {
-          unusedMethods.put(getSymbol(tree), getCurrentPath());
-        }
-        return super.visitMethod(tree, unused);
+    // Any reference to a method uses it, including one from suppressed code.
+    unusedMethods.keySet().removeIf(m -> !index.references(m).isEmpty());
+    for (TreePath path : index.declarations().values()) {
+      if (path.getLeaf() instanceof MethodTree) {
+        handleMethodSource((MethodTree) path.getLeaf(), unusedMethods, state);
       }
+    }
 
-      private boolean hasJUnitParamsParametersForMethodAnnotation(
-          Collection<? extends AnnotationTree> annotations) {
-        for (AnnotationTree tree : annotations) {
-          JCAnnotation annotation = (JCAnnotation) tree;
-          if (annotation.getAnnotationType().type != null
-              && annotation
-                  .getAnnotationType()
-                  .type
-                  .toString()
-                  .equals(JUNIT_PARAMS_ANNOTATION_TYPE)) {
-            if (annotation.getArguments().isEmpty()) {
-              // @Parameters, which uses implicit provider methods
-              return true;
-            }
-            for (JCExpression arg : annotation.getArguments()) {
-              if (arg.getKind() != Kind.ASSIGNMENT) {
-                // Implicit value annotation, e.g. @Parameters({"1"}); no exemption required.
-                return false;
-              }
-              JCExpression var = ((JCAssign) arg).getVariable();
-              if (var.getKind() == Kind.IDENTIFIER) {
-                // Anything that is not @Parameters(value = ...), e.g.
-                // @Parameters(source = ...) or @Parameters(method = ...)
-                if (!((IdentifierTree) var).getName().contentEquals(JUNIT_PARAMS_VALUE)) {
-                  return true;
-                }
-              }
-            }
-          }
-        }
-        return false;
-      }
+    fixNonConstructors(
+        unusedMethods.values().stream()
+            .filter(t -> !getSymbol(t.getLeaf()).isConstructor())
+            .collect(toImmutableList()),
+        state);
 
-      private boolean isMethodSymbolEligibleForChecking(
-          MethodTree tree, Set<ClassSymbol> classesMadeVisible) {
-        if (exemptedByName(tree.getName())) {
-          return false;
-        }
-        // Assume the method is called if annotated with a called-reflectively annotation.
-        if (exemptedByAnnotation(tree.getModifiers().getAnnotations())) {
-          return false;
-        }
-        if (shouldKeep(tree)) {
-          return false;
-        }
-        MethodSymbol methodSymbol = getSymbol(tree);
-        if (!canBeRemoved(methodSymbol, state)) {
-          return false;
-        }
-        if (isExemptedConstructor(methodSymbol, state)
-            || isGeneratedConstructor(tree)
-            || SERIALIZATION_METHODS.matches(tree, state)) {
-          return false;
-        }
+    // Group unused constructors by the owning class to generate fixes, so that if we remove the
+    // last constructor, we add a private one.
+    ImmutableListMultimap<Symbol, TreePath> unusedConstructors =
+        unusedMethods.values().stream()
+            .filter(t -> getSymbol(t.getLeaf()).isConstructor())
+            .collect(toImmutableListMultimap(t -> getSymbol(t.getLeaf()).owner, t -> t));
 
-        // Ignore this method if the last parameter is a GWT JavaScriptObject.
-        if (!tree.getParameters().isEmpty()) {
-          Type lastParamType = getType(getLast(tree.getParameters()));
-          if (lastParamType != null && lastParamType.toString().equals(GWT_JAVASCRIPT_OBJECT)) {
-            return false;
-          }
-        }
-        if (!methodSymbol.isPrivate()
-            && classesMadeVisible.stream()
-                .anyMatch(t -> isSubtype(t.type, methodSymbol.owner.type, state))) {
-          return false;
-        }
+    fixConstructors(unusedConstructors, state);
 
+    return Description.NO_MATCH;
+  }
+
+  /**
+   * Returns true if the method at {@code path} is suppressed, or is enclosed by a suppressed
+   * declaration or an exempted class.
+   */
+  private boolean isSuppressedOrExempted(TreePath path, VisitorState state) {
+    for (TreePath p = path; p != null; p = p.getParentPath()) {
+      Tree leaf = p.getLeaf();
+      if ((leaf instanceof ClassTree || leaf instanceof MethodTree || leaf instanceof VariableTree)
+          && isSuppressed(leaf, state)) {
         return true;
       }
-
-      private boolean isExemptedConstructor(MethodSymbol methodSymbol, VisitorState state) {
-        if (!methodSymbol.getKind().equals(CONSTRUCTOR)) {
-          return false;
-        }
-        // Don't delete unused zero-arg constructors, given those are often there to limit
-        // instantiating the class at all (e.g. in utility classes).
-        if (methodSymbol.params().isEmpty()) {
-          return true;
-        }
-        return false;
+      if (leaf instanceof ClassTree && isExemptedClass((ClassTree) leaf, state)) {
+        return true;
       }
     }
-    new MethodFinder(state).scan(state.getPath(), null);
-
-    class FilterUsedMethods extends TreePathScanner<Void, Void> {
-      @Override
-      public Void visitMemberSelect(MemberSelectTree memberSelectTree, Void unused) {
-        Symbol symbol = getSymbol(memberSelectTree);
-        unusedMethods.remove(symbol);
-        return super.visitMemberSelect(memberSelectTree, null);
-      }
-
-      @Override
-      public Void visitMemberReference(MemberReferenceTree tree, Void unused) {
-        super.visitMemberReference(tree, null);
-        MethodSymbol symbol = getSymbol(tree);
-        unusedMethods.remove(symbol);
-        symbol.getParameters().forEach(unusedMethods::remove);
-        return null;
-      }
-
-      @Override
-      public Void visitMethodInvocation(MethodInvocationTree tree, Void unused) {
-        handle(getSymbol(tree));
-        return super.visitMethodInvocation(tree, null);
-      }
-
-      @Override
-      public Void visitNewClass(NewClassTree tree, Void unused) {
-        handle(getSymbol(tree));
-        return super.visitNewClass(tree, null);
-      }
+    return false;
+  }
 
-      @Override
-      public Void visitAssignment(AssignmentTree tree, Void unused) {
-        handle(getSymbol(tree.getVariable()));
-        return super.visitAssignment(tree, unused);
-      }
+  private static boolean isExemptedClass(ClassTree tree, VisitorState state) {
+    Type type = getType(tree);
+    return EXEMPTING_SUPER_TYPES.stream()
+            .anyMatch(t -> isSubtype(type, typeFromString(t).get(state), state))
+        || EXEMPTING_CLASS_ANNOTATIONS.stream().anyMatch(a -> hasAnnotation(tree, a, state));
+  }
 
-      private void handle(Symbol symbol) {
-        if (symbol instanceof MethodSymbol) {
-          unusedMethods.remove(symbol);
+  private static boolean hasJUnitParamsParametersForMethodAnnotation(
+      Collection<? extends AnnotationTree> annotations) {
+    for (AnnotationTree tree : annotations) {
+      JCAnnotation annotation = (JCAnnotation) tree;
+      if (annotation.getAnnotationType().type != null
+          && annotation.getAnnotationType().type.toString().equals(JUNIT_PARAMS_ANNOTATION_TYPE)) {
+        if (annotation.getArguments().isEmpty()) {
+          // @Parameters, which uses implicit provider methods
+          return true;
+        }
+        for (JCExpression arg : annotation.getArguments()) {
+          if (arg.getKind() != Kind.ASSIGNMENT) {
+            // Implicit value annotation, e.g. @Parameters({"1"}); no exemption required.
+            return false;
+          }
+          JCExpression var = ((JCAssign) arg).getVariable();
+          if (var.getKind() == Kind.IDENTIFIER) {
+            // Anything that is not @Parameters(value = ...), e.g.
+            // @Parameters(source = ...) or @Parameters(method = ...)
+            if (!((IdentifierTree) var).getName().contentEquals(JUNIT_PARAMS_VALUE)) {
+              return true;
+            }
+          }
         }
       }
+    }
+    return false;
+  }
 
-      @Override
-      public Void visitMethod(MethodTree tree, Void unused) {
-        handleMethodSource(tree);
-        return super.visitMethod(tree, null);
-      }
+  private boolean isMethodSymbolEligibleForChecking(
+      MethodTree tree, Set<ClassSymbol> classesMadeVisible, VisitorState state) {
+    if (exemptedByName(tree.getName())) {
+      return false;
+    }
+    // Assume the method is called if annotated with a called-reflectively annotation.
+    if (exemptedByAnnotation(tree.getModifiers().getAnnotations())) {
+      return false;
+    }
+    if (shouldKeep(tree)) {
+      return false;
+    }
+    MethodSymbol methodSymbol = getSymbol(tree);
+    if (!canBeRemoved(methodSymbol, state)) {
+      return false;
+    }
+    if (isExemptedConstructor(methodSymbol)
+        || isGeneratedConstructor(tree)
+        || SERIALIZATION_METHODS.matches(tree, state)) {
+      return false;
+    }
 
-      /**
-       * If a method is annotated with @MethodSource, the annotation value refers to another method
-       * that is used reflectively to supply test parameters, so that method should not be
-       * considered unused.
-       */
-      private void handleMethodSource(MethodTree tree) {
-        MethodSymbol sym = getSymbol(tree);
-        Name name = ORG_JUNIT_JUPITER_PARAMS_PROVIDER_METHODSOURCE.get(state);
-        sym.getRawAttributes().stream()
-            .filter(a -> a.type.tsym.getQualifiedName().equals(name))
-            .findAny()
-            // get the annotation value array as a set of Names
-            .flatMap(a -> getAnnotationValue(a, "value"))
-            .map(
-                y -> asStrings(y).map(state::getName).map(Name::toString).collect(toImmutableSet()))
-            // remove all potentially unused methods referenced by the @MethodSource
-            .ifPresent(
-                referencedNames ->
-                    unusedMethods
-                        .entrySet()
-                        .removeIf(
-                            e -> {
-                              Symbol unusedSym = e.getKey();
-                              String simpleName = unusedSym.getSimpleName().toString();
-                              return referencedNames.contains(simpleName)
-                                  || referencedNames.contains(
-                                      unusedSym.owner.getQualifiedName() + "#" + simpleName);
-                            }));
+    // Ignore this method if the last parameter is a GWT JavaScriptObject.
+    if (!tree.getParameters().isEmpty()) {
+      Type lastParamType = getType(getLast(tree.getParameters()));
+      if (lastParamType != null && lastParamType.toString().equals(GWT_JAVASCRIPT_OBJECT)) {
+        return false;
       }
     }
-
-    new FilterUsedMethods().scan(state.getPath(), null);
-
-    if (ignoreUnusedMethods.get()) {
-      return Description.NO_MATCH;
+    if (!methodSymbol.isPrivate()
+        && classesMadeVisible.stream()
+            .anyMatch(t -> isSubtype(t.type, methodSymbol.owner.type, state))) {
+      return false;
     }
 
-    fixNonConstructors(
-        unusedMethods.values().stream()
-            .filter(t -> !getSymbol(t.getLeaf()).isConstructor())
-            .collect(toImmutableList()),
-        state);
-
-    // Group unused constructors by the owning class to generate fixes, so that if we remove the
-    // last constructor, we add a private one.
-    ImmutableListMultimap<Symbol, TreePath> unusedConstructors =
-        unusedMethods.values().stream()
-            .filter(t -> getSymbol(t.getLeaf()).isConstructor())
-            .collect(toImmutableListMultimap(t -> getSymbol(t.getLeaf()).owner, t -> t));
+    return true;
+  }
 
-    fixConstructors(unusedConstructors, state);
+  private static boolean isExemptedConstructor(MethodSymbol methodSymbol) {
+    if (!methodSymbol.getKind().equals(CONSTRUCTOR)) {
+      return false;
+    }
+    // Don't delete unused zero-arg constructors, given those are often there to limit
+    // instantiating the class at all (e.g. in utility classes).
+    if (methodSymbol.params().isEmpty()) {
+      return true;
+    }
+    return false;
+  }
 
-    return Description.NO_MATCH;
+  /**
+   * If a method is annotated with @MethodSource, the annotation value refers to another method that
+   * is used reflectively to supply test parameters, so that method should not be considered unused.
+   */
+  private static void handleMethodSource(
+      MethodTree tree, Map<Symbol, TreePath> unusedMethods, VisitorState state) {
+    MethodSymbol sym = getSymbol(tree);
+    Name name = ORG_JUNIT_JUPITER_PARAMS_PROVIDER_METHODSOURCE.get(state);
+    sym.getRawAttributes().stream()
+        .filter(a -> a.type.tsym.getQualifiedName().equals(name))
+        .findAny()
+        // get the annotation value array as a set of Names
+        .flatMap(a -> getAnnotationValue(a, "value"))
+        .map(y -> asStrings(y).map(state::getName).map(Name::toString).collect(toImmutableSet()))
+        // remove all potentially unused methods referenced by the @MethodSource
+        .ifPresent(
+            referencedNames ->
+                unusedMethods
+                    .entrySet()
+                    .removeIf(
+                        e -> {
+                          Symbol unusedSym = e.getKey();
+                          String simpleName = unusedSym.getSimpleName().toString();
+                          return referencedNames.contains(simpleName)
+                              || referencedNames.contains(
+                                  unusedSym.owner.getQualifiedName() + "#" + simpleName);
+                        }));
   }
 
-  private ImmutableSet<ClassSymbol> getVisibleClasses(CompilationUnitTree tree) {
+  private static ImmutableSet<ClassSymbol> getVisibleClasses(CompilationUnitIndex index) {
     ImmutableSet.Builder<ClassSymbol> classesMadeVisible = ImmutableSet.builder();
-    new TreePathScanner<Void, Void>() {
-      @Override
-      public Void visitClass(ClassTree tree, Void unused) {
-        var symbol = getSymbol(tree);
+    for (TreePath path : index.declarations().values()) {
+      if (path.getLeaf() instanceof ClassTree) {
+        var symbol = getSymbol((ClassTree) path.getLeaf());
         if (!canBeRemoved(symbol)) {
           classesMadeVisible.add(symbol);
         }
-        return super.visitClass(tree, null);
       }
-    }.scan(tree, null);
+    }
     return classesMadeVisible.build();
   }
 
@@ -471,18 +421,16 @@ public final class UnusedMethod extends BugChecker implements CompilationUnitTre
     }
   }
 
-  private static boolean hasNativeMethods(CompilationUnitTree tree) {
-    AtomicBoolean hasAnyNativeMethods = new AtomicBoolean(false);
-    new TreeScanner<Void, Void>() {
-      @Override
-      public Void visitMethod(MethodTree tree, Void unused) {
-        if (tree.getModifiers().getFlags().contains(Modifier.NATIVE)) {
-          hasAnyNativeMethods.set(true);
-        }
-        return null;
+  /** Returns true if a method that isn't local to another method is native. */
+  private static boolean hasNativeMethods(CompilationUnitIndex index) {
+    for (TreePath path : index.declarations().values()) {
+      if (path.getLeaf() instanceof MethodTree
+          && ((MethodTree) path.getLeaf()).getModifiers().getFlags().contains(Modifier.NATIVE)
+          && findEnclosingNode(path.getParentPath(), MethodTree.class) == null) {
+        return true;
       }
-    }.scan(tree, null);
-    return hasAnyNativeMethods.get();
+    }
+    return false;
   }
 
   /**
@@ -64,6 +64,7 @@ import com.google.errorprone.matchers.Description;
 import com.google.errorprone.suppliers.Supplier;
 import com.google.errorprone.suppliers.Suppliers;
 import com.google.errorprone.util.ASTHelpers;
+import com.google.errorprone.util.CompilationUnitIndex;
 import com.sun.source.tree.AnnotationTree;
 import com.sun.source.tree.ArrayAccessTree;
 import com.sun.source.tree.AssignmentTree;
@@ -94,7 +95,6 @@ import com.sun.source.tree.WhileLoopTree;
 import com.sun.source.util.SimpleTreeVisitor;
 import com.sun.source.util.TreePath;
 import com.sun.source.util.TreePathScanner;
-import com.sun.source.util.TreeScanner;
 import com.sun.tools.javac.code.Symbol;
 import com.sun.tools.javac.code.Symbol.ClassSymbol;
 import com.sun.tools.javac.code.Symbol.MethodSymbol;
@@ -113,7 +113,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicBoolean;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.lang.model.element.ElementKind;
@@ -207,18 +206,22 @@ public final class UnusedVariable extends BugChecker implements CompilationUnitT
 
   @Override
   public Description matchCompilationUnit(CompilationUnitTree tree, VisitorState state) {
+    CompilationUnitIndex index = state.getCompilationUnitIndex();
+
     // We will skip reporting on the whole compilation if there are any native methods found.
-    // Use a TreeScanner to find all local variables and fields.
-    if (hasNativeMethods(tree)) {
+    if (hasNativeMethods(index)) {
       return Description.NO_MATCH;
     }
 
     VariableFinder variableFinder = new VariableFinder(state);
-    variableFinder.scan(state.getPath(), null);
+    variableFinder.find(index);
 
     // Map of symbols to variable declarations. Initially this is a map of all of the local variable
     // and fields. As we go we remove those variables which are used.
     Map<Symbol, TreePath> unusedElements = variableFinder.unusedElements;
+    if (unusedElements.isEmpty()) {
+      return Description.NO_MATCH;
+    }
 
     // Whether a symbol should only be checked for reassignments (e.g. public methods' parameters).
     Set<Symbol> onlyCheckForReassignments = variableFinder.onlyCheckForReassignments;
@@ -231,6 +234,8 @@ public final class UnusedVariable extends BugChecker implements CompilationUnitT
     // appropriate fixes for them.
     ListMultimap<Symbol, TreePath> usageSites = variableFinder.usageSites;
 
+    // Whether an assignment is ever read depends on the order of the reads and reassignments that
+    // follow it, so this is a scan of its own rather than a lookup in the index.
     FilterUsedVariables filterUsedVariables = new FilterUsedVariables(unusedElements, usageSites);
     filterUsedVariables.scan(state.getPath(), null);
 
@@ -268,7 +273,7 @@ public final class UnusedVariable extends BugChecker implements CompilationUnitT
       if (symbol.getKind() == ElementKind.PARAMETER
           && !onlyCheckForReassignments.contains(unusedSymbol)
           && !isEverUsed.contains(unusedSymbol)) {
-        fixes = buildUnusedParameterFixes(symbol, allUsageSites, state);
+        fixes = buildUnusedParameterFixes(symbol, allUsageSites, index, state);
       } else {
         fixes = buildUnusedVarFixes(symbol, allUsageSites, state);
       }
@@ -344,18 +349,16 @@ public final class UnusedVariable extends BugChecker implements CompilationUnitT
     }
   }
 
-  private static boolean hasNativeMethods(CompilationUnitTree tree) {
-    AtomicBoolean hasAnyNativeMethods = new AtomicBoolean(false);
-    new TreeScanner<Void, Void>() {
-      @Override
-      public Void visitMethod(MethodTree tree, Void unused) {
-        if (tree.getModifiers().getFlags().contains(Modifier.NATIVE)) {
-          hasAnyNativeMethods.set(true);
-        }
-        return null;
+  /** Returns true if a method that isn't local to another method is native. */
+  private static boolean hasNativeMethods(CompilationUnitIndex index) {
+    for (TreePath path : index.declarations().values()) {
+      if (path.getLeaf() instanceof MethodTree
+          && ((MethodTree) path.getLeaf()).getModifiers().getFlags().contains(Modifier.NATIVE)
+          && ASTHelpers.findEnclosingNode(path.getParentPath(), MethodTree.class) == null) {
+        return true;
       }
-    }.scan(tree, null);
-    return hasAnyNativeMethods.get();
+    }
+    return false;
   }
 
   // https://docs.oracle.com/javase/specs/jls/se11/html/jls-14.html#jls-ExpressionStatement
@@ -496,7 +499,10 @@ public final class UnusedVariable extends BugChecker implements CompilationUnitT
   }
 
   private static ImmutableList<SuggestedFix> buildUnusedParameterFixes(
-      Symbol varSymbol, List<TreePath> usagePaths, VisitorState state) {
+      Symbol varSymbol,
+      List<TreePath> usagePaths,
+      CompilationUnitIndex compilationUnitIndex,
+      VisitorState state) {
     if (!(varSymbol.owner instanceof MethodSymbol)
         || !((MethodSymbol) varSymbol.owner).params().contains(varSymbol)
         || !canBeRemoved(varSymbol.owner, state)) {
@@ -510,61 +516,67 @@ public final class UnusedVariable extends BugChecker implements CompilationUnitT
       deletions.add(
           Range.closed(getStartPosition(path.getLeaf()), state.getEndPosition(path.getLeaf())));
     }
-    new TreePathScanner<Void, Void>() {
-      @Override
-      public Void visitMethodInvocation(MethodInvocationTree tree, Void unused) {
-        if (getSymbol(tree).equals(methodSymbol)) {
-          removeByIndex(tree.getArguments());
-        }
-        return super.visitMethodInvocation(tree, null);
-      }
-
-      @Override
-      public Void visitMethod(MethodTree tree, Void unused) {
-        if (getSymbol(tree).equals(methodSymbol)) {
-          removeByIndex(tree.getParameters());
-        }
-        return super.visitMethod(tree, null);
+    for (TreePath reference : compilationUnitIndex.references(methodSymbol)) {
+      Tree parent = reference.getParentPath().getLeaf();
+      if (parent instanceof MethodInvocationTree
+          && ((MethodInvocationTree) parent).getMethodSelect() == reference.getLeaf()) {
+        removeByIndex(
+            ((MethodInvocationTree) parent).getArguments(), methodSymbol, index, deletions, state);
       }
-
-      private void removeByIndex(List<? extends Tree> trees) {
-        if (index >= trees.size()) {
-          // possible when removing a varargs parameter with no corresponding formal parameters
-          return;
-        }
-        if (trees.size() == 1) {
-          Tree tree = getOnlyElement(trees);
-          if (!hasExplicitSource(tree, state)) {
-            // TODO(b/118437729): handle bogus source positions in enum declarations
-            return;
-          }
-          deletions.add(Range.closed(getStartPosition(tree), state.getEndPosition(tree)));
-          return;
-        }
-        int startPos;
-        int endPos;
-        if (index >= 1) {
-          startPos = state.getEndPosition(trees.get(index - 1));
-          endPos = state.getEndPosition(trees.get(index));
-        } else {
-          startPos = getStartPosition(trees.get(index));
-          endPos = getStartPosition(trees.get(index + 1));
-        }
-        if (index == methodSymbol.params().size() - 1 && methodSymbol.isVarArgs()) {
-          endPos = state.getEndPosition(getLast(trees));
-        }
-        if (startPos == Position.NOPOS || endPos == Position.NOPOS) {
-          // TODO(b/118437729): handle bogus source positions in enum declarations
-          return;
-        }
-        deletions.add(Range.closed(startPos, endPos));
-      }
-    }.scan(state.getPath().getCompilationUnit(), null);
+    }
+    compilationUnitIndex
+        .declaration(methodSymbol)
+        .ifPresent(
+            path ->
+                removeByIndex(
+                    ((MethodTree) path.getLeaf()).getParameters(),
+                    methodSymbol,
+                    index,
+                    deletions,
+                    state));
     SuggestedFix.Builder fix = SuggestedFix.builder();
     deletions.asRanges().forEach(x -> fix.replace(x.lowerEndpoint(), x.upperEndpoint(), ""));
     return ImmutableList.of(fix.build());
   }
 
+  private static void removeByIndex(
+      List<? extends Tree> trees,
+      MethodSymbol methodSymbol,
+      int index,
+      RangeSet<Integer> deletions,
+      VisitorState state) {
+    if (index >= trees.size()) {
+      // possible when removing a varargs parameter with no corresponding formal parameters
+      return;
+    }
+    if (trees.size() == 1) {
+      Tree tree = getOnlyElement(trees);
+      if (!hasExplicitSource(tree, state)) {
+        // TODO(b/118437729): handle bogus source positions in enum declarations
+        return;
+      }
+      deletions.add(Range.closed(getStartPosition(tree), state.getEndPosition(tree)));
+      return;
+    }
+    int startPos;
+    int endPos;
+    if (index >= 1) {
+      startPos = state.getEndPosition(trees.get(index - 1));
+      endPos = state.getEndPosition(trees.get(index));
+    } else {
+      startPos = getStartPosition(trees.get(index));
+      endPos = getStartPosition(trees.get(index + 1));
+    }
+    if (index == methodSymbol.params().size() - 1 && methodSymbol.isVarArgs()) {
+      endPos = state.getEndPosition(getLast(trees));
+    }
+    if (startPos == Position.NOPOS || endPos == Position.NOPOS) {
+      // TODO(b/118437729): handle bogus source positions in enum declarations
+      return;
+    }
+    deletions.add(Range.closed(startPos, endPos));
+  }
+
   private static boolean isEnhancedForLoopVar(TreePath variablePath) {
     Tree tree = variablePath.getLeaf();
     Tree parent = variablePath.getParentPath().getLeaf();
@@ -597,7 +609,7 @@ public final class UnusedVariable extends BugChecker implements CompilationUnitT
         || exemptNames.contains(nameString);
   }
 
-  private class VariableFinder extends TreePathScanner<Void, Void> {
+  private class VariableFinder {
     private final Map<Symbol, TreePath> unusedElements = new HashMap<>();
 
     private final Set<Symbol> onlyCheckForReassignments = new HashSet<>();
@@ -610,13 +622,46 @@ public final class UnusedVariable extends BugChecker implements CompilationUnitT
       this.state = state;
     }
 
-    @Override
-    public Void visitVariable(VariableTree variableTree, Void unused) {
-      handleVariable(variableTree);
-      return super.visitVariable(variableTree, null);
+    private void find(CompilationUnitIndex index) {
+      for (TreePath path : index.declarations().values()) {
+        if (path.getLeaf() instanceof VariableTree && isVisited(path)) {
+          handleVariable(path);
+        }
+      }
+    }
+
+    /**
+     * Returns true unless the variable at {@code path} is in a suppressed or exempted class, in a
+     * suppressed method, in the signature of a serialization method, or is a try-with-resources
+     * resource, which while it may not be referenced is used.
+     */
+    private boolean isVisited(TreePath path) {
+      for (TreePath p = path; p.getParentPath() != null; p = p.getParentPath()) {
+        Tree child = p.getLeaf();
+        Tree parent = p.getParentPath().getLeaf();
+        if (parent instanceof TryTree && ((TryTree) parent).getResources().contains(child)) {
+          return false;
+        }
+        if (parent instanceof ClassTree
+            && (isSuppressed(parent, state) || exemptedClassBySuperType(getType(parent), state))) {
+          return false;
+        }
+        if (parent instanceof MethodTree) {
+          MethodTree methodTree = (MethodTree) parent;
+          if (SERIALIZATION_METHODS.matches(methodTree, state)) {
+            if (child != methodTree.getBody()) {
+              return false;
+            }
+          } else if (isSuppressed(methodTree, state)) {
+            return false;
+          }
+        }
+      }
+      return true;
     }
 
-    private void handleVariable(VariableTree variableTree) {
+    private void handleVariable(TreePath path) {
+      VariableTree variableTree = (VariableTree) path.getLeaf();
       if (exemptedByName(variableTree.getName())) {
         return;
       }
@@ -624,12 +669,12 @@ public final class UnusedVariable extends BugChecker implements CompilationUnitT
         return;
       }
       VarSymbol symbol = getSymbol(variableTree);
-      var parent = getCurrentPath().getParentPath().getLeaf();
+      var parent = path.getParentPath().getLeaf();
       if (parent instanceof LambdaExpressionTree) {
         if (FUNCTIONAL_INTERFACE_TYPES_TO_CHECK.stream()
             .anyMatch(t -> isSubtype(getType(parent), state.getTypeFromString(t), state))) {
-          unusedElements.put(symbol, getCurrentPath());
-          usageSites.put(symbol, getCurrentPath());
+          unusedElements.put(symbol, path);
+          usageSites.put(symbol, path);
         }
         return;
       }
@@ -642,7 +687,6 @@ public final class UnusedVariable extends BugChecker implements CompilationUnitT
           && exemptedFieldBySuperType(getType(variableTree), state)) {
         return;
       }
-      super.visitVariable(variableTree, null);
       // Return if the element is exempted by an annotation.
       if (exemptedByAnnotation(variableTree.getModifiers().getAnnotations())
           || shouldKeep(variableTree)) {
@@ -652,13 +696,13 @@ public final class UnusedVariable extends BugChecker implements CompilationUnitT
         case FIELD:
           // We are only interested in private fields and those which are not special.
           if (isFieldEligibleForChecking(variableTree, symbol)) {
-            unusedElements.put(symbol, getCurrentPath());
-            usageSites.put(symbol, getCurrentPath());
+            unusedElements.put(symbol, path);
+            usageSites.put(symbol, path);
           }
           break;
         case LOCAL_VARIABLE:
-          unusedElements.put(symbol, getCurrentPath());
-          usageSites.put(symbol, getCurrentPath());
+          unusedElements.put(symbol, path);
+          usageSites.put(symbol, path);
           break;
         case PARAMETER:
           // ignore the receiver parameter
@@ -672,7 +716,7 @@ public final class UnusedVariable extends BugChecker implements CompilationUnitT
           if (hasRecordFlag(symbol.owner)) {
             return;
           }
-          unusedElements.put(symbol, getCurrentPath());
+          unusedElements.put(symbol, path);
           if (!isParameterSubjectToAnalysis(symbol)) {
             onlyCheckForReassignments.add(symbol);
           }
@@ -682,6 +726,11 @@ public final class UnusedVariable extends BugChecker implements CompilationUnitT
       }
     }
 
+    private boolean exemptedClassBySuperType(Type type, VisitorState state) {
+      return EXEMPTING_SUPER_TYPES.stream()
+          .anyMatch(t -> isSubtype(type, Suppliers.typeFromString(t).get(state), state));
+    }
+
     private boolean exemptedFieldBySuperType(Type type, VisitorState state) {
       return EXEMPTING_FIELD_SUPER_TYPES.stream()
           .anyMatch(t -> isSubtype(type, state.getTypeFromString(t), state));
@@ -747,35 +796,6 @@ public final class UnusedVariable extends BugChecker implements CompilationUnitT
           && method.overrides(
               functionalInterfaceMethod, method.owner.type.tsym, state.getTypes(), true);
     }
-
-    @Override
-    public Void visitTry(TryTree node, Void unused) {
-      // Skip resources, as while these may not be referenced, they are used.
-      scan(node.getBlock(), null);
-      scan(node.getCatches(), null);
-      scan(node.getFinallyBlock(), null);
-      return null;
-    }
-
-    @Override
-    public Void visitClass(ClassTree tree, Void unused) {
-      if (isSuppressed(tree, state)) {
-        return null;
-      }
-      if (EXEMPTING_SUPER_TYPES.stream()
-          .anyMatch(t -> isSubtype(getType(tree), Suppliers.typeFromString(t).get(state), state))) {
-        return null;
-      }
-      return super.visitClass(tree, null);
-    }
-
-    @Override
-    public Void visitMethod(MethodTree tree, Void unused) {
-      if (SERIALIZATION_METHODS.matches(tree, state)) {
-        return scan(tree.getBody(), null);
-      }
-      return isSuppressed(tree, state) ? null : super.visitMethod(tree, unused);
-    }
   }
 
   private static final class FilterUsedVariables extends TreePathScanner<Void, Void> {
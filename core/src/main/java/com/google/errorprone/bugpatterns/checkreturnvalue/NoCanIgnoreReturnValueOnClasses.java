@@ -39,6 +39,7 @@ import com.google.errorprone.fixes.SuggestedFix;
 import com.google.errorprone.matchers.Description;
 import com.google.errorprone.matchers.MultiMatcher;
 import com.google.errorprone.matchers.MultiMatcher.MultiMatchResult;
+import com.google.errorprone.util.AnnotationHandle;
 import com.sun.source.tree.AnnotationTree;
 import com.sun.source.tree.ClassTree;
 import com.sun.source.tree.ExpressionTree;
@@ -74,6 +75,10 @@ import java.util.concurrent.atomic.AtomicBoolean;
 public final class NoCanIgnoreReturnValueOnClasses extends BugChecker implements ClassTreeMatcher {
   private static final String CRV = "com.google.errorprone.annotations.CheckReturnValue";
   private static final String CIRV = "com.google.errorprone.annotations.CanIgnoreReturnValue";
+  private static final AnnotationHandle AUTO_VALUE =
+      AnnotationHandle.of("com.google.auto.value.AutoValue");
+  private static final AnnotationHandle AUTO_VALUE_BUILDER =
+      AnnotationHandle.of("com.google.auto.value.AutoValue.Builder");
 
   private static final String EXTRA_SUFFIX = "";
 
@@ -226,8 +231,8 @@ public final class NoCanIgnoreReturnValueOnClasses extends BugChecker implements
         }
         // if the method is inside an AV or AV.Builder and is abstract (no body), don't add CIRV
         ClassSymbol enclosingClass = enclosingClass(getSymbol(methodTree));
-        if (hasAnnotation(enclosingClass, "com.google.auto.value.AutoValue", state)
-            || hasAnnotation(enclosingClass, "com.google.auto.value.AutoValue.Builder", state)) {
+        if (AUTO_VALUE.isPresent(enclosingClass, state)
+            || AUTO_VALUE_BUILDER.isPresent(enclosingClass, state)) {
           if (methodTree.getBody() == null) {
             return false;
           }
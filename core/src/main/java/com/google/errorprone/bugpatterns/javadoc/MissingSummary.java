@@ -23,7 +23,6 @@ import static com.google.errorprone.bugpatterns.javadoc.Utils.getDocTreePath;
 import static com.google.errorprone.matchers.Description.NO_MATCH;
 import static com.google.errorprone.util.ASTHelpers.findSuperMethods;
 import static com.google.errorprone.util.ASTHelpers.getSymbol;
-import static com.google.errorprone.util.ASTHelpers.hasAnnotation;
 import static com.google.errorprone.util.ASTHelpers.isEffectivelyPrivate;
 import static java.util.stream.Collectors.joining;
 
@@ -35,6 +34,7 @@ import com.google.errorprone.bugpatterns.BugChecker.MethodTreeMatcher;
 import com.google.errorprone.bugpatterns.BugChecker.VariableTreeMatcher;
 import com.google.errorprone.fixes.SuggestedFix;
 import com.google.errorprone.matchers.Description;
+import com.google.errorprone.util.AnnotationHandle;
 import com.sun.source.doctree.DocTree;
 import com.sun.source.doctree.ReturnTree;
 import com.sun.source.doctree.SeeTree;
@@ -66,6 +66,10 @@ import javax.lang.model.element.Modifier;
 public final class MissingSummary extends BugChecker
     implements ClassTreeMatcher, MethodTreeMatcher, VariableTreeMatcher {
 
+  private static final AnnotationHandle OVERRIDE = AnnotationHandle.of("java.lang.Override");
+
+  private static final AnnotationHandle DEPRECATED = AnnotationHandle.of("java.lang.Deprecated");
+
   private static final String CONSIDER_USING_MESSAGE =
       "A summary fragment is required; consider using the value of the @%s block as a "
           + "summary fragment instead.";
@@ -119,8 +123,7 @@ public final class MissingSummary extends BugChecker
     if (!modifiers.contains(Modifier.PUBLIC) && !modifiers.contains(Modifier.PROTECTED)) {
       return NO_MATCH;
     }
-    if (hasAnnotation(symbol, "java.lang.Override", state)
-        || hasAnnotation(symbol, "java.lang.Deprecated", state)) {
+    if (OVERRIDE.isPresent(symbol, state) || DEPRECATED.isPresent(symbol, state)) {
       return NO_MATCH;
     }
     return buildDescription(diagnosticPosition(docTreePath, state)).build();
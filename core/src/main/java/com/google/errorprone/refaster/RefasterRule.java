@@ -135,9 +135,7 @@ public abstract class RefasterRule<M extends TemplateMatch, T extends Template<M
 
   @Override
   public void apply(TreePath path, Context context, DescriptionListener listener) {
-    RefasterScanner.create(this, listener)
-        .scan(
-            path.getLeaf(), prepareContext(context, (JCCompilationUnit) path.getCompilationUnit()));
+    RefasterRuleSet.create(ImmutableList.of(this)).apply(path, context, listener);
   }
 
   boolean rejectMatchesWithComments() {
@@ -146,13 +144,20 @@ public abstract class RefasterRule<M extends TemplateMatch, T extends Template<M
 
   static final Context.Key<ImmutableList<UTypeVar>> RULE_TYPE_VARS = new Context.Key<>();
 
-  private Context prepareContext(Context baseContext, JCCompilationUnit compilationUnit) {
+  /** Returns a context for matching any rule against the given compilation unit. */
+  static Context prepareContext(Context baseContext, JCCompilationUnit compilationUnit) {
     Context context = new SubContext(baseContext);
     if (context.get(JavaFileManager.class) == null) {
       JavacFileManager.preRegister(context);
     }
     context.put(JCCompilationUnit.class, compilationUnit);
     context.put(PackageSymbol.class, compilationUnit.packge);
+    return context;
+  }
+
+  /** Returns a context for matching this rule, given one from {@link #prepareContext}. */
+  Context prepareRuleContext(Context compilationUnitContext) {
+    Context context = new SubContext(compilationUnitContext);
     context.put(RULE_TYPE_VARS, typeVariables());
     return context;
   }
@@ -0,0 +1,576 @@
+/*
+ * Copyright 2024 The Error Prone Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.errorprone.refaster;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.MultimapBuilder;
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.ExpressionTree;
+import com.sun.source.tree.IdentifierTree;
+import com.sun.source.tree.MemberReferenceTree;
+import com.sun.source.tree.MemberSelectTree;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.tree.Tree.Kind;
+import com.sun.source.tree.VariableTree;
+import com.sun.source.util.TreeScanner;
+import com.sun.tools.javac.tree.JCTree.JCAnnotatedType;
+import com.sun.tools.javac.tree.JCTree.JCFieldAccess;
+import com.sun.tools.javac.tree.JCTree.JCIdent;
+import com.sun.tools.javac.tree.JCTree.JCMethodInvocation;
+import com.sun.tools.javac.tree.JCTree.JCNewClass;
+import com.sun.tools.javac.tree.JCTree.JCTypeApply;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+import javax.lang.model.element.Name;
+
+/**
+ * An index over the {@code @BeforeTemplate}s of a list of {@link RefasterRule}s, which returns for
+ * each target node only the templates that could possibly unify with it.
+ *
+ * <p>Templates are bucketed by the kind of the root of their template tree. Method invocation and
+ * constructor call roots are additionally bucketed by the name of the invoked method or class and
+ * by their arity. Templates whose root can unify with more than one kind of tree (placeholders,
+ * identifiers, parentheses, {@code Refaster.anyOf}, ...) are tried against every node.
+ *
+ * <p>Independently of its bucket, each template records the identifiers that any tree it matches
+ * must contain, e.g. the names of the methods it invokes. Templates requiring an identifier that
+ * doesn't occur in the compilation unit being scanned are never tried, see {@link
+ * #unmatchableTemplates}.
+ */
+final class RefasterRuleIndex {
+
+  /** A {@code @BeforeTemplate}, identified by the index of its rule and its index in that rule. */
+  static final class IndexedTemplate {
+    private final int ordinal;
+    private final int ruleIndex;
+    private final int templateIndex;
+
+    private IndexedTemplate(int ordinal, int ruleIndex, int templateIndex) {
+      this.ordinal = ordinal;
+      this.ruleIndex = ruleIndex;
+      this.templateIndex = templateIndex;
+    }
+
+    int ordinal() {
+      return ordinal;
+    }
+
+    int ruleIndex() {
+      return ruleIndex;
+    }
+
+    int templateIndex() {
+      return templateIndex;
+    }
+  }
+
+  /**
+   * Describes which nodes a {@code @BeforeTemplate} could match, so that the index can be built
+   * without the template itself, e.g. from the header of an {@code .analyzer} file.
+   */
+  @AutoValue
+  abstract static class TemplateKey {
+    enum Category {
+      /** The template is tried against every node. */
+      ANY,
+      /** The template is tried against every expression. */
+      EXPRESSION,
+      /** The template is tried against nodes of one of {@link #kinds}. */
+      KINDS,
+      /** The template is tried against invocations of methods called {@link #name}. */
+      INVOCATION,
+      /** The template is tried against instantiations of classes called {@link #name}. */
+      CONSTRUCTOR
+    }
+
+    abstract Category category();
+
+    abstract ImmutableSet<Kind> kinds();
+
+    @Nullable
+    abstract String name();
+
+    /** The number of arguments of an invocation, or {@link #ANY_ARITY}. */
+    abstract int arity();
+
+    /**
+     * Method, field and member reference names that occur in every tree the template matches, see
+     * {@link #identifiersIn}.
+     */
+    abstract ImmutableSet<String> requiredIdentifiers();
+
+    TemplateKey withRequiredIdentifiers(Iterable<String> identifiers) {
+      return new AutoValue_RefasterRuleIndex_TemplateKey(
+          category(), kinds(), name(), arity(), ImmutableSet.copyOf(identifiers));
+    }
+
+    static TemplateKey any() {
+      return create(Category.ANY, ImmutableSet.of(), null, ANY_ARITY);
+    }
+
+    static TemplateKey expression() {
+      return create(Category.EXPRESSION, ImmutableSet.of(), null, ANY_ARITY);
+    }
+
+    static TemplateKey kinds(Iterable<Kind> kinds) {
+      return create(Category.KINDS, ImmutableSet.copyOf(kinds), null, ANY_ARITY);
+    }
+
+    static TemplateKey invocation(String name, int arity) {
+      return create(Category.INVOCATION, ImmutableSet.of(), name, arity);
+    }
+
+    static TemplateKey constructor(String name, int arity) {
+      return create(Category.CONSTRUCTOR, ImmutableSet.of(), name, arity);
+    }
+
+    private static TemplateKey create(
+        Category category, ImmutableSet<Kind> kinds, @Nullable String name, int arity) {
+      return new AutoValue_RefasterRuleIndex_TemplateKey(
+          category, kinds, name, arity, ImmutableSet.of());
+    }
+  }
+
+  /**
+   * Root template classes that unify only with trees of their own kind's interface, so that a
+   * {@code UBinary} for {@code a + b} is tried against every {@code BinaryTree}, and nothing else.
+   */
+  private static final ImmutableSet<Class<? extends UExpression>> KIND_INDEXED_ROOTS =
+      ImmutableSet.of(
+          UArrayAccess.class,
+          UAssign.class,
+          UAssignOp.class,
+          UBinary.class,
+          UConditional.class,
+          UInstanceOf.class,
+          ULambda.class,
+          ULiteral.class,
+          UMemberReference.class,
+          UNewArray.class,
+          UTypeCast.class,
+          UUnary.class);
+
+  private static final ImmutableListMultimap<Class<? extends Tree>, Kind> KINDS_BY_INTERFACE =
+      kindsByInterface();
+
+  private static ImmutableListMultimap<Class<? extends Tree>, Kind> kindsByInterface() {
+    ImmutableListMultimap.Builder<Class<? extends Tree>, Kind> result =
+        ImmutableListMultimap.builder();
+    for (Kind kind : Kind.values()) {
+      if (kind.asInterface() != null) {
+        result.put(kind.asInterface(), kind);
+      }
+    }
+    return result.build();
+  }
+
+  /** Marker arity for invocations whose last template argument is a {@code @Repeated} varargs. */
+  static final int ANY_ARITY = -1;
+
+  /** Returns the key under which the given {@code @BeforeTemplate} should be indexed. */
+  static TemplateKey keyOf(Template<?> template) {
+    return bucketKeyOf(template).withRequiredIdentifiers(requiredIdentifiers(template));
+  }
+
+  private static TemplateKey bucketKeyOf(Template<?> template) {
+    if (template instanceof BlockTemplate) {
+      return TemplateKey.kinds(ImmutableSet.of(Kind.BLOCK));
+    }
+    if (!(template instanceof ExpressionTemplate)) {
+      return TemplateKey.any();
+    }
+    UExpression root = ((ExpressionTemplate) template).expression();
+    if (root instanceof UMethodInvocation) {
+      UMethodInvocation invocation = (UMethodInvocation) root;
+      String name = methodName(invocation.getMethodSelect());
+      return name == null
+          ? TemplateKey.kinds(ImmutableSet.of(Kind.METHOD_INVOCATION))
+          : TemplateKey.invocation(name, arity(invocation.getArguments()));
+    }
+    if (root instanceof UNewClass) {
+      UNewClass newClass = (UNewClass) root;
+      String name = className(newClass.getIdentifier());
+      return name == null
+          ? TemplateKey.kinds(ImmutableSet.of(Kind.NEW_CLASS))
+          : TemplateKey.constructor(name, arity(newClass.getArguments()));
+    }
+    if (KIND_INDEXED_ROOTS.stream().anyMatch(c -> c.isInstance(root))) {
+      return TemplateKey.kinds(KINDS_BY_INTERFACE.get(root.getKind().asInterface()));
+    }
+    return TemplateKey.expression();
+  }
+
+  private static ImmutableSet<String> requiredIdentifiers(Template<?> template) {
+    Set<String> identifiers = new HashSet<>();
+    if (template instanceof ExpressionTemplate) {
+      REQUIRED_IDENTIFIERS_SCANNER.scan(((ExpressionTemplate) template).expression(), identifiers);
+    } else if (template instanceof BlockTemplate) {
+      REQUIRED_IDENTIFIERS_SCANNER.scan(
+          ((BlockTemplate) template).templateStatements(), identifiers);
+    }
+    return ImmutableSet.copyOf(identifiers);
+  }
+
+  /**
+   * Collects the names that a target tree must contain to unify with a template tree. Parts of the
+   * template that don't necessarily unify with anything in the target, such as placeholders and
+   * {@code @Repeated} arguments, are skipped, and only the names common to all alternatives of a
+   * {@code Refaster.anyOf} are required.
+   */
+  private static final TreeScanner<Void, Set<String>> REQUIRED_IDENTIFIERS_SCANNER =
+      new TreeScanner<Void, Set<String>>() {
+        @Override
+        public Void scan(Tree tree, Set<String> identifiers) {
+          if (tree instanceof URepeated) {
+            return null;
+          }
+          if (tree instanceof UAnyOf) {
+            Set<String> common = null;
+            for (UExpression alternative : ((UAnyOf) tree).expressions()) {
+              Set<String> required = new HashSet<>();
+              scan(alternative, required);
+              if (common == null) {
+                common = required;
+              } else {
+                common.retainAll(required);
+              }
+            }
+            if (common != null) {
+              identifiers.addAll(common);
+            }
+            return null;
+          }
+          return super.scan(tree, identifiers);
+        }
+
+        @Override
+        public Void visitMemberSelect(MemberSelectTree tree, Set<String> identifiers) {
+          identifiers.add(tree.getIdentifier().toString());
+          return super.visitMemberSelect(tree, identifiers);
+        }
+
+        @Override
+        public Void visitIdentifier(IdentifierTree tree, Set<String> identifiers) {
+          // Only static member references are spelled the same in every matching tree.
+          if (tree instanceof UStaticIdent) {
+            identifiers.add(((UStaticIdent) tree).getName().contents());
+          }
+          return null;
+        }
+
+        @Override
+        public Void visitMemberReference(MemberReferenceTree tree, Set<String> identifiers) {
+          identifiers.add(tree.getName().toString());
+          return super.visitMemberReference(tree, identifiers);
+        }
+      };
+
+  /**
+   * Returns the names of the identifiers, member selects, member references and declarations in
+   * {@code tree}, which is a superset of the {@link TemplateKey#requiredIdentifiers} of any
+   * template that matches part of it.
+   */
+  static Set<String> identifiersIn(Tree tree) {
+    Set<Name> names = new HashSet<>();
+    new TreeScanner<Void, Void>() {
+      @Override
+      public Void visitIdentifier(IdentifierTree node, Void v) {
+        names.add(node.getName());
+        return null;
+      }
+
+      @Override
+      public Void visitMemberSelect(MemberSelectTree node, Void v) {
+        names.add(node.getIdentifier());
+        return super.visitMemberSelect(node, null);
+      }
+
+      @Override
+      public Void visitMemberReference(MemberReferenceTree node, Void v) {
+        names.add(node.getName());
+        return super.visitMemberReference(node, null);
+      }
+
+      @Override
+      public Void visitClass(ClassTree node, Void v) {
+        names.add(node.getSimpleName());
+        return super.visitClass(node, null);
+      }
+
+      @Override
+      public Void visitMethod(MethodTree node, Void v) {
+        names.add(node.getName());
+        return super.visitMethod(node, null);
+      }
+
+      @Override
+      public Void visitVariable(VariableTree node, Void v) {
+        names.add(node.getName());
+        return super.visitVariable(node, null);
+      }
+    }.scan(tree, null);
+    // Names are interned, so this converts each distinct name only once.
+    Set<String> result = new HashSet<>();
+    for (Name name : names) {
+      result.add(name.toString());
+    }
+    return result;
+  }
+
+  static RefasterRuleIndex create(List<? extends RefasterRule<?, ?>> rules) {
+    return create(
+        rules.stream()
+            .map(
+                rule ->
+                    rule.beforeTemplates().stream()
+                        .map(RefasterRuleIndex::keyOf)
+                        .collect(toImmutableList()))
+            .collect(toImmutableList()));
+  }
+
+  /**
+   * Creates an index from the keys of the {@code @BeforeTemplate}s of each rule, in declaration
+   * order.
+   */
+  static RefasterRuleIndex create(ImmutableList<ImmutableList<TemplateKey>> keysByRule) {
+    ListMultimap<Kind, IndexedTemplate> byKind =
+        MultimapBuilder.enumKeys(Kind.class).arrayListValues().build();
+    Map<String, ListMultimap<Integer, IndexedTemplate>> invocations = new LinkedHashMap<>();
+    Map<String, ListMultimap<Integer, IndexedTemplate>> constructors = new LinkedHashMap<>();
+    ImmutableList.Builder<IndexedTemplate> expressions = ImmutableList.builder();
+    ImmutableList.Builder<IndexedTemplate> unindexed = ImmutableList.builder();
+    ImmutableList.Builder<ImmutableSet<String>> requiredIdentifiers = ImmutableList.builder();
+
+    int ordinal = 0;
+    for (int ruleIndex = 0; ruleIndex < keysByRule.size(); ruleIndex++) {
+      ImmutableList<TemplateKey> keys = keysByRule.get(ruleIndex);
+      for (int templateIndex = 0; templateIndex < keys.size(); templateIndex++) {
+        IndexedTemplate indexed = new IndexedTemplate(ordinal++, ruleIndex, templateIndex);
+        TemplateKey key = keys.get(templateIndex);
+        requiredIdentifiers.add(key.requiredIdentifiers());
+        switch (key.category()) {
+          case ANY:
+            unindexed.add(indexed);
+            break;
+          case EXPRESSION:
+            expressions.add(indexed);
+            break;
+          case KINDS:
+            for (Kind kind : key.kinds()) {
+              byKind.put(kind, indexed);
+            }
+            break;
+          case INVOCATION:
+            bucket(invocations, key.name()).put(key.arity(), indexed);
+            break;
+          case CONSTRUCTOR:
+            bucket(constructors, key.name()).put(key.arity(), indexed);
+            break;
+        }
+      }
+    }
+    return new RefasterRuleIndex(
+        ImmutableListMultimap.copyOf(byKind),
+        freeze(invocations),
+        freeze(constructors),
+        expressions.build(),
+        unindexed.build(),
+        requiredIdentifiers.build());
+  }
+
+  private static ListMultimap<Integer, IndexedTemplate> bucket(
+      Map<String, ListMultimap<Integer, IndexedTemplate>> buckets, String name) {
+    return buckets.computeIfAbsent(name, k -> MultimapBuilder.hashKeys().arrayListValues().build());
+  }
+
+  private static ImmutableMap<String, ImmutableListMultimap<Integer, IndexedTemplate>> freeze(
+      Map<String, ListMultimap<Integer, IndexedTemplate>> buckets) {
+    ImmutableMap.Builder<String, ImmutableListMultimap<Integer, IndexedTemplate>> result =
+        ImmutableMap.builder();
+    buckets.forEach((name, bucket) -> result.put(name, ImmutableListMultimap.copyOf(bucket)));
+    return result.buildOrThrow();
+  }
+
+  /** Returns the simple name of the method a template invokes, or null if it can vary. */
+  @Nullable
+  private static String methodName(UExpression methodSelect) {
+    if (methodSelect instanceof UMemberSelect) {
+      return ((UMemberSelect) methodSelect).getIdentifier().contents();
+    }
+    if (methodSelect instanceof UStaticIdent) {
+      return ((UStaticIdent) methodSelect).getName().contents();
+    }
+    return null;
+  }
+
+  /** Returns the simple name of the class a template instantiates, or null if it can vary. */
+  @Nullable
+  private static String className(UExpression identifier) {
+    if (identifier instanceof UTypeApply) {
+      return className(((UTypeApply) identifier).getType());
+    }
+    if (identifier instanceof UClassIdent) {
+      String qualifiedName = ((UClassIdent) identifier).getName().contents();
+      return qualifiedName.substring(qualifiedName.lastIndexOf('.') + 1);
+    }
+    return null;
+  }
+
+  private static int arity(List<UExpression> arguments) {
+    return arguments.stream().anyMatch(URepeated.class::isInstance) ? ANY_ARITY : arguments.size();
+  }
+
+  private final ImmutableListMultimap<Kind, IndexedTemplate> byKind;
+  private final ImmutableMap<String, ImmutableListMultimap<Integer, IndexedTemplate>> invocations;
+  private final ImmutableMap<String, ImmutableListMultimap<Integer, IndexedTemplate>> constructors;
+  private final ImmutableList<IndexedTemplate> expressions;
+  private final ImmutableList<IndexedTemplate> unindexed;
+
+  /** The required identifiers of each template, by ordinal. */
+  private final ImmutableList<ImmutableSet<String>> requiredIdentifiers;
+
+  private final boolean hasRequiredIdentifiers;
+
+  private RefasterRuleIndex(
+      ImmutableListMultimap<Kind, IndexedTemplate> byKind,
+      ImmutableMap<String, ImmutableListMultimap<Integer, IndexedTemplate>> invocations,
+      ImmutableMap<String, ImmutableListMultimap<Integer, IndexedTemplate>> constructors,
+      ImmutableList<IndexedTemplate> expressions,
+      ImmutableList<IndexedTemplate> unindexed,
+      ImmutableList<ImmutableSet<String>> requiredIdentifiers) {
+    this.byKind = byKind;
+    this.invocations = invocations;
+    this.constructors = constructors;
+    this.expressions = expressions;
+    this.unindexed = unindexed;
+    this.requiredIdentifiers = requiredIdentifiers;
+    this.hasRequiredIdentifiers =
+        requiredIdentifiers.stream().anyMatch(identifiers -> !identifiers.isEmpty());
+  }
+
+  int templateCount() {
+    return requiredIdentifiers.size();
+  }
+
+  /** Returns whether any template requires an identifier, i.e. could be ruled out by name. */
+  boolean hasRequiredIdentifiers() {
+    return hasRequiredIdentifiers;
+  }
+
+  /**
+   * Returns the ordinals of the templates that require an identifier that isn't in {@code
+   * identifiers}, and so can't match any part of a tree with those {@link #identifiersIn
+   * identifiers}.
+   */
+  BitSet unmatchableTemplates(Set<String> identifiers) {
+    BitSet result = new BitSet(requiredIdentifiers.size());
+    for (int ordinal = 0; ordinal < requiredIdentifiers.size(); ordinal++) {
+      if (!identifiers.containsAll(requiredIdentifiers.get(ordinal))) {
+        result.set(ordinal);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the templates that could match {@code tree}, in the order the rules and their templates
+   * were declared.
+   */
+  List<IndexedTemplate> candidates(Tree tree) {
+    List<List<IndexedTemplate>> buckets = new ArrayList<>(5);
+    addIfNotEmpty(buckets, unindexed);
+    if (tree instanceof ExpressionTree) {
+      addIfNotEmpty(buckets, expressions);
+    }
+    addIfNotEmpty(buckets, byKind.get(tree.getKind()));
+    if (tree instanceof JCMethodInvocation) {
+      JCMethodInvocation invocation = (JCMethodInvocation) tree;
+      addInvocationBuckets(
+          buckets, invocations, simpleName(invocation.getMethodSelect()), invocation.args.size());
+    } else if (tree instanceof JCNewClass) {
+      JCNewClass newClass = (JCNewClass) tree;
+      addInvocationBuckets(
+          buckets, constructors, simpleName(newClass.getIdentifier()), newClass.args.size());
+    }
+    switch (buckets.size()) {
+      case 0:
+        return ImmutableList.of();
+      case 1:
+        return buckets.get(0);
+      default:
+        List<IndexedTemplate> result = new ArrayList<>();
+        buckets.forEach(result::addAll);
+        result.sort(Comparator.comparingInt(t -> t.ordinal));
+        return result;
+    }
+  }
+
+  private static void addInvocationBuckets(
+      List<List<IndexedTemplate>> buckets,
+      ImmutableMap<String, ImmutableListMultimap<Integer, IndexedTemplate>> byName,
+      @Nullable String name,
+      int arity) {
+    if (name == null) {
+      return;
+    }
+    ImmutableListMultimap<Integer, IndexedTemplate> byArity = byName.get(name);
+    if (byArity != null) {
+      addIfNotEmpty(buckets, byArity.get(arity));
+      addIfNotEmpty(buckets, byArity.get(ANY_ARITY));
+    }
+  }
+
+  private static void addIfNotEmpty(
+      List<List<IndexedTemplate>> buckets, List<IndexedTemplate> bucket) {
+    if (!bucket.isEmpty()) {
+      buckets.add(bucket);
+    }
+  }
+
+  /** Returns the simple name referenced by a method select or class identifier tree. */
+  @Nullable
+  private static String simpleName(Tree tree) {
+    if (tree instanceof JCTypeApply) {
+      return simpleName(((JCTypeApply) tree).getType());
+    }
+    if (tree instanceof JCAnnotatedType) {
+      return simpleName(((JCAnnotatedType) tree).getUnderlyingType());
+    }
+    if (tree instanceof JCIdent) {
+      return ((JCIdent) tree).getName().toString();
+    }
+    if (tree instanceof JCFieldAccess) {
+      return ((JCFieldAccess) tree).getIdentifier().toString();
+    }
+    return null;
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2024 The Error Prone Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.errorprone.refaster;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableClassToInstanceMap;
+import com.google.common.collect.ImmutableList;
+import com.google.errorprone.CodeTransformer;
+import com.google.errorprone.CompositeCodeTransformer;
+import com.google.errorprone.DescriptionListener;
+import com.sun.source.util.TreePath;
+import com.sun.tools.javac.tree.JCTree.JCCompilationUnit;
+import com.sun.tools.javac.util.Context;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.lang.annotation.Annotation;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link CodeTransformer} that applies a list of {@link RefasterRule}s in a single traversal,
+ * using a {@link RefasterRuleIndex} to only try the templates that could match each node.
+ *
+ * <p>Rule sets are serialized in the compact format of {@link RefasterRuleSetCodec}. A deserialized
+ * rule set, e.g. one loaded from an {@code .analyzer} file, builds its index from the header of
+ * that format, and only decodes a rule once one of its templates is a candidate for a match.
+ */
+public final class RefasterRuleSet implements CodeTransformer, Serializable {
+
+  /**
+   * Combines the given transformers into one. If they are all Refaster rules, they will be applied
+   * in a single traversal.
+   */
+  public static CodeTransformer compose(Iterable<? extends CodeTransformer> transformers) {
+    ImmutableList.Builder<RefasterRule<?, ?>> rules = ImmutableList.builder();
+    for (CodeTransformer transformer : transformers) {
+      if (!(transformer instanceof RefasterRule)) {
+        return CompositeCodeTransformer.compose(transformers);
+      }
+      rules.add((RefasterRule<?, ?>) transformer);
+    }
+    return create(rules.build());
+  }
+
+  public static RefasterRuleSet create(Iterable<? extends RefasterRule<?, ?>> rules) {
+    ImmutableList<RefasterRule<?, ?>> ruleList = ImmutableList.copyOf(rules);
+    AtomicReferenceArray<RefasterRule<?, ?>> decoded = new AtomicReferenceArray<>(ruleList.size());
+    for (int i = 0; i < ruleList.size(); i++) {
+      decoded.set(i, ruleList.get(i));
+    }
+    return new RefasterRuleSet(
+        ruleList.stream().map(RefasterRule::qualifiedTemplateClass).collect(toImmutableList()),
+        RefasterRuleIndex.create(ruleList),
+        decoded,
+        /* decoder= */ null,
+        /* encoded= */ null);
+  }
+
+  /**
+   * Creates a rule set whose rules are decoded on demand.
+   *
+   * @param decoder decodes the rule with the given index; called at most once per rule
+   * @param encoded the encoded form of the rule set, which is reused if it is serialized again
+   */
+  static RefasterRuleSet createLazily(
+      ImmutableList<String> templateClasses,
+      RefasterRuleIndex index,
+      IntFunction<RefasterRule<?, ?>> decoder,
+      byte[] encoded) {
+    return new RefasterRuleSet(
+        templateClasses,
+        index,
+        new AtomicReferenceArray<>(templateClasses.size()),
+        decoder,
+        encoded);
+  }
+
+  private final ImmutableList<String> templateClasses;
+  private final RefasterRuleIndex index;
+  private final AtomicReferenceArray<RefasterRule<?, ?>> rules;
+
+  /** Decodes rules that haven't been decoded yet; null if all rules were decoded on creation. */
+  @Nullable private final IntFunction<RefasterRule<?, ?>> decoder;
+
+  @Nullable private final byte[] encoded;
+
+  private RefasterRuleSet(
+      ImmutableList<String> templateClasses,
+      RefasterRuleIndex index,
+      AtomicReferenceArray<RefasterRule<?, ?>> rules,
+      @Nullable IntFunction<RefasterRule<?, ?>> decoder,
+      @Nullable byte[] encoded) {
+    this.templateClasses = templateClasses;
+    this.index = index;
+    this.rules = rules;
+    this.decoder = decoder;
+    this.encoded = encoded;
+  }
+
+  /** Returns the rules of this set, decoding any that have not been decoded yet. */
+  public ImmutableList<RefasterRule<?, ?>> rules() {
+    ImmutableList.Builder<RefasterRule<?, ?>> result = ImmutableList.builder();
+    for (int i = 0; i < size(); i++) {
+      result.add(rule(i));
+    }
+    return result.build();
+  }
+
+  int size() {
+    return templateClasses.size();
+  }
+
+  /** Returns the qualified name of the class declaring the rule with the given index. */
+  String templateClass(int ruleIndex) {
+    return templateClasses.get(ruleIndex);
+  }
+
+  RefasterRule<?, ?> rule(int ruleIndex) {
+    RefasterRule<?, ?> rule = rules.get(ruleIndex);
+    if (rule == null) {
+      // Decoding is idempotent, so racing threads may both decode the rule.
+      rule = decoder.apply(ruleIndex);
+      if (!rules.compareAndSet(ruleIndex, null, rule)) {
+        rule = rules.get(ruleIndex);
+      }
+    }
+    return rule;
+  }
+
+  RefasterRuleIndex index() {
+    return index;
+  }
+
+  @VisibleForTesting
+  int decodedRuleCount() {
+    int count = 0;
+    for (int i = 0; i < size(); i++) {
+      if (rules.get(i) != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public void apply(TreePath path, Context context, DescriptionListener listener) {
+    if (size() == 0) {
+      return;
+    }
+    RefasterScanner.create(this, context, (JCCompilationUnit) path.getCompilationUnit(), listener)
+        .scanAndReport(path.getLeaf());
+  }
+
+  @Override
+  public ImmutableClassToInstanceMap<Annotation> annotations() {
+    return ImmutableClassToInstanceMap.of();
+  }
+
+  private Object writeReplace() {
+    return new SerializedForm(encoded != null ? encoded : RefasterRuleSetCodec.encode(rules()));
+  }
+
+  private void readObject(ObjectInputStream in) throws InvalidObjectException {
+    throw new InvalidObjectException("Use SerializedForm");
+  }
+
+  /** The serialized form of a {@link RefasterRuleSet}. */
+  private static final class SerializedForm implements Serializable {
+    private final byte[] encoded;
+
+    SerializedForm(byte[] encoded) {
+      this.encoded = encoded;
+    }
+
+    private Object readResolve() throws ObjectStreamException {
+      return RefasterRuleSetCodec.decode(encoded);
+    }
+
+    private static final long serialVersionUID = 1;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof RefasterRuleSet && rules().equals(((RefasterRuleSet) o).rules());
+  }
+
+  @Override
+  public int hashCode() {
+    return rules().hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return "RefasterRuleSet" + templateClasses;
+  }
+}
@@ -0,0 +1,1067 @@
+/*
+ * Copyright 2024 The Error Prone Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.errorprone.refaster;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static com.google.common.collect.Iterables.getOnlyElement;
+
+import com.google.common.collect.ImmutableClassToInstanceMap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.Primitives;
+import com.google.errorprone.refaster.RefasterRuleIndex.TemplateKey;
+import com.sun.source.tree.Tree.Kind;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.lang.annotation.Annotation;
+import java.lang.annotation.IncompleteAnnotationException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.MirroredTypesException;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+
+/**
+ * The binary format of a serialized {@link RefasterRuleSet}, which is what {@code .analyzer} files
+ * contain.
+ *
+ * <p>The format consists of:
+ *
+ * <ul>
+ *   <li>a magic number and a format version;
+ *   <li>a table of interned strings, referenced by index from the rest of the file;
+ *   <li>a table of the classes of the nodes the rules are made of, with the name and type of each
+ *       component the class had when the file was written;
+ *   <li>a header with, for each rule, the name of its template class, the {@link TemplateKey} of
+ *       each of its {@code @BeforeTemplate}s (including its required identifiers), and the length
+ *       of its body;
+ *   <li>the body of each rule.
+ * </ul>
+ *
+ * <p>The header is enough to build the {@link RefasterRuleIndex}, so rule bodies are only decoded
+ * once one of their templates is a candidate for a match. Each body is the rule's tree of nodes,
+ * written depth first: a node is a reference to its class in the class table followed by its
+ * components, and a node reached a second time is a reference to its first occurrence. Nodes are
+ * built back through their constructors or factories rather than Java serialization, so decoding
+ * checks up front that every class in the table still has the components it was written with, and
+ * rejects the file otherwise. The other values rules hold (strings, primitives, enums, classes,
+ * immutable collections and annotations) are each written with a tag of their own.
+ */
+final class RefasterRuleSetCodec {
+  private static final int MAGIC = 0x52465253; // "RFRS"
+
+  /** The format version; increment it whenever the format changes. */
+  private static final int VERSION = 4;
+
+  static byte[] encode(List<RefasterRule<?, ?>> rules) {
+    try {
+      StringTable strings = new StringTable();
+      ClassTable classes = new ClassTable();
+      ByteArrayOutputStream bodies = new ByteArrayOutputStream();
+      DataOutputStream bodiesOut = new DataOutputStream(bodies);
+      ByteArrayOutputStream header = new ByteArrayOutputStream();
+      DataOutputStream headerOut = new DataOutputStream(header);
+      writeVarInt(headerOut, rules.size());
+      for (RefasterRule<?, ?> rule : rules) {
+        int start = bodies.size();
+        new NodeWriter(bodiesOut, strings, classes).writeValue(rule);
+        writeVarInt(headerOut, strings.id(rule.qualifiedTemplateClass()));
+        writeVarInt(headerOut, bodies.size() - start);
+        writeVarInt(headerOut, rule.beforeTemplates().size());
+        for (Template<?> template : rule.beforeTemplates()) {
+          writeKey(headerOut, RefasterRuleIndex.keyOf(template), strings);
+        }
+      }
+
+      ByteArrayOutputStream classTable = new ByteArrayOutputStream();
+      DataOutputStream classTableOut = new DataOutputStream(classTable);
+      writeVarInt(classTableOut, classes.size());
+      for (NodeType type : classes.types()) {
+        writeVarInt(classTableOut, strings.id(type.type.getName()));
+        writeVarInt(classTableOut, type.components.size());
+        for (String component : type.components) {
+          writeVarInt(classTableOut, strings.id(component));
+        }
+      }
+
+      ByteArrayOutputStream result = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(result);
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      writeVarInt(out, strings.size());
+      for (String string : strings.strings()) {
+        out.writeUTF(string);
+      }
+      classTable.writeTo(out);
+      header.writeTo(out);
+      bodies.writeTo(out);
+      out.flush();
+      return result.toByteArray();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  static RefasterRuleSet decode(byte[] encoded) throws InvalidObjectException {
+    try {
+      ByteArrayInputStream bytes = new ByteArrayInputStream(encoded);
+      DataInputStream in = new DataInputStream(bytes);
+      if (in.readInt() != MAGIC) {
+        throw new InvalidObjectException("Not a compiled Refaster rule set");
+      }
+      int version = in.readInt();
+      if (version != VERSION) {
+        throw new InvalidObjectException(
+            String.format(
+                "Compiled Refaster rule set has format version %d, but only version %d is"
+                    + " supported; recompile the rules",
+                version, VERSION));
+      }
+      String[] strings = new String[readVarInt(in)];
+      for (int i = 0; i < strings.length; i++) {
+        strings[i] = in.readUTF();
+      }
+      NodeType[] classes = new NodeType[readVarInt(in)];
+      for (int i = 0; i < classes.length; i++) {
+        String name = strings[readVarInt(in)];
+        String[] components = new String[readVarInt(in)];
+        for (int j = 0; j < components.length; j++) {
+          components[j] = strings[readVarInt(in)];
+        }
+        classes[i] = localNodeType(name, Arrays.asList(components));
+      }
+
+      int ruleCount = readVarInt(in);
+      ImmutableList.Builder<String> templateClasses = ImmutableList.builder();
+      ImmutableList.Builder<ImmutableList<TemplateKey>> keys = ImmutableList.builder();
+      int[] bodyLengths = new int[ruleCount];
+      for (int i = 0; i < ruleCount; i++) {
+        templateClasses.add(strings[readVarInt(in)]);
+        bodyLengths[i] = readVarInt(in);
+        ImmutableList.Builder<TemplateKey> ruleKeys = ImmutableList.builder();
+        int templateCount = readVarInt(in);
+        for (int j = 0; j < templateCount; j++) {
+          ruleKeys.add(readKey(in, strings));
+        }
+        keys.add(ruleKeys.build());
+      }
+      int[] bodyOffsets = new int[ruleCount];
+      int offset = encoded.length - bytes.available();
+      for (int i = 0; i < ruleCount; i++) {
+        bodyOffsets[i] = offset;
+        offset += bodyLengths[i];
+      }
+
+      ImmutableList<String> templateClassList = templateClasses.build();
+      return RefasterRuleSet.createLazily(
+          templateClassList,
+          RefasterRuleIndex.create(keys.build()),
+          i ->
+              decodeRule(
+                  encoded,
+                  bodyOffsets[i],
+                  bodyLengths[i],
+                  strings,
+                  classes,
+                  templateClassList.get(i)),
+          encoded);
+    } catch (InvalidObjectException e) {
+      throw e;
+    } catch (IOException | RuntimeException e) {
+      InvalidObjectException invalid = new InvalidObjectException("Malformed Refaster rule set");
+      invalid.initCause(e);
+      throw invalid;
+    }
+  }
+
+  private static RefasterRule<?, ?> decodeRule(
+      byte[] encoded,
+      int offset,
+      int length,
+      String[] strings,
+      NodeType[] classes,
+      String templateClass) {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded, offset, length));
+    try {
+      return (RefasterRule<?, ?>) new NodeReader(in, strings, classes).readValue();
+    } catch (IOException | ReflectiveOperationException | RuntimeException e) {
+      throw new IllegalStateException("Can't decode Refaster rule " + templateClass, e);
+    }
+  }
+
+  /**
+   * Returns the local {@link NodeType} of the class {@code name}, checking that its components are
+   * the ones recorded when the rule set was written.
+   */
+  static NodeType localNodeType(String name, List<String> components)
+      throws InvalidObjectException {
+    NodeType type;
+    try {
+      type = nodeType(loadClass(name));
+    } catch (ClassNotFoundException e) {
+      InvalidObjectException invalid =
+          new InvalidObjectException(
+              "Compiled Refaster rule set uses class " + name + ", which no longer exists;"
+                  + " recompile the rules");
+      invalid.initCause(e);
+      throw invalid;
+    } catch (IllegalArgumentException e) {
+      InvalidObjectException invalid =
+          new InvalidObjectException(
+              "Compiled Refaster rule set uses class " + name + ", which is no longer a Refaster"
+                  + " node; recompile the rules");
+      invalid.initCause(e);
+      throw invalid;
+    }
+    if (!type.components.equals(components)) {
+      throw new InvalidObjectException(
+          "The components of " + name + " have changed since the Refaster rule set was compiled;"
+              + " recompile the rules");
+    }
+    return type;
+  }
+
+  /**
+   * Returns how nodes of class {@code type} are encoded.
+   *
+   * @throws IllegalArgumentException if {@code type} isn't a class Refaster rules are made of
+   */
+  static NodeType nodeType(Class<?> type) {
+    if (type == USkip.class) {
+      return new NodeType(type, ImmutableList.of()) {
+        @Override
+        Object[] componentsOf(Object node) {
+          return new Object[0];
+        }
+
+        @Override
+        Object create(Object[] components) {
+          return USkip.INSTANCE;
+        }
+      };
+    }
+    if (type == UBreak.class) {
+      return new NodeType(type, ImmutableList.of(component("label", StringName.class))) {
+        @Override
+        Object[] componentsOf(Object node) {
+          return new Object[] {((UBreak) node).getLabel()};
+        }
+
+        @Override
+        Object create(Object[] components) {
+          return new UBreak((StringName) components[0]);
+        }
+      };
+    }
+    if (type == UTypeVar.class) {
+      // NodeReader creates type variables itself, since their bounds can refer back to them.
+      return new NodeType(
+          type,
+          ImmutableList.of(
+              component("name", String.class),
+              component("lowerBound", UType.class),
+              component("upperBound", UType.class))) {
+        @Override
+        Object[] componentsOf(Object node) {
+          UTypeVar typeVar = (UTypeVar) node;
+          return new Object[] {
+            typeVar.getName(), typeVar.getLowerBound(), typeVar.getUpperBound()
+          };
+        }
+
+        @Override
+        Object create(Object[] components) {
+          return UTypeVar.create(
+              (String) components[0], (UType) components[1], (UType) components[2]);
+        }
+      };
+    }
+    if (PlaceholderMethod.class.isAssignableFrom(type)) {
+      // The matcher of a placeholder method is derived from its annotations.
+      return new NodeType(
+          type,
+          ImmutableList.of(
+              component("name", StringName.class),
+              component("returnType", UType.class),
+              component("annotatedParameters", ImmutableMap.class),
+              component("annotations", ImmutableClassToInstanceMap.class))) {
+        @Override
+        Object[] componentsOf(Object node) {
+          PlaceholderMethod method = (PlaceholderMethod) node;
+          return new Object[] {
+            method.name(), method.returnType(), method.annotatedParameters(), method.annotations()
+          };
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Object create(Object[] components) {
+          return PlaceholderMethod.create(
+              (StringName) components[0],
+              (UType) components[1],
+              (ImmutableMap<UVariableDecl, ImmutableClassToInstanceMap<Annotation>>)
+                  components[2],
+              (ImmutableClassToInstanceMap<Annotation>) components[3]);
+        }
+      };
+    }
+    if (type.getSimpleName().startsWith("AutoValue_")) {
+      return autoValueNodeType(type);
+    }
+    throw new IllegalArgumentException(type.getName() + " is not a Refaster node");
+  }
+
+  /** Encodes the nodes of an AutoValue class as the fields its generated constructor assigns. */
+  private static NodeType autoValueNodeType(Class<?> type) {
+    List<Field> fields = new ArrayList<>();
+    for (Field field : type.getDeclaredFields()) {
+      if (!Modifier.isStatic(field.getModifiers())) {
+        field.setAccessible(true);
+        fields.add(field);
+      }
+    }
+    Constructor<?>[] constructors = type.getDeclaredConstructors();
+    if (constructors.length != 1
+        || !Arrays.equals(
+            constructors[0].getParameterTypes(),
+            fields.stream().map(Field::getType).toArray(Class<?>[]::new))) {
+      throw new IllegalArgumentException(
+          type.getName() + " doesn't have a constructor taking each of its fields");
+    }
+    Constructor<?> constructor = constructors[0];
+    constructor.setAccessible(true);
+    return new NodeType(
+        type,
+        fields.stream().map(f -> component(f.getName(), f.getType())).collect(toImmutableList())) {
+      @Override
+      Object[] componentsOf(Object node) throws IllegalAccessException {
+        Object[] components = new Object[fields.size()];
+        for (int i = 0; i < components.length; i++) {
+          components[i] = fields.get(i).get(node);
+        }
+        return components;
+      }
+
+      @Override
+      Object create(Object[] components) throws ReflectiveOperationException {
+        return constructor.newInstance(components);
+      }
+    };
+  }
+
+  private static String component(String name, Class<?> type) {
+    return name + ' ' + type.getName();
+  }
+
+  /** How the nodes of one class are broken down into components, and built back from them. */
+  abstract static class NodeType {
+    final Class<?> type;
+
+    /** The name and type of each component, which must match between writer and reader. */
+    final ImmutableList<String> components;
+
+    NodeType(Class<?> type, ImmutableList<String> components) {
+      this.type = type;
+      this.components = components;
+    }
+
+    /** Returns the components of {@code node}, in the order of {@link #components}. */
+    abstract Object[] componentsOf(Object node) throws ReflectiveOperationException;
+
+    /** Builds a node from its components. */
+    abstract Object create(Object[] components) throws ReflectiveOperationException;
+  }
+
+  private static final int NULL_TAG = 0;
+  private static final int REFERENCE_TAG = 1;
+  private static final int NODE_TAG = 2;
+  private static final int STRING_TAG = 3;
+  private static final int BOOLEAN_TAG = 4;
+  private static final int BYTE_TAG = 5;
+  private static final int SHORT_TAG = 6;
+  private static final int CHAR_TAG = 7;
+  private static final int INT_TAG = 8;
+  private static final int LONG_TAG = 9;
+  private static final int FLOAT_TAG = 10;
+  private static final int DOUBLE_TAG = 11;
+  private static final int ENUM_TAG = 12;
+  private static final int CLASS_TAG = 13;
+  private static final int UUID_TAG = 14;
+  private static final int LIST_TAG = 15;
+  private static final int SET_TAG = 16;
+  private static final int MAP_TAG = 17;
+  private static final int CLASS_TO_INSTANCE_MAP_TAG = 18;
+  private static final int ANNOTATION_TAG = 19;
+  private static final int ARRAY_TAG = 20;
+
+  /** Writes the body of one rule. */
+  private static final class NodeWriter {
+    private final DataOutput out;
+    private final StringTable strings;
+    private final ClassTable classes;
+
+    /** The nodes written so far, by the order in which they were first written. */
+    private final Map<Object, Integer> handles = new IdentityHashMap<>();
+
+    NodeWriter(DataOutput out, StringTable strings, ClassTable classes) {
+      this.out = out;
+      this.strings = strings;
+      this.classes = classes;
+    }
+
+    void writeValue(@Nullable Object value) throws IOException {
+      if (value == null) {
+        out.writeByte(NULL_TAG);
+      } else if (value instanceof String) {
+        out.writeByte(STRING_TAG);
+        writeString((String) value);
+      } else if (value instanceof Boolean) {
+        out.writeByte(BOOLEAN_TAG);
+        out.writeBoolean((Boolean) value);
+      } else if (value instanceof Byte) {
+        out.writeByte(BYTE_TAG);
+        out.writeByte((Byte) value);
+      } else if (value instanceof Short) {
+        out.writeByte(SHORT_TAG);
+        out.writeShort((Short) value);
+      } else if (value instanceof Character) {
+        out.writeByte(CHAR_TAG);
+        out.writeChar((Character) value);
+      } else if (value instanceof Integer) {
+        out.writeByte(INT_TAG);
+        writeVarInt(out, (Integer) value);
+      } else if (value instanceof Long) {
+        out.writeByte(LONG_TAG);
+        out.writeLong((Long) value);
+      } else if (value instanceof Float) {
+        out.writeByte(FLOAT_TAG);
+        out.writeFloat((Float) value);
+      } else if (value instanceof Double) {
+        out.writeByte(DOUBLE_TAG);
+        out.writeDouble((Double) value);
+      } else if (value instanceof Enum) {
+        // Enums are written by name, since the ordinals of javac's enums vary between JDK versions.
+        Enum<?> constant = (Enum<?>) value;
+        out.writeByte(ENUM_TAG);
+        writeString(constant.getDeclaringClass().getName());
+        writeString(constant.name());
+      } else if (value instanceof Class) {
+        writeClass(((Class<?>) value).getName());
+      } else if (value instanceof UUID) {
+        UUID uuid = (UUID) value;
+        out.writeByte(UUID_TAG);
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+      } else if (value instanceof ImmutableList || value instanceof ImmutableSet) {
+        Collection<?> collection = (Collection<?>) value;
+        out.writeByte(value instanceof ImmutableList ? LIST_TAG : SET_TAG);
+        writeVarInt(out, collection.size());
+        for (Object element : collection) {
+          writeValue(element);
+        }
+      } else if (value instanceof ImmutableMap || value instanceof ImmutableClassToInstanceMap) {
+        Map<?, ?> map = (Map<?, ?>) value;
+        out.writeByte(value instanceof ImmutableMap ? MAP_TAG : CLASS_TO_INSTANCE_MAP_TAG);
+        writeVarInt(out, map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+          writeValue(entry.getKey());
+          writeValue(entry.getValue());
+        }
+      } else if (value instanceof Annotation) {
+        writeAnnotation((Annotation) value);
+      } else if (value.getClass().isArray()) {
+        int length = Array.getLength(value);
+        out.writeByte(ARRAY_TAG);
+        writeString(value.getClass().getComponentType().getName());
+        writeVarInt(out, length);
+        for (int i = 0; i < length; i++) {
+          writeValue(Array.get(value, i));
+        }
+      } else {
+        writeNode(value);
+      }
+    }
+
+    private void writeNode(Object node) throws IOException {
+      Integer handle = handles.get(node);
+      if (handle != null) {
+        out.writeByte(REFERENCE_TAG);
+        writeVarInt(out, handle);
+        return;
+      }
+      // The handle is assigned before the components are written, matching NodeReader.
+      handles.put(node, handles.size());
+      NodeType type = classes.type(node.getClass());
+      out.writeByte(NODE_TAG);
+      writeVarInt(out, classes.id(node.getClass()));
+      Object[] components;
+      try {
+        components = type.componentsOf(node);
+      } catch (ReflectiveOperationException e) {
+        throw new IllegalStateException("Can't encode " + node, e);
+      }
+      for (Object component : components) {
+        writeValue(component);
+      }
+    }
+
+    private void writeAnnotation(Annotation annotation) throws IOException {
+      Class<? extends Annotation> type = annotation.annotationType();
+      ImmutableList<Method> members = annotationMembers(type);
+      out.writeByte(ANNOTATION_TAG);
+      writeString(type.getName());
+      writeVarInt(out, members.size());
+      for (Method member : members) {
+        writeString(member.getName());
+        Object value;
+        try {
+          value = member.invoke(annotation);
+        } catch (InvocationTargetException e) {
+          // Annotations made by javac from the rule's source throw for members holding classes.
+          if (e.getCause() instanceof MirroredTypesException) {
+            writeMirroredClasses(member, (MirroredTypesException) e.getCause());
+            continue;
+          }
+          throw new IllegalStateException("Can't encode " + annotation, e);
+        } catch (IllegalAccessException e) {
+          throw new IllegalStateException("Can't encode " + annotation, e);
+        }
+        writeValue(value);
+      }
+    }
+
+    private void writeMirroredClasses(Method member, MirroredTypesException e) throws IOException {
+      List<? extends TypeMirror> types = e.getTypeMirrors();
+      if (member.getReturnType() == Class.class) {
+        writeClass(className(getOnlyElement(types)));
+        return;
+      }
+      out.writeByte(ARRAY_TAG);
+      writeString(Class.class.getName());
+      writeVarInt(out, types.size());
+      for (TypeMirror type : types) {
+        writeClass(className(type));
+      }
+    }
+
+    private void writeClass(String name) throws IOException {
+      out.writeByte(CLASS_TAG);
+      writeString(name);
+    }
+
+    private void writeString(String string) throws IOException {
+      writeVarInt(out, strings.id(string));
+    }
+  }
+
+  private static String className(TypeMirror type) {
+    if (type.getKind().isPrimitive() || type.getKind() == TypeKind.VOID) {
+      return type.toString();
+    }
+    if (type.getKind() == TypeKind.DECLARED) {
+      return UTemplater.classNameFrom((TypeElement) ((DeclaredType) type).asElement());
+    }
+    throw new IllegalArgumentException("Can't encode class literal of type " + type);
+  }
+
+  /** Reads the body of one rule. */
+  private static final class NodeReader {
+    private final DataInput in;
+    private final String[] strings;
+    private final NodeType[] classes;
+
+    /** The nodes read so far; null for those whose components are still being read. */
+    private final List<Object> handles = new ArrayList<>();
+
+    NodeReader(DataInput in, String[] strings, NodeType[] classes) {
+      this.in = in;
+      this.strings = strings;
+      this.classes = classes;
+    }
+
+    @Nullable
+    Object readValue() throws IOException, ReflectiveOperationException {
+      int tag = in.readByte();
+      switch (tag) {
+        case NULL_TAG:
+          return null;
+        case REFERENCE_TAG:
+          Object node = handles.get(readVarInt(in));
+          if (node == null) {
+            throw new InvalidObjectException("Reference to a node that is still being read");
+          }
+          return node;
+        case NODE_TAG:
+          return readNode(classes[readVarInt(in)]);
+        case STRING_TAG:
+          return readString();
+        case BOOLEAN_TAG:
+          return in.readBoolean();
+        case BYTE_TAG:
+          return in.readByte();
+        case SHORT_TAG:
+          return in.readShort();
+        case CHAR_TAG:
+          return in.readChar();
+        case INT_TAG:
+          return readVarInt(in);
+        case LONG_TAG:
+          return in.readLong();
+        case FLOAT_TAG:
+          return in.readFloat();
+        case DOUBLE_TAG:
+          return in.readDouble();
+        case ENUM_TAG:
+          return readEnum(loadClass(readString()), readString());
+        case CLASS_TAG:
+          return classForName(readString());
+        case UUID_TAG:
+          return new UUID(in.readLong(), in.readLong());
+        case LIST_TAG:
+          return ImmutableList.copyOf(readElements());
+        case SET_TAG:
+          return ImmutableSet.copyOf(readElements());
+        case MAP_TAG:
+        case CLASS_TO_INSTANCE_MAP_TAG:
+          int size = readVarInt(in);
+          Map<Object, Object> map = new LinkedHashMap<>();
+          for (int i = 0; i < size; i++) {
+            map.put(readValue(), readValue());
+          }
+          if (tag == MAP_TAG) {
+            return ImmutableMap.copyOf(map);
+          }
+          return ImmutableClassToInstanceMap.copyOf(castMap(map));
+        case ANNOTATION_TAG:
+          return readAnnotation();
+        case ARRAY_TAG:
+          Class<?> componentType = classForName(readString());
+          Object array = Array.newInstance(componentType, readVarInt(in));
+          for (int i = 0; i < Array.getLength(array); i++) {
+            Array.set(array, i, readValue());
+          }
+          return array;
+        default:
+          throw new InvalidObjectException("Unknown value tag: " + tag);
+      }
+    }
+
+    private Object readNode(NodeType type) throws IOException, ReflectiveOperationException {
+      int handle = handles.size();
+      handles.add(null);
+      if (type.type == UTypeVar.class) {
+        // The bounds of a type variable can refer back to it, so it's created before they're read.
+        UTypeVar typeVar =
+            UTypeVar.create((String) readValue(), UPrimitiveType.NULL, UPrimitiveType.NULL);
+        handles.set(handle, typeVar);
+        typeVar.setLowerBound((UType) readValue());
+        typeVar.setUpperBound((UType) readValue());
+        return typeVar;
+      }
+      Object[] components = new Object[type.components.size()];
+      for (int i = 0; i < components.length; i++) {
+        components[i] = readValue();
+      }
+      Object node = type.create(components);
+      handles.set(handle, node);
+      return node;
+    }
+
+    private List<Object> readElements() throws IOException, ReflectiveOperationException {
+      int size = readVarInt(in);
+      List<Object> elements = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        elements.add(readValue());
+      }
+      return elements;
+    }
+
+    private Annotation readAnnotation() throws IOException, ReflectiveOperationException {
+      Class<? extends Annotation> type = loadClass(readString()).asSubclass(Annotation.class);
+      int size = readVarInt(in);
+      Map<String, Object> values = new LinkedHashMap<>();
+      for (int i = 0; i < size; i++) {
+        values.put(readString(), readValue());
+      }
+      return annotation(type, values);
+    }
+
+    private String readString() throws IOException {
+      return strings[readVarInt(in)];
+    }
+  }
+
+  @SuppressWarnings("unchecked") // the writer only writes class-to-instance maps this way
+  private static Map<Class<? extends Annotation>, Annotation> castMap(Map<Object, Object> map) {
+    return (Map<Class<? extends Annotation>, Annotation>) (Map<?, ?>) map;
+  }
+
+  private static Object readEnum(Class<?> type, String name) throws InvalidObjectException {
+    for (Object constant : type.getEnumConstants()) {
+      if (((Enum<?>) constant).name().equals(name)) {
+        return constant;
+      }
+    }
+    throw new InvalidObjectException(
+        "Compiled Refaster rule set uses " + type.getName() + "." + name + ", which no longer"
+            + " exists; recompile the rules");
+  }
+
+  private static final ImmutableMap<String, Class<?>> PRIMITIVE_CLASSES =
+      Stream.of(
+              boolean.class,
+              byte.class,
+              short.class,
+              char.class,
+              int.class,
+              long.class,
+              float.class,
+              double.class,
+              void.class)
+          .collect(toImmutableMap(Class::getName, c -> c));
+
+  private static Class<?> classForName(String name) throws ClassNotFoundException {
+    Class<?> primitive = PRIMITIVE_CLASSES.get(name);
+    return primitive != null ? primitive : loadClass(name);
+  }
+
+  /**
+   * Loads the class {@code name}, falling back to the context class loader for classes that come
+   * with the rules rather than with Error Prone, such as custom matchers.
+   */
+  private static Class<?> loadClass(String name) throws ClassNotFoundException {
+    try {
+      return Class.forName(name, false, RefasterRuleSetCodec.class.getClassLoader());
+    } catch (ClassNotFoundException e) {
+      ClassLoader contextLoader = Thread.currentThread().getContextClassLoader();
+      if (contextLoader == null) {
+        throw e;
+      }
+      return Class.forName(name, false, contextLoader);
+    }
+  }
+
+  /** Returns the members of an annotation type, in a stable order. */
+  private static ImmutableList<Method> annotationMembers(Class<? extends Annotation> type) {
+    return Arrays.stream(type.getDeclaredMethods())
+        .filter(m -> !m.isSynthetic() && !Modifier.isStatic(m.getModifiers()))
+        .sorted(Comparator.comparing(Method::getName))
+        .collect(toImmutableList());
+  }
+
+  /**
+   * Returns an instance of the annotation {@code type} with the given member values, using the
+   * defaults of the members that don't have one.
+   */
+  private static Annotation annotation(Class<? extends Annotation> type, Map<String, Object> values)
+      throws InvalidObjectException {
+    ImmutableList<Method> members = annotationMembers(type);
+    Set<String> names = members.stream().map(Method::getName).collect(toImmutableSet());
+    ImmutableMap.Builder<String, Object> memberValues = ImmutableMap.builder();
+    for (Method member : members) {
+      Object value = values.getOrDefault(member.getName(), member.getDefaultValue());
+      if (!names.containsAll(values.keySet())
+          || !Primitives.wrap(member.getReturnType()).isInstance(value)) {
+        throw new InvalidObjectException(
+            "The members of " + type.getName() + " have changed since the Refaster rule set was"
+                + " compiled; recompile the rules");
+      }
+      memberValues.put(member.getName(), value);
+    }
+    return type.cast(
+        Proxy.newProxyInstance(
+            type.getClassLoader(),
+            new Class<?>[] {type},
+            new AnnotationHandler(type, memberValues.buildOrThrow())));
+  }
+
+  /** Implements a decoded annotation, following the contract of {@link Annotation}. */
+  private static final class AnnotationHandler implements InvocationHandler, Serializable {
+    private final Class<? extends Annotation> type;
+    private final ImmutableMap<String, Object> values;
+
+    AnnotationHandler(Class<? extends Annotation> type, ImmutableMap<String, Object> values) {
+      this.type = type;
+      this.values = values;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+      switch (method.getName()) {
+        case "equals":
+          if (args != null && args.length == 1) {
+            return equalTo(args[0]);
+          }
+          break;
+        case "hashCode":
+          if (args == null) {
+            return hash();
+          }
+          break;
+        case "toString":
+          if (args == null) {
+            return toString();
+          }
+          break;
+        case "annotationType":
+          if (args == null) {
+            return type;
+          }
+          break;
+        default:
+          break;
+      }
+      Object value = values.get(method.getName());
+      if (value == null || (args != null && args.length > 0)) {
+        throw new IncompleteAnnotationException(type, method.getName());
+      }
+      return value.getClass().isArray() ? cloneArray(value) : value;
+    }
+
+    private boolean equalTo(Object other) throws ReflectiveOperationException {
+      if (!type.isInstance(other)) {
+        return false;
+      }
+      for (Method member : annotationMembers(type)) {
+        member.setAccessible(true);
+        if (!Objects.deepEquals(values.get(member.getName()), member.invoke(other))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /** The hash code {@link Annotation#hashCode} specifies. */
+    private int hash() {
+      int hash = 0;
+      for (Map.Entry<String, Object> entry : values.entrySet()) {
+        // Arrays.deepHashCode of a one-element array is 31 plus the element's hash code, which
+        // for arrays is the one of the matching Arrays.hashCode overload.
+        int valueHash = Arrays.deepHashCode(new Object[] {entry.getValue()}) - 31;
+        hash += (127 * entry.getKey().hashCode()) ^ valueHash;
+      }
+      return hash;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder result = new StringBuilder("@").append(type.getName()).append('(');
+      String separator = "";
+      for (Map.Entry<String, Object> entry : values.entrySet()) {
+        String value = Arrays.deepToString(new Object[] {entry.getValue()});
+        result
+            .append(separator)
+            .append(entry.getKey())
+            .append('=')
+            .append(value, 1, value.length() - 1);
+        separator = ", ";
+      }
+      return result.append(')').toString();
+    }
+
+    private static Object cloneArray(Object array) {
+      int length = Array.getLength(array);
+      Object copy = Array.newInstance(array.getClass().getComponentType(), length);
+      System.arraycopy(array, 0, copy, 0, length);
+      return copy;
+    }
+
+    private static final long serialVersionUID = 1L;
+  }
+
+  private static final int ANY_TAG = 0;
+  private static final int EXPRESSION_TAG = 1;
+  private static final int KINDS_TAG = 2;
+  private static final int INVOCATION_TAG = 3;
+  private static final int CONSTRUCTOR_TAG = 4;
+
+  private static void writeKey(DataOutput out, TemplateKey key, StringTable strings)
+      throws IOException {
+    writeCategory(out, key, strings);
+    writeVarInt(out, key.requiredIdentifiers().size());
+    for (String identifier : key.requiredIdentifiers()) {
+      writeVarInt(out, strings.id(identifier));
+    }
+  }
+
+  private static void writeCategory(DataOutput out, TemplateKey key, StringTable strings)
+      throws IOException {
+    switch (key.category()) {
+      case ANY:
+        out.writeByte(ANY_TAG);
+        return;
+      case EXPRESSION:
+        out.writeByte(EXPRESSION_TAG);
+        return;
+      case KINDS:
+        out.writeByte(KINDS_TAG);
+        writeVarInt(out, key.kinds().size());
+        for (Kind kind : key.kinds()) {
+          // Kinds are written by name, since their ordinals vary between JDK versions.
+          writeVarInt(out, strings.id(kind.name()));
+        }
+        return;
+      case INVOCATION:
+      case CONSTRUCTOR:
+        out.writeByte(
+            key.category() == TemplateKey.Category.INVOCATION ? INVOCATION_TAG : CONSTRUCTOR_TAG);
+        writeVarInt(out, strings.id(key.name()));
+        writeVarInt(out, key.arity() - RefasterRuleIndex.ANY_ARITY);
+        return;
+    }
+    throw new AssertionError(key.category());
+  }
+
+  private static TemplateKey readKey(DataInput in, String[] strings) throws IOException {
+    TemplateKey key = readCategory(in, strings);
+    String[] requiredIdentifiers = new String[readVarInt(in)];
+    for (int i = 0; i < requiredIdentifiers.length; i++) {
+      requiredIdentifiers[i] = strings[readVarInt(in)];
+    }
+    return key.withRequiredIdentifiers(Arrays.asList(requiredIdentifiers));
+  }
+
+  private static TemplateKey readCategory(DataInput in, String[] strings) throws IOException {
+    int category = in.readByte();
+    switch (category) {
+      case ANY_TAG:
+        return TemplateKey.any();
+      case EXPRESSION_TAG:
+        return TemplateKey.expression();
+      case KINDS_TAG:
+        int count = readVarInt(in);
+        ImmutableSet.Builder<Kind> kinds = ImmutableSet.builder();
+        for (int i = 0; i < count; i++) {
+          String name = strings[readVarInt(in)];
+          // A kind this JDK doesn't know about can't occur in the trees it produces.
+          if (KIND_NAMES.contains(name)) {
+            kinds.add(Kind.valueOf(name));
+          }
+        }
+        return TemplateKey.kinds(kinds.build());
+      case INVOCATION_TAG:
+        return TemplateKey.invocation(
+            strings[readVarInt(in)], readVarInt(in) + RefasterRuleIndex.ANY_ARITY);
+      case CONSTRUCTOR_TAG:
+        return TemplateKey.constructor(
+            strings[readVarInt(in)], readVarInt(in) + RefasterRuleIndex.ANY_ARITY);
+      default:
+        throw new InvalidObjectException("Unknown template key category: " + category);
+    }
+  }
+
+  private static final ImmutableSet<String> KIND_NAMES =
+      Arrays.stream(Kind.values()).map(Kind::name).collect(toImmutableSet());
+
+  private static void writeVarInt(DataOutput out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  private static int readVarInt(DataInput in) throws IOException {
+    int result = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      int b = in.readByte();
+      result |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return result;
+      }
+    }
+    throw new InvalidObjectException("Malformed variable-length integer");
+  }
+
+  /** Interns strings, assigning each distinct string the index at which it was first added. */
+  private static final class StringTable {
+    private final Map<String, Integer> ids = new LinkedHashMap<>();
+
+    int id(String string) {
+      return ids.computeIfAbsent(string, s -> ids.size());
+    }
+
+    int size() {
+      return ids.size();
+    }
+
+    List<String> strings() {
+      return new ArrayList<>(ids.keySet());
+    }
+  }
+
+  /** Interns node classes, assigning each class the index at which it was first added. */
+  private static final class ClassTable {
+    private final Map<Class<?>, Integer> ids = new LinkedHashMap<>();
+    private final List<NodeType> types = new ArrayList<>();
+
+    int id(Class<?> type) {
+      return ids.computeIfAbsent(
+          type,
+          t -> {
+            types.add(nodeType(t));
+            return types.size() - 1;
+          });
+    }
+
+    NodeType type(Class<?> type) {
+      return types.get(id(type));
+    }
+
+    int size() {
+      return types.size();
+    }
+
+    List<NodeType> types() {
+      return types;
+    }
+  }
+
+  private RefasterRuleSetCodec() {}
+}
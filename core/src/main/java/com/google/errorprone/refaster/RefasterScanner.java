@@ -5,7 +5,7 @@
  * you may not use this file except in compliance with the License.
  * You may obtain a copy of the License at
  *
- *   http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.apache.org/licenses/LICENSE-2.0
  *
  * Unless required by applicable law or agreed to in writing, software
  * distributed under the License is distributed on an "AS IS" BASIS,
@@ -18,11 +18,13 @@ package com.google.errorprone.refaster;
 
 import static com.google.errorprone.util.ASTHelpers.stringContainsComments;
 
-import com.google.auto.value.AutoValue;
 import com.google.errorprone.BugPattern.SeverityLevel;
 import com.google.errorprone.DescriptionListener;
+import com.google.errorprone.SuppressionInfo;
+import com.google.errorprone.fixes.Fix;
 import com.google.errorprone.fixes.SuggestedFix;
 import com.google.errorprone.matchers.Description;
+import com.google.errorprone.refaster.RefasterRuleIndex.IndexedTemplate;
 import com.google.errorprone.util.ASTHelpers;
 import com.sun.source.tree.ClassTree;
 import com.sun.source.tree.DoWhileLoopTree;
@@ -42,90 +44,174 @@ import com.sun.tools.javac.tree.JCTree.JCStatement;
 import com.sun.tools.javac.tree.TreeMaker;
 import com.sun.tools.javac.util.Context;
 import com.sun.tools.javac.util.ListBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
 
 /**
- * Scanner that outputs suggested fixes generated by a {@code RefasterMatcher}.
+ * Scanner that outputs suggested fixes generated by the {@code @BeforeTemplate}s of one or more
+ * {@link RefasterRule}s, in a single traversal of the tree.
  *
  * @author lowasser@google.com (Louis Wasserman)
  */
-@AutoValue
-abstract class RefasterScanner<M extends TemplateMatch, T extends Template<M>>
-    extends TreeScanner<Void, Context> {
-  static <M extends TemplateMatch, T extends Template<M>> RefasterScanner<M, T> create(
-      RefasterRule<M, T> rule, DescriptionListener listener) {
-    return new AutoValue_RefasterScanner<>(rule, listener);
+final class RefasterScanner extends TreeScanner<Void, Void> {
+  static RefasterScanner create(
+      RefasterRuleSet ruleSet,
+      Context context,
+      JCCompilationUnit compilationUnit,
+      DescriptionListener listener) {
+    return new RefasterScanner(
+        ruleSet, RefasterRule.prepareContext(context, compilationUnit), listener);
   }
 
-  abstract RefasterRule<M, T> rule();
+  private final RefasterRuleSet ruleSet;
+  private final RefasterRuleIndex index;
 
-  abstract DescriptionListener listener();
+  /** The context for the compilation unit being scanned. */
+  private final Context context;
 
-  @Override
-  public Void visitClass(ClassTree node, Context context) {
-    if (isSuppressed(node, context)) {
-      return null;
+  /**
+   * The context for each rule, created the first time one of the rule's templates is matched, so
+   * that rules which never match aren't decoded.
+   */
+  private final Context[] ruleContexts;
+
+  private final DescriptionListener listener;
+
+  /**
+   * Descriptions are reported per rule once the traversal finishes, so that listeners observe them
+   * in the same order as when each rule was applied in a separate traversal.
+   */
+  private final List<List<Description>> descriptions;
+
+  /**
+   * The ordinals of the templates that require an identifier which doesn't occur in the scanned
+   * tree, and so are never tried.
+   */
+  private BitSet unmatchableTemplates = new BitSet();
+
+  /** The rules that are suppressed for the current subtree. Replaced, never mutated. */
+  private BitSet suppressedRules = new BitSet();
+
+  private RefasterScanner(RefasterRuleSet ruleSet, Context context, DescriptionListener listener) {
+    this.ruleSet = ruleSet;
+    this.index = ruleSet.index();
+    this.context = context;
+    this.ruleContexts = new Context[ruleSet.size()];
+    this.listener = listener;
+    this.descriptions = new ArrayList<>();
+    for (int i = 0; i < ruleSet.size(); i++) {
+      descriptions.add(new ArrayList<>());
+    }
+  }
+
+  /** Scans {@code tree}, and then reports all matches to the listener. */
+  void scanAndReport(Tree tree) {
+    if (index.hasRequiredIdentifiers()) {
+      unmatchableTemplates = index.unmatchableTemplates(RefasterRuleIndex.identifiersIn(tree));
+      if (unmatchableTemplates.cardinality() == index.templateCount()) {
+        return;
+      }
+    }
+    scan(tree, null);
+    for (List<Description> ruleDescriptions : descriptions) {
+      ruleDescriptions.forEach(listener::onDescribed);
     }
+  }
+
+  @Override
+  public Void visitClass(ClassTree node, Void v) {
+    BitSet suppressed = suppressedIn(node);
     Symbol sym = ASTHelpers.getSymbol(node);
-    if (sym == null || !sym.getQualifiedName().contentEquals(rule().qualifiedTemplateClass())) {
-      ListBuffer<JCStatement> statements = new ListBuffer<>();
-      for (Tree tree : node.getMembers()) {
-        if (tree instanceof JCStatement) {
-          statements.append((JCStatement) tree);
-        } else {
-          tree.accept(this, context);
+    if (sym != null) {
+      // Don't match a rule against its own templates.
+      for (int i = 0; i < ruleSet.size(); i++) {
+        if (sym.getQualifiedName().contentEquals(ruleSet.templateClass(i))) {
+          suppressed = withSuppressed(suppressed, i);
         }
       }
-      scan(TreeMaker.instance(context).Block(0, statements.toList()), context);
     }
-    return null;
+    return withSuppressions(
+        suppressed,
+        () -> {
+          ListBuffer<JCStatement> statements = new ListBuffer<>();
+          for (Tree tree : node.getMembers()) {
+            if (tree instanceof JCStatement) {
+              statements.append((JCStatement) tree);
+            } else {
+              tree.accept(this, null);
+            }
+          }
+          scan(TreeMaker.instance(context).Block(0, statements.toList()), null);
+        });
   }
 
   @Override
-  public Void visitMethod(MethodTree node, Context context) {
-    if (isSuppressed(node, context)) {
-      return null;
-    }
-    return super.visitMethod(node, context);
+  public Void visitMethod(MethodTree node, Void v) {
+    return withSuppressions(suppressedIn(node), () -> super.visitMethod(node, null));
   }
 
   @Override
-  public Void visitVariable(VariableTree node, Context context) {
-    if (isSuppressed(node, context)) {
-      return null;
-    }
-    return super.visitVariable(node, context);
+  public Void visitVariable(VariableTree node, Void v) {
+    return withSuppressions(suppressedIn(node), () -> super.visitVariable(node, null));
   }
 
   @Override
-  public Void scan(Tree tree, Context context) {
+  public Void scan(Tree tree, Void v) {
     if (tree == null) {
       return null;
     }
+    for (IndexedTemplate candidate : index.candidates(tree)) {
+      if (!unmatchableTemplates.get(candidate.ordinal())
+          && !suppressedRules.get(candidate.ruleIndex())) {
+        match(candidate.ruleIndex(), candidate.templateIndex(), (JCTree) tree);
+      }
+    }
+    return super.scan(tree, null);
+  }
+
+  private void match(int ruleIndex, int templateIndex, JCTree tree) {
+    RefasterRule<?, ?> rule = ruleSet.rule(ruleIndex);
+    if (ruleContexts[ruleIndex] == null) {
+      ruleContexts[ruleIndex] = rule.prepareRuleContext(context);
+    }
+    match(
+        ruleIndex, rule, rule.beforeTemplates().get(templateIndex), ruleContexts[ruleIndex], tree);
+  }
+
+  private <M extends TemplateMatch> void match(
+      int ruleIndex, RefasterRule<?, ?> rule, Template<M> template, Context context, JCTree tree) {
     JCCompilationUnit compilationUnit = context.get(JCCompilationUnit.class);
-    for (T beforeTemplate : rule().beforeTemplates()) {
-      matchLoop:
-      for (M match : beforeTemplate.match((JCTree) tree, context)) {
-        if (rule().rejectMatchesWithComments()) {
-          String matchContents = match.getRange(compilationUnit);
-          if (stringContainsComments(matchContents, context)) {
-            continue matchLoop;
-          }
+    matchLoop:
+    for (M match : template.match(tree, context)) {
+      if (rule.rejectMatchesWithComments()) {
+        String matchContents = match.getRange(compilationUnit);
+        if (stringContainsComments(matchContents, context)) {
+          continue matchLoop;
         }
-        Description.Builder builder =
-            Description.builder(match.getLocation(), rule().qualifiedTemplateClass(), "", "")
-                .overrideSeverity(SeverityLevel.WARNING);
-
-        if (rule().afterTemplates().isEmpty()) {
-          builder.addFix(SuggestedFix.prefixWith(match.getLocation(), "/* match found */ "));
-        } else {
-          for (T afterTemplate : rule().afterTemplates()) {
-            builder.addFix(afterTemplate.replace(match));
-          }
+      }
+      Description.Builder builder =
+          Description.builder(match.getLocation(), rule.qualifiedTemplateClass(), "", "")
+              .overrideSeverity(SeverityLevel.WARNING);
+
+      if (rule.afterTemplates().isEmpty()) {
+        builder.addFix(SuggestedFix.prefixWith(match.getLocation(), "/* match found */ "));
+      } else {
+        for (Template<?> afterTemplate : rule.afterTemplates()) {
+          builder.addFix(replace(afterTemplate, match));
         }
-        listener().onDescribed(builder.build());
       }
+      descriptions.get(ruleIndex).add(builder.build());
     }
-    return super.scan(tree, context);
+  }
+
+  /**
+   * All templates of a rule have the same type (see {@link RefasterRule#create}), so its after
+   * templates can replace any match of its before templates.
+   */
+  @SuppressWarnings("unchecked")
+  private static <M extends TemplateMatch> Fix replace(Template<?> afterTemplate, M match) {
+    return ((Template<M>) afterTemplate).replace(match);
   }
 
   private static final SimpleTreeVisitor<Tree, Void> SKIP_PARENS =
@@ -147,35 +233,74 @@ abstract class RefasterScanner<M extends TemplateMatch, T extends Template<M>>
    */
 
   @Override
-  public Void visitDoWhileLoop(DoWhileLoopTree node, Context context) {
-    scan(node.getStatement(), context);
-    scan(SKIP_PARENS.visit(node.getCondition(), null), context);
+  public Void visitDoWhileLoop(DoWhileLoopTree node, Void v) {
+    scan(node.getStatement(), null);
+    scan(SKIP_PARENS.visit(node.getCondition(), null), null);
     return null;
   }
 
   @Override
-  public Void visitWhileLoop(WhileLoopTree node, Context context) {
-    scan(SKIP_PARENS.visit(node.getCondition(), null), context);
-    scan(node.getStatement(), context);
+  public Void visitWhileLoop(WhileLoopTree node, Void v) {
+    scan(SKIP_PARENS.visit(node.getCondition(), null), null);
+    scan(node.getStatement(), null);
     return null;
   }
 
   @Override
-  public Void visitSynchronized(SynchronizedTree node, Context context) {
-    scan(SKIP_PARENS.visit(node.getExpression(), null), context);
-    scan(node.getBlock(), context);
+  public Void visitSynchronized(SynchronizedTree node, Void v) {
+    scan(SKIP_PARENS.visit(node.getExpression(), null), null);
+    scan(node.getBlock(), null);
     return null;
   }
 
   @Override
-  public Void visitIf(IfTree node, Context context) {
-    scan(SKIP_PARENS.visit(node.getCondition(), null), context);
-    scan(node.getThenStatement(), context);
-    scan(node.getElseStatement(), context);
+  public Void visitIf(IfTree node, Void v) {
+    scan(SKIP_PARENS.visit(node.getCondition(), null), null);
+    scan(node.getThenStatement(), null);
+    scan(node.getElseStatement(), null);
     return null;
   }
 
-  private boolean isSuppressed(Tree node, Context context) {
-    return RefasterSuppressionHelper.suppressed(rule(), node, context);
+  /**
+   * Scans the children of a declaration with the given rules suppressed, or skips them entirely if
+   * every rule is suppressed.
+   */
+  private Void withSuppressions(BitSet suppressed, Runnable scanChildren) {
+    if (suppressed.cardinality() == ruleSet.size()) {
+      return null;
+    }
+    BitSet prevSuppressedRules = suppressedRules;
+    suppressedRules = suppressed;
+    try {
+      scanChildren.run();
+    } finally {
+      suppressedRules = prevSuppressedRules;
+    }
+    return null;
+  }
+
+  /** Returns the rules that are suppressed within the given declaration. */
+  private BitSet suppressedIn(Tree node) {
+    BitSet suppressed = suppressedRules;
+    SuppressionInfo suppressions = RefasterSuppressionHelper.suppressions(node, context);
+    if (suppressions != null) {
+      for (int i = 0; i < ruleSet.size(); i++) {
+        if (!suppressed.get(i)
+            && RefasterSuppressionHelper.suppressed(
+                ruleSet.templateClass(i), suppressions, context)) {
+          suppressed = withSuppressed(suppressed, i);
+        }
+      }
+    }
+    return suppressed;
+  }
+
+  private static BitSet withSuppressed(BitSet suppressed, int ruleIndex) {
+    if (suppressed.get(ruleIndex)) {
+      return suppressed;
+    }
+    BitSet result = (BitSet) suppressed.clone();
+    result.set(ruleIndex);
+    return result;
   }
 }
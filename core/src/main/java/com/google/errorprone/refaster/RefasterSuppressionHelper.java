@@ -27,38 +27,53 @@ import com.sun.tools.javac.util.Context;
 import com.sun.tools.javac.util.Name;
 import java.lang.annotation.Annotation;
 import java.util.Set;
+import javax.annotation.Nullable;
 
 /** Helpers for handling suppression annotations in refaster. */
 final class RefasterSuppressionHelper {
 
   /**
-   * Returns true if the given rule is suppressed on the given tree.
+   * Returns the suppressions declared on the given tree, or {@code null} if it does not declare
+   * any.
    *
-   * <p>Unlike Error Prone, which scans the compilation unit once for all checks, refaster scans the
-   * compilation unit separately for each check. This simplifies suppression handling, since we can
-   * just stop recursively scanning as soon as a suppression is found for the current refaster rule.
+   * <p>Unlike Error Prone, refaster does not track suppressions inherited from enclosing
+   * declarations: the scanner stops matching a rule as soon as a suppression is found for it.
    */
-  static boolean suppressed(RefasterRule<?, ?> rule, Tree tree, Context context) {
-    VisitorState state = VisitorState.createForUtilityPurposes(context);
+  @Nullable
+  static SuppressionInfo suppressions(Tree tree, Context context) {
     Symbol sym = ASTHelpers.getDeclaredSymbol(tree);
     if (sym == null) {
-      return false;
+      return null;
     }
-    return SuppressionInfo.EMPTY
-        .withExtendedSuppressions(
-            sym, state, /* customSuppressionAnnosToLookFor= */ ImmutableSet.of())
+    SuppressionInfo suppressions =
+        SuppressionInfo.EMPTY.withExtendedSuppressions(
+            sym,
+            VisitorState.createForUtilityPurposes(context),
+            /* customSuppressionAnnosToLookFor= */ ImmutableSet.of());
+    // withExtendedSuppressions returns the receiver if the symbol adds no suppressions
+    return suppressions == SuppressionInfo.EMPTY ? null : suppressions;
+  }
+
+  /**
+   * Returns true if the rule declared in the given template class is suppressed by the given
+   * suppressions.
+   */
+  static boolean suppressed(String templateClass, SuppressionInfo suppressions, Context context) {
+    return suppressions
         .suppressedState(
-            new RefasterSuppressible(rule), /* suppressedInGeneratedCode= */ false, state)
+            new RefasterSuppressible(templateClass),
+            /* suppressedInGeneratedCode= */ false,
+            VisitorState.createForUtilityPurposes(context))
         .equals(SuppressionInfo.SuppressedState.SUPPRESSED);
   }
 
-  /** Adapts a {@link RefasterRule<?, ?>} into a {@link Suppressible}. */
+  /** Adapts the rule declared in a template class into a {@link Suppressible}. */
   private static class RefasterSuppressible implements Suppressible {
 
-    private final RefasterRule<?, ?> rule;
+    private final String templateClass;
 
-    RefasterSuppressible(RefasterRule<?, ?> rule) {
-      this.rule = rule;
+    RefasterSuppressible(String templateClass) {
+      this.templateClass = templateClass;
     }
 
     @Override
@@ -68,7 +83,7 @@ final class RefasterSuppressionHelper {
 
     @Override
     public String canonicalName() {
-      return rule.simpleTemplateName();
+      return RefasterRule.fromSecondLevel(templateClass);
     }
 
     @Override
@@ -633,17 +633,22 @@ public class UTemplater extends SimpleTreeVisitor<Tree, Void> {
    * Element#getAnnotation(Class)}.
    */
   static Class<? extends Matcher<? super ExpressionTree>> getValue(Matches matches) {
-    String name;
+    Class<?> value;
     try {
-      matches.value();
-      throw new RuntimeException("unreachable");
+      // Only annotations decoded from a compiled rule set hold the class itself.
+      value = matches.value();
     } catch (MirroredTypeException e) {
       DeclaredType type = (DeclaredType) e.getTypeMirror();
-      name = ((TypeElement) type.asElement()).getQualifiedName().toString();
+      String name = ((TypeElement) type.asElement()).getQualifiedName().toString();
+      try {
+        value = Class.forName(name);
+      } catch (ClassNotFoundException notFound) {
+        throw new RuntimeException(notFound);
+      }
     }
     try {
-      return asSubclass(Class.forName(name), new TypeToken<Matcher<? super ExpressionTree>>() {});
-    } catch (ClassNotFoundException | ClassCastException e) {
+      return asSubclass(value, new TypeToken<Matcher<? super ExpressionTree>>() {});
+    } catch (ClassCastException e) {
       throw new RuntimeException(e);
     }
   }
@@ -654,17 +659,22 @@ public class UTemplater extends SimpleTreeVisitor<Tree, Void> {
    * Element#getAnnotation(Class)}.
    */
   static Class<? extends Matcher<? super ExpressionTree>> getValue(NotMatches matches) {
-    String name;
+    Class<?> value;
     try {
-      matches.value();
-      throw new RuntimeException("unreachable");
+      // Only annotations decoded from a compiled rule set hold the class itself.
+      value = matches.value();
     } catch (MirroredTypeException e) {
       DeclaredType type = (DeclaredType) e.getTypeMirror();
-      name = ((TypeElement) type.asElement()).getQualifiedName().toString();
+      String name = ((TypeElement) type.asElement()).getQualifiedName().toString();
+      try {
+        value = Class.forName(name);
+      } catch (ClassNotFoundException notFound) {
+        throw new RuntimeException(notFound);
+      }
     }
     try {
-      return asSubclass(Class.forName(name), new TypeToken<Matcher<? super ExpressionTree>>() {});
-    } catch (ClassNotFoundException | ClassCastException e) {
+      return asSubclass(value, new TypeToken<Matcher<? super ExpressionTree>>() {});
+    } catch (ClassCastException e) {
       throw new RuntimeException(e);
     }
   }
@@ -950,7 +960,7 @@ public class UTemplater extends SimpleTreeVisitor<Tree, Void> {
 
   // Class.forName() needs nested classes as "foo.Bar$Baz$Quux", not "foo.Bar.Baz.Quux"
   // (which is what getQualifiedName() returns).
-  private static String classNameFrom(TypeElement type) {
+  static String classNameFrom(TypeElement type) {
     // Get the full type name (e.g. "foo.Bar.Baz.Quux") before walking up the hierarchy.
     String typeName = type.getQualifiedName().toString();
     // Find outermost enclosing type (e.g. "foo.Bar" in our example), possibly several levels up.
@@ -24,6 +24,7 @@ import static com.google.errorprone.FileObjects.forResources;
 import static com.google.errorprone.FileObjects.forSourceLines;
 import static com.google.errorprone.matchers.Description.NO_MATCH;
 import static com.google.errorprone.util.ASTHelpers.constValue;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Locale.ENGLISH;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.Matchers.containsString;
@@ -35,6 +36,7 @@ import static org.junit.Assume.assumeTrue;
 
 import com.google.common.base.Ascii;
 import com.google.common.base.StandardSystemProperty;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.errorprone.bugpatterns.BadShiftAmount;
 import com.google.errorprone.bugpatterns.BugChecker;
@@ -56,6 +58,8 @@ import com.sun.source.tree.Tree;
 import com.sun.tools.javac.main.Main.Result;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -591,6 +595,47 @@ public class ErrorProneCompilerIntegrationTest {
     assertThat(output).doesNotContain("Using 'return' is considered harmful");
   }
 
+  @Test
+  public void profileOutput() throws Exception {
+    compilerBuilder.report(ScannerSupplier.fromBugCheckerClasses(CPSChecker.class));
+    compiler = compilerBuilder.build();
+    Path profile = tmpFolder.getRoot().toPath().resolve("profile.csv");
+    Result exitCode =
+        compiler.compile(
+            new String[] {"-XepProfileOutput:" + profile},
+            ImmutableList.of(
+                forSourceLines(
+                    "Test.java", "package test;", "class Test {", "  void f() { return; }", "}")));
+    assertThat(outputStream.toString(), exitCode, is(Result.ERROR));
+    List<String> lines = Files.readAllLines(profile, UTF_8);
+    assertThat(lines.get(0))
+        .isEqualTo("kind,name,invocations,total_nanos,p50_nanos,p99_nanos,max_nanos");
+    assertThat(lines).hasSize(3);
+    assertThat(lines.get(1)).startsWith("check,CPSChecker,");
+    assertThat(lines.get(2)).startsWith("file,");
+    assertThat(lines.get(2)).contains("Test.java");
+  }
+
+  @Test
+  public void timingSampleRate() throws Exception {
+    compilerBuilder.report(ScannerSupplier.fromBugCheckerClasses(CPSChecker.class));
+    compiler = compilerBuilder.build();
+    Path profile = tmpFolder.getRoot().toPath().resolve("profile.csv");
+    ImmutableList.Builder<String> lines = ImmutableList.builder();
+    lines.add("package test;", "class Test {");
+    for (int i = 0; i < 10; i++) {
+      lines.add("  void f" + i + "() { return; }");
+    }
+    lines.add("}");
+    Result exitCode =
+        compiler.compile(
+            new String[] {"-XepProfileOutput:" + profile, "-XepTimingSampleRate:1/4"},
+            ImmutableList.of(forSourceLines("Test.java", lines.build().toArray(new String[0]))));
+    assertThat(outputStream.toString(), exitCode, is(Result.ERROR));
+    // Three of the ten invocations were timed, each standing in for four.
+    assertThat(Files.readAllLines(profile, UTF_8).get(1)).startsWith("check,CPSChecker,12,");
+  }
+
   /**
    * Trivial bug checker for testing command line flags. Forbids methods from returning the string
    * provided by "-XepOpt:Forbidden=<VALUE>" flag.
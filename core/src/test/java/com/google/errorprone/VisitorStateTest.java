@@ -47,6 +47,7 @@ import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
 import java.util.stream.Stream;
@@ -89,8 +90,7 @@ public class VisitorStateTest {
         .isEqualTo("com.google.RegularClass$Nested");
   }
 
-  @Test
-  public void getConstantExpression() {
+  private static Context newContext() {
     JavacTask task =
         JavacTool.create()
             .getTask(
@@ -100,7 +100,12 @@ public class VisitorStateTest {
                 /* options= */ ImmutableList.of(),
                 /* classes= */ ImmutableList.of(),
                 /* compilationUnits= */ ImmutableList.of());
-    Context context = ((BasicJavacTask) task).getContext();
+    return ((BasicJavacTask) task).getContext();
+  }
+
+  @Test
+  public void getConstantExpression() {
+    Context context = newContext();
     VisitorState visitorState = VisitorState.createForUtilityPurposes(context);
     assertThat(visitorState.getConstantExpression("hello ' world")).isEqualTo("\"hello ' world\"");
     assertThat(visitorState.getConstantExpression("hello \n world"))
@@ -108,6 +113,54 @@ public class VisitorStateTest {
     assertThat(visitorState.getConstantExpression('\'')).isEqualTo("'\\''");
   }
 
+  @Test
+  public void memoize_computesOncePerInvocation() {
+    AtomicInteger computations = new AtomicInteger();
+    Supplier<String> supplier = VisitorState.memoize(s -> "value" + computations.incrementAndGet());
+    Context context = newContext();
+    VisitorState first = VisitorState.createForUtilityPurposes(context);
+    VisitorState second = VisitorState.createForUtilityPurposes(context);
+
+    assertThat(supplier.get(first)).isEqualTo("value1");
+    assertThat(supplier.get(second)).isEqualTo("value1");
+    assertThat(computations.get()).isEqualTo(1);
+
+    VisitorState otherInvocation = VisitorState.createForUtilityPurposes(newContext());
+    assertThat(supplier.get(otherInvocation)).isEqualTo("value2");
+    assertThat(supplier.get(otherInvocation)).isEqualTo("value2");
+    assertThat(computations.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void memoize_interleavedInvocationsKeepTheirValues() {
+    AtomicInteger computations = new AtomicInteger();
+    Supplier<String> supplier = VisitorState.memoize(s -> "value" + computations.incrementAndGet());
+    VisitorState first = VisitorState.createForUtilityPurposes(newContext());
+    VisitorState second = VisitorState.createForUtilityPurposes(newContext());
+
+    for (int i = 0; i < 3; i++) {
+      assertThat(supplier.get(first)).isEqualTo("value1");
+      assertThat(supplier.get(second)).isEqualTo("value2");
+    }
+    assertThat(computations.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void memoize_doesNotCacheNull() {
+    AtomicInteger computations = new AtomicInteger();
+    Supplier<String> supplier =
+        VisitorState.memoize(
+            s -> {
+              computations.incrementAndGet();
+              return null;
+            });
+    VisitorState state = VisitorState.createForUtilityPurposes(newContext());
+
+    assertThat(supplier.get(state)).isNull();
+    assertThat(supplier.get(state)).isNull();
+    assertThat(computations.get()).isEqualTo(2);
+  }
+
   // The following is taken from ErrorProneJavacPluginTest. There may be an easier way.
   // It's possible that it's overkill for what we need here.
 
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2024 The Error Prone Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.errorprone.dataflow;
+
+import static com.google.errorprone.BugPattern.SeverityLevel.ERROR;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.errorprone.BugPattern;
+import com.google.errorprone.CompilationTestHelper;
+import com.google.errorprone.VisitorState;
+import com.google.errorprone.bugpatterns.BugChecker;
+import com.google.errorprone.bugpatterns.BugChecker.IdentifierTreeMatcher;
+import com.google.errorprone.dataflow.nullnesspropagation.Nullness;
+import com.google.errorprone.dataflow.nullnesspropagation.NullnessAnalysis;
+import com.google.errorprone.matchers.Description;
+import com.sun.source.tree.IdentifierTree;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class DataFlowTest {
+
+  @Test
+  public void interleavedMethods_buildEachCfgOnce() {
+    CompilationTestHelper.newInstance(NullIdentifier.class, getClass())
+        .addSourceLines(
+            "Test.java",
+            "import java.util.function.Function;",
+            "class Test {",
+            "  Object f(Object a) {",
+            "    // BUG: Diagnostic contains: [NULLABLE]",
+            "    Object b = a;",
+            "    Function<Object, Object> g =",
+            "        x -> {",
+            "          Object c = null;",
+            "          // BUG: Diagnostic contains: [NULL]",
+            "          return c;",
+            "        };",
+            "    // BUG: Diagnostic contains: [NONNULL]",
+            "    g.apply(a);",
+            "    // BUG: Diagnostic contains: [NULLABLE]",
+            "    return a;",
+            "  }",
+            "  void end() {",
+            "    // One CFG and one analysis for f and for the lambda, despite alternating between",
+            "    // them.",
+            "    // BUG: Diagnostic contains: cfgMisses=2, analysisMisses=2",
+            "    reportCacheStats();",
+            "  }",
+            "  void reportCacheStats() {}",
+            "}")
+        .doTest();
+  }
+
+  /**
+   * Reports the nullness of references to a few variables, and the dataflow cache statistics of the
+   * compilation unit at references to {@code reportCacheStats}.
+   */
+  @BugPattern(summary = "Reports nullness", severity = ERROR)
+  public static final class NullIdentifier extends BugChecker implements IdentifierTreeMatcher {
+    @Override
+    public Description matchIdentifier(IdentifierTree tree, VisitorState state) {
+      if (tree.getName().contentEquals("reportCacheStats")) {
+        DataFlow.CacheStats stats = DataFlow.cacheStats(state.getPath().getCompilationUnit());
+        return buildDescription(tree)
+            .setMessage(
+                String.format(
+                    "cfgMisses=%d, analysisMisses=%d, cfgHits=%d, analysisHits=%d",
+                    stats.cfgMisses(),
+                    stats.analysisMisses(),
+                    stats.cfgHits(),
+                    stats.analysisHits()))
+            .build();
+      }
+      if (!ImmutableSet.of("a", "c", "g").contains(tree.getName().toString())) {
+        return Description.NO_MATCH;
+      }
+      Nullness nullness =
+          NullnessAnalysis.instance(state.context).getNullness(state.getPath(), state.context);
+      return buildDescription(tree).setMessage("[" + nullness.name() + "]").build();
+    }
+  }
+}
@@ -28,7 +28,7 @@ import com.google.errorprone.VisitorState;
 import com.google.errorprone.bugpatterns.BugChecker;
 import com.google.errorprone.bugpatterns.BugChecker.MethodInvocationTreeMatcher;
 import com.google.errorprone.dataflow.nullnesspropagation.inference.InferredNullability;
-import com.google.errorprone.dataflow.nullnesspropagation.inference.NullnessQualifierInference;
+import com.google.errorprone.dataflow.nullnesspropagation.inference.NullnessInferenceCache;
 import com.google.errorprone.matchers.Description;
 import com.google.errorprone.matchers.Matcher;
 import com.google.errorprone.util.ASTHelpers;
@@ -70,6 +70,41 @@ public class NullnessInferenceTest {
     return t;
   }
 
+  /** This method triggers the {@code BugPattern} to report the inference cache's hit counts. */
+  public static void inspectInferenceCacheStats() {}
+
+  @Test
+  public void cache_interleavedMethods() {
+    compilationHelper
+        .addSourceLines(
+            "CacheTest.java",
+            "package com.google.errorprone.dataflow.nullnesspropagation;",
+            "import static com.google.errorprone.dataflow.nullnesspropagation."
+                + "NullnessInferenceTest.inspectInferenceCacheStats;",
+            "import static com.google.errorprone.dataflow.nullnesspropagation."
+                + "NullnessInferenceTest.inspectInferredExpression;",
+            "public class CacheTest {",
+            "  <T> T id(T t) { return t; }",
+            "  void a() {",
+            "    // BUG: Diagnostic contains: Optional[Null]",
+            "    inspectInferredExpression(id(null));",
+            "    class Local {",
+            "      void b() {",
+            "        // BUG: Diagnostic contains: Optional[Non-null]",
+            "        inspectInferredExpression(id(this));",
+            "      }",
+            "    }",
+            "    // BUG: Diagnostic contains: Optional[Non-null]",
+            "    inspectInferredExpression(id(5));",
+            "  }",
+            "  void c() {",
+            "    // BUG: Diagnostic contains: hits=1, misses=2",
+            "    inspectInferenceCacheStats();",
+            "  }",
+            "}")
+        .doTest();
+  }
+
   @Test
   public void identity() {
     compilationHelper
@@ -597,14 +632,21 @@ public class NullnessInferenceTest {
             .onClass(NullnessInferenceTest.class.getName())
             .named("inspectInferredExpression");
 
+    private static final Matcher<ExpressionTree> CACHE_STATS_CALL_MATCHER =
+        staticMethod()
+            .onClass(NullnessInferenceTest.class.getName())
+            .named("inspectInferenceCacheStats");
+
     @Override
     public Description matchMethodInvocation(
         MethodInvocationTree methodInvocation, VisitorState state) {
       if (GENERICS_CALL_MATCHER.matches(methodInvocation, state)) {
         TreePath root = state.getPath();
         InferredNullability inferenceRes =
-            NullnessQualifierInference.getInferredNullability(
-                ASTHelpers.findEnclosingNode(root, MethodTree.class));
+            NullnessInferenceCache.instance(state.context)
+                .get(
+                    root.getCompilationUnit(),
+                    ASTHelpers.findEnclosingNode(root, MethodTree.class));
         assertThat(methodInvocation.getArguments().get(0).getKind())
             .isEqualTo(Kind.METHOD_INVOCATION);
         MethodInvocationTree callsiteToInspect =
@@ -616,12 +658,20 @@ public class NullnessInferenceTest {
       } else if (EXPRESSION_CALL_MATCHER.matches(methodInvocation, state)) {
         TreePath root = state.getPath();
         InferredNullability inferenceRes =
-            NullnessQualifierInference.getInferredNullability(
-                ASTHelpers.findEnclosingNode(root, MethodTree.class));
+            NullnessInferenceCache.instance(state.context)
+                .get(
+                    root.getCompilationUnit(),
+                    ASTHelpers.findEnclosingNode(root, MethodTree.class));
         ExpressionTree exprToInspect = methodInvocation.getArguments().get(0);
         return describeMatch(
             exprToInspect,
             replace(methodInvocation, inferenceRes.getExprNullness(exprToInspect).toString()));
+      } else if (CACHE_STATS_CALL_MATCHER.matches(methodInvocation, state)) {
+        NullnessInferenceCache.CacheStats stats =
+            NullnessInferenceCache.instance(state.context).stats();
+        return buildDescription(methodInvocation)
+            .setMessage(String.format("hits=%d, misses=%d", stats.hits(), stats.misses()))
+            .build();
       } else {
         return NO_MATCH;
       }
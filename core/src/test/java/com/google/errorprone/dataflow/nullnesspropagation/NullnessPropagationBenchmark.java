@@ -0,0 +1,142 @@
+/*
+ * Copyright 2024 The Error Prone Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.errorprone.dataflow.nullnesspropagation;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.CharStreams;
+import com.google.errorprone.FileManagers;
+import com.google.errorprone.dataflow.DataFlow;
+import com.google.testing.compile.JavaFileObjects;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.ReturnTree;
+import com.sun.source.util.TreePath;
+import com.sun.source.util.TreePathScanner;
+import com.sun.tools.javac.api.JavacTaskImpl;
+import com.sun.tools.javac.api.JavacTool;
+import com.sun.tools.javac.util.Context;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+
+/**
+ * Times {@link NullnessPropagationTransfer} over a synthetic method that tracks many fields across
+ * many branches, which is where the cost of joining {@link
+ * com.google.errorprone.dataflow.AccessPathStore}s dominates.
+ *
+ * <p>Run it with the test classpath of this module:
+ *
+ * <pre>{@code
+ * java -cp <test classpath> \
+ *     com.google.errorprone.dataflow.nullnesspropagation.NullnessPropagationBenchmark \
+ *     [fields] [branches] [iterations]
+ * }</pre>
+ *
+ * <p>Each iteration discards the cached analysis and reruns it, and the minimum and median times
+ * are reported. Compare the output before and after a change to the store or the transfer function.
+ */
+public final class NullnessPropagationBenchmark {
+
+  public static void main(String[] args) throws IOException {
+    int fields = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    int branches = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+    int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+    JavacTaskImpl task =
+        (JavacTaskImpl)
+            JavacTool.create()
+                .getTask(
+                    CharStreams.nullWriter(),
+                    FileManagers.testFileManager(),
+                    new DiagnosticCollector<JavaFileObject>(),
+                    ImmutableList.of(),
+                    null,
+                    ImmutableList.of(
+                        JavaFileObjects.forSourceString("Fields", source(fields, branches))));
+    CompilationUnitTree compilationUnit = task.parse().iterator().next();
+    task.analyze();
+    Context context = task.getContext();
+    TreePath returned = returnedExpression(compilationUnit);
+    NullnessAnalysis analysis = NullnessAnalysis.instance(context);
+
+    // The first runs warm up the JIT; they're timed like the others but not reported.
+    int warmup = Math.max(1, iterations / 4);
+    long[] nanos = new long[iterations];
+    for (int i = -warmup; i < iterations; i++) {
+      DataFlow.clearCache(compilationUnit);
+      long start = System.nanoTime();
+      Nullness nullness = analysis.getNullness(returned, context);
+      long elapsed = System.nanoTime() - start;
+      checkState(nullness != null, "no nullness computed for %s", returned.getLeaf());
+      if (i >= 0) {
+        nanos[i] = elapsed;
+      }
+    }
+    Arrays.sort(nanos);
+    System.out.printf(
+        "fields=%d branches=%d iterations=%d min=%.2fms median=%.2fms%n",
+        fields, branches, iterations, millis(nanos[0]), millis(nanos[iterations / 2]));
+  }
+
+  /**
+   * Returns a class with {@code fields} fields and a method whose loop body has {@code branches}
+   * branches, each assigning or null-checking one of the fields, so that every join merges stores
+   * holding all of them.
+   */
+  private static String source(int fields, int branches) {
+    StringBuilder source = new StringBuilder("class Fields {\n");
+    for (int i = 0; i < fields; i++) {
+      source.append(String.format("  Object f%d;%n", i));
+    }
+    source.append("  Object run(boolean[] b) {\n");
+    source.append("    for (int i = 0; i < b.length; i++) {\n");
+    for (int i = 0; i < branches; i++) {
+      int field = i % fields;
+      int next = (field + 1) % fields;
+      source.append(
+          String.format(
+              "      if (b[%d]) { f%d = f%d; } else if (f%d == null) { f%d = new Object(); }%n",
+              i, field, next, field, field));
+    }
+    source.append("    }\n");
+    source.append("    return f0;\n");
+    source.append("  }\n");
+    source.append("}\n");
+    return source.toString();
+  }
+
+  private static TreePath returnedExpression(CompilationUnitTree compilationUnit) {
+    TreePath[] returned = new TreePath[1];
+    new TreePathScanner<Void, Void>() {
+      @Override
+      public Void visitReturn(ReturnTree tree, Void unused) {
+        returned[0] = new TreePath(getCurrentPath(), tree.getExpression());
+        return null;
+      }
+    }.scan(compilationUnit, null);
+    return returned[0];
+  }
+
+  private static double millis(long nanos) {
+    return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  private NullnessPropagationBenchmark() {}
+}
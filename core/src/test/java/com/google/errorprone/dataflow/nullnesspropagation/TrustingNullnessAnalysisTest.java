@@ -0,0 +1,165 @@
+/*
+ * Copyright 2024 The Error Prone Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.errorprone.dataflow.nullnesspropagation;
+
+import static com.google.errorprone.BugPattern.SeverityLevel.ERROR;
+import static com.google.errorprone.matchers.Description.NO_MATCH;
+
+import com.google.common.testing.SerializableTester;
+import com.google.errorprone.BugPattern;
+import com.google.errorprone.CompilationTestHelper;
+import com.google.errorprone.VisitorState;
+import com.google.errorprone.bugpatterns.BugChecker;
+import com.google.errorprone.bugpatterns.BugChecker.VariableTreeMatcher;
+import com.google.errorprone.matchers.Description;
+import com.google.errorprone.util.ASTHelpers;
+import com.sun.source.tree.VariableTree;
+import javax.lang.model.element.ElementKind;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link TrustingNullnessAnalysis}. */
+@RunWith(JUnit4.class)
+public class TrustingNullnessAnalysisTest {
+
+  private final CompilationTestHelper compilationHelper =
+      CompilationTestHelper.newInstance(FieldInitializerNullness.class, getClass());
+
+  @Test
+  public void fieldInitializers() {
+    compilationHelper
+        .addSourceLines(
+            "Test.java",
+            "import javax.annotation.Nullable;",
+            "class Test {",
+            "  // BUG: Diagnostic contains: [NONNULL]",
+            "  static final String A = \"a\";",
+            "  // BUG: Diagnostic contains: [NULL]",
+            "  static final Object B = null;",
+            "  // BUG: Diagnostic contains: [NULL]",
+            "  Object uninitialized;",
+            "  // BUG: Diagnostic contains: [NONNULL]",
+            "  int primitive;",
+            "  // BUG: Diagnostic contains: [NULL]",
+            "  @Nullable Object nullable;",
+            "  // BUG: Diagnostic contains: [NULLABLE]",
+            "  Object fromNullable = nullable;",
+            "  // BUG: Diagnostic contains: [NONNULL]",
+            "  Object fromConstant = A;",
+            "  static class Nested {",
+            "    // BUG: Diagnostic contains: [NULL]",
+            "    static final Object C = null;",
+            "    // BUG: Diagnostic contains: [NONNULL]",
+            "    static final Object D = new Object();",
+            "  }",
+            "  void f() {",
+            "    Object local = null;",
+            "  }",
+            "}")
+        .doTest();
+  }
+
+  @Test
+  public void fieldInitializers_analyzedOncePerClass() {
+    CompilationTestHelper.newInstance(AnalyzedFieldInitializers.class, getClass())
+        .addSourceLines(
+            "Test.java",
+            "class Test {",
+            "  // The first field asked about has all the initializers of its class analyzed.",
+            "  // BUG: Diagnostic contains: analyzed=3",
+            "  Object a = null;",
+            "  // BUG: Diagnostic contains: analyzed=3",
+            "  Object uninitialized;",
+            "  // BUG: Diagnostic contains: analyzed=3",
+            "  Object b = new Object();",
+            "  // BUG: Diagnostic contains: analyzed=3",
+            "  Object c = a;",
+            "}")
+        .doTest();
+  }
+
+  @Test
+  public void fieldInitializers_afterDeserialization() {
+    CompilationTestHelper.newInstance(ReserializedFieldInitializerNullness.class, getClass())
+        .addSourceLines(
+            "Test.java",
+            "class Test {",
+            "  // BUG: Diagnostic contains: [NULL]",
+            "  Object a = null;",
+            "  // BUG: Diagnostic contains: [NONNULL]",
+            "  Object b = new Object();",
+            "}")
+        .doTest();
+  }
+
+  /** Reports the nullness of the initializer of every field. */
+  @BugPattern(summary = "Reports field initializer nullness", severity = ERROR)
+  public static final class FieldInitializerNullness extends BugChecker
+      implements VariableTreeMatcher {
+    @Override
+    public Description matchVariable(VariableTree tree, VisitorState state) {
+      if (ASTHelpers.getSymbol(tree).getKind() != ElementKind.FIELD) {
+        return NO_MATCH;
+      }
+      Nullness nullness =
+          TrustingNullnessAnalysis.instance(state.context)
+              .getFieldInitializerNullness(state.getPath(), state.context);
+      return buildDescription(tree).setMessage("[" + nullness.name() + "]").build();
+    }
+  }
+
+  /**
+   * Reports the nullness of the initializer of every field, as computed by a deserialized copy of
+   * the analysis.
+   */
+  @BugPattern(summary = "Reports field initializer nullness", severity = ERROR)
+  public static final class ReserializedFieldInitializerNullness extends BugChecker
+      implements VariableTreeMatcher {
+    @Override
+    public Description matchVariable(VariableTree tree, VisitorState state) {
+      if (ASTHelpers.getSymbol(tree).getKind() != ElementKind.FIELD) {
+        return NO_MATCH;
+      }
+      TrustingNullnessAnalysis analysis =
+          SerializableTester.reserialize(TrustingNullnessAnalysis.instance(state.context));
+      Nullness nullness = analysis.getFieldInitializerNullness(state.getPath(), state.context);
+      analysis.clear(state.getPath().getCompilationUnit());
+      return buildDescription(tree).setMessage("[" + nullness.name() + "]").build();
+    }
+  }
+
+  /**
+   * Reports how many field initializers the analysis has run dataflow on after it has been asked
+   * about each field.
+   */
+  @BugPattern(summary = "Reports analyzed field initializers", severity = ERROR)
+  public static final class AnalyzedFieldInitializers extends BugChecker
+      implements VariableTreeMatcher {
+    @Override
+    public Description matchVariable(VariableTree tree, VisitorState state) {
+      if (ASTHelpers.getSymbol(tree).getKind() != ElementKind.FIELD) {
+        return NO_MATCH;
+      }
+      TrustingNullnessAnalysis analysis = TrustingNullnessAnalysis.instance(state.context);
+      analysis.getFieldInitializerNullness(state.getPath(), state.context);
+      return buildDescription(tree)
+          .setMessage("analyzed=" + analysis.analyzedFieldInitializers())
+          .build();
+    }
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2024 The Error Prone Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.errorprone.refaster;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.errorprone.refaster.RefasterRuleIndex.TemplateKey;
+import com.sun.source.tree.Tree.Kind;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link RefasterRuleIndex}. */
+@RunWith(JUnit4.class)
+public class RefasterRuleIndexTest extends CompilerBasedTest {
+
+  private static UExpression invoke(UExpression receiver, String method) {
+    return UMethodInvocation.create(
+        UMemberSelect.create(receiver, method, UMethodType.create(UPrimitiveType.INT)));
+  }
+
+  private static ExpressionTemplate template(UExpression expression) {
+    return ExpressionTemplate.create(
+        ImmutableMap.of("s", UClassType.create("java.lang.String")),
+        expression,
+        UPrimitiveType.INT);
+  }
+
+  @Test
+  public void requiredIdentifiers_invocation() {
+    TemplateKey key =
+        RefasterRuleIndex.keyOf(template(invoke(invoke(UFreeIdent.create("s"), "trim"), "length")));
+
+    assertThat(key.requiredIdentifiers()).containsExactly("trim", "length");
+  }
+
+  @Test
+  public void requiredIdentifiers_staticIdent() {
+    TemplateKey key =
+        RefasterRuleIndex.keyOf(
+            template(
+                UBinary.create(
+                    Kind.PLUS,
+                    UStaticIdent.create("java.lang.Integer", "MAX_VALUE", UPrimitiveType.INT),
+                    UFreeIdent.create("s"))));
+
+    assertThat(key.requiredIdentifiers()).containsExactly("MAX_VALUE");
+  }
+
+  @Test
+  public void requiredIdentifiers_anyOf() {
+    TemplateKey key =
+        RefasterRuleIndex.keyOf(
+            template(
+                UAnyOf.create(
+                    invoke(invoke(UFreeIdent.create("s"), "trim"), "length"),
+                    invoke(invoke(UFreeIdent.create("s"), "strip"), "length"))));
+
+    assertThat(key.requiredIdentifiers()).containsExactly("length");
+  }
+
+  @Test
+  public void unmatchableTemplates() {
+    RefasterRuleIndex index =
+        RefasterRuleIndex.create(
+            ImmutableList.of(
+                ImmutableList.of(
+                    TemplateKey.expression().withRequiredIdentifiers(ImmutableSet.of("trim")),
+                    TemplateKey.expression()),
+                ImmutableList.of(
+                    TemplateKey.expression()
+                        .withRequiredIdentifiers(ImmutableSet.of("trim", "length")))));
+
+    assertThat(index.hasRequiredIdentifiers()).isTrue();
+    assertThat(index.unmatchableTemplates(ImmutableSet.of("trim")).stream().toArray())
+        .asList()
+        .containsExactly(2);
+    assertThat(index.unmatchableTemplates(ImmutableSet.of()).stream().toArray())
+        .asList()
+        .containsExactly(0, 2);
+  }
+
+  @Test
+  public void identifiersIn() {
+    compile(
+        "import java.util.function.Function;",
+        "class Test {",
+        "  int field;",
+        "  int foo(String s) {",
+        "    Function<String, String> f = String::trim;",
+        "    return s.length() + Integer.MAX_VALUE;",
+        "  }",
+        "}");
+
+    assertThat(RefasterRuleIndex.identifiersIn(compilationUnits.get(0)))
+        .containsAtLeast(
+            "java", "Function", "Test", "field", "foo", "s", "f", "trim", "length", "MAX_VALUE");
+  }
+}
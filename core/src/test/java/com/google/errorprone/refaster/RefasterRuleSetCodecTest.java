@@ -0,0 +1,227 @@
+/*
+ * Copyright 2024 The Error Prone Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.errorprone.refaster;
+
+import static com.google.common.collect.Iterables.getOnlyElement;
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableClassToInstanceMap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.testing.SerializableTester;
+import com.sun.source.tree.Tree.Kind;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link RefasterRuleSetCodec}. */
+@RunWith(JUnit4.class)
+public final class RefasterRuleSetCodecTest {
+
+  /** Returns a rule matching {@code s.method<i>()}. */
+  private static RefasterRule<?, ?> rule(int i) {
+    return RefasterRule.create(
+        "com.example.Rules.Rule" + i,
+        ImmutableList.of(
+            ExpressionTemplate.create(
+                ImmutableMap.of("s", UClassType.create("java.lang.String")),
+                UMethodInvocation.create(
+                    UMemberSelect.create(
+                        UFreeIdent.create("s"),
+                        "method" + i,
+                        UMethodType.create(UPrimitiveType.INT))),
+                UPrimitiveType.INT)),
+        ImmutableList.of());
+  }
+
+  private static ImmutableList<RefasterRule<?, ?>> rules(int count) {
+    ImmutableList.Builder<RefasterRule<?, ?>> rules = ImmutableList.builder();
+    for (int i = 0; i < count; i++) {
+      rules.add(rule(i));
+    }
+    return rules.build();
+  }
+
+  @Test
+  public void decode_decodesRulesOnDemand() throws IOException {
+    ImmutableList<RefasterRule<?, ?>> rules = rules(100);
+
+    RefasterRuleSet ruleSet = RefasterRuleSetCodec.decode(RefasterRuleSetCodec.encode(rules));
+
+    assertThat(ruleSet.size()).isEqualTo(100);
+    assertThat(ruleSet.templateClass(42)).isEqualTo("com.example.Rules.Rule42");
+    assertThat(ruleSet.decodedRuleCount()).isEqualTo(0);
+    assertThat(ruleSet.rule(42)).isEqualTo(rules.get(42));
+    assertThat(ruleSet.decodedRuleCount()).isEqualTo(1);
+    assertThat(ruleSet.rules()).isEqualTo(rules);
+  }
+
+  @Test
+  public void encode_internsClassesAndStrings() throws IOException {
+    ImmutableList<RefasterRule<?, ?>> rules = rules(100);
+    // Rules must be serialized independently of each other to be decoded independently.
+    int separatelySerialized = 0;
+    for (RefasterRule<?, ?> rule : rules) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+        out.writeObject(rule);
+      }
+      separatelySerialized += bytes.size();
+    }
+
+    assertThat(RefasterRuleSetCodec.encode(rules).length).isLessThan(separatelySerialized / 4);
+  }
+
+  @Test
+  public void serialization() {
+    RefasterRuleSet ruleSet = RefasterRuleSet.create(rules(3));
+
+    RefasterRuleSet reserialized = SerializableTester.reserialize(ruleSet);
+
+    assertThat(reserialized.decodedRuleCount()).isEqualTo(0);
+    assertThat(reserialized).isEqualTo(ruleSet);
+  }
+
+  @Test
+  public void decode_rejectsOtherVersions() {
+    byte[] encoded = RefasterRuleSetCodec.encode(rules(1));
+    encoded[7]++; // the low byte of the version, which follows the 4-byte magic number
+
+    InvalidObjectException e =
+        assertThrows(InvalidObjectException.class, () -> RefasterRuleSetCodec.decode(encoded));
+    assertThat(e).hasMessageThat().contains("format version 5");
+  }
+
+  @Test
+  public void decode_preservesTypeVariableCycles() throws IOException {
+    UTypeVar typeVar = UTypeVar.create("T");
+    typeVar.setUpperBound(UClassType.create("java.lang.Comparable", typeVar));
+    RefasterRule<?, ?> rule =
+        RefasterRule.create(
+            "com.example.Rules.Compare",
+            ImmutableList.of(typeVar),
+            rule(0).beforeTemplates(),
+            ImmutableList.of(),
+            ImmutableClassToInstanceMap.of());
+
+    RefasterRule<?, ?> decoded =
+        RefasterRuleSetCodec.decode(RefasterRuleSetCodec.encode(ImmutableList.of(rule))).rule(0);
+
+    UTypeVar decodedTypeVar = getOnlyElement(decoded.typeVariables());
+    assertThat(decodedTypeVar.getName()).isEqualTo("T");
+    UClassType upperBound = (UClassType) decodedTypeVar.getUpperBound();
+    assertThat(upperBound.fullyQualifiedClass().contents()).isEqualTo("java.lang.Comparable");
+    assertThat(getOnlyElement(upperBound.typeArguments())).isSameInstanceAs(decodedTypeVar);
+  }
+
+  @Test
+  public void decode_preservesAnnotations() throws IOException {
+    RunWith runWith = RefasterRuleSetCodecTest.class.getAnnotation(RunWith.class);
+    RefasterRule<?, ?> rule =
+        RefasterRule.create(
+            "com.example.Rules.Annotated",
+            ImmutableList.of(),
+            rule(0).beforeTemplates(),
+            ImmutableList.of(),
+            ImmutableClassToInstanceMap.of(RunWith.class, runWith));
+
+    RefasterRule<?, ?> decoded =
+        RefasterRuleSetCodec.decode(RefasterRuleSetCodec.encode(ImmutableList.of(rule))).rule(0);
+
+    RunWith decodedRunWith = decoded.annotations().getInstance(RunWith.class);
+    assertThat(decodedRunWith.value()).isEqualTo(JUnit4.class);
+    assertThat(decodedRunWith).isEqualTo(runWith);
+    assertThat(decodedRunWith.hashCode()).isEqualTo(runWith.hashCode());
+    assertThat(decoded).isEqualTo(rule);
+  }
+
+  @Test
+  public void localNodeType_acceptsUnchangedClass() throws IOException {
+    Class<?> type = UFreeIdent.create("s").getClass();
+    ImmutableList<String> components = RefasterRuleSetCodec.nodeType(type).components;
+
+    RefasterRuleSetCodec.NodeType local =
+        RefasterRuleSetCodec.localNodeType(type.getName(), components);
+
+    assertThat(local.type).isEqualTo(type);
+    assertThat(local.components).isEqualTo(components);
+  }
+
+  @Test
+  public void localNodeType_rejectsChangedComponents() {
+    Class<?> type = UFreeIdent.create("s").getClass();
+    List<String> components = new ArrayList<>(RefasterRuleSetCodec.nodeType(type).components);
+    components.add("removedField int");
+
+    InvalidObjectException e =
+        assertThrows(
+            InvalidObjectException.class,
+            () -> RefasterRuleSetCodec.localNodeType(type.getName(), components));
+    assertThat(e).hasMessageThat().contains("recompile the rules");
+  }
+
+  @Test
+  public void localNodeType_rejectsMissingClass() {
+    InvalidObjectException e =
+        assertThrows(
+            InvalidObjectException.class,
+            () ->
+                RefasterRuleSetCodec.localNodeType(
+                    "com.example.NoSuchClass", ImmutableList.of()));
+    assertThat(e).hasMessageThat().contains("no longer exists");
+  }
+
+  @Test
+  public void localNodeType_rejectsClassesThatAreNotNodes() {
+    InvalidObjectException e =
+        assertThrows(
+            InvalidObjectException.class,
+            () -> RefasterRuleSetCodec.localNodeType("java.lang.Object", ImmutableList.of()));
+    assertThat(e).hasMessageThat().contains("no longer a Refaster node");
+  }
+
+  @Test
+  public void encode_rejectsClassesThatAreNotNodes() {
+    RefasterRule<?, ?> rule =
+        RefasterRule.create(
+            "com.example.Rules.Unsupported",
+            ImmutableList.of(),
+            ImmutableList.of(
+                ExpressionTemplate.create(
+                    ULiteral.create(Kind.INT_LITERAL, new Object()), UPrimitiveType.INT)),
+            ImmutableList.of(),
+            ImmutableClassToInstanceMap.of());
+
+    assertThrows(
+        IllegalArgumentException.class, () -> RefasterRuleSetCodec.encode(ImmutableList.of(rule)));
+  }
+
+  @Test
+  public void decode_rejectsOtherFormats() {
+    byte[] encoded = RefasterRuleSetCodec.encode(rules(1));
+    encoded[0]++;
+
+    assertThrows(InvalidObjectException.class, () -> RefasterRuleSetCodec.decode(encoded));
+  }
+}
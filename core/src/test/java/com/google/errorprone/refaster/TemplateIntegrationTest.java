@@ -25,12 +25,15 @@ import static org.junit.Assert.assertThrows;
 import com.google.common.base.CharMatcher;
 import com.google.common.base.Function;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.testing.SerializableTester;
 import com.google.errorprone.CodeTransformer;
 import com.sun.source.tree.ClassTree;
 import com.sun.source.tree.CompilationUnitTree;
 import com.sun.source.tree.Tree;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import javax.tools.JavaFileObject;
 import org.junit.Ignore;
@@ -88,6 +91,30 @@ public class TemplateIntegrationTest extends CompilerBasedTest {
     expectTransforms(transformer, input, output);
   }
 
+  @Test
+  public void ruleSet() throws IOException {
+    ImmutableList<String> testNames =
+        ImmutableList.of("BinaryTemplate", "MethodInvocationTemplate");
+    List<CodeTransformer> rules = new ArrayList<>();
+    for (String testName : testNames) {
+      rules.add(
+          extractRefasterRule(forResource(String.format("%s/%s.java", TEMPLATE_DIR, testName))));
+    }
+    // Round-trip through serialization, as when the rules are loaded from an .analyzer file.
+    RefasterRuleSet ruleSet =
+        (RefasterRuleSet) SerializableTester.reserialize(RefasterRuleSet.compose(rules));
+    assertThat(ruleSet.decodedRuleCount()).isEqualTo(0);
+    for (int i = 0; i < testNames.size(); i++) {
+      String testName = testNames.get(i);
+      expectTransforms(
+          ruleSet,
+          forResource(String.format("%s/%sExample.java", INPUT_DIR, testName)),
+          forResource(String.format("%s/%sExample.java", OUTPUT_DIR, testName)));
+      // Only the rules whose templates could match something in the examples are decoded.
+      assertThat(ruleSet.decodedRuleCount()).isEqualTo(i + 1);
+    }
+  }
+
   @Test
   public void keyBindingError() {
     IllegalArgumentException failure =
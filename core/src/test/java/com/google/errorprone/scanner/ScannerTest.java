@@ -16,6 +16,7 @@
 
 package com.google.errorprone.scanner;
 
+import static com.google.common.truth.Truth.assertThat;
 import static com.google.errorprone.BugPattern.SeverityLevel.ERROR;
 import static com.google.errorprone.matchers.Description.NO_MATCH;
 import static com.google.errorprone.util.ASTHelpers.getSymbol;
@@ -26,8 +27,16 @@ import com.google.errorprone.CompilationTestHelper;
 import com.google.errorprone.VisitorState;
 import com.google.errorprone.bugpatterns.BugChecker;
 import com.google.errorprone.bugpatterns.BugChecker.IdentifierTreeMatcher;
+import com.google.errorprone.bugpatterns.BugChecker.LiteralTreeMatcher;
+import com.google.errorprone.bugpatterns.BugChecker.MethodInvocationTreeMatcher;
 import com.google.errorprone.matchers.Description;
+import com.sun.source.tree.AnnotationTree;
 import com.sun.source.tree.IdentifierTree;
+import com.sun.source.tree.LiteralTree;
+import com.sun.source.tree.MemberSelectTree;
+import com.sun.source.tree.MethodInvocationTree;
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -124,6 +133,149 @@ public class ScannerTest {
         .doTest();
   }
 
+  @Test
+  public void suppressionScopedToAnnotatedDeclaration() {
+    compilationHelper
+        .addSourceLines(
+            "Test.java",
+            "import com.google.errorprone.scanner.ScannerTest.Foo;",
+            "import com.google.errorprone.scanner.ScannerTest.OkToUseFoo;",
+            "class Test {",
+            "  @OkToUseFoo",
+            "  void a(Foo foo) {}",
+            "  // BUG: Diagnostic contains: ShouldNotUseFoo",
+            "  void b(Foo foo) {}",
+            "  @OkToUseFoo",
+            "  void c(Foo foo) {}",
+            "  // BUG: Diagnostic contains: ShouldNotUseFoo",
+            "  void d(Foo foo) {}",
+            "}")
+        .doTest();
+  }
+
+  @Test
+  public void matchesEveryKindOfTreeForInterface() {
+    CompilationTestHelper.newInstance(LiteralKinds.class, getClass())
+        .addSourceLines(
+            "Test.java",
+            "class Test {",
+            "  // BUG: Diagnostic contains: INT_LITERAL",
+            "  int i = 1;",
+            "  // BUG: Diagnostic contains: LONG_LITERAL",
+            "  long l = 1L;",
+            "  // BUG: Diagnostic contains: STRING_LITERAL",
+            "  String s = \"\";",
+            "  // BUG: Diagnostic contains: NULL_LITERAL",
+            "  Object o = null;",
+            "}")
+        .doTest();
+  }
+
+  @Test
+  public void matchesInsideAnnotationsAndTypes() {
+    CompilationTestHelper.newInstance(LiteralKinds.class, getClass())
+        .addSourceLines(
+            "Test.java",
+            "import java.lang.annotation.ElementType;",
+            "import java.lang.annotation.Target;",
+            "import java.util.List;",
+            "class Test {",
+            "  @Target(ElementType.TYPE_USE)",
+            "  @interface A {",
+            "    int value();",
+            "  }",
+            "  // BUG: Diagnostic contains: STRING_LITERAL",
+            "  @SuppressWarnings(\"foo\")",
+            "  // BUG: Diagnostic contains: INT_LITERAL",
+            "  List<@A(1) String> xs;",
+            "}")
+        .doTest();
+  }
+
+  @Test
+  public void skipsSubtreesNoCheckCanMatch() {
+    VisitRecordingScanner scanner = new VisitRecordingScanner(new ReportsPrintln());
+    CompilationTestHelper.newInstance(ScannerSupplier.fromScanner(scanner), getClass())
+        .addSourceLines(
+            "Test.java",
+            "import java.util.List;",
+            "class Test {",
+            "  @SuppressWarnings(\"unused\")",
+            "  void f(List<java.lang.String> xs) {",
+            "    // BUG: Diagnostic contains: ReportsPrintln",
+            "    System.out.println(xs);",
+            "  }",
+            "}")
+        .doTest();
+
+    // The import, the annotation and the parameter's type can't contain method invocations.
+    assertThat(scanner.visited).containsExactly("System.out.println", "System.out").inOrder();
+  }
+
+  @Test
+  public void scansSubtreesSomeCheckCanMatch() {
+    VisitRecordingScanner scanner =
+        new VisitRecordingScanner(new ReportsPrintln(), new ShouldNotUseFoo());
+    CompilationTestHelper.newInstance(ScannerSupplier.fromScanner(scanner), getClass())
+        .addSourceLines(
+            "Test.java",
+            "import java.util.List;",
+            "class Test {",
+            "  @SuppressWarnings(\"unused\")",
+            "  void f(List<java.lang.String> xs) {",
+            "    // BUG: Diagnostic contains: ReportsPrintln",
+            "    System.out.println(xs);",
+            "  }",
+            "}")
+        .doTest();
+
+    assertThat(scanner.visited)
+        .containsExactly(
+            "java.util.List",
+            "java.util",
+            "@SuppressWarnings",
+            "java.lang.String",
+            "java.lang",
+            "System.out.println",
+            "System.out")
+        .inOrder();
+  }
+
+  @Test
+  public void suppressionAppliesAcrossSkippedModifiers() {
+    VisitRecordingScanner scanner = new VisitRecordingScanner(new ReportsPrintln());
+    CompilationTestHelper.newInstance(ScannerSupplier.fromScanner(scanner), getClass())
+        .addSourceLines(
+            "Test.java",
+            "class Test {",
+            "  @SuppressWarnings(\"ReportsPrintln\")",
+            "  void f() {",
+            "    System.out.println();",
+            "  }",
+            "  void g() {",
+            "    // BUG: Diagnostic contains: ReportsPrintln",
+            "    System.out.println();",
+            "  }",
+            "  @java.lang.SuppressWarnings(\"ReportsPrintln\")",
+            "  class Inner {",
+            "    void h() {",
+            "      System.out.println();",
+            "    }",
+            "  }",
+            "}")
+        .doTest();
+
+    // The bodies were scanned, but not the modifiers holding the suppressions.
+    assertThat(scanner.visited)
+        .containsExactly(
+            "System.out.println",
+            "System.out",
+            "System.out.println",
+            "System.out",
+            "System.out.println",
+            "System.out");
+  }
+
   @OkToUseFoo // Foo can use itself. But this shouldn't suppress errors on *usages* of Foo.
   public static final class Foo<T> {}
 
@@ -141,4 +293,43 @@ public class ScannerTest {
           : NO_MATCH;
     }
   }
+
+  @BugPattern(summary = "Reports calls to println.", severity = ERROR)
+  public static class ReportsPrintln extends BugChecker implements MethodInvocationTreeMatcher {
+    @Override
+    public Description matchMethodInvocation(MethodInvocationTree tree, VisitorState state) {
+      return getSymbol(tree).getSimpleName().contentEquals("println")
+          ? describeMatch(tree)
+          : NO_MATCH;
+    }
+  }
+
+  /** Records the annotations and member selects it visits, in order. */
+  private static final class VisitRecordingScanner extends ErrorProneScanner {
+    final List<String> visited = new ArrayList<>();
+
+    VisitRecordingScanner(BugChecker... checkers) {
+      super(checkers);
+    }
+
+    @Override
+    public Void visitAnnotation(AnnotationTree tree, VisitorState state) {
+      visited.add("@" + tree.getAnnotationType());
+      return super.visitAnnotation(tree, state);
+    }
+
+    @Override
+    public Void visitMemberSelect(MemberSelectTree tree, VisitorState state) {
+      visited.add(tree.toString());
+      return super.visitMemberSelect(tree, state);
+    }
+  }
+
+  @BugPattern(summary = "Reports the kind of each literal.", severity = ERROR)
+  public static class LiteralKinds extends BugChecker implements LiteralTreeMatcher {
+    @Override
+    public Description matchLiteral(LiteralTree tree, VisitorState state) {
+      return buildDescription(tree).setMessage(tree.getKind().name()).build();
+    }
+  }
 }
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2024 The Error Prone Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.errorprone.util;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.errorprone.BugPattern.SeverityLevel.ERROR;
+import static com.google.errorprone.matchers.Description.NO_MATCH;
+
+import com.google.common.collect.ImmutableList;
+import com.google.errorprone.BugPattern;
+import com.google.errorprone.CompilationTestHelper;
+import com.google.errorprone.VisitorState;
+import com.google.errorprone.bugpatterns.BugChecker;
+import com.google.errorprone.bugpatterns.BugChecker.ClassTreeMatcher;
+import com.google.errorprone.bugpatterns.BugChecker.MethodTreeMatcher;
+import com.google.errorprone.matchers.Description;
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.tree.Tree;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link AnnotationHandle}. */
+@RunWith(JUnit4.class)
+public class AnnotationHandleTest {
+
+  private final CompilationTestHelper compilationHelper =
+      CompilationTestHelper.newInstance(Annotations.class, getClass())
+          .addSourceLines(
+              "A.java",
+              "package p;",
+              "import java.lang.annotation.Inherited;",
+              "@Inherited",
+              "public @interface A {",
+              "  @interface Nested {}",
+              "}")
+          .addSourceLines("B.java", "package p;", "public @interface B {}");
+
+  @Test
+  public void matchesHasAnnotation() {
+    compilationHelper
+        .addSourceLines(
+            "Test.java",
+            "import p.A;",
+            "import p.B;",
+            "class Test {",
+            "  // BUG: Diagnostic contains: [@p.A, @p.B]",
+            "  @A @B static class Super {",
+            "    // BUG: Diagnostic contains: [@p.A.Nested, @java.lang.Deprecated]",
+            "    @A.Nested @Deprecated void f() {}",
+            "  }",
+            "  // BUG: Diagnostic contains: [@p.A]",
+            "  static class Sub extends Super {",
+            "    // BUG: Diagnostic contains: []",
+            "    @Override void f() {}",
+            "  }",
+            "}")
+        .doTest();
+  }
+
+  @Test
+  public void of_returnsSameHandle() {
+    assertThat(AnnotationHandle.of("p.A$Nested"))
+        .isSameInstanceAs(AnnotationHandle.of("p.A.Nested"));
+  }
+
+  /**
+   * Reports the annotations that are present on classes and methods, checking that handles agree
+   * with {@link ASTHelpers#hasAnnotation(com.sun.tools.javac.code.Symbol, String, VisitorState)}.
+   */
+  @BugPattern(summary = "Reports annotations", severity = ERROR)
+  public static final class Annotations extends BugChecker
+      implements ClassTreeMatcher, MethodTreeMatcher {
+
+    private static final ImmutableList<String> NAMES =
+        ImmutableList.of("p.A", "p.A$Nested", "p.B", "java.lang.Deprecated", "p.Missing");
+
+    @Override
+    public Description matchClass(ClassTree tree, VisitorState state) {
+      return describe(tree, state);
+    }
+
+    @Override
+    public Description matchMethod(MethodTree tree, VisitorState state) {
+      return describe(tree, state);
+    }
+
+    private Description describe(Tree tree, VisitorState state) {
+      if (tree.getKind() == Tree.Kind.ANNOTATION_TYPE
+          || (tree instanceof ClassTree
+              && ((ClassTree) tree).getSimpleName().contentEquals("Test"))) {
+        return NO_MATCH;
+      }
+      if (tree instanceof MethodTree && ASTHelpers.isGeneratedConstructor((MethodTree) tree)) {
+        return NO_MATCH;
+      }
+      List<AnnotationHandle> present = new ArrayList<>();
+      for (String name : NAMES) {
+        AnnotationHandle handle = AnnotationHandle.of(name);
+        boolean isPresent = handle.isPresent(tree, state);
+        assertThat(isPresent).isEqualTo(ASTHelpers.hasAnnotation(tree, name, state));
+        if (isPresent) {
+          present.add(handle);
+        }
+      }
+      return buildDescription(tree).setMessage(present.toString()).build();
+    }
+  }
+}
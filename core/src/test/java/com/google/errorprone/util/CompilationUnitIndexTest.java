@@ -0,0 +1,134 @@
+/*
+ * Copyright 2024 The Error Prone Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.errorprone.util;
+
+import static com.google.errorprone.BugPattern.SeverityLevel.ERROR;
+
+import com.google.errorprone.BugPattern;
+import com.google.errorprone.CompilationTestHelper;
+import com.google.errorprone.VisitorState;
+import com.google.errorprone.bugpatterns.BugChecker;
+import com.google.errorprone.bugpatterns.BugChecker.MethodTreeMatcher;
+import com.google.errorprone.bugpatterns.BugChecker.VariableTreeMatcher;
+import com.google.errorprone.matchers.Description;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.tree.Tree.Kind;
+import com.sun.source.tree.VariableTree;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.Symbol.MethodSymbol;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link CompilationUnitIndex}. */
+@RunWith(JUnit4.class)
+public class CompilationUnitIndexTest {
+
+  private final CompilationTestHelper compilationHelper =
+      CompilationTestHelper.newInstance(VariableUsage.class, getClass());
+
+  @Test
+  public void readsAndWrites() {
+    compilationHelper
+        .addSourceLines(
+            "Test.java",
+            "class Test {",
+            "  // BUG: Diagnostic contains: reads=2 writes=2 declared=true methods=2",
+            "  static int x = 0;",
+            "  // BUG: Diagnostic contains: reads=3 writes=3 declared=true methods=2",
+            "  int y;",
+            "  void f() {",
+            "    x = 1;",
+            "    Test.x++;",
+            "    this.y += x;",
+            "    --y;",
+            "    y = y;",
+            "  }",
+            "}")
+        .doTest();
+  }
+
+  @Test
+  public void locals() {
+    compilationHelper
+        .addSourceLines(
+            "Test.java",
+            "class Test {",
+            "  void f(",
+            "      // BUG: Diagnostic contains: reads=1 writes=0 declared=true methods=2",
+            "      int p) {",
+            "    // BUG: Diagnostic contains: reads=0 writes=1 declared=true methods=2",
+            "    int unused;",
+            "    unused = p;",
+            "  }",
+            "}")
+        .doTest();
+  }
+
+  @Test
+  public void constructorReferences() {
+    CompilationTestHelper.newInstance(ConstructorReferences.class, getClass())
+        .addSourceLines(
+            "Test.java",
+            "class Test {",
+            "  // BUG: Diagnostic contains: references=2",
+            "  Test() {}",
+            "  // BUG: Diagnostic contains: references=0",
+            "  Test(int x) {",
+            "    this();",
+            "  }",
+            "  Object o = new Test();",
+            "}")
+        .doTest();
+  }
+
+  /** Reports how each variable is used, according to the {@link CompilationUnitIndex}. */
+  @BugPattern(summary = "Reports variable usage", severity = ERROR)
+  public static final class VariableUsage extends BugChecker implements VariableTreeMatcher {
+    @Override
+    public Description matchVariable(VariableTree tree, VisitorState state) {
+      CompilationUnitIndex index = state.getCompilationUnitIndex();
+      Symbol symbol = ASTHelpers.getSymbol(tree);
+      return buildDescription(tree)
+          .setMessage(
+              String.format(
+                  "reads=%d writes=%d declared=%s methods=%d",
+                  index.reads(symbol).size(),
+                  index.writes(symbol).size(),
+                  index.declaration(symbol).map(p -> p.getLeaf() == tree).orElse(false),
+                  index.nodes(Kind.METHOD).size()))
+          .build();
+    }
+  }
+
+  /** Reports the number of references to each constructor. */
+  @BugPattern(summary = "Reports constructor references", severity = ERROR)
+  public static final class ConstructorReferences extends BugChecker implements MethodTreeMatcher {
+    @Override
+    public Description matchMethod(MethodTree tree, VisitorState state) {
+      MethodSymbol symbol = ASTHelpers.getSymbol(tree);
+      if (!symbol.isConstructor()) {
+        return Description.NO_MATCH;
+      }
+      return buildDescription(tree)
+          .setMessage(
+              String.format(
+                  "references=%d", state.getCompilationUnitIndex().references(symbol).size()))
+          .build();
+    }
+  }
+}